@@ -0,0 +1,87 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import tiled.core.Map;
+import tiled.io.xml.XMLMapTransformer;
+import tiled.io.xml.XMLMapWriter;
+
+/**
+ * Measures loading and saving the example maps that come with Tiled.
+ * <p>
+ * The examples are looked for in the directory named by the
+ * <code>tiled.examples</code> system property, which the <code>run</code>
+ * target of the build sets, or in <code>examples</code> otherwise. They are
+ * saved with each way of storing the layer data to a temporary directory.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ExampleMapIOBenchmark
+{
+    @Param({
+        "desert.tmx", "hexmap.tmx", "iso-test.tmx", "iso-test2.tmx",
+        "iso-test3.tmx", "iso-test4.tmx", "snowy_trees.tmx",
+        "tilebmp-test.tmx", "tilespacing-test.tmx"
+    })
+    public String example;
+
+    @Param({"XML", "BASE64", "GZIP"})
+    public TestMaps.Encoding encoding;
+
+    private File dir;
+    private String readFile;
+    private String writeFile;
+    private Map map;
+    private XMLMapWriter writer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File examples = new File(System.getProperty("tiled.examples",
+                                                    "examples"));
+        readFile = new File(examples, example).getAbsolutePath();
+        map = new XMLMapTransformer().readMap(readFile);
+
+        writer = new XMLMapWriter();
+        writer.setPreferences(encoding.getPreferences());
+
+        dir = TestMaps.createTempDir();
+        writeFile = new File(dir, example).getPath();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        TestMaps.delete(dir);
+    }
+
+    @Benchmark
+    public Map read() throws Exception {
+        return new XMLMapTransformer().readMap(readFile);
+    }
+
+    @Benchmark
+    public void write() throws Exception {
+        TestMaps.markDirty(map);
+        writer.writeMap(map, writeFile);
+    }
+}
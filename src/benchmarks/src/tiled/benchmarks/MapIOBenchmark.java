@@ -0,0 +1,86 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import tiled.core.Map;
+import tiled.io.xml.XMLMapTransformer;
+import tiled.io.xml.XMLMapWriter;
+
+/**
+ * Measures loading and saving generated maps in the TMX format, for each
+ * way of storing the layer data, several map sizes and tileset counts.
+ * <p>
+ * The maps are saved to and loaded from a temporary directory, which also
+ * holds the tileset images. Run with <code>-prof gc</code> to see the
+ * allocation rate next to the throughput.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class MapIOBenchmark
+{
+    @Param({"XML", "BASE64", "GZIP"})
+    public TestMaps.Encoding encoding;
+
+    /** The width and height of the map in tiles. */
+    @Param({"64", "256", "1024"})
+    public int size;
+
+    @Param({"1", "4"})
+    public int tilesets;
+
+    private File dir;
+    private Map map;
+    private XMLMapWriter writer;
+    private String readFile;
+    private String writeFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = TestMaps.createTempDir();
+        map = TestMaps.createMap(dir, size, tilesets);
+
+        writer = new XMLMapWriter();
+        writer.setPreferences(encoding.getPreferences());
+
+        readFile = new File(dir, "read.tmx").getPath();
+        writeFile = new File(dir, "write.tmx").getPath();
+        writer.writeMap(map, readFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        TestMaps.delete(dir);
+    }
+
+    @Benchmark
+    public Map read() throws Exception {
+        return new XMLMapTransformer().readMap(readFile);
+    }
+
+    @Benchmark
+    public void write() throws Exception {
+        TestMaps.markDirty(map);
+        writer.writeMap(map, writeFile);
+    }
+}
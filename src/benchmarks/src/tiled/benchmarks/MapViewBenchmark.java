@@ -0,0 +1,123 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.benchmarks;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import tiled.core.Map;
+import tiled.core.Tile;
+import tiled.view.MapView;
+
+/**
+ * Measures painting the layers of a generated map into an offscreen image,
+ * for each orientation and several zoom levels, and scaling tile images.
+ * <p>
+ * A screen sized area in the middle of the map is painted, the way the
+ * layers are painted when a view is scrolled or repainted. Nothing is shown
+ * on screen, so the benchmarks run headless.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MapViewBenchmark
+{
+    private static final int SCREEN_WIDTH = 1280;
+    private static final int SCREEN_HEIGHT = 1024;
+
+    @Param({"ORTHO", "ISO", "HEX"})
+    public String orientation;
+
+    @Param({"0.5", "1.0", "2.0"})
+    public double zoom;
+
+    private Map map;
+    private MapView view;
+    private BufferedImage image;
+    private int offsetX, offsetY;
+    private Tile tile;
+    private double otherZoom;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File dir = TestMaps.createTempDir();
+        try {
+            map = TestMaps.createMap(dir, 256, 4);
+        } finally {
+            TestMaps.delete(dir);
+        }
+
+        if ("ISO".equals(orientation)) {
+            map.setOrientation(Map.MDO_ISO);
+        } else if ("HEX".equals(orientation)) {
+            map.setOrientation(Map.MDO_HEX);
+        } else {
+            map.setOrientation(Map.MDO_ORTHO);
+        }
+
+        view = MapView.createViewforMap(map);
+        view.setZoom(zoom);
+
+        Dimension size = view.getPreferredSize();
+        offsetX = Math.max(0, (size.width - SCREEN_WIDTH) / 2);
+        offsetY = Math.max(0, (size.height - SCREEN_HEIGHT) / 2);
+        image = new BufferedImage(SCREEN_WIDTH, SCREEN_HEIGHT,
+                                  BufferedImage.TYPE_INT_ARGB);
+
+        tile = map.getTilesets().get(0).getFirstTile();
+        otherZoom = zoom * 1.5;
+    }
+
+    @Benchmark
+    public BufferedImage paint() {
+        Graphics2D g = image.createGraphics();
+        try {
+            g.translate(-offsetX, -offsetY);
+            g.clipRect(offsetX, offsetY, SCREEN_WIDTH, SCREEN_HEIGHT);
+            view.paintSubMap(map, g, 1.0f);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Asks for the scaled image of a tile at the same zoom level each time,
+     * which is answered from the image the tile caches.
+     */
+    @Benchmark
+    public Object scaledImage() {
+        return tile.getScaledImage(zoom);
+    }
+
+    /**
+     * Asks for the scaled image of a tile at two zoom levels in turn, so
+     * that the image is scaled again each time.
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public Object rescaledImage() {
+        tile.getScaledImage(otherZoom);
+        return tile.getScaledImage(zoom);
+    }
+}
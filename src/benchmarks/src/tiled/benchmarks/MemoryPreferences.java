@@ -0,0 +1,77 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.benchmarks;
+
+import java.util.HashMap;
+import java.util.prefs.AbstractPreferences;
+
+/**
+ * Preferences that are only kept in memory, so that the benchmarks can
+ * configure the map writer without touching the preferences of the user.
+ *
+ * @version $Id$
+ */
+class MemoryPreferences extends AbstractPreferences
+{
+    private final HashMap<String, String> values =
+        new HashMap<String, String>();
+    private final HashMap<String, MemoryPreferences> children =
+        new HashMap<String, MemoryPreferences>();
+
+    MemoryPreferences() {
+        this(null, "");
+    }
+
+    private MemoryPreferences(MemoryPreferences parent, String name) {
+        super(parent, name);
+    }
+
+    protected void putSpi(String key, String value) {
+        values.put(key, value);
+    }
+
+    protected String getSpi(String key) {
+        return values.get(key);
+    }
+
+    protected void removeSpi(String key) {
+        values.remove(key);
+    }
+
+    protected void removeNodeSpi() {
+        children.clear();
+    }
+
+    protected String[] keysSpi() {
+        return values.keySet().toArray(new String[values.size()]);
+    }
+
+    protected String[] childrenNamesSpi() {
+        return children.keySet().toArray(new String[children.size()]);
+    }
+
+    protected AbstractPreferences childSpi(String name) {
+        MemoryPreferences child = children.get(name);
+        if (child == null) {
+            child = new MemoryPreferences(this, name);
+            children.put(name, child);
+        }
+        return child;
+    }
+
+    protected void syncSpi() {
+    }
+
+    protected void flushSpi() {
+    }
+}
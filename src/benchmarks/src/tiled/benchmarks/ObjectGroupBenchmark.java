@@ -0,0 +1,81 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.benchmarks;
+
+import java.awt.Rectangle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import tiled.core.MapObject;
+import tiled.core.ObjectGroup;
+
+/**
+ * Measures finding the objects of an object group within a rectangle, as
+ * done when selecting objects with the mouse.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ObjectGroupBenchmark
+{
+    /** The width and height of the area the objects are spread over. */
+    private static final int AREA_SIZE = 8192;
+
+    @Param({"100", "1000", "10000"})
+    public int objects;
+
+    private ObjectGroup group;
+    private Rectangle[] rects;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(objects);
+        group = new ObjectGroup(new Rectangle(0, 0, 256, 256));
+        for (int i = 0; i < objects; i++) {
+            group.addObject(new MapObject(
+                    random.nextInt(AREA_SIZE), random.nextInt(AREA_SIZE),
+                    16 + random.nextInt(112), 16 + random.nextInt(112)));
+        }
+
+        // Search a different part of the group each time
+        rects = new Rectangle[64];
+        for (int i = 0; i < rects.length; i++) {
+            rects[i] = new Rectangle(
+                    random.nextInt(AREA_SIZE), random.nextInt(AREA_SIZE),
+                    512, 512);
+        }
+    }
+
+    private Rectangle nextRect() {
+        next = (next + 1) % rects.length;
+        return rects[next];
+    }
+
+    @Benchmark
+    public MapObject[] findObjects() {
+        return group.findObjects(nextRect());
+    }
+
+    @Benchmark
+    public MapObject[] findObjectsByOutline() {
+        return group.findObjectsByOutline(nextRect());
+    }
+}
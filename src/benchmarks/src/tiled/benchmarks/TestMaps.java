@@ -0,0 +1,180 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.benchmarks;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.prefs.Preferences;
+
+import javax.imageio.ImageIO;
+
+import tiled.core.*;
+import tiled.mapeditor.util.cutter.BasicTileCutter;
+
+/**
+ * Creates the maps used by the benchmarks, and the files they are saved to.
+ *
+ * @version $Id$
+ */
+final class TestMaps
+{
+    static final int TILE_SIZE = 32;
+
+    /** The number of tiles in a row or column of a tileset image. */
+    private static final int TILESET_SIZE = 8;
+
+    /** The fraction of the cells in a generated layer that are empty. */
+    private static final double EMPTY_CELLS = 0.1;
+
+    private TestMaps() {
+    }
+
+    /**
+     * The ways the writer can store layer data.
+     */
+    enum Encoding
+    {
+        /** A tile element per cell. */
+        XML(false, false),
+        /** The gids of the cells, encoded in base64. */
+        BASE64(true, false),
+        /** The gids of the cells, compressed and encoded in base64. */
+        GZIP(true, true);
+
+        private final boolean encoded;
+        private final boolean compressed;
+
+        Encoding(boolean encoded, boolean compressed) {
+            this.encoded = encoded;
+            this.compressed = compressed;
+        }
+
+        /**
+         * Returns the writer preferences for this encoding.
+         */
+        Preferences getPreferences() {
+            Preferences prefs = new MemoryPreferences();
+            prefs.putBoolean("encodeLayerData", encoded);
+            prefs.putBoolean("layerCompression", compressed);
+            return prefs;
+        }
+    }
+
+    /**
+     * Creates a map of the given size, with two tile layers filled with
+     * tiles picked at random from the given number of tilesets. The tileset
+     * images are saved into the given directory.
+     */
+    static Map createMap(File dir, int size, int tilesets)
+        throws IOException
+    {
+        Map map = new Map(size, size);
+        map.setTileWidth(TILE_SIZE);
+        map.setTileHeight(TILE_SIZE);
+
+        // Use the same seed every time, so that runs can be compared
+        Random random = new Random(size * 31 + tilesets);
+        Tile[] tiles = new Tile[tilesets * TILESET_SIZE * TILESET_SIZE];
+        int count = 0;
+
+        for (int i = 0; i < tilesets; i++) {
+            File image = new File(dir, "tileset" + i + ".png");
+            ImageIO.write(createTilesetImage(random), "png", image);
+
+            TileSet set = new TileSet();
+            set.setName("Tileset " + i);
+            set.importTileBitmap(image.getPath(),
+                    new BasicTileCutter(TILE_SIZE, TILE_SIZE, 0, 0));
+            map.addTileset(set);
+
+            Iterator<?> itr = set.iterator();
+            while (itr.hasNext()) {
+                tiles[count++] = (Tile) itr.next();
+            }
+        }
+
+        for (int l = 0; l < 2; l++) {
+            TileLayer layer = new TileLayer(map, size, size);
+            layer.setName("Layer " + l);
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    if (random.nextDouble() >= EMPTY_CELLS) {
+                        layer.setTileAt(x, y, tiles[random.nextInt(count)]);
+                    }
+                }
+            }
+            map.addLayer(layer);
+        }
+
+        return map;
+    }
+
+    private static BufferedImage createTilesetImage(Random random) {
+        final int size = TILESET_SIZE * TILE_SIZE;
+        BufferedImage image =
+            new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        for (int y = 0; y < size; y += TILE_SIZE) {
+            for (int x = 0; x < size; x += TILE_SIZE) {
+                g.setColor(new Color(random.nextInt(0x1000000)));
+                g.fillRect(x, y, TILE_SIZE, TILE_SIZE);
+            }
+        }
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Marks the layers and tilesets of the map as changed, so that the
+     * writer encodes them again rather than reusing the data it cached
+     * during a previous save.
+     */
+    static void markDirty(Map map) {
+        Iterator<MapLayer> layers = map.getLayers();
+        while (layers.hasNext()) {
+            layers.next().markModified();
+        }
+        for (TileSet set : map.getTilesets()) {
+            set.markModified();
+        }
+    }
+
+    /**
+     * Creates an empty temporary directory.
+     */
+    static File createTempDir() throws IOException {
+        File dir = File.createTempFile("tiled-benchmark", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Deletes the given directory and the files in it.
+     */
+    static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
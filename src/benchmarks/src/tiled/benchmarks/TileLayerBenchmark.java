@@ -0,0 +1,119 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.benchmarks;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import tiled.core.*;
+
+/**
+ * Measures the operations on whole tile layers that the editor performs
+ * when copying, pasting, undoing, rotating and filling.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class TileLayerBenchmark
+{
+    /** The width and height of the layers in tiles. */
+    @Param({"256", "1024"})
+    public int size;
+
+    private TileLayer layer;
+    private TileLayer changed;
+    private TileLayer target;
+    private TileLayer maze;
+    private Tile fillTile;
+    private Tile otherFillTile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Map map;
+        File dir = TestMaps.createTempDir();
+        try {
+            map = TestMaps.createMap(dir, size, 1);
+        } finally {
+            TestMaps.delete(dir);
+        }
+        layer = (TileLayer) map.getLayer(0);
+        target = new TileLayer(size, size, TestMaps.TILE_SIZE,
+                               TestMaps.TILE_SIZE);
+
+        // A copy with about one in a hundred tiles changed, as after an edit
+        changed = (TileLayer) layer.clone();
+        Random random = new Random(size);
+        Tile other = ((TileLayer) map.getLayer(1)).getTileAt(0, 0);
+        for (int i = size * size / 100; i > 0; i--) {
+            changed.setTileAt(random.nextInt(size), random.nextInt(size),
+                              other);
+        }
+
+        // A layer where the fill has to wind through passages between walls
+        TileSet set = map.getTilesets().get(0);
+        Tile wall = set.getTile(0);
+        fillTile = set.getTile(1);
+        otherFillTile = set.getTile(2);
+        maze = new TileLayer(size, size, TestMaps.TILE_SIZE,
+                             TestMaps.TILE_SIZE);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                boolean isWall = x % 4 == 3 && y % 32 != (x % 8 == 3 ? 0 : 31);
+                maze.setTileAt(x, y, isWall ? wall : fillTile);
+            }
+        }
+    }
+
+    @Benchmark
+    public TileLayer copyFrom() {
+        target.copyFrom(layer);
+        return target;
+    }
+
+    @Benchmark
+    public TileLayer mergeOnto() {
+        layer.mergeOnto(target);
+        return target;
+    }
+
+    @Benchmark
+    public MapLayer createDiff() {
+        return layer.createDiff(changed);
+    }
+
+    @Benchmark
+    public TileLayer rotate() {
+        layer.rotate(MapLayer.ROTATE_90);
+        return layer;
+    }
+
+    /**
+     * Fills the passages of the maze, switching between two tiles so that
+     * each fill covers the same area.
+     */
+    @Benchmark
+    public Rectangle floodFill() {
+        Tile tile = maze.getTileAt(0, 0) == fillTile
+            ? otherFillTile : fillTile;
+        return maze.floodFill(0, 0, tile);
+    }
+}
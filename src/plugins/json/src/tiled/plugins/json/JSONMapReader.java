@@ -0,0 +1,758 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.plugins.json;
+
+import java.awt.Color;
+import java.awt.Image;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.LinkedList;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import javax.imageio.ImageIO;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import tiled.core.*;
+import tiled.io.ImageHelper;
+import tiled.io.FormatSniffer;
+import tiled.io.PluginLogger;
+import tiled.io.SniffingMapReader;
+import tiled.io.xml.XMLMapTransformer;
+import tiled.mapeditor.util.cutter.BasicTileCutter;
+import tiled.util.Base64;
+
+/**
+ * Reads maps written by the {@link JSONMapWriter}, i.e. TMX documents
+ * converted to JSON.
+ *
+ * The document is read with a {@link JSONPullParser}. Everything except the
+ * layer data is small and is read into {@link JSONObject} trees, but the
+ * layer data is decoded straight from the stream into an array of global
+ * tile ids, so no <code>JSONArray</code> of boxed values is created for
+ * every cell. Since JSON objects are unordered, the tile ids are only
+ * resolved to tiles once the whole map element, and thus every tileset, has
+ * been read.
+ *
+ * @version $Id$
+ */
+public class JSONMapReader implements SniffingMapReader
+{
+    private Map map;
+    private String jsonPath;
+    private PluginLogger logger;
+
+    public JSONMapReader() {
+        logger = new PluginLogger();
+    }
+
+    /**
+     * Holds the contents of a layer element until the tilesets are known.
+     */
+    private static class LayerData
+    {
+        final JSONObject attributes = new JSONObject();
+        Object properties;
+        Object tileProperties;
+        int[] gids = new int[0];
+        int gidCount;
+
+        void addGid(int gid) {
+            if (gidCount == gids.length) {
+                int[] newGids = new int[Math.max(256, gids.length * 2)];
+                System.arraycopy(gids, 0, newGids, 0, gidCount);
+                gids = newGids;
+            }
+            gids[gidCount++] = gid;
+        }
+    }
+
+    private static int getAttribute(JSONObject o, String name, int def) {
+        Object value = o.opt(name);
+        if (value != null) {
+            return Integer.parseInt(value.toString());
+        } else {
+            return def;
+        }
+    }
+
+    private static float getAttribute(JSONObject o, String name, float def) {
+        Object value = o.opt(name);
+        if (value != null) {
+            return Float.parseFloat(value.toString());
+        } else {
+            return def;
+        }
+    }
+
+    private static boolean getAttribute(JSONObject o, String name, boolean def) {
+        Object value = o.opt(name);
+        if (value != null) {
+            return Boolean.valueOf(value.toString()).booleanValue();
+        } else {
+            return def;
+        }
+    }
+
+    private static String getAttributeValue(JSONObject o, String name) {
+        return o.optString(name, null);
+    }
+
+    /**
+     * Returns the JSON objects in the given value. A single XML element is
+     * converted to an object, several elements of the same name to an array
+     * of objects, and an empty element to <code>true</code>.
+     */
+    private static LinkedList<JSONObject> getObjects(Object value) {
+        LinkedList<JSONObject> objects = new LinkedList<JSONObject>();
+        if (value instanceof JSONObject) {
+            objects.add((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject o = array.optJSONObject(i);
+                if (o != null) {
+                    objects.add(o);
+                }
+            }
+        }
+        return objects;
+    }
+
+    private void setOrientation(String o) {
+        if ("isometric".equalsIgnoreCase(o)) {
+            map.setOrientation(Map.MDO_ISO);
+        } else if ("orthogonal".equalsIgnoreCase(o)) {
+            map.setOrientation(Map.MDO_ORTHO);
+        } else if ("hexagonal".equalsIgnoreCase(o)) {
+            map.setOrientation(Map.MDO_HEX);
+        } else if ("shifted".equalsIgnoreCase(o)) {
+            map.setOrientation(Map.MDO_SHIFTED);
+        } else {
+            logger.warn("Unknown orientation '" + o + "'");
+        }
+    }
+
+    /**
+     * Reads the properties from the value of a "properties" member.
+     *
+     * @param node  the value of the "properties" member, may be null
+     * @param props the properties object to set the properties of
+     */
+    private static void readProperties(Object node, Properties props) {
+        if (!(node instanceof JSONObject)) {
+            return;
+        }
+        for (JSONObject property : getObjects(((JSONObject) node).opt("property"))) {
+            final String key = getAttributeValue(property, "name");
+            String value = getAttributeValue(property, "value");
+            if (value == null) {
+                value = getAttributeValue(property, "content");
+                if (value != null)
+                    value = value.trim();
+            }
+            if (key != null && value != null)
+                props.setProperty(key, value);
+        }
+    }
+
+    private Image unmarshalImage(JSONObject t, String baseDir) throws IOException
+    {
+        ImageHelper.ImageFormat imageFormat = ImageHelper.ImageFormat.valueOf(
+                t.optString("format").toUpperCase(), ImageHelper.ImageFormat.PNG);
+        Image img = null;
+
+        String source = getAttributeValue(t, "source");
+
+        if (source != null) {
+            if (!new File(source).isAbsolute()) {
+                source = baseDir + source;
+            }
+            img = ImageIO.read(new File(source));
+        } else {
+            Object data = t.opt("data");
+            String sdata = null;
+            if (data instanceof JSONObject) {
+                sdata = getAttributeValue((JSONObject) data, "content");
+            } else if (data instanceof String) {
+                sdata = (String) data;
+            }
+
+            if (sdata == null) {
+                logger.warn("image data member enclosed no data.");
+            } else {
+                byte[] imageData = Base64.decode(sdata.trim().toCharArray());
+
+                switch (imageFormat) {
+                    case PNG:
+                        img = ImageHelper.pngToImage(imageData);
+                        break;
+                    case RAW:
+                        int width = getAttribute(t, "width", 0);
+                        int height = getAttribute(t, "height", 0);
+                        ImageHelper.PixelFormat pixelFormat =
+                            ImageHelper.PixelFormat.valueOf(t.optString("pixelFormat"),
+                                    ImageHelper.PixelFormat.A8R8G8B8);
+                        boolean bigEndian = "bigEndian".equals(t.optString("byteOrder"));
+                        img = ImageHelper.rawToImage(imageData, pixelFormat, bigEndian, width, height);
+                        break;
+                }
+
+                // Same trick as the TMX reader, scaled instances are drawn
+                // a lot faster on various systems.
+                if (img != null) {
+                    img = img.getScaledInstance(
+                            img.getWidth(null), img.getHeight(null),
+                            Image.SCALE_FAST);
+                }
+            }
+        }
+
+        return img;
+    }
+
+    private TileSet unmarshalTileset(JSONObject t) throws Exception {
+        String source = getAttributeValue(t, "source");
+        String basedir = getAttributeValue(t, "basedir");
+        int firstGid = getAttribute(t, "firstgid", 1);
+
+        String tilesetBaseDir = jsonPath;
+
+        if (basedir != null) {
+            tilesetBaseDir = basedir;
+        }
+
+        if (source != null) {
+            // External tilesets are always stored as TSX
+            String filename = tilesetBaseDir + source;
+            TileSet ext = null;
+
+            try {
+                XMLMapTransformer tsxReader = new XMLMapTransformer();
+                tsxReader.setLogger(logger);
+                ext = tsxReader.readTileset(filename);
+            } catch (FileNotFoundException fnf) {
+                logger.error("Could not find external tileset file " +
+                        filename);
+            }
+
+            if (ext == null) {
+                logger.error("tileset " + source + " was not loaded correctly!");
+                ext = new TileSet();
+            }
+
+            ext.setFirstGid(firstGid);
+            return ext;
+        }
+
+        final int tileWidth = getAttribute(t, "tilewidth", map.getTileWidth());
+        final int tileHeight = getAttribute(t, "tileheight", map.getTileHeight());
+        final int tileSpacing = getAttribute(t, "spacing", 0);
+        final int tileMargin = getAttribute(t, "margin", 0);
+
+        TileSet set = new TileSet();
+
+        set.setName(getAttributeValue(t, "name"));
+        set.setBaseDir(basedir);
+        set.setFirstGid(firstGid);
+
+        boolean hasTilesetImage = false;
+
+        for (JSONObject image : getObjects(t.opt("image"))) {
+            String imgSource = getAttributeValue(image, "source");
+            String id = getAttributeValue(image, "id");
+            String transStr = getAttributeValue(image, "trans");
+
+            if (imgSource != null && id == null) {
+                if (hasTilesetImage) {
+                    logger.warn("Ignoring illegal image element after tileset image.");
+                    continue;
+                }
+                hasTilesetImage = true;
+
+                String sourcePath = imgSource;
+                if (!new File(imgSource).isAbsolute()) {
+                    sourcePath = tilesetBaseDir + imgSource;
+                }
+
+                logger.info("Importing " + sourcePath + "...");
+
+                if (transStr != null) {
+                    int colorInt = Integer.parseInt(transStr, 16);
+                    set.setTransparentColor(new Color(colorInt));
+                }
+
+                set.importTileBitmap(sourcePath, new BasicTileCutter(
+                        tileWidth, tileHeight, tileSpacing, tileMargin));
+            } else if (id != null) {
+                Image img = unmarshalImage(image, tilesetBaseDir);
+                set.addImage(img, Integer.parseInt(id), imgSource);
+            }
+        }
+
+        for (JSONObject tileNode : getObjects(t.opt("tile"))) {
+            Tile tile = unmarshalTile(set, tileNode, tilesetBaseDir);
+            if (!hasTilesetImage || tile.getId() > set.getMaxTileId()) {
+                set.addTile(tile);
+            } else {
+                Tile myTile = set.getTile(tile.getId());
+                myTile.setProperties(tile.getProperties());
+            }
+        }
+
+        return set;
+    }
+
+    private Tile unmarshalTile(TileSet set, JSONObject t, String baseDir)
+        throws Exception
+    {
+        Tile tile = t.has("animation") ? new AnimatedTile() : new Tile();
+        tile.setId(getAttribute(t, "id", -1));
+        tile.setTileSet(set);
+
+        readProperties(t.opt("properties"), tile.getProperties());
+
+        for (JSONObject image : getObjects(t.opt("image"))) {
+            int id = getAttribute(image, "id", -1);
+            if (id < 0) {
+                String src = getAttributeValue(image, "source");
+                id = set.addImage(unmarshalImage(image, baseDir), src);
+            }
+            tile.setImage(id);
+            break;
+        }
+
+        return tile;
+    }
+
+    private MapObject readMapObject(JSONObject t) {
+        final String name = getAttributeValue(t, "name");
+        final String type = getAttributeValue(t, "type");
+        final int x = getAttribute(t, "x", 0);
+        final int y = getAttribute(t, "y", 0);
+        final int width = getAttribute(t, "width", 0);
+        final int height = getAttribute(t, "height", 0);
+
+        MapObject obj = new MapObject(x, y, width, height);
+        if (name != null)
+            obj.setName(name);
+        if (type != null)
+            obj.setType(type);
+
+        for (JSONObject image : getObjects(t.opt("image"))) {
+            String source = getAttributeValue(image, "source");
+            if (source != null) {
+                if (!new File(source).isAbsolute()) {
+                    source = jsonPath + source;
+                }
+                obj.setImageSource(source);
+            }
+            break;
+        }
+
+        Properties props = new Properties();
+        readProperties(t.opt("properties"), props);
+        obj.setProperties(props);
+        return obj;
+    }
+
+    private MapLayer unmarshalObjectGroup(JSONObject t) {
+        ObjectGroup og = new ObjectGroup();
+
+        og.setName(getAttributeValue(t, "name"));
+        og.setOffset(getAttribute(t, "x", 0), getAttribute(t, "y", 0));
+        og.setOpacity(getAttribute(t, "opacity", 1.0f));
+
+        for (JSONObject object : getObjects(t.opt("object"))) {
+            og.addObject(readMapObject(object));
+        }
+
+        Properties props = new Properties();
+        readProperties(t.opt("properties"), props);
+        og.setProperties(props);
+
+        og.setVisible(getAttribute(t, "visible", 1) == 1);
+
+        return og;
+    }
+
+    /**
+     * Reads a layer element from the stream. The layer data is decoded into
+     * global tile ids right away, other members are kept as JSON values.
+     */
+    private LayerData readLayer(JSONPullParser p) throws Exception {
+        LayerData layer = new LayerData();
+        String name;
+
+        p.beginObject();
+        while ((name = p.nextName()) != null) {
+            if ("data".equals(name)) {
+                readLayerData(p, layer);
+            } else if ("properties".equals(name)) {
+                layer.properties = p.nextValue();
+            } else if ("tileproperties".equals(name)) {
+                layer.tileProperties = p.nextValue();
+            } else {
+                layer.attributes.put(name, p.nextValue());
+            }
+        }
+        return layer;
+    }
+
+    private void readLayerData(JSONPullParser p, LayerData layer)
+        throws Exception
+    {
+        if (p.peek() != '{') {
+            logger.warn("layer data member enclosed no data. (empty data tag)");
+            p.skipValue();
+            return;
+        }
+
+        String name;
+        p.beginObject();
+        while ((name = p.nextName()) != null) {
+            if ("content".equals(name) && p.peek() == '"') {
+                decodeLayerData(p.nextChars(), layer);
+            } else if ("tile".equals(name)) {
+                if (p.peek() == '[') {
+                    p.beginArray();
+                    while (p.hasNext()) {
+                        layer.addGid(readTileGid(p));
+                    }
+                } else {
+                    layer.addGid(readTileGid(p));
+                }
+            } else if ("encoding".equals(name)) {
+                String encoding = p.nextString();
+                if (!"base64".equalsIgnoreCase(encoding)) {
+                    logger.warn("Unsupported layer data encoding '" + encoding + "'");
+                }
+            } else {
+                // The compression does not need to be known in advance,
+                // gzip data is recognized by its header.
+                p.skipValue();
+            }
+        }
+    }
+
+    private static int readTileGid(JSONPullParser p) throws Exception {
+        int gid = 0;
+        if (p.peek() != '{') {
+            p.skipValue();
+            return gid;
+        }
+
+        String name;
+        p.beginObject();
+        while ((name = p.nextName()) != null) {
+            if ("gid".equals(name)) {
+                gid = p.nextInt();
+            } else {
+                p.skipValue();
+            }
+        }
+        return gid;
+    }
+
+    /**
+     * Decodes base64 encoded, optionally gzip compressed layer data into
+     * the global tile ids of the given layer.
+     */
+    private static void decodeLayerData(char[] enc, LayerData layer)
+        throws IOException
+    {
+        byte[] dec = Base64.decode(enc);
+
+        if (dec.length >= 2 && (dec[0] & 0xff) == 0x1f && (dec[1] & 0xff) == 0x8b) {
+            InputStream is = new GZIPInputStream(new ByteArrayInputStream(dec));
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(dec.length * 4);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                baos.write(buffer, 0, n);
+            }
+            dec = baos.toByteArray();
+        }
+
+        IntBuffer ints = ByteBuffer.wrap(dec).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        layer.gids = new int[ints.remaining()];
+        layer.gidCount = layer.gids.length;
+        ints.get(layer.gids);
+    }
+
+    /**
+     * Creates a tile layer from the data read earlier, resolving the global
+     * tile ids against the tilesets of the map.
+     */
+    private MapLayer buildTileLayer(LayerData data) {
+        final JSONObject t = data.attributes;
+        final int layerWidth = getAttribute(t, "width", map.getWidth());
+        final int layerHeight = getAttribute(t, "height", map.getHeight());
+        final int layerTileWidth = getAttribute(t, "tileWidth", map.getTileWidth());
+        final int layerTileHeight = getAttribute(t, "tileHeight", map.getTileHeight());
+
+        TileLayer ml = new TileLayer(layerWidth, layerHeight, layerTileWidth, layerTileHeight);
+
+        final int offsetX = getAttribute(t, "x", 0);
+        final int offsetY = getAttribute(t, "y", 0);
+        final int visible = getAttribute(t, "visible", 1);
+        final float viewPlaneDistance = getAttribute(t, "viewPlaneDistance", 0.0f);
+        final boolean viewPlaneInfinitelyFarAway = getAttribute(t, "viewPlaneInfinitelyFarAway", false);
+        final String opacity = getAttributeValue(t, "opacity");
+
+        ml.setName(getAttributeValue(t, "name"));
+
+        if (opacity != null) {
+            ml.setOpacity(Float.parseFloat(opacity));
+        }
+
+        readProperties(data.properties, ml.getProperties());
+
+        // Runs of the same tile are common, so remember the last lookup
+        int lastGid = -1;
+        Tile lastTile = null;
+        int x = 0, y = 0;
+        final int count = Math.min(data.gidCount, layerWidth * layerHeight);
+
+        for (int i = 0; i < count; i++) {
+            final int gid = data.gids[i];
+            if (gid != lastGid) {
+                TileSet ts = map.findTileSetForTileGID(gid);
+                lastTile = ts != null ? ts.getTile(gid - ts.getFirstGid()) : null;
+                lastGid = gid;
+            }
+            ml.setTileAt(x, y, lastTile);
+
+            if (++x == layerWidth) {
+                x = 0;
+                y++;
+            }
+        }
+        data.gids = null;
+
+        if (data.tileProperties instanceof JSONObject) {
+            Object tiles = ((JSONObject) data.tileProperties).opt("tile");
+            for (JSONObject tpn : getObjects(tiles)) {
+                Properties tip = new Properties();
+                readProperties(tpn.opt("properties"), tip);
+                ml.setTileInstancePropertiesAt(
+                        getAttribute(tpn, "x", -1), getAttribute(tpn, "y", -1), tip);
+            }
+        }
+
+        // As in the TMX reader, the offset and visibility are only set
+        // after the layer data is loaded.
+        ml.setOffset(offsetX, offsetY);
+        ml.setVisible(visible == 1);
+
+        ml.setViewPlaneDistance(viewPlaneDistance);
+        ml.setViewPlaneInfinitelyFarAway(viewPlaneInfinitelyFarAway);
+
+        return ml;
+    }
+
+    private void readMapElement(JSONPullParser p) throws Exception {
+        JSONObject attributes = new JSONObject();
+        Object properties = null;
+        LinkedList<LayerData> layers = new LinkedList<LayerData>();
+        LinkedList<JSONObject> tilesets = new LinkedList<JSONObject>();
+        LinkedList<JSONObject> objectGroups = new LinkedList<JSONObject>();
+        String name;
+
+        p.beginObject();
+        while ((name = p.nextName()) != null) {
+            if ("layer".equals(name)) {
+                if (p.peek() == '[') {
+                    p.beginArray();
+                    while (p.hasNext()) {
+                        layers.add(readLayer(p));
+                    }
+                } else {
+                    layers.add(readLayer(p));
+                }
+            } else if ("tileset".equals(name)) {
+                tilesets.addAll(getObjects(p.nextValue()));
+            } else if ("objectgroup".equals(name)) {
+                objectGroups.addAll(getObjects(p.nextValue()));
+            } else if ("properties".equals(name)) {
+                properties = p.nextValue();
+            } else {
+                attributes.put(name, p.nextValue());
+            }
+        }
+
+        int mapWidth = getAttribute(attributes, "width", 0);
+        int mapHeight = getAttribute(attributes, "height", 0);
+        if (mapWidth <= 0 || mapHeight <= 0) {
+            throw new Exception("Couldn't locate map dimensions.");
+        }
+
+        map = new Map(mapWidth, mapHeight);
+
+        int tileWidth = getAttribute(attributes, "tilewidth", 0);
+        int tileHeight = getAttribute(attributes, "tileheight", 0);
+        if (tileWidth > 0) {
+            map.setTileWidth(tileWidth);
+        }
+        if (tileHeight > 0) {
+            map.setTileHeight(tileHeight);
+        }
+
+        map.setEyeDistance(getAttribute(attributes, "eyeDistance", 10.f));
+        map.setViewportWidth(getAttribute(attributes, "viewportWidth", 640));
+        map.setViewportHeight(getAttribute(attributes, "viewportHeight", 480));
+
+        String orientation = getAttributeValue(attributes, "orientation");
+        setOrientation(orientation != null ? orientation : "orthogonal");
+
+        readProperties(properties, map.getProperties());
+
+        for (JSONObject tileset : tilesets) {
+            map.addTileset(unmarshalTileset(tileset));
+        }
+
+        // JSON objects don't keep the order of differently named members, so
+        // object groups always end up above the tile layers.
+        for (LayerData layer : layers) {
+            map.addLayer(buildTileLayer(layer));
+        }
+        for (JSONObject objectGroup : objectGroups) {
+            map.addLayer(unmarshalObjectGroup(objectGroup));
+        }
+    }
+
+    private Map unmarshal(InputStream in) throws Exception {
+        JSONPullParser p = new JSONPullParser(new InputStreamReader(in, "UTF-8"));
+        String name;
+
+        map = null;
+        p.beginObject();
+        while ((name = p.nextName()) != null) {
+            if ("map".equals(name)) {
+                readMapElement(p);
+            } else {
+                p.skipValue();
+            }
+        }
+
+        if (map == null) {
+            throw new Exception("Not a valid JSON map file.");
+        }
+
+        Map unmarshalledMap = map;
+        map = null;
+        return unmarshalledMap;
+    }
+
+    // MapReader interface
+
+    public Map readMap(String filename) throws Exception {
+        // Compressed files are recognized by content, not by extension
+        InputStream is = FormatSniffer.open(filename);
+        try {
+            return readMap(is, filename);
+        } finally {
+            is.close();
+        }
+    }
+
+    public Map readMap(InputStream in, String filename) throws Exception {
+        jsonPath = filename.substring(0,
+                filename.lastIndexOf(File.separatorChar) + 1);
+
+        Map unmarshalledMap = unmarshal(in);
+        unmarshalledMap.setFilename(filename);
+        return unmarshalledMap;
+    }
+
+    public Map readMap(InputStream in) throws Exception {
+        jsonPath = "";
+        return unmarshal(in);
+    }
+
+    public TileSet readTileset(String filename) throws Exception {
+        logger.error("Tilesets aren't supported!");
+        return null;
+    }
+
+    public TileSet readTileset(InputStream in) throws Exception {
+        logger.error("Tilesets aren't supported!");
+        return null;
+    }
+
+    /**
+     * @see tiled.io.PluggableMapIO#getFilter()
+     */
+    public String getFilter() throws Exception {
+        return "*.js,*.js.gz";
+    }
+
+    public String getPluginPackage() {
+        return "Tiled JSON reader";
+    }
+
+    public String getDescription() {
+        return
+            "The Tiled JSON format (TMX converted) reader\n" +
+            "\n" +
+            "Tiled Map Editor, (c) 2004-2006\n" +
+            "Adam Turk\n" +
+            "Bjorn Lindeijer";
+    }
+
+    public String getName() {
+        return "Tiled JSON (TMX converted) map reader";
+    }
+
+    public boolean accept(File pathname) {
+        try {
+            String path = pathname.getCanonicalPath();
+            if (path.endsWith(".js") || path.endsWith(".js.gz")) {
+                return true;
+            }
+        } catch (IOException e) {}
+        return false;
+    }
+
+    /**
+     * Recognizes an object that starts with the "map" member, as written by
+     * the JSON writer.
+     */
+    public boolean sniff(byte[] header) {
+        int i = 0;
+        while (i < header.length && Character.isWhitespace(header[i])) {
+            i++;
+        }
+        if (i >= header.length || header[i] != '{') {
+            return false;
+        }
+        i++;
+        while (i < header.length && Character.isWhitespace(header[i])) {
+            i++;
+        }
+        final byte[] member = {'"', 'm', 'a', 'p', '"'};
+        for (int j = 0; j < member.length; j++, i++) {
+            if (i >= header.length || header[i] != member[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void setLogger(PluginLogger logger) {
+        this.logger = logger;
+    }
+}
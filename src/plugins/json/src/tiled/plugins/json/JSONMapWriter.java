@@ -57,20 +57,22 @@ public class JSONMapWriter extends  XMLMapWriter implements MapWriter
 
         tempFile = new File(tempFile.getAbsolutePath()); //TODO useful?
 
-        // Now read this temp file and get the tmx content
-        int fileSize = 100000; //TODO Replace here by true file size //(int) tempFile.length(); //100000;
+        // Now read this temp file and get the tmx content. The file is
+        // UTF-8, so it has at most as many characters as it has bytes.
+        int fileSize = (int) tempFile.length();
         char[] TMXContent = new char[fileSize];
 
-        FileReader fileR = new FileReader(tempFile.getAbsolutePath());
-        fileR.read(TMXContent);
+        Reader fileR = new InputStreamReader(
+                new FileInputStream(tempFile.getAbsolutePath()), "UTF-8");
+        int read = 0, n;
+        while (read < fileSize &&
+                (n = fileR.read(TMXContent, read, fileSize - read)) > 0) {
+            read += n;
+        }
         fileR.close();
 
         // Avoid retrieving xml header like <?xml version=\"1.0\"?>, JSON parser doesn't like it!
-        String TMXContentString = new String(TMXContent).trim().replaceFirst("\\<\\?.*\\?\\>","");
-
-        System.out.println("temp file path="+tempFile.getAbsolutePath());
-        System.out.println("filesize="+fileSize);
-        System.out.println("content="+TMXContentString);
+        String TMXContentString = new String(TMXContent, 0, read).trim().replaceFirst("\\<\\?.*\\?\\>","");
 
         // Delete useless temp file
         tempFile.delete();
@@ -78,8 +80,6 @@ public class JSONMapWriter extends  XMLMapWriter implements MapWriter
         // Turn it into JSON format string
         String JSONContent = XML.toJSONObject(TMXContentString).toString(2);
 
-        System.err.println("json content="+JSONContent);
-
         // Write in destination file
         FileWriter fileW = new FileWriter(filename);
         fileW.write(JSONContent);
@@ -0,0 +1,423 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.plugins.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A streaming JSON tokenizer. Unlike {@link org.json.JSONTokener}, which
+ * needs the whole document as a string, this parser pulls characters from a
+ * reader on demand, so the caller can decide per value whether to build a
+ * {@link JSONObject}/{@link JSONArray} tree, read it as primitives or skip it
+ * entirely.
+ *
+ * @version $Id$
+ */
+public class JSONPullParser
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos, limit;
+    private int offset;
+
+    /** Reusable storage for string values, grown as needed. */
+    private char[] chars = new char[256];
+    private int charCount;
+
+    public JSONPullParser(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Consumes the opening brace of an object. Members are then read with
+     * {@link #nextName()}, each followed by exactly one value.
+     *
+     * @throws ParseException when the next token is not '{'
+     */
+    public void beginObject() throws IOException, ParseException {
+        expect('{');
+    }
+
+    /**
+     * Returns the name of the next member of the current object, or
+     * <code>null</code> when the closing brace has been reached (it is
+     * consumed).
+     *
+     * @return the member name, or <code>null</code> at the end of the object
+     */
+    public String nextName() throws IOException, ParseException {
+        int c = peekClean();
+        if (c == '}') {
+            pos++;
+            return null;
+        }
+        if (c == ',') {
+            pos++;
+        }
+        String name = nextString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * Consumes the opening bracket of an array. Elements are then read while
+     * {@link #hasNext()} returns <code>true</code>.
+     *
+     * @throws ParseException when the next token is not '['
+     */
+    public void beginArray() throws IOException, ParseException {
+        expect('[');
+    }
+
+    /**
+     * Returns whether the current array has another element. The closing
+     * bracket is consumed when there is none.
+     *
+     * @return <code>true</code> if an element value follows
+     */
+    public boolean hasNext() throws IOException, ParseException {
+        int c = peekClean();
+        if (c == ']') {
+            pos++;
+            return false;
+        }
+        if (c == ',') {
+            pos++;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the character the next value starts with without consuming
+     * it, so the caller can tell an object from an array or a scalar.
+     *
+     * @return the first character of the next value, or -1 at end of input
+     */
+    public int peek() throws IOException, ParseException {
+        int c = peekClean();
+        if (c == ',') {
+            pos++;
+            c = peekClean();
+        }
+        return c;
+    }
+
+    /**
+     * Reads a quoted string value.
+     *
+     * @return the unescaped string
+     */
+    public String nextString() throws IOException, ParseException {
+        readChars();
+        return new String(chars, 0, charCount);
+    }
+
+    /**
+     * Reads a quoted string value into the internal character buffer, which
+     * avoids creating a <code>String</code> for large values such as base64
+     * encoded layer data.
+     *
+     * @return a new array holding exactly the unescaped characters
+     */
+    public char[] nextChars() throws IOException, ParseException {
+        readChars();
+        char[] result = new char[charCount];
+        System.arraycopy(chars, 0, result, 0, charCount);
+        return result;
+    }
+
+    /**
+     * Reads an integer. Both bare numbers and numbers in quotes are accepted,
+     * since the TMX to JSON conversion stores all attributes as strings. No
+     * intermediate objects are created.
+     *
+     * @return the integer value
+     */
+    public int nextInt() throws IOException, ParseException {
+        int c = peekClean();
+        boolean quoted = c == '"' || c == '\'';
+        int quote = c;
+        if (quoted) {
+            pos++;
+        }
+
+        boolean negative = false;
+        c = read();
+        if (c == '-') {
+            negative = true;
+            c = read();
+        } else if (c == '+') {
+            c = read();
+        }
+
+        if (c < '0' || c > '9') {
+            throw syntaxError("Expected a number");
+        }
+
+        int value = 0;
+        while (c >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            c = read();
+        }
+
+        if (quoted) {
+            if (c != quote) {
+                throw syntaxError("Unterminated number string");
+            }
+        } else if (c != -1) {
+            pos--;
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Reads the next value and returns it as a tree of {@link JSONObject},
+     * {@link JSONArray}, <code>String</code>, <code>Boolean</code>,
+     * <code>Integer</code>/<code>Double</code> or {@link JSONObject#NULL}.
+     * Only use this for small values.
+     *
+     * @return the value
+     */
+    public Object nextValue() throws IOException, ParseException {
+        int c = peek();
+        switch (c) {
+            case '{': {
+                JSONObject o = new JSONObject();
+                beginObject();
+                String name;
+                while ((name = nextName()) != null) {
+                    o.put(name, nextValue());
+                }
+                return o;
+            }
+            case '[': {
+                JSONArray a = new JSONArray();
+                beginArray();
+                while (hasNext()) {
+                    a.put(nextValue());
+                }
+                return a;
+            }
+            case '"':
+            case '\'':
+                return nextString();
+            default:
+                return nextLiteral();
+        }
+    }
+
+    /**
+     * Skips over the next value, including all nested values, without
+     * building any objects.
+     */
+    public void skipValue() throws IOException, ParseException {
+        int c = peek();
+        switch (c) {
+            case '{':
+                beginObject();
+                while (nextName() != null) {
+                    skipValue();
+                }
+                break;
+            case '[':
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                break;
+            case '"':
+            case '\'':
+                readChars();
+                break;
+            default:
+                nextLiteral();
+        }
+    }
+
+    /**
+     * Creates a ParseException carrying the current position in the input.
+     *
+     * @param message the error message
+     * @return a ParseException
+     */
+    public ParseException syntaxError(String message) {
+        return new ParseException(message, offset + pos);
+    }
+
+    private Object nextLiteral() throws IOException, ParseException {
+        charCount = 0;
+        int c = read();
+        while (c > ' ' && c != ',' && c != ':' && c != ']' && c != '}') {
+            appendChar((char) c);
+            c = read();
+        }
+        if (c != -1) {
+            pos--;
+        }
+
+        String s = new String(chars, 0, charCount);
+        if (s.equals("true")) {
+            return Boolean.TRUE;
+        }
+        if (s.equals("false")) {
+            return Boolean.FALSE;
+        }
+        if (s.equals("null")) {
+            return JSONObject.NULL;
+        }
+        if (s.length() == 0) {
+            throw syntaxError("Missing value");
+        }
+        try {
+            return Integer.valueOf(s);
+        } catch (NumberFormatException e) {
+        }
+        try {
+            return Double.valueOf(s);
+        } catch (NumberFormatException e) {
+        }
+        return s;
+    }
+
+    private void readChars() throws IOException, ParseException {
+        int quote = peekClean();
+        if (quote != '"' && quote != '\'') {
+            throw syntaxError("Expected a string");
+        }
+        pos++;
+
+        charCount = 0;
+        while (true) {
+            if (pos == limit && !fill()) {
+                throw syntaxError("Unterminated string");
+            }
+
+            // Copy runs of plain characters in bulk
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (c == quote || c == '\\') {
+                    break;
+                }
+                pos++;
+            }
+            appendChars(buffer, start, pos - start);
+            if (pos == limit) {
+                continue;
+            }
+
+            int c = read();
+            if (c == quote) {
+                return;
+            }
+
+            c = read();
+            switch (c) {
+                case 'b': appendChar('\b'); break;
+                case 't': appendChar('\t'); break;
+                case 'n': appendChar('\n'); break;
+                case 'f': appendChar('\f'); break;
+                case 'r': appendChar('\r'); break;
+                case 'u': appendChar((char) readHex(4)); break;
+                case 'x': appendChar((char) readHex(2)); break;
+                case -1:
+                    throw syntaxError("Unterminated string");
+                default:
+                    appendChar((char) c);
+            }
+        }
+    }
+
+    private int readHex(int digits) throws IOException, ParseException {
+        int value = 0;
+        for (int i = 0; i < digits; i++) {
+            int c = read();
+            int d = Character.digit((char) c, 16);
+            if (c == -1 || d < 0) {
+                throw syntaxError("Illegal escape");
+            }
+            value = (value << 4) | d;
+        }
+        return value;
+    }
+
+    private void appendChar(char c) {
+        if (charCount == chars.length) {
+            growChars(charCount + 1);
+        }
+        chars[charCount++] = c;
+    }
+
+    private void appendChars(char[] src, int start, int length) {
+        if (charCount + length > chars.length) {
+            growChars(charCount + length);
+        }
+        System.arraycopy(src, start, chars, charCount, length);
+        charCount += length;
+    }
+
+    private void growChars(int minCapacity) {
+        int capacity = Math.max(chars.length * 2, minCapacity);
+        char[] newChars = new char[capacity];
+        System.arraycopy(chars, 0, newChars, 0, charCount);
+        chars = newChars;
+    }
+
+    private void expect(char expected) throws IOException, ParseException {
+        int c = peekClean();
+        if (c != expected) {
+            throw syntaxError("Expected '" + expected + "'");
+        }
+        pos++;
+    }
+
+    private int peekClean() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            char c = buffer[pos];
+            if (c > ' ') {
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        limit = n;
+        return true;
+    }
+}
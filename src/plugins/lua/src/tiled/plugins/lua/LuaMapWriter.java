@@ -18,9 +18,9 @@ import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.Properties;
 import java.util.prefs.Preferences;
-import java.util.zip.GZIPOutputStream;
 
 import tiled.io.*;
+import tiled.io.xml.XMLMapWriter;
 import tiled.core.*;
 import tiled.util.*;
 import tiled.mapeditor.selection.SelectionLayer;
@@ -31,31 +31,95 @@ import tiled.mapeditor.selection.SelectionLayer;
  */
 public class LuaMapWriter implements MapWriter
 {
-    private static final int LAST_BYTE = 0x000000FF;
+    private static final int BUFFER_SIZE = 65536;
+
+    /** Maximum number of values written on a single line of layer data. */
+    private static final int VALUES_PER_LINE = 64;
+
+    /**
+     * The ways in which the tile data of a layer can be written.
+     */
+    public static enum LayerFormat {
+        /** Base64 encoded (and optionally gzipped) data, as in TMX. */
+        BASE64,
+        /** A table with a subtable for every tile, as in XML encoded TMX. */
+        TILES,
+        /** A plain array of global tile ids, row by row. */
+        ARRAY,
+        /** An array of (count, gid) pairs, run-length encoding the ids. */
+        RLE;
+
+        public static LayerFormat valueOf(String s, LayerFormat defaultValue) {
+            try {
+                return LayerFormat.valueOf(LayerFormat.class, s.toUpperCase());
+            } catch (IllegalArgumentException iax) {
+                // ignore and return default
+            } catch (NullPointerException npx) {
+                // ignore and return default
+            }
+            return defaultValue;
+        }
+    }
+
     private PluginLogger logger;
     private Writer writer;
-    private String indent;
+    private int indent;
+    private LayerFormat layerFormat;
+    private final char[] digits = new char[11];
+
+    /**
+     * Returns the format used for writing layer data. Unless set explicitly,
+     * it is read from the "layerFormat" preference, falling back to the
+     * general "encodeLayerData" preference.
+     *
+     * @return the format used for writing layer data
+     */
+    public LayerFormat getLayerFormat() {
+        if (layerFormat != null) {
+            return layerFormat;
+        }
+
+        Preferences prefs = TiledConfiguration.node("saving");
+        LayerFormat def = prefs.getBoolean("encodeLayerData", true) ?
+                LayerFormat.BASE64 : LayerFormat.TILES;
+        return LayerFormat.valueOf(
+                TiledConfiguration.node("saving/lua").get("layerFormat", null),
+                def);
+    }
+
+    /**
+     * Sets the format used for writing layer data, overriding the
+     * preferences.
+     *
+     * @param layerFormat the format, or <code>null</code> to use the
+     *                    preferences again
+     */
+    public void setLayerFormat(LayerFormat layerFormat) {
+        this.layerFormat = layerFormat;
+    }
 
     /**
      * Writes the Indent to file.
      * @throws java.io.IOException
      */
     private void writeIndent() throws IOException {
-        writer.write(indent);
+        for (int i = 0; i < indent; i++) {
+            writer.write("  ");
+        }
     }
 
     /**
      * Increases the indent by two spaces.
      */
     private void addIndent() {
-        indent += "  ";
+        indent++;
     }
 
     /**
      * Decreases the indent by two spaces.
      */
     private void minusIndent() {
-        indent = indent.substring(2);
+        indent--;
     }
 
     /**
@@ -74,7 +138,42 @@ public class LuaMapWriter implements MapWriter
      * @throws java.io.IOException
      */
     private void writelnString( String str ) throws IOException {
-        writeString( str + "\n" );
+        writeString(str);
+        writer.write('\n');
+    }
+
+    /**
+     * Writes an integer to file without creating a string for it.
+     * @param value the value
+     * @throws java.io.IOException
+     */
+    private void writeInt(int value) throws IOException {
+        if (value == Integer.MIN_VALUE) {
+            writer.write(String.valueOf(value));
+            return;
+        }
+        if (value < 0) {
+            writer.write('-');
+            value = -value;
+        }
+        int pos = digits.length;
+        do {
+            digits[--pos] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        writer.write(digits, pos, digits.length - pos);
+    }
+
+    /**
+     * Writes the key part of a table Key-Value pair.
+     * @param hash the key
+     * @throws java.io.IOException
+     */
+    private void writeKey(String hash) throws IOException {
+        writeIndent();
+        writer.write("[\"");
+        writer.write(hash);
+        writer.write("\"] = ");
     }
 
     /**
@@ -84,7 +183,10 @@ public class LuaMapWriter implements MapWriter
      * @throws java.io.IOException
      */
     private void writelnKeyAndValue(String hash, String value) throws IOException {
-        writelnString("[\"" + hash + "\"] = \"" + value + "\";");
+        writeKey(hash);
+        writer.write('"');
+        writer.write(value);
+        writer.write("\";\n");
     }
 
     /**
@@ -94,7 +196,9 @@ public class LuaMapWriter implements MapWriter
      * @throws java.io.IOException
      */
     private void writelnKeyAndValue(String hash, int value) throws IOException {
-        writelnString("[\"" + hash + "\"] = " + String.valueOf(value) + ";");
+        writeKey(hash);
+        writeInt(value);
+        writer.write(";\n");
     }
 
     /**
@@ -104,7 +208,9 @@ public class LuaMapWriter implements MapWriter
      * @throws java.io.IOException
      */
     private void writelnKeyAndValue(String hash, float value) throws IOException {
-        writelnString("[\"" + hash + "\"] = " + String.valueOf(value) + ";");
+        writeKey(hash);
+        writer.write(String.valueOf(value));
+        writer.write(";\n");
     }
 
     /**
@@ -113,7 +219,8 @@ public class LuaMapWriter implements MapWriter
      * @throws java.io.IOException
      */
     private void startTable(String tablename) throws IOException {
-        writelnString( "[\"" + tablename + "\"] = {");
+        writeKey(tablename);
+        writer.write("{\n");
         addIndent();
     }
 
@@ -300,11 +407,9 @@ public class LuaMapWriter implements MapWriter
      */
     private void writeMapLayer(MapLayer l) throws IOException {
         Preferences prefs = TiledConfiguration.node("saving");
-        boolean encodeLayerData =
-                prefs.getBoolean("encodeLayerData", true);
+        LayerFormat format = getLayerFormat();
         boolean compressLayerData =
-                prefs.getBoolean("layerCompression", true) &&
-                        encodeLayerData;
+                prefs.getBoolean("layerCompression", true);
 
         Rectangle bounds = l.getBounds();
 
@@ -340,65 +445,121 @@ public class LuaMapWriter implements MapWriter
         if (l instanceof ObjectGroup){
             writeObjectGroup((ObjectGroup)l);
         } else {
+            final TileLayer tl = (TileLayer) l;
             startTable("data");
-            if (encodeLayerData) {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                OutputStream out;
-
-                writelnKeyAndValue("encoding", "base64");
-
-                if (compressLayerData) {
-                    writelnKeyAndValue("compression", "gzip");
-                    out = new GZIPOutputStream(baos);
-                } else {
-                    out = baos;
-                }
-
-                for (int y = 0; y < l.getHeight(); y++) {
-                    for (int x = 0; x < l.getWidth(); x++) {
-                        Tile tile = ((TileLayer) l).getTileAt(x + bounds.x,
-                                                              y + bounds.y);
-                        int gid = 0;
-
-                        if (tile != null) {
-                            gid = tile.getGid();
+            switch (format) {
+                case BASE64:
+                    writelnKeyAndValue("encoding", "base64");
+                    if (compressLayerData) {
+                        writelnKeyAndValue("compression", "gzip");
+                    }
+                    writeKey("content");
+                    writer.write('"');
+                    writer.write(XMLMapWriter.encodeLayerData(tl, compressLayerData));
+                    writer.write("\";\n");
+                    break;
+                case TILES:
+                    for (int y = 0; y < bounds.height; y++) {
+                        for (int x = 0; x < bounds.width; x++) {
+                            startTable();
+                            writelnKeyAndValue("label", "tile");
+                            writelnKeyAndValue("gid", getGid(tl, x + bounds.x, y + bounds.y));
+                            endTable();
                         }
-
-                        out.write(gid       & LAST_BYTE);
-                        out.write(gid >> 8  & LAST_BYTE);
-                        out.write(gid >> 16 & LAST_BYTE);
-                        out.write(gid >> 24 & LAST_BYTE);
                     }
-                }
+                    break;
+                case ARRAY:
+                    writelnKeyAndValue("encoding", "array");
+                    writeArrayLayerData(tl);
+                    break;
+                case RLE:
+                    writelnKeyAndValue("encoding", "rle");
+                    writeRunLengthLayerData(tl);
+                    break;
+            }
+            endTable();
+        }
+        endTable();
+    }
 
-                if (compressLayerData) {
-                    ((GZIPOutputStream)out).finish();
-                }
 
-                writelnKeyAndValue("content", new String(Base64.encode(baos.toByteArray())) );
-            } else {
-                for (int y = 0; y < l.getHeight(); y++) {
-                    for (int x = 0; x < l.getWidth(); x++) {
-                        Tile tile = ((TileLayer)l).getTileAt(x, y);
-                        int gid = 0;
+    private static int getGid(TileLayer tl, int x, int y) {
+        Tile tile = tl.getTileAt(x, y);
+        return tile != null ? tile.getGid() : 0;
+    }
 
-                        if (tile != null) {
-                            gid = tile.getGid();
-                        }
+    /**
+     * Writes the global tile ids of a layer as the array part of the data
+     * table, one row of the layer per line. In Lua, <code>data[1]</code> is
+     * then the top-left tile and <code>data[y * width + x + 1]</code> the tile
+     * at (x, y).
+     *
+     * @param tl the layer to write
+     * @throws java.io.IOException
+     */
+    private void writeArrayLayerData(TileLayer tl) throws IOException {
+        final Rectangle bounds = tl.getBounds();
+        for (int y = 0; y < bounds.height; y++) {
+            writeIndent();
+            for (int x = 0; x < bounds.width; x++) {
+                if (x > 0 && x % VALUES_PER_LINE == 0) {
+                    writer.write('\n');
+                    writeIndent();
+                }
+                writeInt(getGid(tl, x + bounds.x, y + bounds.y));
+                writer.write(',');
+            }
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Writes the global tile ids of a layer, in the same order as
+     * {@link #writeArrayLayerData(TileLayer)}, as pairs of a repeat count
+     * followed by a global tile id. Runs continue across rows.
+     *
+     * @param tl the layer to write
+     * @throws java.io.IOException
+     */
+    private void writeRunLengthLayerData(TileLayer tl) throws IOException {
+        final Rectangle bounds = tl.getBounds();
+        int runGid = -1;
+        int runLength = 0;
+        int values = 0;
 
-                        startTable();
-                        writelnKeyAndValue("label", "tile");
-                        writelnKeyAndValue("gid", gid);
-                        endTable();
+        writeIndent();
+        for (int y = 0; y < bounds.height; y++) {
+            for (int x = 0; x < bounds.width; x++) {
+                int gid = getGid(tl, x + bounds.x, y + bounds.y);
+                if (gid == runGid) {
+                    runLength++;
+                    continue;
+                }
+                if (runLength > 0) {
+                    if (values == VALUES_PER_LINE) {
+                        writer.write('\n');
+                        writeIndent();
+                        values = 0;
                     }
+                    writeInt(runLength);
+                    writer.write(',');
+                    writeInt(runGid);
+                    writer.write(',');
+                    values++;
                 }
+                runGid = gid;
+                runLength = 1;
             }
-            endTable();
         }
-        endTable();
+        if (runLength > 0) {
+            writeInt(runLength);
+            writer.write(',');
+            writeInt(runGid);
+            writer.write(',');
+        }
+        writer.write('\n');
     }
 
-
     /**
      * Saves a map to a file.
      *
@@ -408,7 +569,12 @@ public class LuaMapWriter implements MapWriter
      */
     public void writeMap(Map map, String filename) throws IOException
     {
-        writeMap(map, new FileOutputStream(filename));
+        OutputStream out = new FileOutputStream(filename);
+        try {
+            writeMap(map, out);
+        } finally {
+            out.close();
+        }
     }
 
     /**
@@ -420,8 +586,8 @@ public class LuaMapWriter implements MapWriter
      * @throws java.io.IOException
      */
     public void writeMap(Map map, OutputStream out) throws IOException {
-        writer = new OutputStreamWriter(out);
-        indent = "";
+        writer = new BufferedWriter(new OutputStreamWriter(out), BUFFER_SIZE);
+        indent = 0;
 
         writelnString("-- Generated by Tiled's Lua Exporter Plugin.");
         writeString("map = ");
@@ -18,14 +18,14 @@ import java.util.Properties;
 import java.util.Vector;
 import java.util.Iterator;
 
-import tiled.io.MapReader;
+import tiled.io.SniffingMapReader;
 import tiled.io.PluginLogger;
 import tiled.core.*;
 
 /**
  * @version $Id$
  */
-public class MappyMapReader implements MapReader
+public class MappyMapReader implements SniffingMapReader
 {
     private LinkedList<Chunk> chunks;
     private Vector<BlkStr> blocks;
@@ -54,6 +54,10 @@ public class MappyMapReader implements MapReader
         return readMap(new FileInputStream(filename));
     }
 
+    public Map readMap(InputStream in, String filename) throws Exception {
+        return readMap(in);
+    }
+
     public Map readMap(InputStream in) throws Exception {
         Map ret = null;
         chunks = new LinkedList<Chunk>();
@@ -147,6 +151,16 @@ public class MappyMapReader implements MapReader
         return false;
     }
 
+    /**
+     * Recognizes the "FORM" chunk of type "FMAP" that a Mappy file starts
+     * with.
+     */
+    public boolean sniff(byte[] header) {
+        return header.length >= 12 &&
+            new String(header, 0, 4).equals("FORM") &&
+            new String(header, 8, 4).equals("FMAP");
+    }
+
     public void setLogger(PluginLogger logger) {
         this.logger = logger;
     }
@@ -0,0 +1,62 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.plugins.tmb;
+
+/**
+ * Constants describing the Tiled binary map format (TMB). All values are
+ * stored big-endian. A file consists of:
+ *
+ * <pre>
+ * header      magic, version, orientation, size, tile size, eye distance,
+ *             viewport size, map properties
+ * tilesets    count, then per tileset a kind byte followed by its fields
+ * layers      count, then per layer a kind byte, the common layer fields and
+ *             either a tile data block or an object table
+ * strings     count, then per string its length and UTF-8 bytes
+ * trailer     offset of the string table (long), magic
+ * </pre>
+ *
+ * Strings are stored once in the string table and referenced everywhere
+ * else by their index, with -1 meaning <code>null</code>. A properties block
+ * is a count followed by pairs of key and value indices.
+ *
+ * A tile data block holds the global tile ids of a layer, row by row, as
+ * 32-bit integers. It is preceded by its compression, its uncompressed and
+ * its stored length, so that a reader can skip over it without decoding.
+ *
+ * @version $Id$
+ */
+final class TMBFormat
+{
+    /** "TMB" followed by a zero byte. */
+    static final int MAGIC = 0x544D4200;
+    static final short VERSION = 1;
+
+    /** Size of the trailer: the string table offset and the magic. */
+    static final int TRAILER_SIZE = 12;
+
+    static final byte TILESET_EXTERNAL = 0;
+    static final byte TILESET_IMAGE = 1;
+    static final byte TILESET_COLLECTION = 2;
+
+    static final byte LAYER_TILES = 0;
+    static final byte LAYER_OBJECTS = 1;
+
+    static final byte COMPRESSION_NONE = 0;
+    static final byte COMPRESSION_DEFLATE = 1;
+
+    static final int NULL_STRING = -1;
+
+    private TMBFormat() {
+    }
+}
@@ -0,0 +1,550 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.plugins.tmb;
+
+import java.awt.Color;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.Properties;
+import javax.imageio.ImageIO;
+
+import tiled.core.*;
+import tiled.io.LayerFilter;
+import tiled.io.PluginLogger;
+import tiled.io.SniffingMapReader;
+import tiled.io.xml.XMLMapTransformer;
+import tiled.mapeditor.util.cutter.BasicTileCutter;
+
+/**
+ * Reads maps written by the {@link TMBMapWriter}.
+ *
+ * Files are memory mapped rather than read, and only the header, tilesets,
+ * objects and the string table are parsed up front. The tile data of a
+ * layer stays in the mapped file until the layer is first accessed, see
+ * {@link TMBTileLayer}. Note that on some platforms a mapped file cannot be
+ * overwritten until the mapping is garbage collected, which happens once all
+ * its tile layers have been decoded or discarded.
+ *
+ * @version $Id$
+ */
+public class TMBMapReader implements SniffingMapReader
+{
+    private Map map;
+    private String tmbPath;
+    private PluginLogger logger;
+    private String[] strings;
+    private LayerFilter layerFilter;
+    private Rectangle region;
+
+    public TMBMapReader() {
+        logger = new PluginLogger();
+    }
+
+    /**
+     * Sets the filter that selects which layers are loaded.
+     *
+     * @param layerFilter the filter, or <code>null</code> to load all layers
+     * @see tiled.io.xml.XMLMapTransformer#setLayerFilter(LayerFilter)
+     */
+    public void setLayerFilter(LayerFilter layerFilter) {
+        this.layerFilter = layerFilter;
+    }
+
+    /**
+     * Restricts loading to a part of the map. Only the rows of the tile data
+     * up to the bottom of the region are ever decompressed.
+     *
+     * @param region the area to load in tiles, or <code>null</code> to load
+     *               the whole map
+     * @see tiled.io.xml.XMLMapTransformer#setRegion(Rectangle)
+     */
+    public void setRegion(Rectangle region) {
+        this.region = region != null ? new Rectangle(region) : null;
+    }
+
+    private String getString(ByteBuffer buf) throws IOException {
+        final int index = buf.getInt();
+        if (index == TMBFormat.NULL_STRING) {
+            return null;
+        }
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("Invalid string reference " + index);
+        }
+        return strings[index];
+    }
+
+    private static ByteBuffer getBlock(ByteBuffer buf) throws IOException {
+        final int length = buf.getInt();
+        if (length < 0 || length > buf.remaining()) {
+            throw new IOException("Invalid block length " + length);
+        }
+        ByteBuffer block = buf.slice();
+        block.limit(length);
+        buf.position(buf.position() + length);
+        return block;
+    }
+
+    private void readProperties(ByteBuffer buf, Properties props)
+        throws IOException
+    {
+        int count = buf.getInt();
+        while (count-- > 0) {
+            final String key = getString(buf);
+            final String value = getString(buf);
+            if (key != null && value != null) {
+                props.setProperty(key, value);
+            }
+        }
+    }
+
+    private void readStringTable(ByteBuffer buf) throws IOException {
+        final int limit = buf.limit();
+        if (limit < TMBFormat.TRAILER_SIZE ||
+                buf.getInt(limit - 4) != TMBFormat.MAGIC) {
+            throw new IOException("Not a valid TMB map file.");
+        }
+
+        final long offset = buf.getLong(limit - TMBFormat.TRAILER_SIZE);
+        if (offset < 0 || offset > limit - TMBFormat.TRAILER_SIZE) {
+            throw new IOException("Invalid string table offset " + offset);
+        }
+
+        ByteBuffer table = buf.duplicate();
+        table.position((int) offset);
+        strings = new String[table.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            ByteBuffer bytes = getBlock(table);
+            if (bytes.hasArray()) {
+                strings[i] = new String(bytes.array(),
+                        bytes.arrayOffset() + bytes.position(),
+                        bytes.remaining(), "UTF-8");
+            } else {
+                byte[] b = new byte[bytes.remaining()];
+                bytes.get(b);
+                strings[i] = new String(b, "UTF-8");
+            }
+        }
+    }
+
+    private String resolvePath(String path) {
+        if (path == null || new File(path).isAbsolute()) {
+            return path;
+        }
+        return tmbPath + path;
+    }
+
+    private TileSet readTileset(ByteBuffer buf) throws Exception {
+        final byte kind = buf.get();
+        final int firstGid = buf.getInt();
+
+        if (kind == TMBFormat.TILESET_EXTERNAL) {
+            final String source = getString(buf);
+            final String basedir = getString(buf);
+            final String filename =
+                    (basedir != null ? basedir : tmbPath) + source;
+            TileSet ext = null;
+
+            try {
+                XMLMapTransformer tsxReader = new XMLMapTransformer();
+                tsxReader.setLogger(logger);
+                ext = tsxReader.readTileset(filename);
+            } catch (FileNotFoundException fnf) {
+                logger.error("Could not find external tileset file " +
+                        filename);
+            }
+
+            if (ext == null) {
+                logger.error("tileset " + source + " was not loaded correctly!");
+                ext = new TileSet();
+            }
+
+            ext.setFirstGid(firstGid);
+            return ext;
+        }
+
+        TileSet set = new TileSet();
+        set.setName(getString(buf));
+        set.setBaseDir(getString(buf));
+        set.setFirstGid(firstGid);
+
+        if (kind == TMBFormat.TILESET_IMAGE) {
+            final String sourcePath = resolvePath(getString(buf));
+            final int tileWidth = buf.getInt();
+            final int tileHeight = buf.getInt();
+            final int tileSpacing = buf.getInt();
+            final int tileMargin = buf.getInt();
+            final boolean hasTrans = buf.get() != 0;
+            final int trans = buf.getInt();
+
+            if (hasTrans) {
+                set.setTransparentColor(new Color(trans));
+            }
+
+            logger.info("Importing " + sourcePath + "...");
+            set.importTileBitmap(sourcePath, new BasicTileCutter(
+                    tileWidth, tileHeight, tileSpacing, tileMargin));
+
+            int count = buf.getInt();
+            while (count-- > 0) {
+                Tile tile = set.getTile(buf.getInt());
+                Properties props = new Properties();
+                readProperties(buf, props);
+                if (tile != null) {
+                    tile.setProperties(props);
+                }
+            }
+        } else if (kind == TMBFormat.TILESET_COLLECTION) {
+            int count = buf.getInt();
+            while (count-- > 0) {
+                final int id = buf.getInt();
+                final String source = getString(buf);
+                ByteBuffer png = getBlock(buf);
+                byte[] bytes = new byte[png.remaining()];
+                png.get(bytes);
+                Image image = ImageIO.read(new ByteArrayInputStream(bytes));
+                set.addImage(image, id, source);
+            }
+
+            count = buf.getInt();
+            while (count-- > 0) {
+                final int id = buf.getInt();
+                Tile tile = buf.get() != 0 ? new AnimatedTile() : new Tile();
+                tile.setId(id);
+                tile.setTileSet(set);
+                tile.setImage(buf.getInt());
+                readProperties(buf, tile.getProperties());
+                set.addTile(tile);
+            }
+        } else {
+            throw new IOException("Unknown tileset kind " + kind);
+        }
+
+        return set;
+    }
+
+    /**
+     * Creates a table of all tiles by their global id.
+     */
+    private Tile[] createTileTable() {
+        int size = 1;
+        for (TileSet set : map.getTilesets()) {
+            size = Math.max(size, set.getFirstGid() + set.getMaxTileId() + 1);
+        }
+
+        Tile[] tiles = new Tile[size];
+        for (TileSet set : map.getTilesets()) {
+            final int firstGid = set.getFirstGid();
+            for (Iterator<?> it = set.iterator(); it.hasNext();) {
+                Tile tile = (Tile) it.next();
+                if (tile != null) {
+                    tiles[firstGid + tile.getId()] = tile;
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Reads a layer. Layers that are not selected or that fall outside of
+     * the region are skipped, and <code>null</code> is returned for them.
+     */
+    private MapLayer readLayer(ByteBuffer buf, Tile[] tiles) throws Exception {
+        final byte kind = buf.get();
+        final String name = getString(buf);
+        final int offsetX = buf.getInt();
+        final int offsetY = buf.getInt();
+        final int width = buf.getInt();
+        final int height = buf.getInt();
+        final boolean visible = buf.get() != 0;
+        final float opacity = buf.getFloat();
+        final float viewPlaneDistance = buf.getFloat();
+        final boolean viewPlaneInfinitelyFarAway = buf.get() != 0;
+
+        MapLayer layer;
+        Rectangle area = new Rectangle(0, 0, width, height);
+
+        if (kind == TMBFormat.LAYER_OBJECTS) {
+            ObjectGroup og = new ObjectGroup(map, 0, 0);
+            readProperties(buf, og.getProperties());
+
+            int count = buf.getInt();
+            while (count-- > 0) {
+                og.addObject(readMapObject(buf));
+            }
+            layer = og;
+            if (layerFilter != null &&
+                    !layerFilter.accept(name, ObjectGroup.class)) {
+                return null;
+            }
+        } else if (kind == TMBFormat.LAYER_TILES) {
+            Properties props = new Properties();
+            readProperties(buf, props);
+
+            final int tileWidth = buf.getInt();
+            final int tileHeight = buf.getInt();
+            final byte compression = buf.get();
+            final int rawLength = buf.getInt();
+            ByteBuffer data = getBlock(buf);
+
+            if (rawLength != width * height * 4 ||
+                    (compression == TMBFormat.COMPRESSION_NONE &&
+                     data.remaining() != rawLength)) {
+                throw new IOException("Invalid tile data in layer " + name);
+            }
+
+            if (region != null) {
+                area = area.intersection(new Rectangle(region.x - offsetX,
+                        region.y - offsetY, region.width, region.height));
+            }
+            final boolean selected = !area.isEmpty() && (layerFilter == null ||
+                    layerFilter.accept(name, TileLayer.class));
+
+            TileLayer tl = null;
+            if (selected) {
+                tl = new TMBTileLayer(area, width, tileWidth, tileHeight,
+                        data, compression, tiles, logger);
+                tl.setOffset(offsetX + area.x, offsetY + area.y);
+                tl.setProperties(props);
+            }
+
+            int count = buf.getInt();
+            while (count-- > 0) {
+                final int x = buf.getInt();
+                final int y = buf.getInt();
+                Properties tip = new Properties();
+                readProperties(buf, tip);
+                // Stored at map coordinates; the layer ignores the ones
+                // outside of the loaded region
+                if (selected) {
+                    tl.setTileInstancePropertiesAt(x, y, tip);
+                }
+            }
+
+            if (!selected) {
+                return null;
+            }
+            layer = tl;
+        } else {
+            throw new IOException("Unknown layer kind " + kind);
+        }
+
+        layer.setName(name);
+        layer.setOffset(offsetX + area.x, offsetY + area.y);
+        layer.setOpacity(opacity);
+        layer.setVisible(visible);
+        layer.setViewPlaneDistance(viewPlaneDistance);
+        layer.setViewPlaneInfinitelyFarAway(viewPlaneInfinitelyFarAway);
+
+        return layer;
+    }
+
+    private MapObject readMapObject(ByteBuffer buf) throws IOException {
+        final String name = getString(buf);
+        final String type = getString(buf);
+        final int x = buf.getInt();
+        final int y = buf.getInt();
+        final int width = buf.getInt();
+        final int height = buf.getInt();
+        final String imageSource = getString(buf);
+
+        MapObject obj = new MapObject(x, y, width, height);
+        if (name != null)
+            obj.setName(name);
+        if (type != null)
+            obj.setType(type);
+        if (imageSource != null)
+            obj.setImageSource(resolvePath(imageSource));
+
+        Properties props = new Properties();
+        readProperties(buf, props);
+        obj.setProperties(props);
+        return obj;
+    }
+
+    private Map unmarshal(ByteBuffer buf) throws Exception {
+        readStringTable(buf);
+
+        if (buf.getInt() != TMBFormat.MAGIC) {
+            throw new IOException("Not a valid TMB map file.");
+        }
+        final short version = buf.getShort();
+        if (version > TMBFormat.VERSION) {
+            throw new IOException("Unsupported TMB version " + version);
+        }
+        buf.getShort();
+
+        final int orientation = buf.getInt();
+        map = new Map(buf.getInt(), buf.getInt());
+        map.setOrientation(orientation);
+        map.setTileWidth(buf.getInt());
+        map.setTileHeight(buf.getInt());
+        map.setEyeDistance(buf.getFloat());
+        map.setViewportWidth(buf.getInt());
+        map.setViewportHeight(buf.getInt());
+        readProperties(buf, map.getProperties());
+
+        int count = buf.getInt();
+        while (count-- > 0) {
+            map.addTileset(readTileset(buf));
+        }
+
+        final Tile[] tiles = createTileTable();
+
+        count = buf.getInt();
+        while (count-- > 0) {
+            MapLayer layer = readLayer(buf, tiles);
+            if (layer != null) {
+                map.addLayer(layer);
+            }
+        }
+
+        Map unmarshalledMap = map;
+        map = null;
+        strings = null;
+        return unmarshalledMap;
+    }
+
+    // MapReader interface
+
+    public Map readMap(String filename) throws Exception {
+        tmbPath = filename.substring(0,
+                filename.lastIndexOf(File.separatorChar) + 1);
+
+        FileInputStream in = new FileInputStream(filename);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buf = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            Map unmarshalledMap = unmarshal(buf);
+            unmarshalledMap.setFilename(filename);
+            return unmarshalledMap;
+        } finally {
+            // The mapping stays valid after the channel is closed
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a map from the given stream. When the stream was opened on a
+     * regular file that is not compressed, the file is mapped instead, as
+     * {@link #readMap(String)} does, so that large maps are neither copied
+     * to the heap nor read before their layers are used.
+     */
+    public Map readMap(InputStream in, String filename) throws Exception {
+        if (isUncompressedFile(filename)) {
+            return readMap(filename);
+        }
+
+        tmbPath = filename.substring(0,
+                filename.lastIndexOf(File.separatorChar) + 1);
+
+        Map unmarshalledMap = unmarshal(readFully(in));
+        unmarshalledMap.setFilename(filename);
+        return unmarshalledMap;
+    }
+
+    public Map readMap(InputStream in) throws Exception {
+        tmbPath = "";
+        return unmarshal(readFully(in));
+    }
+
+    /**
+     * Returns whether the given file is a regular file that starts with the
+     * magic number, rather than being compressed or a URL.
+     */
+    private static boolean isUncompressedFile(String filename) {
+        File file = new File(filename);
+        if (!file.isFile()) {
+            return false;
+        }
+        try {
+            DataInputStream in =
+                new DataInputStream(new FileInputStream(file));
+            try {
+                return in.readInt() == TMBFormat.MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static ByteBuffer readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[65536];
+        int n;
+        while ((n = in.read(chunk)) > 0) {
+            out.write(chunk, 0, n);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    public TileSet readTileset(String filename) throws Exception {
+        logger.error("Tilesets aren't supported!");
+        return null;
+    }
+
+    public TileSet readTileset(InputStream in) throws Exception {
+        logger.error("Tilesets aren't supported!");
+        return null;
+    }
+
+    /**
+     * @see tiled.io.PluggableMapIO#getFilter()
+     */
+    public String getFilter() throws Exception {
+        return "*.tmb";
+    }
+
+    public String getPluginPackage() {
+        return "Tiled binary map reader";
+    }
+
+    public String getDescription() {
+        return
+            "The Tiled binary map format (TMB) reader\n" +
+            "\n" +
+            "Tiled Map Editor, (c) 2004-2008\n" +
+            "Adam Turk\n" +
+            "Bjorn Lindeijer";
+    }
+
+    public String getName() {
+        return "Tiled binary map reader";
+    }
+
+    public boolean accept(File pathname) {
+        try {
+            String path = pathname.getCanonicalPath();
+            if (path.endsWith(".tmb")) {
+                return true;
+            }
+        } catch (IOException e) {}
+        return false;
+    }
+
+    public boolean sniff(byte[] header) {
+        return header.length >= 4 &&
+            ByteBuffer.wrap(header).getInt(0) == TMBFormat.MAGIC;
+    }
+
+    public void setLogger(PluginLogger logger) {
+        this.logger = logger;
+    }
+}
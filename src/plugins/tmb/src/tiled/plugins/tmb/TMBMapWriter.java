@@ -0,0 +1,502 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.plugins.tmb;
+
+import java.awt.Color;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.zip.Deflater;
+
+import tiled.core.*;
+import tiled.core.Map;
+import tiled.io.ImageHelper;
+import tiled.io.MapWriter;
+import tiled.io.PluginLogger;
+import tiled.io.xml.XMLMapWriter;
+import tiled.util.TiledConfiguration;
+
+/**
+ * Writes maps in the Tiled binary map format. See {@link TMBFormat} for the
+ * layout of the file.
+ *
+ * Everything is written through a single direct buffer onto a
+ * {@link WritableByteChannel}, so saving to a file never goes through the
+ * stream classes. Layer data is compressed with a {@link Deflater} a row at
+ * a time, following the "layerCompression" saving preference. Images of
+ * tilesets that do not come from a tileset image are always embedded as PNG.
+ *
+ * @version $Id$
+ */
+public class TMBMapWriter implements MapWriter
+{
+    private static final int BUFFER_SIZE = 65536;
+
+    private PluginLogger logger;
+    private WritableByteChannel channel;
+    private ByteBuffer buffer;
+    private long flushed;
+    private String wp;
+
+    private final HashMap<String, Integer> stringIndices =
+            new HashMap<String, Integer>();
+    private final ArrayList<String> strings = new ArrayList<String>();
+
+    public TMBMapWriter() {
+        logger = new PluginLogger();
+    }
+
+    /**
+     * Saves a map to a file.
+     *
+     * @param map the map to be saved
+     * @param filename the filename of the map file
+     */
+    public void writeMap(Map map, String filename) throws Exception {
+        // The layers may still be read lazily from the file being replaced
+        decodeLayers(map);
+
+        FileOutputStream out = new FileOutputStream(filename);
+        try {
+            writeMap(map, out.getChannel(), filename);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Decodes the layers of the map that were not decoded yet, so that
+     * they no longer depend on the file they were read from.
+     */
+    private static void decodeLayers(Map map) {
+        Iterator<MapLayer> ml = map.getLayers();
+        while (ml.hasNext()) {
+            MapLayer layer = ml.next();
+            if (layer instanceof TMBTileLayer) {
+                ((TMBTileLayer) layer).decode();
+            }
+        }
+    }
+
+    /**
+     * Writes a map to an already opened stream. The stream is not closed.
+     *
+     * @param map the map to be written
+     * @param out the output stream to write to
+     */
+    public void writeMap(Map map, OutputStream out) throws Exception {
+        writeMap(map, Channels.newChannel(out), "/.");
+    }
+
+    public void writeTileset(TileSet set, String filename) throws Exception {
+        logger.error("Tilesets are not supported!");
+        logger.error("(asked to write " + filename + ")");
+    }
+
+    public void writeTileset(TileSet set, OutputStream out) throws Exception {
+        logger.error("Tilesets are not supported!");
+    }
+
+    private void writeMap(Map map, WritableByteChannel ch, String wp)
+        throws IOException
+    {
+        this.wp = wp;
+        channel = ch;
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        flushed = 0;
+        stringIndices.clear();
+        strings.clear();
+
+        try {
+            putInt(TMBFormat.MAGIC);
+            putShort(TMBFormat.VERSION);
+            putShort((short) 0);
+
+            putInt(map.getOrientation());
+            putInt(map.getWidth());
+            putInt(map.getHeight());
+            putInt(map.getTileWidth());
+            putInt(map.getTileHeight());
+            putFloat(map.getEyeDistance());
+            putInt(map.getViewportWidth());
+            putInt(map.getViewportHeight());
+            writeProperties(map.getProperties());
+
+            Vector<TileSet> tilesets = map.getTilesets();
+            putInt(tilesets.size());
+            int firstgid = 1;
+            for (TileSet tileset : tilesets) {
+                tileset.setFirstGid(firstgid);
+                writeTileset(tileset);
+                firstgid += tileset.getMaxTileId() + 1;
+            }
+
+            putInt(map.getTotalLayers());
+            Iterator<MapLayer> ml = map.getLayers();
+            while (ml.hasNext()) {
+                writeMapLayer(ml.next());
+            }
+
+            final long stringTableOffset = flushed + buffer.position();
+            putInt(strings.size());
+            for (String s : strings) {
+                putBytes(s.getBytes("UTF-8"));
+            }
+
+            ensure(TMBFormat.TRAILER_SIZE);
+            buffer.putLong(stringTableOffset);
+            buffer.putInt(TMBFormat.MAGIC);
+            flush();
+        } finally {
+            channel = null;
+            buffer = null;
+        }
+    }
+
+    private void writeTileset(TileSet set) throws IOException {
+        final String source = set.getSource();
+        final String tilebmpFile = set.getTilebmpFile();
+
+        if (source != null) {
+            putByte(TMBFormat.TILESET_EXTERNAL);
+            putInt(set.getFirstGid());
+            putString(XMLMapWriter.getRelativePath(wp, source));
+            putString(set.getBaseDir());
+            return;
+        }
+
+        putByte(tilebmpFile != null ?
+                TMBFormat.TILESET_IMAGE : TMBFormat.TILESET_COLLECTION);
+        putInt(set.getFirstGid());
+        putString(set.getName());
+        putString(set.getBaseDir());
+
+        if (tilebmpFile != null) {
+            putString(XMLMapWriter.getRelativePath(wp, tilebmpFile));
+            putInt(set.getTileWidth());
+            putInt(set.getTileHeight());
+            putInt(set.getTileSpacing());
+            putInt(set.getTileMargin());
+
+            Color trans = set.getTransparentColor();
+            putByte((byte) (trans != null ? 1 : 0));
+            putInt(trans != null ? trans.getRGB() : 0);
+
+            // Only the properties of the tiles need to be stored, the tiles
+            // themselves are cut from the tileset image again.
+            int count = 0;
+            for (Iterator<?> it = set.iterator(); it.hasNext();) {
+                Tile tile = (Tile) it.next();
+                if (tile != null && !tile.getProperties().isEmpty()) {
+                    count++;
+                }
+            }
+            putInt(count);
+            for (Iterator<?> it = set.iterator(); it.hasNext();) {
+                Tile tile = (Tile) it.next();
+                if (tile != null && !tile.getProperties().isEmpty()) {
+                    putInt(tile.getId());
+                    writeProperties(tile.getProperties());
+                }
+            }
+        } else {
+            putInt(set.getTotalImages());
+            Enumeration<String> ids = set.getImageIds();
+            while (ids.hasMoreElements()) {
+                int id = Integer.parseInt(ids.nextElement());
+                Image image = set.getImageById(id);
+                putInt(id);
+                putString(set.getImageSource(id));
+                putBytes(ImageHelper.imageToPNG(image));
+            }
+
+            int count = 0;
+            for (Iterator<?> it = set.iterator(); it.hasNext();) {
+                if (it.next() != null) {
+                    count++;
+                }
+            }
+            putInt(count);
+            for (Iterator<?> it = set.iterator(); it.hasNext();) {
+                Tile tile = (Tile) it.next();
+                if (tile != null) {
+                    putInt(tile.getId());
+                    putByte((byte) (tile instanceof AnimatedTile ? 1 : 0));
+                    putInt(tile.getImageId());
+                    writeProperties(tile.getProperties());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a layer. This should be done <b>after</b> the first global ids
+     * for the tilesets are determined, in order for the right gids to be
+     * written to the layer data.
+     */
+    private void writeMapLayer(MapLayer l) throws IOException {
+        final Rectangle bounds = l.getBounds();
+
+        putByte(l instanceof ObjectGroup ?
+                TMBFormat.LAYER_OBJECTS : TMBFormat.LAYER_TILES);
+        putString(l.getName());
+        putInt(bounds.x);
+        putInt(bounds.y);
+        putInt(bounds.width);
+        putInt(bounds.height);
+        putByte((byte) (l.isVisible() ? 1 : 0));
+        putFloat(l.getOpacity());
+        putFloat(l.getViewPlaneDistance());
+        putByte((byte) (l.isViewPlaneInfinitelyFarAway() ? 1 : 0));
+        writeProperties(l.getProperties());
+
+        if (l instanceof ObjectGroup) {
+            writeObjectGroup((ObjectGroup) l);
+        } else {
+            final TileLayer tl = (TileLayer) l;
+            putInt(tl.getTileWidth());
+            putInt(tl.getTileHeight());
+            writeLayerData(tl);
+
+            int count = 0;
+            CellPropertiesMap.Cursor cursor = tl.getTileInstanceProperties();
+            while (cursor.next()) {
+                if (!cursor.getProperties().isEmpty()) {
+                    count++;
+                }
+            }
+            putInt(count);
+            cursor = tl.getTileInstanceProperties();
+            while (cursor.next()) {
+                Properties tip = cursor.getProperties();
+                if (!tip.isEmpty()) {
+                    putInt(cursor.getX());
+                    putInt(cursor.getY());
+                    writeProperties(tip);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the tile data block of a layer. Uncompressed data is put into
+     * the output buffer directly, compressed data has to be collected first
+     * since its length precedes it.
+     */
+    private void writeLayerData(TileLayer tl) throws IOException {
+        final Rectangle bounds = tl.getBounds();
+        final int rawLength = bounds.width * bounds.height * 4;
+        final boolean compress = TiledConfiguration.node("saving")
+                .getBoolean("layerCompression", true);
+
+        if (!compress) {
+            putByte(TMBFormat.COMPRESSION_NONE);
+            putInt(rawLength);
+            putInt(rawLength);
+            for (int y = 0; y < bounds.height; y++) {
+                for (int x = 0; x < bounds.width; x++) {
+                    ensure(4);
+                    buffer.putInt(getGid(tl, x + bounds.x, y + bounds.y));
+                }
+            }
+            return;
+        }
+
+        final byte[] row = new byte[bounds.width * 4];
+        final byte[] chunk = new byte[BUFFER_SIZE];
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rawLength / 8 + 64);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+        try {
+            for (int y = 0; y < bounds.height; y++) {
+                int i = 0;
+                for (int x = 0; x < bounds.width; x++) {
+                    int gid = getGid(tl, x + bounds.x, y + bounds.y);
+                    row[i++] = (byte) (gid >> 24);
+                    row[i++] = (byte) (gid >> 16);
+                    row[i++] = (byte) (gid >> 8);
+                    row[i++] = (byte) gid;
+                }
+                deflater.setInput(row);
+                while (!deflater.needsInput()) {
+                    int n = deflater.deflate(chunk);
+                    out.write(chunk, 0, n);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.write(chunk, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        putByte(TMBFormat.COMPRESSION_DEFLATE);
+        putInt(rawLength);
+        putBytes(out.toByteArray());
+    }
+
+    private void writeObjectGroup(ObjectGroup og) throws IOException {
+        int count = 0;
+        for (Iterator<MapObject> it = og.getObjects(); it.hasNext(); it.next()) {
+            count++;
+        }
+        putInt(count);
+
+        Iterator<MapObject> it = og.getObjects();
+        while (it.hasNext()) {
+            MapObject mapObject = it.next();
+            putString(mapObject.getName());
+            putString(mapObject.getType());
+            putInt(mapObject.getX());
+            putInt(mapObject.getY());
+            putInt(mapObject.getWidth());
+            putInt(mapObject.getHeight());
+
+            String imageSource = mapObject.getImageSource();
+            if (imageSource != null && imageSource.length() > 0) {
+                putString(XMLMapWriter.getRelativePath(wp, imageSource));
+            } else {
+                putString(null);
+            }
+            writeProperties(mapObject.getProperties());
+        }
+    }
+
+    private void writeProperties(Properties props) throws IOException {
+        putInt(props.size());
+        for (Enumeration<?> e = props.propertyNames(); e.hasMoreElements();) {
+            final String key = (String) e.nextElement();
+            putString(key);
+            putString(props.getProperty(key));
+        }
+    }
+
+    private static int getGid(TileLayer tl, int x, int y) {
+        Tile tile = tl.getTileAt(x, y);
+        return tile != null ? tile.getGid() : 0;
+    }
+
+    /**
+     * Writes a reference to the given string, adding it to the string table
+     * when it is not in there yet.
+     */
+    private void putString(String s) throws IOException {
+        if (s == null) {
+            putInt(TMBFormat.NULL_STRING);
+            return;
+        }
+        Integer index = stringIndices.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.add(s);
+            stringIndices.put(s, index);
+        }
+        putInt(index);
+    }
+
+    private void putByte(byte value) throws IOException {
+        ensure(1);
+        buffer.put(value);
+    }
+
+    private void putShort(short value) throws IOException {
+        ensure(2);
+        buffer.putShort(value);
+    }
+
+    private void putInt(int value) throws IOException {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    private void putFloat(float value) throws IOException {
+        ensure(4);
+        buffer.putFloat(value);
+    }
+
+    /**
+     * Writes the length of the given array followed by its contents. Arrays
+     * that do not fit in the buffer are handed to the channel directly.
+     */
+    private void putBytes(byte[] bytes) throws IOException {
+        putInt(bytes.length);
+        if (bytes.length <= buffer.remaining()) {
+            buffer.put(bytes);
+        } else {
+            flush();
+            write(ByteBuffer.wrap(bytes));
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    private void write(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            flushed += channel.write(src);
+        }
+    }
+
+    /**
+     * @see tiled.io.PluggableMapIO#getFilter()
+     */
+    public String getFilter() throws Exception {
+        return "*.tmb";
+    }
+
+    public String getPluginPackage() {
+        return "Tiled binary map writer";
+    }
+
+    public String getDescription() {
+        return
+            "The Tiled binary map format (TMB) writer\n" +
+            "\n" +
+            "Tiled Map Editor, (c) 2004-2008\n" +
+            "Adam Turk\n" +
+            "Bjorn Lindeijer";
+    }
+
+    public String getName() {
+        return "Tiled binary map writer";
+    }
+
+    public boolean accept(File pathname) {
+        try {
+            String path = pathname.getCanonicalPath();
+            if (path.endsWith(".tmb")) {
+                return true;
+            }
+        } catch (IOException e) {}
+        return false;
+    }
+
+    public void setLogger(PluginLogger logger) {
+        this.logger = logger;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.plugins.tmb;
+
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import tiled.core.Tile;
+import tiled.core.TileLayer;
+import tiled.io.PluginLogger;
+
+/**
+ * A tile layer read from a TMB file, which keeps its tile data block in the
+ * (usually memory mapped) file until the tiles are first accessed. Only then
+ * is the block decompressed and are the global tile ids resolved.
+ *
+ * The layer may cover only part of the stored layer, in which case only
+ * that part is decoded.
+ *
+ * The data is decoded from {@link #loadRows()}, which {@link TileLayer}
+ * calls before it accesses the tile array.
+ *
+ * @version $Id$
+ */
+class TMBTileLayer extends TileLayer
+{
+    private static final int CHUNK_SIZE = 65536;
+
+    private ByteBuffer data;
+    private volatile boolean decoded;
+    private byte compression;
+    private int stride;
+    private int dataX, dataY;
+    private Tile[] tiles;
+    private PluginLogger logger;
+
+    /**
+     * @param area        the part of the stored layer this layer covers
+     * @param stride      the width of the stored layer
+     * @param tileWidth   width of the tiles of this layer
+     * @param tileHeight  height of the tiles of this layer
+     * @param data        the stored tile data block
+     * @param compression the compression of the data block
+     * @param tiles       the tiles by global tile id
+     * @param logger      the logger to report a corrupt block to
+     */
+    TMBTileLayer(Rectangle area, int stride, int tileWidth, int tileHeight,
+                 ByteBuffer data, byte compression, Tile[] tiles,
+                 PluginLogger logger)
+    {
+        super(area.width, area.height, tileWidth, tileHeight);
+        this.data = data;
+        this.compression = compression;
+        this.stride = stride;
+        this.dataX = area.x;
+        this.dataY = area.y;
+        this.tiles = tiles;
+        this.logger = logger;
+        decoded = false;
+    }
+
+    /**
+     * Returns whether the tile data has been decoded.
+     *
+     * @return <code>true</code> when the tiles of this layer are in memory
+     */
+    boolean isDecoded() {
+        return decoded;
+    }
+
+    protected void loadRows() {
+        if (!decoded) {
+            decode();
+        }
+    }
+
+    /**
+     * Decodes the tile data block into the tile array, unless this has
+     * already been done. The block and the tile table are released
+     * afterwards.
+     *
+     * Layers may be read from several threads at once, so the others wait
+     * while one thread decodes. The block is taken before the rows are
+     * filled, so that filling them does not decode again.
+     */
+    synchronized void decode() {
+        if (data == null) {
+            return;
+        }
+
+        final ByteBuffer block = data;
+        data = null;
+
+        try {
+            if (compression == TMBFormat.COMPRESSION_DEFLATE) {
+                inflate(block);
+            } else {
+                IntBuffer gids = block.asIntBuffer();
+                for (int y = 0; y < bounds.height; y++) {
+                    gids.position((dataY + y) * stride + dataX);
+                    final Tile[] row = getRowForWriting(y);
+                    for (int x = 0; x < bounds.width; x++) {
+                        row[x] = getTile(gids.get());
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            logger.error("Corrupt tile data in layer " + getName() + ": " +
+                    e.getLocalizedMessage());
+        } finally {
+            tiles = null;
+            decoded = true;
+        }
+    }
+
+    /**
+     * Inflates the block a row at a time, feeding the inflater from the
+     * block in chunks, so that neither the compressed nor the uncompressed
+     * data needs to be copied as a whole. Inflating stops after the last
+     * row of this layer.
+     */
+    private void inflate(ByteBuffer block) throws DataFormatException {
+        final byte[] chunk = new byte[Math.min(CHUNK_SIZE, block.remaining())];
+        final byte[] row = new byte[stride * 4];
+        final int bottom = dataY + bounds.height;
+        Inflater inflater = new Inflater();
+
+        try {
+            for (int y = 0; y < bottom; y++) {
+                int filled = 0;
+                while (filled < row.length) {
+                    if (inflater.needsInput()) {
+                        if (!block.hasRemaining()) {
+                            throw new DataFormatException("Unexpected end of data");
+                        }
+                        int n = Math.min(chunk.length, block.remaining());
+                        block.get(chunk, 0, n);
+                        inflater.setInput(chunk, 0, n);
+                    }
+                    int inflated =
+                        inflater.inflate(row, filled, row.length - filled);
+                    if (inflated == 0 && (inflater.finished() ||
+                                          inflater.needsDictionary())) {
+                        throw new DataFormatException("Unexpected end of data");
+                    }
+                    filled += inflated;
+                }
+
+                if (y < dataY) {
+                    continue;
+                }
+
+                final Tile[] tileRow = getRowForWriting(y - dataY);
+                int i = dataX * 4;
+                for (int x = 0; x < bounds.width; x++) {
+                    int gid = (row[i] & 0xFF) << 24 | (row[i + 1] & 0xFF) << 16 |
+                              (row[i + 2] & 0xFF) << 8 | (row[i + 3] & 0xFF);
+                    tileRow[x] = getTile(gid);
+                    i += 4;
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private Tile getTile(int gid) {
+        return gid > 0 && gid < tiles.length ? tiles[gid] : null;
+    }
+
+    protected void setBounds(Rectangle bounds) {
+        super.setBounds(bounds);
+        // The stored data no longer fits the layer
+        data = null;
+        tiles = null;
+        decoded = true;
+    }
+}
@@ -2,6 +2,7 @@
 package tiled;
 
 import tiled.command.CommandInterpreter;
+import tiled.io.IOStatisticsMonitor;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -26,6 +27,8 @@ public class Main {
      */
     public static void main(String[] args) 
     {
+        // Make load and save statistics available over JMX
+        IOStatisticsMonitor.register();
         
         boolean themeset=false;
         //Try to set GTK first, otherwise we'll just use the system theme
@@ -112,7 +115,9 @@ public class Main {
             "\twill start tiled in command interpreter mode. All commands are\n" +
             "\tread from the command line after the -commandmode option.\n" +
             "\tFor a list of available commands, run tiled with\n" +
-            "\t'-commandmode help' (which runs the help command)\n");
+            "\t'-commandmode help' (which runs the help command).\n" +
+            "\tWith the -stats option, the time spent in each phase of\n" +
+            "\tloading and saving maps is printed.\n");
         o.println();
     }
 }
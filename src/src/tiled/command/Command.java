@@ -114,7 +114,7 @@ abstract class Command implements Cloneable {
             return null;
         }
         try {
-            return defaultValueGetter.invoke(this, (Object)null);
+            return defaultValueGetter.invoke(this);
         } catch (IllegalAccessException ex) {
             return null;
         } catch (IllegalArgumentException ex) {
@@ -137,20 +137,7 @@ abstract class Command implements Cloneable {
         for (Method m : methods) {
             if (m.getName().startsWith("set") && m.getParameterTypes().length == 1) {
                 String attributeName = m.getName().substring("set".length());
-                try {
-                    Method defaultGetter = getClass().getMethod("get" + attributeName + "Default", (Class<?>)null);
-                    try {
-                        if (defaultGetter.invoke(this, (Object)null) == null) {
-                            return false;
-                        }
-                    } catch (IllegalAccessException ex) {
-                        return false;
-                    } catch (IllegalArgumentException ex) {
-                        return false;
-                    } catch (InvocationTargetException ex) {
-                        return false;
-                    }
-                } catch (NoSuchMethodException nsmx) {
+                if (getDefaultValueOf(attributeName) == null) {
                     return false;
                 }
             }
@@ -10,6 +10,10 @@ import java.util.Map;
 import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import tiled.io.IOStatistics;
+import tiled.io.IOStatisticsListener;
+import tiled.io.MapHelper;
+import tiled.mapeditor.plugin.PluginClassLoader;
 
 /**
  *
@@ -23,6 +27,7 @@ public class CommandInterpreter {
 
     private tiled.core.Map map = null;
     private String mapFileName = null;
+    private PluginClassLoader pluginLoader = null;
     
     Map<String,Command> commandPrototypes;
     
@@ -33,13 +38,32 @@ public class CommandInterpreter {
             new HelpCommand(this),
             new OpenCommand(this),
             new SaveCommand(this),
+            new FootprintCommand(this),
         };
         for(Command c : commands)
             commandPrototypes.put(c.getName(), c);
     }
     
+    /**
+     * The option that makes the interpreter print the statistics of each
+     * load and save. It may appear anywhere between the commands.
+     */
+    public static final String STATISTICS_OPTION = "-stats";
+
     public int interpret(String[] commandLine, int off) {
         
+        // Take out the options, so they aren't mistaken for parameters
+        boolean printStatistics = false;
+        Vector<String> remaining = new Vector<String>();
+        for(int current=off; current<commandLine.length; ++current){
+            if(STATISTICS_OPTION.equals(commandLine[current]))
+                printStatistics = true;
+            else
+                remaining.add(commandLine[current]);
+        }
+        commandLine = remaining.toArray(new String[remaining.size()]);
+        off = 0;
+        
         Vector<Command> commands = new Vector<Command>();
         for(int current=off; current<commandLine.length; ++current){
             String commandName = commandLine[current];
@@ -113,12 +137,24 @@ public class CommandInterpreter {
             }
         }
         
+        IOStatisticsListener statisticsPrinter = new IOStatisticsListener() {
+            public void statisticsRecorded(IOStatistics stats) {
+                System.out.println(stats.getSummary());
+            }
+        };
+        if(printStatistics)
+            IOStatistics.addListener(statisticsPrinter);
+        
         // now that we have parsed all commands, execute them one after the other
-        for(Command c : commands){
-            int returnValue = c.execute();
-            if(returnValue != 0)
-                return returnValue;
-            
+        try {
+            for(Command c : commands){
+                int returnValue = c.execute();
+                if(returnValue != 0)
+                    return returnValue;
+                
+            }
+        } finally {
+            IOStatistics.removeListener(statisticsPrinter);
         }
         return 0;
     }
@@ -127,6 +163,23 @@ public class CommandInterpreter {
         return commandPrototypes.values();
     }
     
+    /**
+     * Returns the plugin loader, finding the plugins on first use. No
+     * progress is shown, so this also works without a display.
+     */
+    PluginClassLoader getPluginLoader() {
+        if(pluginLoader == null){
+            pluginLoader = PluginClassLoader.getInstance();
+            try {
+                pluginLoader.readPlugins(null, null);
+            } catch (Exception ex) {
+                raiseError("could not read plugins - " + ex.getMessage());
+            }
+            MapHelper.init(pluginLoader);
+        }
+        return pluginLoader;
+    }
+
     public tiled.core.Map getMap() {
         return map;
     }
@@ -137,6 +190,7 @@ public class CommandInterpreter {
 
     public void setMap(tiled.core.Map map, String fileName) {
         this.map = map;
+        this.mapFileName = fileName;
     }
 
     public String getMapFileName() {
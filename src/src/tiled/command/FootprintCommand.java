@@ -0,0 +1,70 @@
+package tiled.command;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import tiled.core.MemoryFootprint;
+
+/**
+ * Writes the estimated memory footprint of the current map, as CSV or JSON.
+ * Without an argument the footprint is written to standard output:
+ *
+ * footprint format=json
+ * footprint footprint.csv,format=csv
+ */
+class FootprintCommand extends Command {
+
+    private String format = getFormatDefault();
+
+    FootprintCommand(CommandInterpreter interp) {
+        super("footprint", ArgumentRequirement.REQUIRES_ZERO_OR_ONE, interp);
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public String getFormatDefault() {
+        return "csv";
+    }
+
+    @Override
+    int execute() {
+        if (interpreter.getMap() == null) {
+            interpreter.raiseError("footprint requires an open map");
+            return 1;
+        }
+        if (!format.equalsIgnoreCase("csv") && !format.equalsIgnoreCase("json")) {
+            interpreter.raiseError("unknown footprint format '" + format + "'");
+            return 1;
+        }
+
+        MemoryFootprint footprint = new MemoryFootprint();
+        footprint.addMap(interpreter.getMap());
+
+        String filename = null;
+        if (getArguments().length > 0) {
+            filename = getArguments()[0];
+        }
+        try {
+            Writer w = filename != null ?
+                new FileWriter(filename) : new OutputStreamWriter(System.out);
+            try {
+                if (format.equalsIgnoreCase("json")) {
+                    footprint.writeJSON(w);
+                } else {
+                    footprint.writeCSV(w);
+                }
+            } finally {
+                if (filename != null) {
+                    w.close();
+                }
+            }
+        } catch (IOException ex) {
+            interpreter.raiseError("could not write footprint to " + filename + " - " + ex.getMessage());
+            return 1;
+        }
+        return 0;
+    }
+}
@@ -1,15 +1,16 @@
 package tiled.command;
 
-import tiled.io.xml.XMLMapTransformer;
+import tiled.io.MapHelper;
 
 class OpenCommand extends Command {
 
     @Override
     int execute() {
-        XMLMapTransformer t = new XMLMapTransformer();
         String filename = getArguments()[0];
         try {
-            interpreter.setMap(t.readMap(filename), filename);
+            // Makes the plugins known to MapHelper
+            interpreter.getPluginLoader();
+            interpreter.setMap(MapHelper.readMap(filename), filename);
         } catch (Exception ex) {
             interpreter.raiseError("could not load file " + filename + "");
             return 1;
@@ -1,5 +1,6 @@
 package tiled.command;
 
+import tiled.io.MapWriter;
 import tiled.io.xml.XMLMapWriter;
 import tiled.util.OverriddenPreferences;
 
@@ -38,8 +39,16 @@ class SaveCommand extends Command {
         if (getArguments().length > 0) {
             filename = getArguments()[0];
         }
+        if (filename == null) {
+            outer.raiseError("save requires a file name");
+            return 1;
+        }
         try {
-            mapWriter.writeMap(outer.getMap(), filename);
+            MapWriter writer = mapWriter;
+            if (!filename.endsWith(".tmx") && !filename.endsWith(".tmx.gz")) {
+                writer = (MapWriter) outer.getPluginLoader().getWriterFor(filename);
+            }
+            writer.writeMap(outer.getMap(), filename);
         } catch (Exception ex) {
             outer.raiseError("could not write map to " + filename + " - " + ex.getMessage());
             return 1;
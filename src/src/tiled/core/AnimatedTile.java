@@ -88,13 +88,28 @@ public class AnimatedTile extends Tile {
     }
 
     /**
-     * Handles drawing the correct frame, and iterating by the
-     * frame rate
+     * Draws the current frame. Drawing does not advance the animation, so
+     * that all places showing this tile show the same frame however often
+     * they are repainted. The frames are advanced over time by
+     * {@link Sprite#advance(long)}.
      *
      * @see tiled.core.Tile#draw(Graphics, int, int, double)
+     * @see tiled.view.AnimationScheduler
      */
     public void draw(Graphics g, int x, int y, double zoom) {
-        sprite.getCurrentFrame().draw(g, x, y, zoom);
-        sprite.iterateFrame();
+        Tile frame = sprite.getCurrentFrame();
+        if (frame != null) {
+            frame.draw(g, x, y, zoom);
+        }
+    }
+
+    /**
+     * Returns whether the current frame has its scaled image available.
+     *
+     * @see tiled.core.Tile#isScaledImageCached(double)
+     */
+    public boolean isScaledImageCached(double zoom) {
+        Tile frame = sprite.getCurrentFrame();
+        return frame == null || frame.isScaledImageCached(zoom);
     }
 }
@@ -0,0 +1,254 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.core;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Maps tile locations to properties, such as the tile instance properties of
+ * a {@link TileLayer}.
+ * <p>
+ * The coordinates are packed into a <code>long</code> key, and the keys and
+ * values are kept in two arrays using open addressing with linear probing,
+ * so that neither looking up nor adding a location allocates an object.
+ * The locations that have properties are visited with a {@link Cursor}.
+ *
+ * @version $Id$
+ */
+public class CellPropertiesMap implements Cloneable
+{
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Properties[] values;     // null marks a free slot
+    private int size;
+
+    public CellPropertiesMap() {
+        keys = new long[MIN_CAPACITY];
+        values = new Properties[MIN_CAPACITY];
+    }
+
+    /**
+     * Packs the given location into a key. Keys sort top down, then left
+     * to right.
+     */
+    private static long key(int x, int y) {
+        return ((long) y << 32) | ((x ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+    }
+
+    private static int keyX(long key) {
+        return (int) key ^ Integer.MIN_VALUE;
+    }
+
+    private static int keyY(long key) {
+        return (int) (key >> 32);
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (keys.length - 1);
+    }
+
+    /**
+     * Returns the properties at the given location, or <code>null</code>
+     * if there are none.
+     */
+    public Properties get(int x, int y) {
+        final long key = key(x, y);
+        final int mask = keys.length - 1;
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the properties at the given location.
+     *
+     * @param properties the properties, or <code>null</code> to remove the
+     *                   properties at the location
+     */
+    public void put(int x, int y, Properties properties) {
+        if (properties == null) {
+            remove(x, y);
+            return;
+        }
+
+        final long key = key(x, y);
+        final int mask = keys.length - 1;
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] = properties;
+                return;
+            }
+        }
+
+        keys[i] = key;
+        values[i] = properties;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /**
+     * Removes the properties at the given location, if any.
+     */
+    public void remove(int x, int y) {
+        final long key = key(x, y);
+        final int mask = keys.length - 1;
+        int i = slot(key);
+        while (values[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (values[i] == null) {
+            return;
+        }
+
+        // Move back the entries after the removed one that would no longer
+        // be found past the free slot
+        values[i] = null;
+        size--;
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            final int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                values[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        final long[] oldKeys = keys;
+        final Properties[] oldValues = values;
+        keys = new long[capacity];
+        values = new Properties[capacity];
+
+        final int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j]);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Returns the number of locations with properties.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of slots in the table, used and free.
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        keys = new long[MIN_CAPACITY];
+        values = new Properties[MIN_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Returns a cursor over the locations with properties, top down, then
+     * left to right. Changing the map while iterating does not affect the
+     * cursor.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Returns a copy of this map, with copies of the properties.
+     */
+    public Object clone() {
+        try {
+            CellPropertiesMap clone = (CellPropertiesMap) super.clone();
+            clone.keys = keys.clone();
+            clone.values = new Properties[values.length];
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    clone.values[i] = (Properties) values[i].clone();
+                }
+            }
+            return clone;
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError(e.toString());
+        }
+    }
+
+    /**
+     * Visits the locations of a {@link CellPropertiesMap} that have
+     * properties.
+     */
+    public class Cursor
+    {
+        private final long[] sorted;
+        private final Properties[] sortedValues;
+        private int index = -1;
+
+        private Cursor() {
+            sorted = new long[size];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] != null) {
+                    sorted[n++] = keys[i];
+                }
+            }
+            Arrays.sort(sorted);
+
+            sortedValues = new Properties[size];
+            for (int i = 0; i < sorted.length; i++) {
+                sortedValues[i] = get(keyX(sorted[i]), keyY(sorted[i]));
+            }
+        }
+
+        /**
+         * Moves to the next location.
+         *
+         * @return <code>false</code> when there are no more locations
+         */
+        public boolean next() {
+            return ++index < sorted.length;
+        }
+
+        public int getX() {
+            return keyX(sorted[index]);
+        }
+
+        public int getY() {
+            return keyY(sorted[index]);
+        }
+
+        public Properties getProperties() {
+            return sortedValues[index];
+        }
+    }
+}
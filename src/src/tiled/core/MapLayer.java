@@ -46,6 +46,7 @@ public abstract class MapLayer implements Cloneable
     protected float opacity = 1.0f;
     protected Rectangle bounds;
     private Properties properties = new Properties();
+    private int modificationCount;
     private Vector<MapLayerChangeListener> listeners = new Vector<MapLayerChangeListener>();
 
     public MapLayer() {
@@ -109,6 +110,7 @@ public abstract class MapLayer implements Cloneable
      */
     protected void setBounds(Rectangle bounds) {
         this.bounds = new Rectangle(bounds);
+        modificationCount++;
     }
 
     /**
@@ -263,10 +265,14 @@ public abstract class MapLayer implements Cloneable
 
     public abstract void maskedMergeOnto(MapLayer other, Area mask);
 
+    public abstract void maskedMergeOnto(MapLayer other, SelectionMask mask);
+
     public abstract void copyFrom(MapLayer other);
 
     public abstract void maskedCopyFrom(MapLayer other, Area mask);
 
+    public abstract void maskedCopyFrom(MapLayer other, SelectionMask mask);
+
     public abstract MapLayer createDiff(MapLayer ml);
 
     /**
@@ -312,6 +318,28 @@ public abstract class MapLayer implements Cloneable
         return clone;
     }
 
+    /**
+     * Returns a copy of this layer as it is now, which is not affected by
+     * later changes to this layer. Unlike a clone, the copy has no listeners
+     * of its own, so changing it does not notify the map. A copy that is not
+     * changed may be read on another thread while this layer is edited.
+     * <p>
+     * For tile layers this is cheap, since the tiles are only copied when
+     * either layer changes them.
+     *
+     * @return a copy of this layer
+     * @see TileLayer#clone()
+     */
+    public MapLayer snapshot() {
+        try {
+            MapLayer copy = (MapLayer) clone();
+            copy.listeners = new Vector<MapLayerChangeListener>();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("Layer can not be copied", e);
+        }
+    }
+
     /**
      * @see MultilayerPlane#resize
      *
@@ -345,12 +373,36 @@ public abstract class MapLayer implements Cloneable
     public void setProperties(Properties p) {
         properties.clear();
         properties.putAll(p);
+        modificationCount++;
     }
 
     public Properties getProperties() {
         return properties;
     }
 
+    /**
+     * Returns the number of times the contents of this layer changed. Map
+     * writers may reuse what they wrote for a layer as long as this count
+     * stays the same. A copy of the layer starts at the count of the layer.
+     *
+     * Changes made directly to the Properties object returned by
+     * {@link #getProperties()} are not counted.
+     *
+     * @return the number of changes made to this layer
+     */
+    public int getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * Counts a change to the contents of this layer.
+     *
+     * @see MapLayer#getModificationCount()
+     */
+    public void markModified() {
+        modificationCount++;
+    }
+
     public boolean canEdit() {
         return !getLocked() && isVisible();
     }
@@ -403,6 +455,21 @@ public abstract class MapLayer implements Cloneable
             l.layerChanged(this, e);
     }
     
+    /**
+     * Notifies the listeners of this layer that the contents of the given
+     * region have changed. This is not done by the methods changing the
+     * contents, so that an edit touching many tiles is reported only once.
+     *
+     * @param region the changed region in tile coordinates
+     */
+    public void fireContentsChanged(Rectangle region) {
+        if (listeners.isEmpty())
+            return;
+        MapLayerChangeEvent e = MapLayerChangeEvent.createContentsChangeEvent(region);
+        for(MapLayerChangeListener l : listeners)
+            l.layerChanged(this, e);
+    }
+    
     void addMapLayerChangeListener(MapLayerChangeListener l){
         listeners.add(l);
     }
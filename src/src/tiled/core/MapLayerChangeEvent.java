@@ -5,6 +5,8 @@
 
 package tiled.core;
 
+import java.awt.Rectangle;
+
 /**
  * A change event for a layer specifies what change happened to that layer.
  * To know the type of change, call getChangeType(). Depending on the value
@@ -21,10 +23,18 @@ public class MapLayerChangeEvent {
      */
     public static final int CHANGETYPE_NAME = 1;
     
+    /**
+     * Indicates that the contents of a region of the layer in question have
+     * changed. The getRegion() member function will yield the region in
+     * tile coordinates.
+     */
+    public static final int CHANGETYPE_CONTENTS = 2;
+    
     private int changeType = -1;
     
     private String oldName;
     private String newName;
+    private Rectangle region;
     
     private MapLayerChangeEvent(int changeType){
         this.changeType = changeType;
@@ -37,6 +47,12 @@ public class MapLayerChangeEvent {
         e.newName = newName;
         return e;
     }
+    
+    static MapLayerChangeEvent createContentsChangeEvent(Rectangle region){
+        MapLayerChangeEvent e = new MapLayerChangeEvent(CHANGETYPE_CONTENTS);
+        e.region = new Rectangle(region);
+        return e;
+    }
 
     public int getChangeType() {
         return changeType;
@@ -49,4 +65,8 @@ public class MapLayerChangeEvent {
     public String getNewName() {
         return newName;
     }
+
+    public Rectangle getRegion() {
+        return region;
+    }
 }
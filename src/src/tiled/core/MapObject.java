@@ -92,6 +92,22 @@ public class MapObject implements Cloneable
         scaledImage = null;
     }
 
+    /**
+     * Returns the image read from the image source, unscaled, or
+     * <code>null</code> when there is none.
+     */
+    Image getSourceImage() {
+        return image;
+    }
+
+    /**
+     * Returns the scaled image kept for the size last drawn at, or
+     * <code>null</code> when there is none.
+     */
+    Image getCachedScaledImage() {
+        return scaledImage;
+    }
+
     /**
      * Returns the image to be used when drawing this object. This image is
      * scaled to the size of the object.
@@ -0,0 +1,391 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.core;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Estimates how much memory a map retains, broken down by layer, tileset,
+ * object group and, when added by the editor, undo history.
+ * <p>
+ * Each entry of the footprint names a category, the layer, tileset or edit
+ * it belongs to, and the component that takes the memory, such as the cells
+ * of a tile layer or the decoded images of a tileset. The estimates assume
+ * a 64-bit virtual machine with compressed references and count images at
+ * the size of their pixel data. Objects reachable from more than one place,
+ * like an image shared by two tiles or a layer that is both in the map and
+ * in the undo history, are counted once, under the first entry that reaches
+ * them. Maps should therefore be added before the undo history.
+ * <p>
+ * The footprint can be written as CSV or JSON, so that it can be compared
+ * between builds.
+ *
+ * @version $Id$
+ */
+public class MemoryFootprint
+{
+    public static final String LAYER = "layer";
+    public static final String TILESET = "tileset";
+    public static final String OBJECT_GROUP = "objectgroup";
+    public static final String UNDO = "undo";
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+
+    // Shallow sizes of the objects that are counted
+    private static final int TILE = align(OBJECT_HEADER + 6 * REFERENCE + 8);
+    private static final int MAP_OBJECT = align(OBJECT_HEADER + 8 * REFERENCE);
+    private static final int RECTANGLE = align(OBJECT_HEADER + 16);
+    private static final int HASHTABLE = 48;
+    private static final int HASH_ENTRY = 32;
+    private static final int INTEGER = 16;
+
+    /**
+     * The memory taken by one component of a layer, tileset or edit.
+     */
+    public static class Entry
+    {
+        private final String category;
+        private final String name;
+        private final String component;
+        private long bytes;
+
+        private Entry(String category, String name, String component) {
+            this.category = category;
+            this.name = name;
+            this.component = component;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getComponent() {
+            return component;
+        }
+
+        /**
+         * Returns the estimated number of bytes retained.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    private final java.util.Map<String, Entry> entries =
+        new LinkedHashMap<String, Entry>();
+    private final java.util.Map<Object, Object> counted =
+        new IdentityHashMap<Object, Object>();
+
+    /**
+     * Adds the layers, tilesets and object groups of the given map.
+     */
+    public void addMap(Map map) {
+        Iterator<MapLayer> itr = map.getLayers();
+        while (itr.hasNext()) {
+            MapLayer layer = itr.next();
+            if (layer instanceof ObjectGroup) {
+                addLayer(OBJECT_GROUP, layer.getName(), layer);
+            } else {
+                addLayer(LAYER, layer.getName(), layer);
+            }
+        }
+        for (TileSet set : map.getTilesets()) {
+            addTileSet(set);
+        }
+    }
+
+    /**
+     * Adds the memory retained by the given layer under the given category
+     * and name, leaving out anything already counted. This is also used for
+     * the copies of layers kept by edits.
+     */
+    public void addLayer(String category, String name, MapLayer layer) {
+        if (layer == null || !count(layer)) {
+            return;
+        }
+        add(category, name, "properties", sizeOf(layer.getProperties()));
+
+        if (layer instanceof TileLayer) {
+            TileLayer tl = (TileLayer) layer;
+            long cells = 0;
+            if (tl.map != null && count(tl.map)) {
+                cells += array(tl.map.length, REFERENCE);
+                for (Tile[] row : tl.map) {
+                    if (row != null && count(row)) {
+                        cells += array(row.length, REFERENCE);
+                    }
+                }
+            }
+            add(category, name, "cells", cells);
+            add(category, name, "instance properties",
+                sizeOf(tl.tileInstanceProperties));
+        }
+        else if (layer instanceof ObjectGroup) {
+            long objects = 0;
+            long images = 0;
+            Iterator<MapObject> itr = ((ObjectGroup) layer).getObjects();
+            while (itr.hasNext()) {
+                MapObject o = itr.next();
+                if (!count(o)) {
+                    continue;
+                }
+                objects += MAP_OBJECT + RECTANGLE +
+                    sizeOf(o.getName()) + sizeOf(o.getType()) +
+                    sizeOf(o.getImageSource()) + sizeOf(o.getProperties());
+                images += sizeOf(o.getSourceImage()) +
+                    sizeOf(o.getCachedScaledImage());
+            }
+            add(category, name, "objects", objects);
+            add(category, name, "images", images);
+        }
+    }
+
+    /**
+     * Adds the tiles and images of the given tileset.
+     */
+    public void addTileSet(TileSet set) {
+        if (!count(set)) {
+            return;
+        }
+        final String name = set.getName();
+
+        long tiles = 0;
+        long scaled = 0;
+        Iterator<?> itr = set.iterator();
+        while (itr.hasNext()) {
+            Tile tile = (Tile) itr.next();
+            if (tile != null && count(tile)) {
+                tiles += TILE + sizeOf(tile.getProperties());
+                scaled += sizeOf(tile.getCachedScaledImage());
+            }
+        }
+        add(TILESET, name, "tiles", tiles);
+
+        long images = 0;
+        Enumeration<String> ids = set.getImageIds();
+        while (ids.hasMoreElements()) {
+            images += sizeOf(set.getImageById(Integer.parseInt(
+                    ids.nextElement())));
+        }
+        add(TILESET, name, "images", images);
+        add(TILESET, name, "scaled images", scaled);
+        add(TILESET, name, "tileset image", sizeOf(set.getTilesetImage()));
+
+        long sources = 0;
+        for (String source : set.getImageSources().values()) {
+            sources += HASH_ENTRY + INTEGER + sizeOf(source);
+        }
+        add(TILESET, name, "image sources", sources);
+    }
+
+    /**
+     * Adds the given number of bytes to an entry, creating it when needed.
+     */
+    public void add(String category, String name, String component,
+                    long bytes) {
+        final String key = category + '\0' + name + '\0' + component;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(category, name, component);
+            entries.put(key, entry);
+        }
+        entry.bytes += bytes;
+    }
+
+    /**
+     * Returns the entries in the order they were added.
+     */
+    public List<Entry> getEntries() {
+        return new ArrayList<Entry>(entries.values());
+    }
+
+    /**
+     * Returns the estimated number of bytes retained by all entries.
+     */
+    public long getTotal() {
+        long total = 0;
+        for (Entry entry : entries.values()) {
+            total += entry.bytes;
+        }
+        return total;
+    }
+
+    /**
+     * Writes the entries as comma separated values, with a header line.
+     */
+    public void writeCSV(Writer w) throws IOException {
+        w.write("category,name,component,bytes\n");
+        for (Entry entry : entries.values()) {
+            w.write(csv(entry.category) + ',' + csv(entry.name) + ',' +
+                    csv(entry.component) + ',' + entry.bytes + '\n');
+        }
+        w.flush();
+    }
+
+    /**
+     * Writes the total and the entries as a JSON object.
+     */
+    public void writeJSON(Writer w) throws IOException {
+        w.write("{\n  \"total\": " + getTotal() + ",\n  \"entries\": [");
+        boolean first = true;
+        for (Entry entry : entries.values()) {
+            w.write(first ? "\n" : ",\n");
+            w.write("    {\"category\": " + json(entry.category) +
+                    ", \"name\": " + json(entry.name) +
+                    ", \"component\": " + json(entry.component) +
+                    ", \"bytes\": " + entry.bytes + "}");
+            first = false;
+        }
+        w.write("\n  ]\n}\n");
+        w.flush();
+    }
+
+    /**
+     * Returns the estimated size of a two-dimensional array of tiles, such
+     * as the rasters kept by edits.
+     */
+    public static long sizeOfTileArray(int width, int height) {
+        return array(width, REFERENCE) + (long) width * array(height, REFERENCE);
+    }
+
+    /**
+     * Marks the given object as counted.
+     *
+     * @return <code>false</code> if it was counted before
+     */
+    private boolean count(Object o) {
+        return counted.put(o, Boolean.TRUE) == null;
+    }
+
+    private long sizeOf(String s) {
+        if (s == null) {
+            return 0;
+        }
+        return align(OBJECT_HEADER + 12) + array(s.length(), 2);
+    }
+
+    private long sizeOf(Properties p) {
+        if (p == null || !count(p)) {
+            return 0;
+        }
+        final int capacity = Math.max(11, (int) (p.size() / 0.75f) + 1);
+        long size = HASHTABLE + array(capacity, REFERENCE);
+        for (java.util.Map.Entry<Object, Object> e : p.entrySet()) {
+            size += HASH_ENTRY;
+            if (e.getKey() instanceof String) {
+                size += sizeOf((String) e.getKey());
+            }
+            if (e.getValue() instanceof String) {
+                size += sizeOf((String) e.getValue());
+            }
+        }
+        return size;
+    }
+
+    private long sizeOf(CellPropertiesMap cells) {
+        if (cells == null || !count(cells)) {
+            return 0;
+        }
+        long size = array(cells.capacity(), 8) +
+            array(cells.capacity(), REFERENCE);
+        CellPropertiesMap.Cursor cursor = cells.cursor();
+        while (cursor.next()) {
+            size += sizeOf(cursor.getProperties());
+        }
+        return size;
+    }
+
+    /**
+     * Returns the size of the pixel data of an image. Images that are not
+     * buffered images are assumed to hold 4 bytes per pixel.
+     */
+    private long sizeOf(Image image) {
+        if (image == null || !count(image)) {
+            return 0;
+        }
+        if (image instanceof BufferedImage) {
+            // Sub-images share the data of the image they were cut from
+            DataBuffer data = ((BufferedImage) image).getRaster()
+                .getDataBuffer();
+            if (!count(data)) {
+                return 0;
+            }
+            return (long) data.getSize() * data.getNumBanks() *
+                DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+        }
+        final int width = image.getWidth(null);
+        final int height = image.getHeight(null);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        return (long) width * height * 4;
+    }
+
+    private static long array(int length, int elementSize) {
+        return align(ARRAY_HEADER + (long) length * elementSize);
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static String csv(String s) {
+        if (s == null) {
+            return "";
+        }
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 &&
+                s.indexOf('\n') < 0) {
+            return s;
+        }
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    private static String json(String s) {
+        if (s == null) {
+            return "null";
+        }
+        StringBuffer sb = new StringBuffer("\"");
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -87,6 +87,10 @@ public class ObjectGroup extends MapLayer
         // TODO: Figure out what object group should do with this method
     }
 
+    public void maskedMergeOnto(MapLayer other, SelectionMask mask) {
+        // TODO: Figure out what object group should do with this method
+    }
+
     public void copyFrom(MapLayer other) {
         // TODO: Implement copying from another object group (same as merging)
     }
@@ -95,6 +99,10 @@ public class ObjectGroup extends MapLayer
         // TODO: Figure out what object group should do with this method
     }
 
+    public void maskedCopyFrom(MapLayer other, SelectionMask mask) {
+        // TODO: Figure out what object group should do with this method
+    }
+
     @Override
     public void copyTo(MapLayer other) {
         super.copyTo(other);
@@ -133,11 +141,13 @@ public class ObjectGroup extends MapLayer
     public void addObject(MapObject o) {
         objects.add(o);
         o.setObjectGroup(this);
+        markModified();
     }
 
     public void removeObject(MapObject o) {
         objects.remove(o);
         o.setObjectGroup(null);
+        markModified();
     }
 
     public Iterator<MapObject> getObjects() {
@@ -0,0 +1,529 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.core;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.GeneralPath;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * A set of tile locations, such as a selection, stored as a bitset.
+ * <p>
+ * The tile plane is divided into chunks of 64x64 tiles, each stored as 64
+ * <code>long</code> words holding one row of the chunk. Only chunks with
+ * tiles in the set are allocated, so the mask can hold any tile coordinates,
+ * including negative ones. Testing a tile is a hash lookup and a bit test,
+ * and rectangles are added or removed a word at a time.
+ * <p>
+ * The tiles in the set are best visited through {@link #runs()}, which
+ * iterates over the horizontal runs of set tiles.
+ *
+ * @version $Id$
+ */
+public class SelectionMask implements Cloneable
+{
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final int OP_SET = 0;
+    private static final int OP_CLEAR = 1;
+    private static final int OP_FLIP = 2;
+
+    private HashMap<Long, long[]> chunks = new HashMap<Long, long[]>();
+
+    /** The bounding box of the set tiles, or null when unknown. */
+    private Rectangle bounds = new Rectangle();
+
+    /**
+     * Creates an empty mask.
+     */
+    public SelectionMask() {
+    }
+
+    /**
+     * Creates a mask with the tiles covered by the given shape.
+     *
+     * @param shape the shape in tile coordinates
+     * @see #add(Shape)
+     */
+    public SelectionMask(Shape shape) {
+        add(shape);
+    }
+
+    /**
+     * Returns whether the tile at the given location is in the set.
+     *
+     * @param x x coordinate of the tile
+     * @param y y coordinate of the tile
+     * @return <code>true</code> if the tile is in the set
+     */
+    public boolean contains(int x, int y) {
+        final long[] chunk = chunks.get(key(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT));
+        return chunk != null &&
+            (chunk[y & CHUNK_MASK] & (1L << (x & CHUNK_MASK))) != 0;
+    }
+
+    /**
+     * Adds the tile at the given location to the set.
+     */
+    public void set(int x, int y) {
+        apply(y, x, x + 1, OP_SET);
+        if (bounds != null) {
+            addToBounds(x, y, 1, 1);
+        }
+    }
+
+    /**
+     * Removes the tile at the given location from the set.
+     */
+    public void clear(int x, int y) {
+        apply(y, x, x + 1, OP_CLEAR);
+        bounds = null;
+    }
+
+    /**
+     * Removes all tiles from the set.
+     */
+    public void clear() {
+        chunks.clear();
+        bounds = new Rectangle();
+    }
+
+    /**
+     * Adds the tiles in the given rectangle to the set.
+     */
+    public void add(Rectangle r) {
+        if (r.isEmpty()) {
+            return;
+        }
+        apply(r, OP_SET);
+        if (bounds != null) {
+            addToBounds(r.x, r.y, r.width, r.height);
+        }
+    }
+
+    /**
+     * Removes the tiles in the given rectangle from the set.
+     */
+    public void subtract(Rectangle r) {
+        if (r.isEmpty()) {
+            return;
+        }
+        apply(r, OP_CLEAR);
+        bounds = null;
+    }
+
+    /**
+     * Removes the tiles outside of the given rectangle from the set.
+     */
+    public void intersect(Rectangle r) {
+        SelectionMask other = new SelectionMask();
+        other.add(r);
+        intersect(other);
+    }
+
+    /**
+     * Inverts the set within the given rectangle: tiles in the set are
+     * removed and tiles not in the set are added.
+     */
+    public void invert(Rectangle r) {
+        if (r.isEmpty()) {
+            return;
+        }
+        apply(r, OP_FLIP);
+        bounds = null;
+    }
+
+    /**
+     * Adds the tiles covered by the given shape to the set. A tile is
+     * covered when the shape contains its top left corner. Rectangles, and
+     * areas that are rectangular, are added without testing each tile.
+     *
+     * @param shape the shape in tile coordinates
+     */
+    public void add(Shape shape) {
+        if (shape instanceof Rectangle) {
+            add((Rectangle) shape);
+        } else if (shape instanceof Area && ((Area) shape).isRectangular()) {
+            add(shape.getBounds());
+        } else {
+            add(rasterize(shape));
+        }
+    }
+
+    /**
+     * Removes the tiles covered by the given shape from the set.
+     *
+     * @param shape the shape in tile coordinates
+     * @see #add(Shape)
+     */
+    public void subtract(Shape shape) {
+        if (shape instanceof Rectangle) {
+            subtract((Rectangle) shape);
+        } else if (shape instanceof Area && ((Area) shape).isRectangular()) {
+            subtract(shape.getBounds());
+        } else {
+            subtract(rasterize(shape));
+        }
+    }
+
+    private static SelectionMask rasterize(Shape shape) {
+        SelectionMask mask = new SelectionMask();
+        Rectangle r = shape.getBounds();
+        for (int y = r.y; y < r.y + r.height; y++) {
+            for (int x = r.x; x < r.x + r.width; x++) {
+                if (shape.contains(x, y)) {
+                    mask.apply(y, x, x + 1, OP_SET);
+                }
+            }
+        }
+        mask.bounds = null;
+        return mask;
+    }
+
+    /**
+     * Adds all tiles of the given mask to the set.
+     */
+    public void add(SelectionMask other) {
+        for (java.util.Map.Entry<Long, long[]> entry : other.chunks.entrySet()) {
+            final long[] src = entry.getValue();
+            final long[] dst = chunks.get(entry.getKey());
+            if (dst == null) {
+                chunks.put(entry.getKey(), src.clone());
+            } else {
+                for (int i = 0; i < CHUNK_SIZE; i++) {
+                    dst[i] |= src[i];
+                }
+            }
+        }
+        if (bounds != null) {
+            Rectangle r = other.getBounds();
+            if (!r.isEmpty()) {
+                addToBounds(r.x, r.y, r.width, r.height);
+            }
+        }
+    }
+
+    /**
+     * Removes all tiles of the given mask from the set.
+     */
+    public void subtract(SelectionMask other) {
+        Iterator<java.util.Map.Entry<Long, long[]>> itr =
+            chunks.entrySet().iterator();
+        while (itr.hasNext()) {
+            java.util.Map.Entry<Long, long[]> entry = itr.next();
+            final long[] src = other.chunks.get(entry.getKey());
+            if (src != null) {
+                final long[] dst = entry.getValue();
+                for (int i = 0; i < CHUNK_SIZE; i++) {
+                    dst[i] &= ~src[i];
+                }
+                if (isEmpty(dst)) {
+                    itr.remove();
+                }
+            }
+        }
+        bounds = null;
+    }
+
+    /**
+     * Removes the tiles that are not in the given mask from the set.
+     */
+    public void intersect(SelectionMask other) {
+        Iterator<java.util.Map.Entry<Long, long[]>> itr =
+            chunks.entrySet().iterator();
+        while (itr.hasNext()) {
+            java.util.Map.Entry<Long, long[]> entry = itr.next();
+            final long[] src = other.chunks.get(entry.getKey());
+            if (src == null) {
+                itr.remove();
+            } else {
+                final long[] dst = entry.getValue();
+                for (int i = 0; i < CHUNK_SIZE; i++) {
+                    dst[i] &= src[i];
+                }
+                if (isEmpty(dst)) {
+                    itr.remove();
+                }
+            }
+        }
+        bounds = null;
+    }
+
+    /**
+     * Returns whether no tiles are in the set.
+     */
+    public boolean isEmpty() {
+        return getBounds().isEmpty();
+    }
+
+    /**
+     * Returns the number of tiles in the set.
+     */
+    public int cardinality() {
+        int count = 0;
+        for (long[] chunk : chunks.values()) {
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                count += Long.bitCount(chunk[i]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the smallest rectangle containing all tiles in the set, or an
+     * empty rectangle at (0, 0) when the set is empty. The bounding box is
+     * kept up to date while tiles are added, and recalculated from the
+     * chunks after tiles have been removed.
+     *
+     * @return a new rectangle in tile coordinates
+     */
+    public Rectangle getBounds() {
+        if (bounds == null) {
+            bounds = calculateBounds();
+        }
+        return new Rectangle(bounds);
+    }
+
+    private Rectangle calculateBounds() {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+
+        Iterator<java.util.Map.Entry<Long, long[]>> itr =
+            chunks.entrySet().iterator();
+        while (itr.hasNext()) {
+            java.util.Map.Entry<Long, long[]> entry = itr.next();
+            final long[] chunk = entry.getValue();
+            final long key = entry.getKey();
+            final int chunkX = (int) (key >> 32) << CHUNK_SHIFT;
+            final int chunkY = (int) key << CHUNK_SHIFT;
+
+            long columns = 0;
+            int first = -1, last = -1;
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                if (chunk[i] != 0) {
+                    columns |= chunk[i];
+                    if (first < 0) first = i;
+                    last = i;
+                }
+            }
+            if (columns == 0) {
+                itr.remove();
+                continue;
+            }
+
+            minY = Math.min(minY, chunkY + first);
+            maxY = Math.max(maxY, chunkY + last);
+            minX = Math.min(minX, chunkX + Long.numberOfTrailingZeros(columns));
+            maxX = Math.max(maxX,
+                    chunkX + CHUNK_MASK - Long.numberOfLeadingZeros(columns));
+        }
+
+        if (minX > maxX) {
+            return new Rectangle();
+        }
+        return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    private void addToBounds(int x, int y, int width, int height) {
+        if (bounds.isEmpty()) {
+            bounds.setBounds(x, y, width, height);
+        } else {
+            bounds.add(new Rectangle(x, y, width, height));
+        }
+    }
+
+    /**
+     * Returns an iterator over the horizontal runs of tiles in the set, top
+     * to bottom and left to right. Changing the mask while iterating has
+     * undefined results.
+     */
+    public RunIterator runs() {
+        return new RunIterator();
+    }
+
+    /**
+     * Returns an area covering the tiles in the set.
+     *
+     * @return a new area in tile coordinates
+     */
+    public Area toArea() {
+        GeneralPath path = new GeneralPath();
+        RunIterator runs = runs();
+        while (runs.next()) {
+            path.append(new Rectangle(runs.getX(), runs.getY(),
+                                      runs.getLength(), 1), false);
+        }
+        return new Area(path);
+    }
+
+    public Object clone() {
+        try {
+            SelectionMask clone = (SelectionMask) super.clone();
+            clone.chunks = new HashMap<Long, long[]>();
+            for (java.util.Map.Entry<Long, long[]> entry : chunks.entrySet()) {
+                clone.chunks.put(entry.getKey(), entry.getValue().clone());
+            }
+            if (bounds != null) {
+                clone.bounds = new Rectangle(bounds);
+            }
+            return clone;
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError(e.toString());
+        }
+    }
+
+    private void apply(Rectangle r, int op) {
+        for (int y = r.y; y < r.y + r.height; y++) {
+            apply(y, r.x, r.x + r.width, op);
+        }
+    }
+
+    /**
+     * Applies the given operation to the tiles from x0 up to x1 on row y.
+     */
+    private void apply(int y, int x0, int x1, int op) {
+        final int chunkY = y >> CHUNK_SHIFT;
+        final int row = y & CHUNK_MASK;
+        int x = x0;
+
+        while (x < x1) {
+            final int chunkX = x >> CHUNK_SHIFT;
+            final int from = x & CHUNK_MASK;
+            final int to = Math.min(CHUNK_SIZE, from + (x1 - x));
+            final long bits = to == CHUNK_SIZE ?
+                -1L << from : ((1L << to) - 1) & (-1L << from);
+
+            final Long key = key(chunkX, chunkY);
+            long[] chunk = chunks.get(key);
+            if (chunk == null) {
+                if (op != OP_CLEAR) {
+                    chunk = new long[CHUNK_SIZE];
+                    chunks.put(key, chunk);
+                }
+            }
+            if (chunk != null) {
+                switch (op) {
+                    case OP_SET:   chunk[row] |= bits; break;
+                    case OP_CLEAR: chunk[row] &= ~bits; break;
+                    case OP_FLIP:  chunk[row] ^= bits; break;
+                }
+            }
+
+            x += to - from;
+        }
+    }
+
+    private static Long key(int chunkX, int chunkY) {
+        return ((long) chunkX << 32) | (chunkY & 0xFFFFFFFFL);
+    }
+
+    private static boolean isEmpty(long[] chunk) {
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            if (chunk[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the word holding the 64 tiles of the given row starting at
+     * the given chunk aligned x coordinate.
+     */
+    private long word(int x, int y) {
+        final long[] chunk =
+            chunks.get(key(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT));
+        return chunk != null ? chunk[y & CHUNK_MASK] : 0;
+    }
+
+    /**
+     * Iterates over the horizontal runs of tiles in a mask. A run that
+     * crosses a chunk boundary is reported as a single run.
+     */
+    public class RunIterator
+    {
+        private final Rectangle area = getBounds();
+        private int x, y, length;
+        private int nextX = area.x, nextY = area.y;
+
+        private RunIterator() {
+        }
+
+        /**
+         * Moves to the next run.
+         *
+         * @return <code>false</code> when there are no more runs
+         */
+        public boolean next() {
+            final int right = area.x + area.width;
+            final int bottom = area.y + area.height;
+
+            while (nextY < bottom) {
+                final int start = scan(nextX, nextY, right, true);
+                if (start < right) {
+                    final int end = scan(start, nextY, right, false);
+                    x = start;
+                    y = nextY;
+                    length = end - start;
+                    nextX = end;
+                    return true;
+                }
+                nextX = area.x;
+                nextY++;
+            }
+            return false;
+        }
+
+        /**
+         * Returns the first x from the given one up to the limit where the
+         * bit equals the given value, or the limit.
+         */
+        private int scan(int from, int row, int limit, boolean value) {
+            int x = from;
+            while (x < limit) {
+                final int base = x & ~CHUNK_MASK;
+                long w = word(base, row);
+                if (!value) {
+                    w = ~w;
+                }
+                w &= -1L << (x - base);
+                if (w != 0) {
+                    return Math.min(limit,
+                            base + Long.numberOfTrailingZeros(w));
+                }
+                x = base + CHUNK_SIZE;
+            }
+            return limit;
+        }
+
+        /** Returns the x coordinate of the first tile of the run. */
+        public int getX() {
+            return x;
+        }
+
+        /** Returns the y coordinate of the run. */
+        public int getY() {
+            return y;
+        }
+
+        /** Returns the number of tiles in the run. */
+        public int getLength() {
+            return length;
+        }
+    }
+}
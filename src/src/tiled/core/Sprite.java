@@ -99,7 +99,7 @@ public class Sprite
         }
 
         public Tile getFrame(int f) {
-            if (f > 0 && f < frames.length) {
+            if (f >= 0 && f < frames.length) {
                 return frames[f];
             }
             return null;
@@ -130,6 +130,7 @@ public class Sprite
     }
 
     public Sprite(Tile[] frames) {
+        this();
         setFrames(frames);
     }
 
@@ -185,7 +186,7 @@ public class Sprite
                     currentFrame = 0;
                     break;
             }
-        } else if (c > currentKey.getLastFrame()) {
+        } else if (c >= currentKey.getTotalFrames()) {
             switch (currentKey.flags & KeyFrame.MASK_ANIMATION) {
                 case KeyFrame.KEY_LOOP:
                     currentFrame = 0;
@@ -277,6 +278,9 @@ public class Sprite
 
     public void addKey(KeyFrame k) {
         keys.add(k);
+        if (currentKey == null) {
+            currentKey = k;
+        }
     }
 
     public void removeKey(String name) {
@@ -299,6 +303,39 @@ public class Sprite
         }
     }
 
+    /**
+     * Advances the animation by the given amount of time, at the frame rate
+     * of the current key. Unlike {@link #iterateFrame()}, which advances by
+     * the frame rate on every call, this makes the speed of the animation
+     * independent of how often it is updated.
+     *
+     * @param millis the time that has passed since the last update
+     * @return whether another frame is current now
+     */
+    public boolean advance(long millis) {
+        if (currentKey == null || !bPlaying || millis <= 0) {
+            return false;
+        }
+
+        final KeyFrame key = currentKey;
+        final int frame = (int) currentFrame;
+        float next = currentFrame + currentKey.getFrameRate() * millis / 1000f;
+
+        // Skip whole loops after a long pause instead of losing the
+        // remainder when wrapping around
+        final int total = currentKey.getTotalFrames();
+        if ((currentKey.getFlags() & KeyFrame.MASK_ANIMATION) ==
+                KeyFrame.KEY_LOOP && total > 0) {
+            next %= total;
+            if (next < 0) {
+                next += total;
+            }
+        }
+
+        setCurrentFrame(next);
+        return key != currentKey || frame != (int) currentFrame;
+    }
+
     /**
      * Sets the current frame relative to the starting frame of the
      * current key.
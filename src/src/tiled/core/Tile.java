@@ -230,6 +230,26 @@ public class Tile
         }
     }
 
+    /**
+     * Returns the scaled image kept for the zoom level last asked for, or
+     * <code>null</code> when there is none.
+     */
+    Image getCachedScaledImage() {
+        return scaledImage;
+    }
+
+    /**
+     * Returns whether {@link #getScaledImage(double)} can answer from the
+     * scaled image it keeps, without scaling the image again. This is the
+     * case at zoom level 1.0 and at the zoom level last asked for.
+     *
+     * @param zoom the zoom level
+     * @return <code>true</code> if the scaled image is available
+     */
+    public boolean isScaledImageCached(double zoom) {
+        return zoom == 1.0 || (zoom == myZoom && scaledImage != null);
+    }
+
     /**
      * Returns a scaled instance of the tile image. Using a MediaTracker
      * instance, this function waits until the scaling operation is done.
@@ -0,0 +1,158 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tiled.util.Workers;
+
+/**
+ * Transformations of the tile array of a {@link TileLayer}.
+ * <p>
+ * Mirroring and rotating square arrays is done in place. The transposes
+ * work on blocks of {@link #BLOCK_SIZE} by {@link #BLOCK_SIZE} tiles, so
+ * that the rows being read and written stay in the cache. Large arrays are
+ * divided into bands of rows, which are transformed in parallel by the
+ * shared {@link Workers}. Small arrays are transformed on the calling
+ * thread.
+ *
+ * @version $Id$
+ */
+final class TileArrays
+{
+    /** The width and height of the blocks a transpose works on. */
+    private static final int BLOCK_SIZE = 64;
+
+    /** The number of tiles from which work is spread over threads. */
+    private static final int PARALLEL_THRESHOLD = 1 << 20;
+
+    private TileArrays() {
+    }
+
+    /**
+     * A part of a transformation, covering a band of rows or blocks.
+     */
+    private interface Band
+    {
+        void run(int from, int to);
+    }
+
+    /**
+     * Reverses the order of the rows, by swapping the row arrays.
+     */
+    static void reverseRowOrder(Tile[][] map) {
+        for (int i = 0, j = map.length - 1; i < j; i++, j--) {
+            Tile[] row = map[i];
+            map[i] = map[j];
+            map[j] = row;
+        }
+    }
+
+    /**
+     * Reverses each row in place.
+     */
+    static void reverseRows(final Tile[][] map, final int width) {
+        forBands(map.length, (long) map.length * width, new Band() {
+            public void run(int from, int to) {
+                for (int y = from; y < to; y++) {
+                    final Tile[] row = map[y];
+                    for (int i = 0, j = width - 1; i < j; i++, j--) {
+                        Tile tile = row[i];
+                        row[i] = row[j];
+                        row[j] = tile;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Transposes a square array in place. Each band handles the block pairs
+     * on and to the right of the diagonal for its rows of blocks, so that
+     * no two bands touch the same tiles.
+     */
+    static void transposeSquare(final Tile[][] map, final int size) {
+        final int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        forBands(blocks, (long) size * size, new Band() {
+            public void run(int from, int to) {
+                for (int bi = from; bi < to; bi++) {
+                    final int y0 = bi * BLOCK_SIZE;
+                    final int y1 = Math.min(size, y0 + BLOCK_SIZE);
+                    for (int x0 = y0; x0 < size; x0 += BLOCK_SIZE) {
+                        final int x1 = Math.min(size, x0 + BLOCK_SIZE);
+                        for (int y = y0; y < y1; y++) {
+                            final Tile[] row = map[y];
+                            for (int x = Math.max(x0, y + 1); x < x1; x++) {
+                                Tile tile = row[x];
+                                row[x] = map[x][y];
+                                map[x][y] = tile;
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a new array holding the transpose of the given one.
+     */
+    static Tile[][] transpose(final Tile[][] map, final int width,
+                              final int height) {
+        final Tile[][] trans = new Tile[width][height];
+        final int blocks = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        forBands(blocks, (long) width * height, new Band() {
+            public void run(int from, int to) {
+                for (int bi = from; bi < to; bi++) {
+                    final int x0 = bi * BLOCK_SIZE;
+                    final int x1 = Math.min(width, x0 + BLOCK_SIZE);
+                    for (int y0 = 0; y0 < height; y0 += BLOCK_SIZE) {
+                        final int y1 = Math.min(height, y0 + BLOCK_SIZE);
+                        for (int x = x0; x < x1; x++) {
+                            final Tile[] row = trans[x];
+                            for (int y = y0; y < y1; y++) {
+                                row[y] = map[y][x];
+                            }
+                        }
+                    }
+                }
+            }
+        });
+        return trans;
+    }
+
+    /**
+     * Runs the given band over the range from 0 to count, split over a
+     * thread per processor when the transformation involves many tiles.
+     */
+    private static void forBands(int count, long tiles, final Band band) {
+        final int threads = Math.min(count, Workers.getThreadCount());
+        if (tiles < PARALLEL_THRESHOLD || threads <= 1) {
+            band.run(0, count);
+            return;
+        }
+
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int t = 0; t < threads; t++) {
+            final int from = (int) ((long) count * t / threads);
+            final int to = (int) ((long) count * (t + 1) / threads);
+            tasks.add(new Runnable() {
+                public void run() {
+                    band.run(from, to);
+                }
+            });
+        }
+        Workers.runAll(tasks);
+    }
+}
@@ -15,38 +15,65 @@ package tiled.core;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.geom.Area;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Properties;
+import java.util.Stack;
 
 /**
  * A TileLayer is a specialized MapLayer, used for tracking two dimensional
  * tile data.
+ * <p>
+ * The rows of tiles are shared with the copies of the layer made by
+ * {@link #clone()} and {@link #snapshot()}, and copied by whichever layer
+ * changes them first. Each row is stamped with the version of the layer it
+ * was copied in; copying the layer moves both layers to a new version, so
+ * that neither owns the rows they share.
  *
  * @version $Id$
  */
 public class TileLayer extends MapLayer
 {
+    /**
+     * The rows of tiles, which may be shared with copies of this layer.
+     * Rows are changed through {@link #getRowForWriting(int)} only.
+     */
     protected Tile[][] map;
-    protected HashMap<Object, Properties> tileInstanceProperties = new HashMap<Object, Properties>();
+    private int[] rowVersions;
+    private int version;
+    protected CellPropertiesMap tileInstanceProperties = new CellPropertiesMap();
     
     private int tileWidth;
     private int tileHeight;
+
+    // Created on the first query about tile usage
+    private TileUsageIndex usage;
     
     public Properties getTileInstancePropertiesAt(int x, int y) {
         if (!bounds.contains(x, y)) {
             return null;
         }
-        Object key = new Point(x, y);
-        return (Properties) tileInstanceProperties.get(key);
+        return tileInstanceProperties.get(x, y);
     }
 
     public void setTileInstancePropertiesAt(int x, int y, Properties tip) {
         if (bounds.contains(x, y)) {
-            Object key = new Point(x, y);
-            tileInstanceProperties.put(key, tip);
+            tileInstanceProperties.put(x, y, tip);
+            markModified();
         }
     }
 
+    /**
+     * Returns a cursor over the locations in this layer that have tile
+     * instance properties, top down, then left to right. Use this instead
+     * of calling {@link #getTileInstancePropertiesAt(int, int)} for every
+     * location when only the locations with properties are of interest.
+     *
+     * @return a cursor over the tile instance properties
+     */
+    public CellPropertiesMap.Cursor getTileInstanceProperties() {
+        return tileInstanceProperties.cursor();
+    }
+
     /**
      * Default contructor.
      */
@@ -86,57 +113,71 @@ public class TileLayer extends MapLayer
     }
 
     /**
-     * Rotates the layer by the given Euler angle.
+     * Rotates the layer by the given Euler angle. Square layers are rotated
+     * in place; other layers need a new tile array, since their rows change
+     * length.
      *
      * @param angle The Euler angle (0-360) to rotate the layer array data by.
      * @see MapLayer#rotate(int)
      */
     public void rotate(int angle) {
-        Tile[][] trans;
-        int xtrans = 0, ytrans = 0;
-
         if (!canEdit())
             return;
 
+        loadRows();
+
+        final int width = bounds.width;
+        final int height = bounds.height;
+
         switch (angle) {
             case ROTATE_90:
-                trans = new Tile[bounds.width][bounds.height];
-                xtrans = bounds.height - 1;
+                // Transpose, then mirror horizontally
+                transpose();
+                ownAllRows();
+                TileArrays.reverseRows(map, bounds.width);
+                transformTileInstanceProperties(0, -1, height - 1, 1, 0, 0);
                 break;
             case ROTATE_180:
-                trans = new Tile[bounds.height][bounds.width];
-                xtrans = bounds.width - 1;
-                ytrans = bounds.height - 1;
+                reverseRowOrder();
+                ownAllRows();
+                TileArrays.reverseRows(map, width);
+                transformTileInstanceProperties(-1, 0, width - 1,
+                                                0, -1, height - 1);
                 break;
             case ROTATE_270:
-                trans = new Tile[bounds.width][bounds.height];
-                ytrans = bounds.width - 1;
+                // Transpose, then mirror vertically
+                transpose();
+                reverseRowOrder();
+                transformTileInstanceProperties(0, 1, 0, -1, 0, width - 1);
                 break;
             default:
                 System.out.println("Unsupported rotation (" + angle + ")");
                 return;
         }
 
-        double ra = Math.toRadians(angle);
-        int cos_angle = (int)Math.round(Math.cos(ra));
-        int sin_angle = (int)Math.round(Math.sin(ra));
+        usage = null;
+        markModified();
+    }
 
-        for (int y = 0; y < bounds.height; y++) {
-            for (int x = 0; x < bounds.width; x++) {
-                int xrot = x * cos_angle - y * sin_angle;
-                int yrot = x * sin_angle + y * cos_angle;
-                trans[yrot + ytrans][xrot + xtrans] = getTileAt(x+bounds.x, y+bounds.y);
-            }
+    /**
+     * Transposes the tile array and swaps the width and height of the
+     * layer.
+     */
+    private void transpose() {
+        if (bounds.width == bounds.height) {
+            ownAllRows();
+            TileArrays.transposeSquare(map, bounds.width);
+        } else {
+            setRows(TileArrays.transpose(map, bounds.width, bounds.height));
+            int width = bounds.width;
+            bounds.width = bounds.height;
+            bounds.height = width;
         }
-
-        bounds.width = trans[0].length;
-        bounds.height = trans.length;
-        map = trans;
     }
 
     /**
      * Performs a mirroring function on the layer data. Two orientations are
-     * allowed: vertical and horizontal.
+     * allowed: vertical and horizontal. The tiles are mirrored in place.
      *
      * Example: <code>layer.mirror(MapLayer.MIRROR_VERTICAL);</code> will
      * mirror the layer data around a horizontal axis.
@@ -147,17 +188,124 @@ public class TileLayer extends MapLayer
         if (!canEdit())
             return;
 
-        Tile[][] mirror = new Tile[bounds.height][bounds.width];
-        for (int y = 0; y < bounds.height; y++) {
-            for (int x = 0; x < bounds.width; x++) {
-                if (dir == MIRROR_VERTICAL) {
-                    mirror[y][x] = map[bounds.height - 1 - y][x];
-                } else {
-                    mirror[y][x] = map[y][bounds.width - 1 - x];
-                }
+        loadRows();
+
+        if (dir == MIRROR_VERTICAL) {
+            reverseRowOrder();
+            transformTileInstanceProperties(1, 0, 0, 0, -1, bounds.height - 1);
+        } else {
+            ownAllRows();
+            TileArrays.reverseRows(map, bounds.width);
+            transformTileInstanceProperties(-1, 0, bounds.width - 1, 0, 1, 0);
+        }
+        usage = null;
+        markModified();
+    }
+
+    /**
+     * @see MapLayer#translate(int, int)
+     */
+    public void translate(int dx, int dy) {
+        super.translate(dx, dy);
+        // The usage index holds the locations of the tiles
+        usage = null;
+    }
+
+    /**
+     * @see MapLayer#setOffset(int, int)
+     */
+    public void setOffset(int xOff, int yOff) {
+        super.setOffset(xOff, yOff);
+        usage = null;
+    }
+
+    /**
+     * Returns the row at the given index into the tile array for changing
+     * it, after copying it when it is shared with a copy of this layer.
+     *
+     * @param y the index of the row, relative to the top of the layer
+     * @return the row, which is owned by this layer
+     */
+    protected Tile[] getRowForWriting(int y) {
+        loadRows();
+        if (rowVersions[y] != version) {
+            map[y] = map[y].clone();
+            rowVersions[y] = version;
+        }
+        return map[y];
+    }
+
+    /**
+     * Called before the tile array is accessed. Does nothing by default;
+     * layers that load their tiles lazily fill the rows here, through
+     * {@link #getRowForWriting(int)}.
+     */
+    protected void loadRows() {
+    }
+
+    /**
+     * Copies the rows that are shared, before the whole tile array is
+     * changed in place.
+     */
+    private void ownAllRows() {
+        for (int y = 0; y < map.length; y++) {
+            getRowForWriting(y);
+        }
+    }
+
+    /**
+     * Replaces the tile array with the given one, of which this layer owns
+     * all rows.
+     */
+    private void setRows(Tile[][] rows) {
+        map = rows;
+        rowVersions = new int[rows.length];
+        Arrays.fill(rowVersions, version);
+    }
+
+    /**
+     * Reverses the order of the rows. The rows move along with their
+     * versions, so that this needs no copying.
+     */
+    private void reverseRowOrder() {
+        TileArrays.reverseRowOrder(map);
+        for (int i = 0, j = rowVersions.length - 1; i < j; i++, j--) {
+            int v = rowVersions[i];
+            rowVersions[i] = rowVersions[j];
+            rowVersions[j] = v;
+        }
+    }
+
+    /**
+     * Moves the tile instance properties along with their tiles, when the
+     * tiles are transformed by the given integer matrix relative to the
+     * origin of the layer:
+     * <pre>
+     *   x' = xx * x + xy * y + dx
+     *   y' = yx * x + yy * y + dy
+     * </pre>
+     * Properties that end up outside the (new) bounds of the layer are
+     * dropped.
+     */
+    private void transformTileInstanceProperties(int xx, int xy, int dx,
+                                                 int yx, int yy, int dy) {
+        if (tileInstanceProperties.isEmpty()) {
+            return;
+        }
+
+        CellPropertiesMap moved = new CellPropertiesMap();
+        CellPropertiesMap.Cursor cursor = tileInstanceProperties.cursor();
+        while (cursor.next()) {
+            final int x = cursor.getX() - bounds.x;
+            final int y = cursor.getY() - bounds.y;
+            final int nx = bounds.x + xx * x + xy * y + dx;
+            final int ny = bounds.y + yx * x + yy * y + dy;
+            if (bounds.contains(nx, ny)) {
+                moved.put(nx, ny, cursor.getProperties());
             }
         }
-        map = mirror;
+
+        tileInstanceProperties = moved;
     }
 
     /**
@@ -168,17 +316,60 @@ public class TileLayer extends MapLayer
      *         <code>false</code> otherwise.
      */
     public boolean isUsed(Tile t) {
-        for (int y = 0; y < bounds.height; y++) {
-            for (int x = 0; x < bounds.width; x++) {
-                if (map[y][x] == t) {
-                    return true;
-                }
-            }
+        if (t == null) {
+            // Empty cells are not indexed
+            return locationOf(null) != null;
         }
-        return false;
+        return getUsageIndex().getCount(t) > 0;
+    }
+
+    /**
+     * Returns the number of cells of this layer the given tile is used in.
+     *
+     * @param t the tile to count
+     * @return the number of times the tile is used
+     */
+    public int getUsageCount(Tile t) {
+        return t != null ? getUsageIndex().getCount(t) : 0;
+    }
+
+    /**
+     * Returns the number of cells of this layer that are not empty.
+     *
+     * @return the number of tiles in this layer
+     */
+    public int getTileCount() {
+        return getUsageIndex().getTotal();
+    }
+
+    /**
+     * Returns the locations of the cells of this layer the given tile is
+     * used in.
+     *
+     * @param t the tile to look for
+     * @return a new mask of the locations of the tile
+     */
+    public SelectionMask getOccurrences(Tile t) {
+        SelectionMask locations =
+            t != null ? getUsageIndex().getLocations(t) : null;
+        return locations != null ?
+            (SelectionMask) locations.clone() : new SelectionMask();
+    }
+
+    /**
+     * Returns the index of the tiles used in this layer, which is created on
+     * first use and kept up to date by {@link #setTileAt(int, int, Tile)}.
+     * Methods that change the tile array directly have to discard it.
+     */
+    private TileUsageIndex getUsageIndex() {
+        if (usage == null) {
+            usage = new TileUsageIndex(this);
+        }
+        return usage;
     }
 
     public boolean isEmpty() {
+        loadRows();
         for (int p = 0; p < 2; p++) {
             for (int y = 0; y < bounds.height; y++) {
                 for (int x = p; x < bounds.width; x += 2) {
@@ -200,7 +391,8 @@ public class TileLayer extends MapLayer
      */
     protected void setBounds(Rectangle bounds) {
         super.setBounds(bounds);
-        map = new Tile[bounds.height][bounds.width];
+        setRows(new Tile[bounds.height][bounds.width]);
+        usage = null;
 
         // Tile instance properties is null when this method is called from
         // the constructor of MapLayer
@@ -222,8 +414,16 @@ public class TileLayer extends MapLayer
 
         if (ml instanceof TileLayer) {
             Rectangle r = null;
+            loadRows();
+            ((TileLayer) ml).loadRows();
+            final Tile[][] other =
+                ml.getBounds().equals(bounds) ? ((TileLayer) ml).map : null;
 
             for (int y = bounds.y; y < bounds.height + bounds.y; y++) {
+                if (other != null && other[y - bounds.y] == map[y - bounds.y]) {
+                    // A row that is still shared did not change
+                    continue;
+                }
                 for (int x = bounds.x; x < bounds.width + bounds.x; x++) {
                     if (((TileLayer)ml).getTileAt(x, y) != getTileAt(x, y)) {
                         if (r != null) {
@@ -281,11 +481,16 @@ public class TileLayer extends MapLayer
                     "Attempted to remove tile when this layer is locked.");
         }
 
-        for (int y = 0; y < bounds.height; y++) {
-            for (int x = 0; x < bounds.width; x++) {
-                if (map[y][x] == tile) {
-                    setTileAt(x + bounds.x, y + bounds.y, null);
-                }
+        if (tile == null) {
+            return;
+        }
+
+        final SelectionMask.RunIterator runs = getOccurrences(tile).runs();
+        while (runs.next()) {
+            final int y = runs.getY();
+            final int end = runs.getX() + runs.getLength();
+            for (int x = runs.getX(); x < end; x++) {
+                setTileAt(x, y, null);
             }
         }
     }
@@ -300,7 +505,15 @@ public class TileLayer extends MapLayer
      */
     public void setTileAt(int tx, int ty, Tile ti) {
         if (bounds.contains(tx, ty) && !getLocked()) {
-            map[ty - bounds.y][tx - bounds.x] = ti;
+            loadRows();
+            Tile[] row = map[ty - bounds.y];
+            if (row[tx - bounds.x] != ti) {
+                if (usage != null) {
+                    usage.tileChanged(tx, ty, row[tx - bounds.x], ti);
+                }
+                getRowForWriting(ty - bounds.y)[tx - bounds.x] = ti;
+                markModified();
+            }
         }
     }
     
@@ -313,6 +526,7 @@ public class TileLayer extends MapLayer
      *         outside this layer
      */
     public Tile getTileAt(int tx, int ty) {
+        loadRows();
         return (bounds.contains(tx, ty)) ?
                 map[ty - bounds.y][tx - bounds.x] : null;
     }
@@ -326,6 +540,15 @@ public class TileLayer extends MapLayer
      *         <code>null</code> if it is not found
      */
     public Point locationOf(Tile t) {
+        if (t != null) {
+            final SelectionMask locations = getUsageIndex().getLocations(t);
+            if (locations == null) {
+                return null;
+            }
+            final SelectionMask.RunIterator runs = locations.runs();
+            return runs.next() ? new Point(runs.getX(), runs.getY()) : null;
+        }
+
         for (int y = bounds.y; y < bounds.height + bounds.y; y++) {
             for (int x = bounds.x; x < bounds.width + bounds.x; x++) {
                 if (getTileAt(x, y) == t) {
@@ -344,15 +567,27 @@ public class TileLayer extends MapLayer
      * @param replace the replacement tile
      */
     public void replaceTile(Tile find, Tile replace) {
-        if (!canEdit())
+        if (!canEdit() || find == replace)
             return;
 
-        for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
-            for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
-                if(getTileAt(x,y) == find) {
-                    setTileAt(x, y, replace);
+        if (find == null) {
+            for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+                for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                    if (getTileAt(x, y) == null) {
+                        setTileAt(x, y, replace);
+                    }
                 }
             }
+            return;
+        }
+
+        final SelectionMask.RunIterator runs = getOccurrences(find).runs();
+        while (runs.next()) {
+            final int y = runs.getY();
+            final int end = runs.getX() + runs.getLength();
+            for (int x = runs.getX(); x < end; x++) {
+                setTileAt(x, y, replace);
+            }
         }
     }
 
@@ -381,15 +616,29 @@ public class TileLayer extends MapLayer
      * @param mask
      */
     public void maskedMergeOnto(MapLayer other, Area mask) {
+        maskedMergeOnto(other, new SelectionMask(mask));
+    }
+
+    /**
+     * Like mergeOnto, but will only copy the tiles in the given mask. Only
+     * the runs of tiles in the mask are visited.
+     *
+     * @see TileLayer#mergeOnto(MapLayer)
+     * @param other
+     * @param mask
+     */
+    public void maskedMergeOnto(MapLayer other, SelectionMask mask) {
         if (!canEdit())
             return;
 
-        Rectangle boundBox = mask.getBounds();
-
-        for (int y = boundBox.y; y < boundBox.y + boundBox.height; y++) {
-            for (int x = boundBox.x; x < boundBox.x + boundBox.width; x++) {
-                Tile tile = ((TileLayer) other).getTileAt(x, y);
-                if (mask.contains(x, y) && tile != null) {
+        final TileLayer source = (TileLayer) other;
+        final SelectionMask.RunIterator runs = mask.runs();
+        while (runs.next()) {
+            final int y = runs.getY();
+            final int end = runs.getX() + runs.getLength();
+            for (int x = runs.getX(); x < end; x++) {
+                Tile tile = source.getTileAt(x, y);
+                if (tile != null) {
                     setTileAt(x, y, tile);
                 }
             }
@@ -422,20 +671,94 @@ public class TileLayer extends MapLayer
      * @param mask
      */
     public void maskedCopyFrom(MapLayer other, Area mask) {
+        maskedCopyFrom(other, new SelectionMask(mask));
+    }
+
+    /**
+     * Like copyFrom, but will only copy the tiles in the given mask. Only
+     * the runs of tiles in the mask are visited.
+     *
+     * @see TileLayer#copyFrom(MapLayer)
+     * @param other
+     * @param mask
+     */
+    public void maskedCopyFrom(MapLayer other, SelectionMask mask) {
         if (!canEdit())
             return;
 
-        Rectangle boundBox = mask.getBounds();
+        final TileLayer source = (TileLayer) other;
+        final SelectionMask.RunIterator runs = mask.runs();
+        while (runs.next()) {
+            final int y = runs.getY();
+            final int end = runs.getX() + runs.getLength();
+            for (int x = runs.getX(); x < end; x++) {
+                setTileAt(x, y, source.getTileAt(x, y));
+            }
+        }
+    }
 
-        for (int y = boundBox.y; y < boundBox.y + boundBox.height; y++) {
-            for (int x = boundBox.x; x < boundBox.x + boundBox.width; x++) {
-                if (mask.contains(x,y)) {
-                    setTileAt(x, y, ((TileLayer) other).getTileAt(x, y));
-                }
+    /**
+     * Sets the tiles in the given mask to the given tile.
+     *
+     * @param mask the locations to set
+     * @param tile the tile to set, or <code>null</code> to clear them
+     */
+    public void maskedFill(SelectionMask mask, Tile tile) {
+        if (!canEdit())
+            return;
+
+        final SelectionMask.RunIterator runs = mask.runs();
+        while (runs.next()) {
+            final int y = runs.getY();
+            final int end = runs.getX() + runs.getLength();
+            for (int x = runs.getX(); x < end; x++) {
+                setTileAt(x, y, tile);
             }
         }
     }
 
+    /**
+     * Sets the given tile at the given location and at all the locations
+     * connected to it, horizontally or vertically, through cells holding the
+     * same tile as the given location does.
+     *
+     * @param x    the x-coordinate to start filling at
+     * @param y    the y-coordinate to start filling at
+     * @param tile the tile to fill with, or <code>null</code> to clear
+     * @return the bounds of the filled area, or <code>null</code> if no
+     *         tile was changed
+     */
+    public Rectangle floodFill(int x, int y, Tile tile) {
+        if (!canEdit() || !contains(x, y))
+            return null;
+
+        final Tile oldTile = getTileAt(x, y);
+        if (oldTile == tile)
+            return null;
+
+        Rectangle area = new Rectangle(x, y, 1, 1);
+        Stack<Point> stack = new Stack<Point>();
+
+        stack.push(new Point(x, y));
+        while (!stack.empty()) {
+            // Remove the next tile from the stack
+            Point p = stack.pop();
+
+            // If the tile it meets the requirements, set it and push its
+            // neighbouring tiles on the stack.
+            if (contains(p.x, p.y) && getTileAt(p.x, p.y) == oldTile) {
+                setTileAt(p.x, p.y, tile);
+                area.add(new Rectangle(p.x, p.y, 1, 1));
+
+                stack.push(new Point(p.x, p.y - 1));
+                stack.push(new Point(p.x, p.y + 1));
+                stack.push(new Point(p.x + 1, p.y));
+                stack.push(new Point(p.x - 1, p.y));
+            }
+        }
+        return area;
+    }
+
     /**
      * Unlike mergeOnto, copyTo includes the null tile when merging.
      *
@@ -467,31 +790,28 @@ public class TileLayer extends MapLayer
     }
 
     /**
-     * Creates a copy of this layer.
+     * Creates a copy of this layer. The rows of tiles are shared until
+     * either layer changes them, so this takes time in proportion to the
+     * height of the layer only.
      *
      * @see Object#clone
      * @return a clone of this layer, as complete as possible
      * @exception CloneNotSupportedException
      */
     public Object clone() throws CloneNotSupportedException {
+        loadRows();
         TileLayer clone = (TileLayer) super.clone();
 
-        // Clone the layer data
-        clone.map = new Tile[map.length][];
-        clone.tileInstanceProperties = new HashMap<Object, Properties>();
-
-        for (int i = 0; i < map.length; i++) {
-            clone.map[i] = new Tile[map[i].length];
-            System.arraycopy(map[i], 0, clone.map[i], 0, map[i].length);
-
-            for (int j = 0; j < map[i].length; j++) {
-                Properties p = getTileInstancePropertiesAt(i, j);
+        clone.usage = null;
+        clone.tileInstanceProperties =
+            (CellPropertiesMap) tileInstanceProperties.clone();
 
-                if (p != null) {
-                    Integer key = i + j * bounds.width;
-                    clone.tileInstanceProperties.put(key, (Properties) p.clone());
-                }
-            }
+        if (map != null) {
+            // Neither layer owns the rows from now on
+            clone.map = map.clone();
+            clone.rowVersions = new int[map.length];
+            clone.version = 1;
+            version++;
         }
 
         return clone;
@@ -509,27 +829,37 @@ public class TileLayer extends MapLayer
         if (getLocked())
             return;
 
-        Tile[][] newMap = new Tile[height][width];
-        HashMap<Object, Properties> newTileInstanceProperties = new HashMap<Object, Properties>();
-
-        int maxX = Math.min(width, bounds.width + dx);
-        int maxY = Math.min(height, bounds.height + dy);
-
-        for (int x = Math.max(0, dx); x < maxX; x++) {
-            for (int y = Math.max(0, dy); y < maxY; y++) {
-                newMap[y][x] = getTileAt(x - dx, y - dy);
-
-                Properties tip = getTileInstancePropertiesAt(x - dx, y - dy);
-                if (tip != null) {
-                    newTileInstanceProperties.put(new Point(x, y), tip);
+        loadRows();
+        final Tile[][] newMap = new Tile[height][];
+        final int[] newVersions = new int[height];
+        final int minX = Math.max(0, dx);
+        final int maxX = Math.min(width, bounds.width + dx);
+
+        Arrays.fill(newVersions, version);
+        for (int y = 0; y < height; y++) {
+            final int sy = y - dy;
+            if (sy < 0 || sy >= bounds.height) {
+                newMap[y] = new Tile[width];
+            } else if (width == bounds.width && dx == 0) {
+                // The row stays the same, and may still be shared
+                newMap[y] = map[sy];
+                newVersions[y] = rowVersions[sy];
+            } else {
+                newMap[y] = new Tile[width];
+                if (minX < maxX) {
+                    System.arraycopy(map[sy], minX - dx,
+                                     newMap[y], minX, maxX - minX);
                 }
             }
         }
 
         map = newMap;
-        tileInstanceProperties = newTileInstanceProperties;
+        rowVersions = newVersions;
+        usage = null;
         bounds.width = width;
         bounds.height = height;
+        transformTileInstanceProperties(1, 0, dx, 0, 1, dy);
+        markModified();
     }
     
     /// sets both tile width and tile height for this layer. Equivalent to
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.util.*;
 import javax.imageio.ImageIO;
 
+import tiled.io.IOStatistics;
 import tiled.mapeditor.util.TransparentImageFilter;
 import tiled.mapeditor.util.cutter.BasicTileCutter;
 import tiled.mapeditor.util.cutter.TileCutter;
@@ -54,6 +55,7 @@ public class TileSet
     private Image tileSetImage;
     private LinkedList<TilesetChangeListener> tilesetChangeListeners;
     private java.util.Map<Integer, String> imageSources = new HashMap<Integer, String>();
+    private int modificationCount;
 
     /**
      * Default constructor
@@ -79,6 +81,7 @@ public class TileSet
     {
         setTilesetImageFilename(imgFilename);
 
+        long start = System.nanoTime();
         Image image = ImageIO.read(new File(imgFilename));
         if (image == null) {
             throw new IOException("Failed to load " + tilebmpFile);
@@ -98,8 +101,14 @@ public class TileSet
                 image.getHeight(null),
                 BufferedImage.TYPE_INT_ARGB);
         buffered.getGraphics().drawImage(image, 0, 0, null);
+        IOStatistics.record(IOStatistics.Phase.IMAGE_DECODING,
+                System.nanoTime() - start, new File(imgFilename).length(), 1);
 
+        start = System.nanoTime();
+        final int tilesBefore = size();
         importTileBitmap(buffered, cutter);
+        IOStatistics.record(IOStatistics.Phase.TILESET_IMPORT,
+                System.nanoTime() - start, 0, size() - tilesBefore);
     }
 
     /**
@@ -271,6 +280,7 @@ public class TileSet
      */
     public void setTransparentColor(Color color) {
         transparentColor = color;
+        modificationCount++;
     }
 
     /**
@@ -300,6 +310,7 @@ public class TileSet
         tiles.put(t.getId(), t);
         t.setTileSet(this);
 
+        modificationCount++;
         fireTilesetChanged();
 
         return t.getId();
@@ -331,6 +342,7 @@ public class TileSet
      */
     public void removeTile(int i) {
         tiles.remove(i);
+        modificationCount++;
         fireTilesetChanged();
     }
 
@@ -592,6 +604,7 @@ public class TileSet
      */
     public void overlayImage(int id, Image image) {
         images.put(id, image);
+        modificationCount++;
     }
 
     /**
@@ -627,6 +640,7 @@ public class TileSet
         int id = images.findOrAdd(image);
         if(imageSource != null)
             imageSources.put(id, imageSource);
+        modificationCount++;
         return id;
     }
 
@@ -638,12 +652,14 @@ public class TileSet
         if(imgSource != null)
             imageSources.put(id, imgSource);
         
+        modificationCount++;
         return images.put(id, image);
     }
 
     public void removeImage(int id) {
         images.remove(id);
         imageSources.remove(id);
+        modificationCount++;
     }
 
     /**
@@ -655,6 +671,22 @@ public class TileSet
         return tileSetImage != null;
     }
 
+    /**
+     * Returns the image the tiles were cut from, or <code>null</code> when
+     * the tileset was not created from an image.
+     */
+    Image getTilesetImage() {
+        return tileSetImage;
+    }
+
+    /**
+     * Returns the sources of the images that were loaded from a file,
+     * mapped by image id.
+     */
+    java.util.Map<Integer, String> getImageSources() {
+        return imageSources;
+    }
+
     /**
      * Checks whether each image has a one to one relationship with the tiles.
      *
@@ -697,6 +729,28 @@ public class TileSet
 
     public void setDefaultProperties(Properties defaultSetProperties) {
         defaultTileProperties = defaultSetProperties;
+        modificationCount++;
+    }
+
+    /**
+     * Returns the number of times tiles or images were added to, removed
+     * from or replaced in this tileset. Map writers may reuse the images they
+     * encoded for this tileset as long as this count stays the same.
+     *
+     * @return the number of changes made to this tileset
+     */
+    public int getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * Counts a change to this tileset that it could not notice itself, such
+     * as drawing on one of its images.
+     *
+     * @see TileSet#getModificationCount()
+     */
+    public void markModified() {
+        modificationCount++;
     }
 
     public void addTilesetChangeListener(TilesetChangeListener listener) {
@@ -0,0 +1,138 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.core;
+
+import java.awt.Rectangle;
+import java.util.IdentityHashMap;
+
+/**
+ * Keeps track of how often, and optionally where, each tile is used in a
+ * tile layer.
+ * <p>
+ * The counts are gathered with one pass over the layer when the index is
+ * created. The locations of all tiles are gathered with another pass the
+ * first time the locations of a tile are asked for. After that, both are
+ * updated by {@link TileLayer#setTileAt(int, int, Tile)} as tiles change,
+ * so that queries cost time in the number of occurrences of a tile rather
+ * than the size of the layer. Empty cells are not indexed.
+ *
+ * @version $Id$
+ */
+class TileUsageIndex
+{
+    private final TileLayer layer;
+    private final IdentityHashMap<Tile, Usage> usages =
+        new IdentityHashMap<Tile, Usage>();
+    private boolean locationsIndexed;
+    private int total;
+
+    private static class Usage
+    {
+        int count;
+        SelectionMask locations;
+    }
+
+    TileUsageIndex(TileLayer layer) {
+        this.layer = layer;
+
+        final Rectangle bounds = layer.getBounds();
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+            for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                Tile tile = layer.getTileAt(x, y);
+                if (tile != null) {
+                    getUsage(tile).count++;
+                    total++;
+                }
+            }
+        }
+    }
+
+    private Usage getUsage(Tile tile) {
+        Usage usage = usages.get(tile);
+        if (usage == null) {
+            usage = new Usage();
+            usages.put(tile, usage);
+        }
+        return usage;
+    }
+
+    /**
+     * Returns the number of cells the given tile is used in.
+     */
+    int getCount(Tile tile) {
+        final Usage usage = usages.get(tile);
+        return usage != null ? usage.count : 0;
+    }
+
+    /**
+     * Returns the number of cells that are not empty.
+     */
+    int getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the locations of the given tile, or <code>null</code> if it is
+     * not used. The returned mask is owned by the index.
+     */
+    SelectionMask getLocations(Tile tile) {
+        if (!locationsIndexed) {
+            indexLocations();
+        }
+        final Usage usage = usages.get(tile);
+        return usage != null ? usage.locations : null;
+    }
+
+    private void indexLocations() {
+        for (Usage usage : usages.values()) {
+            usage.locations = new SelectionMask();
+        }
+
+        final Rectangle bounds = layer.getBounds();
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+            for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                Tile tile = layer.getTileAt(x, y);
+                if (tile != null) {
+                    usages.get(tile).locations.set(x, y);
+                }
+            }
+        }
+        locationsIndexed = true;
+    }
+
+    /**
+     * Updates the index for the tile at the given location being replaced.
+     */
+    void tileChanged(int x, int y, Tile oldTile, Tile newTile) {
+        if (oldTile != null) {
+            total--;
+            final Usage usage = usages.get(oldTile);
+            if (--usage.count == 0) {
+                usages.remove(oldTile);
+            } else if (locationsIndexed) {
+                usage.locations.clear(x, y);
+            }
+        }
+        if (newTile != null) {
+            total++;
+            final Usage usage = getUsage(newTile);
+            usage.count++;
+            if (locationsIndexed) {
+                if (usage.locations == null) {
+                    usage.locations = new SelectionMask();
+                }
+                usage.locations.set(x, y);
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens map files so that their format can be recognized from their first
+ * bytes, as needed by {@link SniffingMapReader}.
+ * <p>
+ * The streams returned are buffered and support marks, so that the header
+ * can be peeked at and the same stream then given to the reader. Files that
+ * are compressed with gzip are recognized by their magic number, whatever
+ * their extension, and decompressed.
+ *
+ * @version $Id$
+ */
+public final class FormatSniffer
+{
+    /** The number of bytes given to {@link SniffingMapReader#sniff}. */
+    public static final int HEADER_LENGTH = 4096;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private FormatSniffer() {
+    }
+
+    /**
+     * Opens a file or URL for reading, decompressing it when it is gzipped.
+     *
+     * @param filename the filename, or a URL
+     * @return a buffered stream that supports marks
+     * @throws IOException
+     */
+    public static InputStream open(String filename) throws IOException {
+        InputStream in;
+        if (filename.indexOf("://") > 0 || filename.startsWith("file:")) {
+            in = new URL(filename).openStream();
+        } else {
+            in = new FileInputStream(filename);
+        }
+        return decompress(new BufferedInputStream(in, BUFFER_SIZE));
+    }
+
+    /**
+     * Wraps the given stream with a gzip decoder when it starts with the
+     * gzip magic number.
+     *
+     * @param in the stream, at the start of the data
+     * @return a buffered stream that supports marks
+     * @throws IOException
+     */
+    public static InputStream decompress(InputStream in) throws IOException {
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(in, BUFFER_SIZE);
+        }
+        byte[] magic = peek(in, 2);
+        if (magic.length == 2 &&
+                (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+            return new BufferedInputStream(new GZIPInputStream(in),
+                    BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    /**
+     * Reads up to the given number of bytes without consuming them.
+     *
+     * @param in     a stream that supports marks
+     * @param length the number of bytes to read
+     * @return the bytes read, fewer than asked for at the end of the stream
+     * @throws IOException
+     */
+    public static byte[] peek(InputStream in, int length) throws IOException {
+        byte[] buffer = new byte[length];
+        int read = 0;
+        in.mark(length);
+        try {
+            int n;
+            while (read < length &&
+                    (n = in.read(buffer, read, length - read)) > 0) {
+                read += n;
+            }
+        } finally {
+            in.reset();
+        }
+        if (read == length) {
+            return buffer;
+        }
+        byte[] header = new byte[read];
+        System.arraycopy(buffer, 0, header, 0, read);
+        return header;
+    }
+
+    /**
+     * Returns whether the given header starts an XML document with the
+     * given root element. The declaration, comments and the document type
+     * before the root element are skipped. Only single byte encodings and
+     * UTF-8 are recognized.
+     */
+    public static boolean isXmlDocument(byte[] header, String rootElement) {
+        int i = 0;
+        // Skip the UTF-8 byte order mark
+        if (header.length >= 3 && (header[0] & 0xff) == 0xef &&
+                (header[1] & 0xff) == 0xbb && (header[2] & 0xff) == 0xbf) {
+            i = 3;
+        }
+
+        while (i < header.length) {
+            final int c = header[i];
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                i++;
+            }
+            else if (c != '<' || i + 1 >= header.length) {
+                return false;
+            }
+            else if (startsWith(header, i, "<!--")) {
+                i = indexOf(header, i + 4, "-->");
+                if (i < 0) {
+                    return false;
+                }
+                i += 3;
+            }
+            else if (header[i + 1] == '?' || header[i + 1] == '!') {
+                i = indexOf(header, i + 2, ">");
+                if (i < 0) {
+                    return false;
+                }
+                i++;
+            }
+            else {
+                final int end = i + 1 + rootElement.length();
+                if (!startsWith(header, i + 1, rootElement) ||
+                        end >= header.length) {
+                    return false;
+                }
+                final int next = header[end];
+                return next == '>' || next == '/' || next == ' ' ||
+                    next == '\t' || next == '\r' || next == '\n';
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] b, int offset, String s) {
+        if (offset + s.length() > b.length) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (b[offset + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] b, int offset, String s) {
+        for (int i = offset; i + s.length() <= b.length; i++) {
+            if (startsWith(b, i, s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import tiled.core.*;
+
+/**
+ * Records where the time goes while loading or saving a map or tileset:
+ * the duration of each phase, the bytes it processed and the number of
+ * things it handled.
+ * <p>
+ * A load or save is started with {@link #begin(Operation, String)} and
+ * finished with {@link #end(Object)}. In between, the code doing the work
+ * reports its phases to {@link #record(Phase, long, long, long)}, which
+ * adds them to the statistics of the operation in progress on the current
+ * thread. Operations started while another is in progress on the same
+ * thread, such as loading an external tileset while loading a map, add to
+ * the statistics of the outer operation.
+ * <p>
+ * When an operation completes, its statistics are passed to the registered
+ * {@link IOStatisticsListener}s.
+ *
+ * @version $Id$
+ */
+public class IOStatistics
+{
+    public enum Operation
+    {
+        LOAD("Loaded"),
+        SAVE("Saved");
+
+        private final String description;
+
+        Operation(String description) {
+            this.description = description;
+        }
+
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * The phases of loading and saving that are timed. The count of a
+     * phase is the number of documents, images, tiles, blocks of data or
+     * cells it handled, as noted for each phase.
+     */
+    public enum Phase
+    {
+        /** Parsing XML into a document. Counts documents. */
+        XML_PARSING("XML parsing"),
+        /** Decoding image files and embedded images. Counts images. */
+        IMAGE_DECODING("Image decoding"),
+        /** Encoding embedded images. Counts images. */
+        IMAGE_ENCODING("Image encoding"),
+        /** Cutting tileset images into tiles. Counts tiles. */
+        TILESET_IMPORT("Tileset import"),
+        /** Decoding base64 data. Counts blocks of data. */
+        BASE64_DECODING("Base64 decoding"),
+        /** Encoding base64 data. Counts blocks of data. */
+        BASE64_ENCODING("Base64 encoding"),
+        /** Decompressing layer data. Counts layers. */
+        INFLATION("Inflation"),
+        /** Compressing layer data. Counts layers. */
+        DEFLATION("Deflation"),
+        /** Looking up the tiles for global tile ids. Counts cells. */
+        GID_RESOLUTION("GID resolution"),
+        /** Converting tiles to global tile ids. Counts cells. */
+        GID_ENCODING("GID encoding");
+
+        private final String description;
+
+        Phase(String description) {
+            this.description = description;
+        }
+
+        public String toString() {
+            return description;
+        }
+    }
+
+    private static final ThreadLocal<IOStatistics> current =
+        new ThreadLocal<IOStatistics>();
+    private static final List<IOStatisticsListener> listeners =
+        new CopyOnWriteArrayList<IOStatisticsListener>();
+
+    private final Operation operation;
+    private final String filename;
+    private final long startTime;
+    private long duration;
+    private int depth;
+
+    private final long[] phaseTimes = new long[Phase.values().length];
+    private final long[] phaseBytes = new long[Phase.values().length];
+    private final long[] phaseCounts = new long[Phase.values().length];
+
+    private int layers;
+    private int tilesets;
+    private int tiles;
+    private int objects;
+
+    private IOStatistics(Operation operation, String filename) {
+        this.operation = operation;
+        this.filename = filename;
+        startTime = System.nanoTime();
+    }
+
+    public static void addListener(IOStatisticsListener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(IOStatisticsListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts recording a load or save on the current thread. When another
+     * operation is already being recorded on this thread, the returned
+     * statistics are those of that operation.
+     *
+     * @param operation whether a file is loaded or saved
+     * @param filename  the name of the file, or <code>null</code> when
+     *                  loading from or saving to a stream
+     * @return the statistics to pass the result to when done
+     */
+    public static IOStatistics begin(Operation operation, String filename) {
+        IOStatistics stats = current.get();
+        if (stats == null) {
+            stats = new IOStatistics(operation, filename);
+            current.set(stats);
+        }
+        stats.depth++;
+        return stats;
+    }
+
+    /**
+     * Finishes recording an operation started with
+     * {@link #begin(Operation, String)}. This should be called in a
+     * <code>finally</code> block. When this ends the outermost operation on
+     * the thread and it succeeded, the listeners are told about it.
+     *
+     * @param result the map or tileset that was loaded or saved, or
+     *               <code>null</code> when the operation failed
+     */
+    public void end(Object result) {
+        if (--depth > 0) {
+            return;
+        }
+        current.remove();
+        duration = System.nanoTime() - startTime;
+
+        if (result instanceof Map) {
+            count((Map) result);
+        } else if (result instanceof TileSet) {
+            count((TileSet) result);
+        }
+
+        if (result != null) {
+            for (IOStatisticsListener listener : listeners) {
+                listener.statisticsRecorded(this);
+            }
+        }
+    }
+
+    /**
+     * Adds the time spent in a phase to the statistics of the operation in
+     * progress on the current thread. Does nothing when no operation is in
+     * progress.
+     *
+     * @param phase the phase the time was spent in
+     * @param time  the time spent in nanoseconds
+     * @param bytes the number of bytes processed, or 0 when not known
+     * @param count the number of things handled, see {@link Phase}
+     */
+    public static void record(Phase phase, long time, long bytes, long count) {
+        IOStatistics stats = current.get();
+        if (stats != null) {
+            final int i = phase.ordinal();
+            stats.phaseTimes[i] += time;
+            stats.phaseBytes[i] += bytes;
+            stats.phaseCounts[i] += count;
+        }
+    }
+
+    private void count(Map map) {
+        Iterator<MapLayer> itr = map.getLayers();
+        while (itr.hasNext()) {
+            MapLayer layer = itr.next();
+            layers++;
+            if (layer instanceof ObjectGroup) {
+                Iterator<MapObject> objs = ((ObjectGroup) layer).getObjects();
+                while (objs.hasNext()) {
+                    objs.next();
+                    objects++;
+                }
+            }
+        }
+        for (TileSet set : map.getTilesets()) {
+            count(set);
+        }
+    }
+
+    private void count(TileSet set) {
+        tilesets++;
+        tiles += set.size();
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * Returns the duration of the whole operation in nanoseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the time spent in the given phase in nanoseconds.
+     */
+    public long getTime(Phase phase) {
+        return phaseTimes[phase.ordinal()];
+    }
+
+    public long getBytes(Phase phase) {
+        return phaseBytes[phase.ordinal()];
+    }
+
+    public long getCount(Phase phase) {
+        return phaseCounts[phase.ordinal()];
+    }
+
+    /**
+     * Returns the time not spent in any of the phases, such as building
+     * the map from the parsed document or writing XML, in nanoseconds.
+     */
+    public long getOtherTime() {
+        long other = duration;
+        for (long time : phaseTimes) {
+            other -= time;
+        }
+        return Math.max(0, other);
+    }
+
+    public int getLayerCount() {
+        return layers;
+    }
+
+    public int getTilesetCount() {
+        return tilesets;
+    }
+
+    public int getTileCount() {
+        return tiles;
+    }
+
+    public int getObjectCount() {
+        return objects;
+    }
+
+    /**
+     * Returns a summary of these statistics, with a line for each phase
+     * that took any time.
+     */
+    public String getSummary() {
+        final String newLine = System.getProperty("line.separator");
+        StringBuffer sb = new StringBuffer();
+        sb.append(operation).append(' ')
+            .append(filename != null ? filename : "stream")
+            .append(String.format(" in %.1f ms", duration / 1e6))
+            .append(newLine);
+
+        for (Phase phase : Phase.values()) {
+            final int i = phase.ordinal();
+            if (phaseTimes[i] > 0 || phaseCounts[i] > 0) {
+                sb.append(String.format("  %-16s %9.1f ms %12d bytes %10d",
+                        phase, phaseTimes[i] / 1e6,
+                        phaseBytes[i], phaseCounts[i]))
+                    .append(newLine);
+            }
+        }
+        sb.append(String.format("  %-16s %9.1f ms", "Other",
+                                getOtherTime() / 1e6))
+            .append(newLine);
+        sb.append(String.format(
+                "  %d layers, %d tilesets, %d tiles, %d objects",
+                layers, tilesets, tiles, objects));
+        return sb.toString();
+    }
+
+    public String toString() {
+        return getSummary();
+    }
+}
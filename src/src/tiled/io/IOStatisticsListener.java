@@ -0,0 +1,31 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io;
+
+import java.util.EventListener;
+
+/**
+ * Is told about the statistics of each completed load or save.
+ *
+ * @see IOStatistics#addListener(IOStatisticsListener)
+ * @version $Id$
+ */
+public interface IOStatisticsListener extends EventListener
+{
+    /**
+     * Called when a load or save completed, on the thread that did it.
+     *
+     * @param stats the statistics of the load or save
+     */
+    public void statisticsRecorded(IOStatistics stats);
+}
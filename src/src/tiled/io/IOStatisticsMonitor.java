@@ -0,0 +1,125 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Keeps totals of the statistics of all loads and saves, and makes them
+ * available over JMX as <code>tiled:type=IOStatistics</code>, so that they
+ * can be watched with a tool like JConsole.
+ *
+ * @version $Id$
+ */
+public class IOStatisticsMonitor
+    implements IOStatisticsMonitorMBean, IOStatisticsListener
+{
+    public static final String OBJECT_NAME = "tiled:type=IOStatistics";
+
+    private static IOStatisticsMonitor instance;
+
+    private int loadCount;
+    private int saveCount;
+    private long totalLoadTime;
+    private long totalSaveTime;
+    private final long[] phaseTimes =
+        new long[IOStatistics.Phase.values().length];
+    private IOStatistics lastLoad;
+    private IOStatistics lastSave;
+
+    private IOStatisticsMonitor() {
+    }
+
+    /**
+     * Starts keeping totals and registers the monitor with the platform
+     * MBean server. Does nothing when the monitor was already registered.
+     */
+    public static synchronized void register() {
+        if (instance != null) {
+            return;
+        }
+        instance = new IOStatisticsMonitor();
+        IOStatistics.addListener(instance);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    instance, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.err.println("Failed to register " + OBJECT_NAME + ": " +
+                    e.getLocalizedMessage());
+        }
+    }
+
+    public synchronized void statisticsRecorded(IOStatistics stats) {
+        if (stats.getOperation() == IOStatistics.Operation.LOAD) {
+            loadCount++;
+            totalLoadTime += stats.getDuration();
+            lastLoad = stats;
+        } else {
+            saveCount++;
+            totalSaveTime += stats.getDuration();
+            lastSave = stats;
+        }
+        for (IOStatistics.Phase phase : IOStatistics.Phase.values()) {
+            phaseTimes[phase.ordinal()] += stats.getTime(phase);
+        }
+    }
+
+    public synchronized int getLoadCount() {
+        return loadCount;
+    }
+
+    public synchronized int getSaveCount() {
+        return saveCount;
+    }
+
+    public synchronized double getTotalLoadTime() {
+        return totalLoadTime / 1e6;
+    }
+
+    public synchronized double getTotalSaveTime() {
+        return totalSaveTime / 1e6;
+    }
+
+    public synchronized String[] getPhaseTimes() {
+        IOStatistics.Phase[] phases = IOStatistics.Phase.values();
+        String[] lines = new String[phases.length];
+        for (int i = 0; i < phases.length; i++) {
+            lines[i] = String.format("%s: %.1f ms",
+                                     phases[i], phaseTimes[i] / 1e6);
+        }
+        return lines;
+    }
+
+    public synchronized String getLastLoadSummary() {
+        return lastLoad != null ? lastLoad.getSummary() : null;
+    }
+
+    public synchronized String getLastSaveSummary() {
+        return lastSave != null ? lastSave.getSummary() : null;
+    }
+
+    public synchronized void reset() {
+        loadCount = 0;
+        saveCount = 0;
+        totalLoadTime = 0;
+        totalSaveTime = 0;
+        for (int i = 0; i < phaseTimes.length; i++) {
+            phaseTimes[i] = 0;
+        }
+        lastLoad = null;
+        lastSave = null;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io;
+
+/**
+ * The management interface of the {@link IOStatisticsMonitor}. Times are in
+ * milliseconds.
+ *
+ * @version $Id$
+ */
+public interface IOStatisticsMonitorMBean
+{
+    public int getLoadCount();
+
+    public int getSaveCount();
+
+    public double getTotalLoadTime();
+
+    public double getTotalSaveTime();
+
+    /**
+     * Returns the total time spent in each phase over all loads and saves,
+     * as a line per phase.
+     */
+    public String[] getPhaseTimes();
+
+    public String getLastLoadSummary();
+
+    public String getLastSaveSummary();
+
+    /**
+     * Forgets all recorded statistics.
+     */
+    public void reset();
+}
@@ -0,0 +1,34 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io;
+
+import tiled.core.MapLayer;
+
+/**
+ * Selects the layers to load when reading a map. Readers that support it
+ * skip unselected layers before decoding any of their data.
+ *
+ * @see tiled.io.xml.XMLMapTransformer#setLayerFilter(LayerFilter)
+ */
+public interface LayerFilter
+{
+    /**
+     * Decides whether a layer is loaded.
+     *
+     * @param name the name of the layer, may be <code>null</code>
+     * @param type the type of layer, e.g. <code>TileLayer.class</code> or
+     *             <code>ObjectGroup.class</code>
+     * @return <code>true</code> if the layer should be loaded
+     */
+    public boolean accept(String name, Class<? extends MapLayer> type);
+}
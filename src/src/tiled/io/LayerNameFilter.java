@@ -0,0 +1,50 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import tiled.core.MapLayer;
+
+/**
+ * A {@link LayerFilter} that accepts the layers with the given names,
+ * optionally restricted to a single type of layer.
+ */
+public class LayerNameFilter implements LayerFilter
+{
+    private final HashSet<String> names;
+    private final Class<? extends MapLayer> type;
+
+    /**
+     * @param names the names of the layers to load
+     */
+    public LayerNameFilter(String... names) {
+        this(null, names);
+    }
+
+    /**
+     * @param type  the type of the layers to load, or <code>null</code> for
+     *              any type
+     * @param names the names of the layers to load
+     */
+    public LayerNameFilter(Class<? extends MapLayer> type, String... names) {
+        this.names = new HashSet<String>(Arrays.asList(names));
+        this.type = type;
+    }
+
+    public boolean accept(String name, Class<? extends MapLayer> type) {
+        return names.contains(name) &&
+                (this.type == null || this.type.isAssignableFrom(type));
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io;
+
+/**
+ * Follows the loading of a map, and may cancel it. Readers that support it
+ * report each tileset and layer they have loaded, and stop with a
+ * {@link java.util.concurrent.CancellationException} soon after the load is
+ * canceled. Both methods are called on the thread that loads the map.
+ *
+ * @see tiled.io.xml.XMLMapTransformer#setLoadMonitor(LoadMonitor)
+ */
+public interface LoadMonitor
+{
+    /**
+     * Reports the progress of the load.
+     *
+     * @param done  the number of tilesets and layers loaded
+     * @param total the number of tilesets and layers in the map, or 0 when
+     *              this is not known yet
+     * @param note  what is being loaded, may be <code>null</code>
+     */
+    public void progress(int done, int total, String note);
+
+    /**
+     * Returns whether the load should stop.
+     */
+    public boolean isCanceled();
+}
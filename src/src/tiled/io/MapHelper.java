@@ -13,8 +13,11 @@
 package tiled.io;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CancellationException;
 import java.util.prefs.Preferences;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 import tiled.core.Map;
 import tiled.core.TileSet;
@@ -69,7 +72,7 @@ public class MapHelper {
         if (mw != null) {
             PluginLogger logger = new PluginLogger();
             mw.setLogger(logger);
-            mw.writeMap(currentMap, filename);
+            writeMap(mw, currentMap, filename);
             currentMap.setFilename(filename);
             reportPluginMessages(logger);
         } else {
@@ -125,41 +128,42 @@ public class MapHelper {
 
         PluginLogger logger = new PluginLogger();
         mw.setLogger(logger);
-        mw.writeMap(currentMap, filename);
+        writeMap(mw, currentMap, filename);
         currentMap.setFilename(filename);
         reportPluginMessages(logger);
     }
 
     /**
-     * Loads a map. Use the extension (.xxx) of the filename to determine
-     * the plugin to use when reading the file. Throws an exception when the
-     * extension is not supported by either the TMX writer or a plugin.
+     * Writes a map, recording the {@link IOStatistics} of the save. Writers
+     * that report their phases add them to these statistics.
+     */
+    private static void writeMap(MapWriter mw, Map map, String filename)
+        throws Exception
+    {
+        IOStatistics stats =
+            IOStatistics.begin(IOStatistics.Operation.SAVE, filename);
+        Map written = null;
+        try {
+            mw.writeMap(map, filename);
+            written = map;
+        } finally {
+            stats.end(written);
+        }
+    }
+
+    /**
+     * Loads a map, showing a dialog when it fails.
      *
      * @param file filename of map to load
-     * @return a new Map, loaded from the specified file by a plugin
+     * @return a new Map, loaded from the specified file by a plugin, or
+     *         <code>null</code> when it could not be loaded
      * @throws Exception
-     * @see MapReader#readMap(String)
+     * @see #readMap(String)
      */
     public static Map loadMap(String file) throws Exception {
         Map ret = null;
         try {
-            MapReader mr;
-            if (file.endsWith(".tmx") || file.endsWith(".tmx.gz")) {
-                // Override, so people can't overtake our format
-                mr = new XMLMapTransformer();
-            } else {
-                mr = (MapReader)pluginLoader.getReaderFor(file);
-            }
-
-            if (mr != null) {
-                PluginLogger logger = new PluginLogger();
-                mr.setLogger(logger);
-                ret = mr.readMap(file);
-                ret.setFilename(file);
-                reportPluginMessages(logger);
-            } else {
-                throw new Exception("Unsupported map format");
-            }
+            ret = readMap(file);
         } catch (IOException e) {
             JOptionPane.showMessageDialog(null,
                     e.getMessage() + (e.getCause() != null ? "\nCause: " +
@@ -180,6 +184,120 @@ public class MapHelper {
         return ret;
     }
 
+    /**
+     * Loads a map. The file is opened once, decompressed when it is
+     * gzipped, and its first bytes are offered to the TMX reader and then
+     * to the {@link SniffingMapReader} plugins. The first reader that
+     * recognizes them reads the map from the same stream. When none does,
+     * the extension (.xxx) of the filename determines the plugin, which
+     * opens the file itself. Throws an exception when the format is not
+     * supported by either the TMX reader or a plugin.
+     *
+     * @param file filename of map to load
+     * @return a new Map, loaded from the specified file by a plugin
+     * @throws Exception
+     * @see MapReader#readMap(String)
+     */
+    public static Map readMap(String file) throws Exception {
+        return readMap(file, null);
+    }
+
+    /**
+     * Loads a map as {@link #readMap(String)} does, reporting progress to
+     * the given monitor. Only the TMX reader reports progress and notices
+     * that the load is canceled while reading. For other readers the
+     * monitor is asked once the map is read.
+     *
+     * @param file    filename of map to load
+     * @param monitor the monitor, or <code>null</code> for none
+     * @return a new Map, loaded from the specified file by a plugin
+     * @throws CancellationException when the load was canceled
+     * @throws Exception
+     */
+    public static Map readMap(String file, LoadMonitor monitor)
+        throws Exception
+    {
+        PluginLogger logger = new PluginLogger();
+        IOStatistics stats =
+            IOStatistics.begin(IOStatistics.Operation.LOAD, file);
+        Map ret = null;
+        try {
+            boolean sniffed = false;
+            InputStream in = FormatSniffer.open(file);
+            try {
+                SniffingMapReader sr = findReader(
+                        FormatSniffer.peek(in, FormatSniffer.HEADER_LENGTH));
+                if (sr != null) {
+                    sniffed = true;
+                    sr.setLogger(logger);
+                    setLoadMonitor(sr, monitor);
+                    ret = sr.readMap(in, file);
+                }
+            } finally {
+                in.close();
+            }
+
+            if (!sniffed) {
+                MapReader mr;
+                if (file.endsWith(".tmx") || file.endsWith(".tmx.gz")) {
+                    // Override, so people can't overtake our format
+                    mr = new XMLMapTransformer();
+                } else if (pluginLoader != null) {
+                    mr = (MapReader)pluginLoader.getReaderFor(file);
+                } else {
+                    mr = null;
+                }
+
+                if (mr == null) {
+                    throw new Exception("Unsupported map format");
+                }
+                mr.setLogger(logger);
+                setLoadMonitor(mr, monitor);
+                ret = mr.readMap(file);
+            }
+        } finally {
+            stats.end(ret);
+        }
+
+        if (ret == null) {
+            throw new Exception("Unsupported map format");
+        }
+        if (monitor != null && monitor.isCanceled()) {
+            throw new CancellationException("Loading was canceled");
+        }
+        ret.setFilename(file);
+        reportPluginMessages(logger);
+        return ret;
+    }
+
+    private static void setLoadMonitor(MapReader mr, LoadMonitor monitor) {
+        if (mr instanceof XMLMapTransformer) {
+            ((XMLMapTransformer) mr).setLoadMonitor(monitor);
+        }
+    }
+
+    /**
+     * Returns the reader that recognizes the given header, trying the TMX
+     * reader first.
+     *
+     * @return the reader, or <code>null</code> when none recognizes it
+     */
+    private static SniffingMapReader findReader(byte[] header) {
+        // Checked first, so people can't overtake our format
+        SniffingMapReader tmx = new XMLMapTransformer();
+        if (tmx.sniff(header)) {
+            return tmx;
+        }
+        if (pluginLoader != null) {
+            for (SniffingMapReader sr : pluginLoader.getSniffingReaders()) {
+                if (sr.sniff(header)) {
+                    return sr;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Loads a tileset. Use the extension (.xxx) of the filename to determine
      * the plugin to use when reading the file. Throws an exception when the
@@ -242,7 +360,12 @@ public class MapHelper {
         Preferences prefs = TiledConfiguration.node("io");
 
         if (prefs.getBoolean("reportWarnings", false)) {
-            PluginLogDialog pld = new PluginLogDialog();
+            // Maps may be read on a background thread
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    PluginLogDialog pld = new PluginLogDialog();
+                }
+            });
             /*if (!s.isEmpty()) {
                 Iterator itr = s.iterator();
                 StringBuffer warnings = new StringBuffer();
@@ -0,0 +1,53 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io;
+
+import java.io.InputStream;
+
+import tiled.core.Map;
+
+/**
+ * A {@link MapReader} that recognizes its format by the first bytes of a
+ * file, rather than by the extension of the filename. When a map is loaded,
+ * the file is opened once and its first bytes are offered to each sniffing
+ * reader. The reader that recognizes them reads the map from the same
+ * stream. Readers that do not implement this interface are still chosen by
+ * extension.
+ *
+ * @see FormatSniffer
+ */
+public interface SniffingMapReader extends MapReader
+{
+    /**
+     * Returns whether the given bytes are the start of a map this reader can
+     * read. Compressed files are decompressed before they are sniffed. This
+     * should only look at the bytes, and not throw.
+     *
+     * @param header up to {@link FormatSniffer#HEADER_LENGTH} bytes from the
+     *               start of the file, fewer when the file is shorter
+     * @return <code>true</code> if the format is recognized
+     */
+    public boolean sniff(byte[] header);
+
+    /**
+     * Loads a map from a stream opened on the given file. The stream is at
+     * the start of the file and already decompressed. Relative paths in the
+     * map are resolved against the directory of the file.
+     *
+     * @param in       the stream to read the map from
+     * @param filename the filename of the map file
+     * @return A {@link tiled.core.Map} instance with the relevant data
+     * @throws Exception
+     */
+    public Map readMap(InputStream in, String filename) throws Exception;
+}
@@ -14,13 +14,20 @@ package tiled.io.xml;
 
 import java.awt.Color;
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.io.*;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 import javax.imageio.ImageIO;
 import javax.xml.parsers.DocumentBuilder;
@@ -35,28 +42,91 @@ import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import tiled.core.*;
+import tiled.io.FormatSniffer;
+import tiled.io.IOStatistics;
 import tiled.io.ImageHelper;
-import tiled.io.MapReader;
+import tiled.io.LayerFilter;
+import tiled.io.LoadMonitor;
 import tiled.io.PluginLogger;
+import tiled.io.SniffingMapReader;
 import tiled.mapeditor.Resources;
 import tiled.mapeditor.util.cutter.BasicTileCutter;
 import tiled.util.Base64;
 import tiled.util.Util;
+import tiled.util.Workers;
 
 /**
  * The standard map reader for TMX files.
  */
-public class XMLMapTransformer implements MapReader
+public class XMLMapTransformer implements SniffingMapReader
 {
     private Map map;
     private String xmlPath;
     private PluginLogger logger;
+    private LayerFilter layerFilter;
+    private Rectangle region;
+    private LoadMonitor loadMonitor;
+    private java.util.Map<Node, Future<LayerData>> pendingData;
+    private LinkedList<Node> layersToDecode;
+    private int decodeAhead;
     private final EntityResolver entityResolver = new MapEntityResolver();
 
     public XMLMapTransformer() {
         logger = new PluginLogger();
     }
 
+    /**
+     * Sets the filter that selects which layers are loaded. The data of
+     * layers that are not accepted is skipped without being decoded.
+     *
+     * @param layerFilter the filter, or <code>null</code> to load all layers
+     */
+    public void setLayerFilter(LayerFilter layerFilter) {
+        this.layerFilter = layerFilter;
+    }
+
+    /**
+     * Restricts loading to a part of the map. Tile layers are cropped to the
+     * given area, and layers that fall outside of it entirely are skipped.
+     * The map keeps its full size and the tiles keep their positions. Object
+     * groups are not affected.
+     *
+     * @param region the area to load in tiles, or <code>null</code> to load
+     *               the whole map
+     */
+    public void setRegion(Rectangle region) {
+        this.region = region != null ? new Rectangle(region) : null;
+    }
+
+    /**
+     * Sets the monitor that follows the loading of maps, and may cancel it.
+     * Cancelling is also noticed while the XML is parsed.
+     *
+     * @param loadMonitor the monitor, or <code>null</code> for none
+     */
+    public void setLoadMonitor(LoadMonitor loadMonitor) {
+        this.loadMonitor = loadMonitor;
+    }
+
+    private void checkCanceled() {
+        if (loadMonitor != null && loadMonitor.isCanceled()) {
+            throw new CancellationException("Loading was canceled");
+        }
+    }
+
+    private boolean isSelected(Node t, Class<? extends MapLayer> type) {
+        return layerFilter == null ||
+                layerFilter.accept(getAttributeValue(t, "name"), type);
+    }
+
+    private Tile getTileForGid(int tileId) {
+        TileSet ts = map.findTileSetForTileGID(tileId);
+        if (ts != null) {
+            return ts.getTile(tileId - ts.getFirstGid());
+        }
+        return null;
+    }
+
     private static String makeUrl(String filename) throws MalformedURLException {
         final String url;
         if (filename.indexOf("://") > 0 || filename.startsWith("file:")) {
@@ -224,7 +294,10 @@ public class XMLMapTransformer implements MapReader
             } else {
                 source = makeUrl(baseDir + source);
             }
+            final long start = System.nanoTime();
             img = ImageIO.read(new URL(source));
+            IOStatistics.record(IOStatistics.Phase.IMAGE_DECODING,
+                    System.nanoTime() - start, 0, 1);
             // todo: check whether external images would also be faster drawn
             // todo: from a scaled instance, see below
         } else {
@@ -240,8 +313,12 @@ public class XMLMapTransformer implements MapReader
                     } else {
                         String sdata = cdata.getNodeValue();
                         char[] charArray = sdata.trim().toCharArray();
+                        long start = System.nanoTime();
                         byte[] imageData = Base64.decode(charArray);
-                                                
+                        IOStatistics.record(IOStatistics.Phase.BASE64_DECODING,
+                                System.nanoTime() - start, imageData.length, 1);
+
+                        start = System.nanoTime();
                         switch(imageFormat){
                             case PNG:{
                                 img = ImageHelper.pngToImage(imageData);
@@ -262,6 +339,8 @@ public class XMLMapTransformer implements MapReader
                         img = img.getScaledInstance(
                                 img.getWidth(null), img.getHeight(null),
                                 Image.SCALE_FAST);
+                        IOStatistics.record(IOStatistics.Phase.IMAGE_DECODING,
+                                System.nanoTime() - start, imageData.length, 1);
                     }
                     break;
                 }
@@ -291,7 +370,11 @@ public class XMLMapTransformer implements MapReader
         try {
             DocumentBuilder builder = factory.newDocumentBuilder();
             //builder.setErrorHandler(new XMLErrorHandler());
-            Document tsDoc = builder.parse(in, ".");
+            CountingInputStream counter = new CountingInputStream(in, null);
+            final long start = System.nanoTime();
+            Document tsDoc = builder.parse(counter, ".");
+            IOStatistics.record(IOStatistics.Phase.XML_PARSING,
+                    System.nanoTime() - start, counter.getCount(), 1);
 
             String xmlPathSave = xmlPath;
             if (filename.indexOf(File.separatorChar) >= 0) {
@@ -588,9 +671,12 @@ public class XMLMapTransformer implements MapReader
     }
 
     /**
-     * Loads a map layer from a layer node.
+     * Loads a map layer from a layer node. When a region is set, only the
+     * part of the layer within that region is loaded.
+     *
      * @param t the node representing the "layer" element
-     * @return the loaded map layer
+     * @return the loaded map layer, or <code>null</code> when it lies
+     *         outside of the region
      * @throws Exception
      */
     private MapLayer readLayer(Node t) throws Exception {
@@ -598,8 +684,6 @@ public class XMLMapTransformer implements MapReader
         final int layerHeight = getAttribute(t, "height", map.getHeight());
         final int layerTileWidth = getAttribute(t, "tileWidth", map.getTileWidth());
         final int layerTileHeight = getAttribute(t, "tileHeight", map.getTileHeight());
-        
-        TileLayer ml = new TileLayer(layerWidth, layerHeight, layerTileWidth, layerTileHeight);
 
         final int offsetX = getAttribute(t, "x", 0);
         final int offsetY = getAttribute(t, "y", 0);
@@ -608,6 +692,17 @@ public class XMLMapTransformer implements MapReader
         final boolean viewPlaneInfinitelyFarAway = getAttribute(t, "viewPlaneInfinitelyFarAway", false);
         final String opacity = getAttributeValue(t, "opacity");
 
+        final Rectangle area = getLoadArea(t);
+        if (area == null) {
+            return null;
+        }
+        final int areaBottom = area.y + area.height;
+
+        TileLayer ml = new TileLayer(area.width, area.height, layerTileWidth, layerTileHeight);
+        final int left = offsetX + area.x;
+        final int top = offsetY + area.y;
+        ml.setOffset(left, top);
+
         ml.setName(getAttributeValue(t, "name"));
 
         if (opacity != null) {
@@ -624,64 +719,71 @@ public class XMLMapTransformer implements MapReader
                 String encoding = getAttributeValue(child, "encoding");
 
                 if (encoding != null && "base64".equalsIgnoreCase(encoding)) {
+                    Future<LayerData> pending = null;
+                    if (pendingData != null) {
+                        pending = pendingData.remove(child);
+                        layersToDecode.remove(t);
+                        decodeAhead();
+                    }
                     Node cdata = child.getFirstChild();
                     if (cdata == null) {
                         logger.warn("layer <data> tag enclosed no data. (empty data tag)");
                     } else {
-                        char[] enc = cdata.getNodeValue().trim().toCharArray();
-                        byte[] dec = Base64.decode(enc);
-                        ByteArrayInputStream bais = new ByteArrayInputStream(dec);
-                        InputStream is;
-
-                        String comp = getAttributeValue(child, "compression");
-
-                        if (comp != null && "gzip".equalsIgnoreCase(comp)) {
-                            is = new GZIPInputStream(bais);
+                        LayerData data;
+                        if (pending != null) {
+                            try {
+                                data = pending.get();
+                            } catch (ExecutionException e) {
+                                if (e.getCause() instanceof Exception) {
+                                    throw (Exception) e.getCause();
+                                }
+                                throw new Exception(e.getCause());
+                            }
                         } else {
-                            is = bais;
+                            data = decodeLayerData(cdata.getNodeValue(),
+                                    isCompressed(child), layerWidth, area);
+                        }
+                        data.record();
+                        if (data.truncated) {
+                            logger.warn("layer <data> tag enclosed too little data.");
                         }
 
-                        for (int y = 0; y < ml.getHeight(); y++) {
-                            for (int x = 0; x < ml.getWidth(); x++) {
-                                int tileId = 0;
-                                tileId |= is.read();
-                                tileId |= is.read() <<  8;
-                                tileId |= is.read() << 16;
-                                tileId |= is.read() << 24;
-
-                                TileSet ts = map.findTileSetForTileGID(tileId);
-                                if (ts != null) {
-                                    ml.setTileAt(x, y,
-                                            ts.getTile(tileId - ts.getFirstGid()));
-                                } else {
-                                    ml.setTileAt(x, y, null);
-                                }
+                        final long start = System.nanoTime();
+                        int i = 0;
+                        for (int y = 0; y < data.rows; y++) {
+                            for (int x = 0; x < area.width; x++) {
+                                ml.setTileAt(left + x, top + y,
+                                        getTileForGid(data.gids[i++]));
                             }
                         }
+                        IOStatistics.record(IOStatistics.Phase.GID_RESOLUTION,
+                                System.nanoTime() - start, 0,
+                                area.width * area.height);
                     }
                 } else {
+                    final long start = System.nanoTime();
                     int x = 0, y = 0;
                     for (Node dataChild = child.getFirstChild();
                          dataChild != null;
                          dataChild = dataChild.getNextSibling())
                     {
                         if ("tile".equalsIgnoreCase(dataChild.getNodeName())) {
-                            int tileId = getAttribute(dataChild, "gid", -1);
-                            TileSet ts = map.findTileSetForTileGID(tileId);
-                            if (ts != null) {
-                                ml.setTileAt(x, y,
-                                        ts.getTile(tileId - ts.getFirstGid()));
-                            } else {
-                                ml.setTileAt(x, y, null);
+                            if (area.contains(x, y)) {
+                                int tileId = getAttribute(dataChild, "gid", -1);
+                                ml.setTileAt(offsetX + x, offsetY + y,
+                                        getTileForGid(tileId));
                             }
 
                             x++;
-                            if (x == ml.getWidth()) {
+                            if (x == layerWidth) {
                                 x = 0; y++;
                             }
-                            if (y == ml.getHeight()) { break; }
+                            if (y == areaBottom) { break; }
                         }
                     }
+                    IOStatistics.record(IOStatistics.Phase.GID_RESOLUTION,
+                            System.nanoTime() - start, 0,
+                            area.width * area.height);
                 }
             } else if ("tileproperties".equalsIgnoreCase(nodeName)) {
                 for (Node tpn = child.getFirstChild();
@@ -692,6 +794,8 @@ public class XMLMapTransformer implements MapReader
                         int x = getAttribute(tpn, "x", -1);
                         int y = getAttribute(tpn, "y", -1);
 
+                        // Stored at map coordinates; the layer ignores the
+                        // ones outside of the loaded region
                         Properties tip = new Properties();
 
                         readProperties(tpn.getChildNodes(), tip);
@@ -701,10 +805,6 @@ public class XMLMapTransformer implements MapReader
             }
         }
 
-        // This is done at the end, otherwise the offset is applied during
-        // the loading of the tiles.
-        ml.setOffset(offsetX, offsetY);
-
         // Invisible layers are automatically locked, so it is important to
         // set the layer to potentially invisible _after_ the layer data is
         // loaded.
@@ -718,6 +818,187 @@ public class XMLMapTransformer implements MapReader
         return ml;
     }
 
+    /**
+     * Returns the part of a tile layer to load, relative to the layer, or
+     * <code>null</code> when the layer is outside of the loaded region.
+     */
+    private Rectangle getLoadArea(Node t) {
+        final int layerWidth = getAttribute(t, "width", map.getWidth());
+        final int layerHeight = getAttribute(t, "height", map.getHeight());
+        final int offsetX = getAttribute(t, "x", 0);
+        final int offsetY = getAttribute(t, "y", 0);
+
+        Rectangle area = new Rectangle(0, 0, layerWidth, layerHeight);
+        if (region != null) {
+            area = area.intersection(new Rectangle(region.x - offsetX,
+                    region.y - offsetY, region.width, region.height));
+            if (area.isEmpty()) {
+                return null;
+            }
+        }
+        return area;
+    }
+
+    private static boolean isCompressed(Node data) {
+        String comp = getAttributeValue(data, "compression");
+        return comp != null && "gzip".equalsIgnoreCase(comp);
+    }
+
+    /**
+     * Returns the base64 encoded data element of a tile layer, or
+     * <code>null</code> when its data is stored otherwise.
+     */
+    private static Node getBase64Data(Node t) {
+        for (Node child = t.getFirstChild(); child != null;
+                child = child.getNextSibling())
+        {
+            if ("data".equalsIgnoreCase(child.getNodeName())) {
+                String encoding = getAttributeValue(child, "encoding");
+                if (encoding != null && "base64".equalsIgnoreCase(encoding) &&
+                        child.getFirstChild() != null) {
+                    return child;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The tile ids of the loaded area of a tile layer, as decoded from its
+     * base64 data. Decoding does not touch the map, so it can be done on
+     * another thread while the tilesets are loaded. The time taken is kept
+     * to be recorded by the loading thread.
+     */
+    private static class LayerData
+    {
+        int[] gids;
+        int rows;
+        boolean truncated;
+        boolean compressed;
+        long decodeTime, decodedBytes;
+        long inflateTime, inflatedBytes;
+
+        void record() {
+            IOStatistics.record(IOStatistics.Phase.BASE64_DECODING,
+                    decodeTime, decodedBytes, 1);
+            if (compressed) {
+                IOStatistics.record(IOStatistics.Phase.INFLATION,
+                        inflateTime, inflatedBytes, 1);
+            }
+        }
+    }
+
+    /**
+     * Decodes the tile ids of the given area from base64 layer data. Rows
+     * are read whole, but only the ones up to the bottom of the area are
+     * decompressed at all.
+     */
+    private static LayerData decodeLayerData(String enc, boolean compressed,
+                                             int layerWidth, Rectangle area)
+        throws IOException
+    {
+        LayerData data = new LayerData();
+        data.compressed = compressed;
+        data.gids = new int[area.width * area.height];
+
+        long start = System.nanoTime();
+        byte[] dec = Base64.decode(enc.trim().toCharArray());
+        data.decodeTime = System.nanoTime() - start;
+        data.decodedBytes = dec.length;
+
+        InputStream is = new ByteArrayInputStream(dec);
+        if (compressed) {
+            is = new GZIPInputStream(is);
+        }
+
+        DataInputStream in = new DataInputStream(is);
+        byte[] row = new byte[layerWidth * 4];
+        final int areaRight = area.x + area.width;
+        final int areaBottom = area.y + area.height;
+        int i = 0;
+
+        start = System.nanoTime();
+        try {
+            for (int y = 0; y < areaBottom; y++) {
+                in.readFully(row);
+                data.inflatedBytes += row.length;
+                if (y < area.y) {
+                    continue;
+                }
+                for (int x = area.x; x < areaRight; x++) {
+                    int j = x * 4;
+                    data.gids[i++] = (row[j] & 0xFF) |
+                            (row[j + 1] & 0xFF) <<  8 |
+                            (row[j + 2] & 0xFF) << 16 |
+                            (row[j + 3] & 0xFF) << 24;
+                }
+                data.rows++;
+            }
+        } catch (EOFException e) {
+            data.truncated = true;
+        }
+        data.inflateTime = System.nanoTime() - start;
+        return data;
+    }
+
+    /**
+     * Prepares decoding the base64 data of the selected tile layers on the
+     * shared worker threads, so that it is done while the tilesets and their
+     * images are loaded, and while the layers before it are built.
+     *
+     * @return <code>true</code> when the data is decoded on other threads,
+     *         <code>false</code> when it is decoded as each layer is read
+     */
+    private boolean startDecoding(Node mapNode) {
+        decodeAhead = Workers.getThreadCount();
+        if (decodeAhead <= 1) {
+            return false;
+        }
+
+        layersToDecode = new LinkedList<Node>();
+        pendingData = new HashMap<Node, Future<LayerData>>();
+        for (Node sibs = mapNode.getFirstChild(); sibs != null;
+                sibs = sibs.getNextSibling())
+        {
+            if ("layer".equals(sibs.getNodeName()) &&
+                    isSelected(sibs, TileLayer.class)) {
+                layersToDecode.add(sibs);
+            }
+        }
+        decodeAhead();
+        return true;
+    }
+
+    /**
+     * Starts decoding the data of the next layers, keeping at most one
+     * decoded layer per processor that was not built yet, so that the
+     * decoded data of all layers is not held at once. The data is taken
+     * from the document here, since the document may not be read by
+     * several threads.
+     */
+    private void decodeAhead() {
+        while (pendingData.size() < decodeAhead && !layersToDecode.isEmpty()) {
+            final Node layer = layersToDecode.removeFirst();
+            final Rectangle area = getLoadArea(layer);
+            final Node data = getBase64Data(layer);
+            if (area == null || data == null) {
+                continue;
+            }
+
+            final String enc = data.getFirstChild().getNodeValue();
+            final boolean compressed = isCompressed(data);
+            final int layerWidth = getAttribute(layer, "width", map.getWidth());
+
+            pendingData.put(data, Workers.getPool().submit(
+                    new Callable<LayerData>() {
+                        public LayerData call() throws IOException {
+                            return decodeLayerData(enc, compressed,
+                                    layerWidth, area);
+                        }
+                    }));
+        }
+    }
+
     private void buildMap(Document doc) throws Exception {
         Node item, mapNode;
 
@@ -781,28 +1062,71 @@ public class XMLMapTransformer implements MapReader
         // Load properties
         readProperties(mapNode.getChildNodes(), map.getProperties());
 
-        // Load tilesets first, in case order is munged
+        // Count the tilesets and layers, to report progress
         NodeList l = doc.getElementsByTagName("tileset");
-            for (int i = 0; (item = l.item(i)) != null; i++) {
-                    map.addTileset(unmarshalTileset(item));
-        }
-
-        // Load the layers and objectgroups
+        int total = l.getLength();
         for (Node sibs = mapNode.getFirstChild(); sibs != null;
                 sibs = sibs.getNextSibling())
         {
-            if ("layer".equals(sibs.getNodeName())) {
-                MapLayer layer = readLayer(sibs);
-                if (layer != null) {
-                    map.addLayer(layer);
+            if ("layer".equals(sibs.getNodeName()) ||
+                    "objectgroup".equals(sibs.getNodeName())) {
+                total++;
+            }
+        }
+        int done = 0;
+        if (loadMonitor != null) {
+            loadMonitor.progress(done, total, null);
+        }
+
+        startDecoding(mapNode);
+        try {
+            // Load tilesets first, in case order is munged
+            for (int i = 0; (item = l.item(i)) != null; i++) {
+                checkCanceled();
+                TileSet set = unmarshalTileset(item);
+                map.addTileset(set);
+                if (loadMonitor != null) {
+                    loadMonitor.progress(++done, total, set.getName());
                 }
             }
-            else if ("objectgroup".equals(sibs.getNodeName())) {
-                MapLayer layer = unmarshalObjectGroup(sibs);
+
+            // Load the layers and objectgroups
+            for (Node sibs = mapNode.getFirstChild(); sibs != null;
+                    sibs = sibs.getNextSibling())
+            {
+                MapLayer layer = null;
+                if ("layer".equals(sibs.getNodeName())) {
+                    checkCanceled();
+                    if (isSelected(sibs, TileLayer.class)) {
+                        layer = readLayer(sibs);
+                    }
+                }
+                else if ("objectgroup".equals(sibs.getNodeName())) {
+                    checkCanceled();
+                    if (isSelected(sibs, ObjectGroup.class)) {
+                        layer = unmarshalObjectGroup(sibs);
+                    }
+                }
+                else {
+                    continue;
+                }
+
                 if (layer != null) {
                     map.addLayer(layer);
                 }
+                if (loadMonitor != null) {
+                    loadMonitor.progress(++done, total,
+                            getAttributeValue(sibs, "name"));
+                }
             }
+        } finally {
+            if (pendingData != null) {
+                for (Future<LayerData> pending : pendingData.values()) {
+                    pending.cancel(true);
+                }
+            }
+            pendingData = null;
+            layersToDecode = null;
         }
     }
 
@@ -815,10 +1139,15 @@ public class XMLMapTransformer implements MapReader
             factory.setExpandEntityReferences(false);
             DocumentBuilder builder = factory.newDocumentBuilder();
             builder.setEntityResolver(entityResolver);
-            InputSource insrc = new InputSource(in);
+            CountingInputStream counter =
+                new CountingInputStream(in, loadMonitor);
+            InputSource insrc = new InputSource(counter);
             insrc.setSystemId(xmlPath);
             insrc.setEncoding("UTF-8");
+            final long start = System.nanoTime();
             doc = builder.parse(insrc);
+            IOStatistics.record(IOStatistics.Phase.XML_PARSING,
+                    System.nanoTime() - start, counter.getCount(), 1);
         } catch (SAXException e) {
             e.printStackTrace();
             throw new Exception("Error while parsing map file: " +
@@ -833,32 +1162,45 @@ public class XMLMapTransformer implements MapReader
     // MapReader interface
 
     public Map readMap(String filename) throws Exception {
-        xmlPath = filename.substring(0,
-                filename.lastIndexOf(File.separatorChar) + 1);
+        // Compressed files are recognized by content, not by extension
+        InputStream is = FormatSniffer.open(filename);
+        try {
+            return readMap(is, filename);
+        } finally {
+            is.close();
+        }
+    }
 
-        String xmlFile = makeUrl(filename);
-        //xmlPath = makeUrl(xmlPath);
+    public Map readMap(InputStream in, String filename) throws Exception {
+        IOStatistics stats =
+            IOStatistics.begin(IOStatistics.Operation.LOAD, filename);
+        Map unmarshalledMap = null;
+        try {
+            xmlPath = filename.substring(0,
+                    filename.lastIndexOf(File.separatorChar) + 1);
 
-        URL url = new URL(xmlFile);
-        InputStream is = url.openStream();
+            unmarshalledMap = unmarshal(in);
+            unmarshalledMap.setFilename(filename);
 
-        // Wrap with GZIP decoder for .tmx.gz files
-        if (filename.endsWith(".gz")) {
-            is = new GZIPInputStream(is);
+            map = null;
+        } finally {
+            stats.end(unmarshalledMap);
         }
 
-        Map unmarshalledMap = unmarshal(is);
-        unmarshalledMap.setFilename(filename);
-
-        map = null;
-
         return unmarshalledMap;
     }
 
     public Map readMap(InputStream in) throws Exception {
-        xmlPath = makeUrl(".");
+        IOStatistics stats =
+            IOStatistics.begin(IOStatistics.Operation.LOAD, null);
+        Map unmarshalledMap = null;
+        try {
+            xmlPath = makeUrl(".");
 
-        Map unmarshalledMap = unmarshal(in);
+            unmarshalledMap = unmarshal(in);
+        } finally {
+            stats.end(unmarshalledMap);
+        }
 
         //unmarshalledMap.setFilename(xmlFile)
         //
@@ -866,21 +1208,37 @@ public class XMLMapTransformer implements MapReader
     }
 
     public TileSet readTileset(String filename) throws Exception {
-        String xmlFile = filename;
+        IOStatistics stats =
+            IOStatistics.begin(IOStatistics.Operation.LOAD, filename);
+        TileSet set = null;
+        try {
+            String xmlFile = filename;
 
-        xmlPath = filename.substring(0,
-                filename.lastIndexOf(File.separatorChar) + 1);
+            xmlPath = filename.substring(0,
+                    filename.lastIndexOf(File.separatorChar) + 1);
 
-        xmlFile = makeUrl(xmlFile);
-        xmlPath = makeUrl(xmlPath);
+            xmlFile = makeUrl(xmlFile);
+            xmlPath = makeUrl(xmlPath);
 
-        URL url = new URL(xmlFile);
-        return unmarshalTilesetFile(url.openStream(), filename);
+            URL url = new URL(xmlFile);
+            set = unmarshalTilesetFile(url.openStream(), filename);
+        } finally {
+            stats.end(set);
+        }
+        return set;
     }
 
     public TileSet readTileset(InputStream in) throws Exception {
-        // TODO: The MapReader interface should be changed...
-        return unmarshalTilesetFile(in, ".");
+        IOStatistics stats =
+            IOStatistics.begin(IOStatistics.Operation.LOAD, null);
+        TileSet set = null;
+        try {
+            // TODO: The MapReader interface should be changed...
+            set = unmarshalTilesetFile(in, ".");
+        } finally {
+            stats.end(set);
+        }
+        return set;
     }
 
     /**
@@ -920,10 +1278,63 @@ public class XMLMapTransformer implements MapReader
         return false;
     }
 
+    public boolean sniff(byte[] header) {
+        return FormatSniffer.isXmlDocument(header, "map");
+    }
+
     public void setLogger(PluginLogger logger) {
         this.logger = logger;
     }
 
+    /**
+     * Counts the bytes read through it, to report how much XML was parsed.
+     * When the load is canceled, further reads fail, which stops the parser.
+     */
+    private static class CountingInputStream extends FilterInputStream
+    {
+        private final LoadMonitor monitor;
+        private long count;
+
+        CountingInputStream(InputStream in, LoadMonitor monitor) {
+            super(in);
+            this.monitor = monitor;
+        }
+
+        private void checkCanceled() {
+            if (monitor != null && monitor.isCanceled()) {
+                throw new CancellationException("Loading was canceled");
+            }
+        }
+
+        public int read() throws IOException {
+            checkCanceled();
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkCanceled();
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
     private class MapEntityResolver implements EntityResolver
     {
         public InputSource resolveEntity(String publicId, String systemId) {
@@ -16,6 +16,7 @@ import java.awt.Color;
 import java.awt.Image;
 import java.awt.Rectangle;
 import java.io.*;
+import java.lang.ref.WeakReference;
 import java.nio.charset.Charset;
 import java.util.*;
 import java.util.prefs.Preferences;
@@ -23,6 +24,7 @@ import java.util.zip.GZIPOutputStream;
 
 import tiled.core.*;
 import tiled.core.Map;
+import tiled.io.IOStatistics;
 import tiled.io.ImageHelper;
 import tiled.io.MapWriter;
 import tiled.io.PluginLogger;
@@ -32,12 +34,87 @@ import tiled.util.TiledConfiguration;
 
 /**
  * A writer for Tiled's TMX map format.
+ *
+ * The encoded data of tile layers and the PNG data of embedded images are
+ * kept between saves, and reused as long as the modification count of the
+ * layer or tileset they came from stays the same. Writing a map does not
+ * change its layers.
  */
 public class XMLMapWriter implements MapWriter
 {
     private static final int LAST_BYTE = 0x000000FF;
-    
+
+    /**
+     * Encoded layer data by layer and base64 encoded PNG data by image. The
+     * keys are weak, so that the cache does not keep closed maps alive. The
+     * entries are never changed, and each holds the modification count of
+     * the layer or tileset it was encoded from, so that writers on several
+     * threads can share the cache.
+     */
+    private static final java.util.Map<Object, Object> encodedCache =
+            Collections.synchronizedMap(new WeakHashMap<Object, Object>());
+
+    /**
+     * The encoded data of a layer. The tilesets it was encoded with are held
+     * weakly, so that they and their cached images can be dropped as soon
+     * as the layer is.
+     */
+    private static class EncodedLayerData
+    {
+        final int modificationCount;
+        final boolean compressed;
+        final WeakReference<?>[] tilesets;
+        final int[] firstGids;
+        final char[] data;
+
+        EncodedLayerData(int modificationCount, boolean compressed,
+                         Object[] tilesets, int[] firstGids, char[] data)
+        {
+            this.modificationCount = modificationCount;
+            this.compressed = compressed;
+            this.tilesets = new WeakReference<?>[tilesets.length];
+            for (int i = 0; i < tilesets.length; i++) {
+                this.tilesets[i] = new WeakReference<Object>(tilesets[i]);
+            }
+            this.firstGids = firstGids;
+            this.data = data;
+        }
+
+        boolean isEncodedWith(Object[] tilesets) {
+            if (tilesets.length != this.tilesets.length) {
+                return false;
+            }
+            for (int i = 0; i < tilesets.length; i++) {
+                if (this.tilesets[i].get() != tilesets[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The encoded data of an image of a tileset. It does not refer to the
+     * tileset, which refers to the image, since that would keep the entry
+     * from ever being dropped.
+     */
+    private static class EncodedImage
+    {
+        final int modificationCount;
+        final char[] data;
+
+        EncodedImage(int modificationCount, char[] data) {
+            this.modificationCount = modificationCount;
+            this.data = data;
+        }
+    }
+
     private Preferences prefs = TiledConfiguration.node("saving");
+
+    // The tilesets and their first gids in the map being written
+    private Object[] tilesets;
+    private int[] firstGids;
+    private boolean assigningFirstGids = true;
     
     public Preferences getPreferences(){
         return prefs;
@@ -46,6 +123,18 @@ public class XMLMapWriter implements MapWriter
     public void setPreferences(Preferences prefs){
         this.prefs = prefs;
     }
+
+    /**
+     * Sets whether writing a map assigns the first gids it writes to the
+     * tilesets of the map, which it does by default. Without that, writing a
+     * map changes nothing it is given, so that it can be written on another
+     * thread while the tilesets are in use.
+     *
+     * @param assigningFirstGids whether to assign the first gids
+     */
+    public void setAssigningFirstGids(boolean assigningFirstGids) {
+        this.assigningFirstGids = assigningFirstGids;
+    }
         
     /**
      * Saves a map to an XML file.
@@ -53,26 +142,34 @@ public class XMLMapWriter implements MapWriter
      * @param filename the filename of the map file
      */
     public void writeMap(Map map, String filename) throws Exception {
-        OutputStream os = new FileOutputStream(filename);
+        IOStatistics stats =
+            IOStatistics.begin(IOStatistics.Operation.SAVE, filename);
+        Map written = null;
+        try {
+            OutputStream os = new FileOutputStream(filename);
 
-        if (filename.endsWith(".tmx.gz")) {
-            os = new GZIPOutputStream(os);
-        }
+            if (filename.endsWith(".tmx.gz")) {
+                os = new GZIPOutputStream(os);
+            }
+
+            Writer writer = new OutputStreamWriter(os, Charset.forName("UTF-8"));
+            XMLWriter xmlWriter = new XMLWriter(writer);
 
-        Writer writer = new OutputStreamWriter(os, Charset.forName("UTF-8"));
-        XMLWriter xmlWriter = new XMLWriter(writer);
+            xmlWriter.startDocument();
+            writeMap(map, xmlWriter, filename);
+            xmlWriter.endDocument();
 
-        xmlWriter.startDocument();
-        writeMap(map, xmlWriter, filename);
-        xmlWriter.endDocument();
+            writer.flush();
 
-        writer.flush();
+            if (os instanceof GZIPOutputStream) {
+                ((GZIPOutputStream)os).finish();
+            }
 
-        if (os instanceof GZIPOutputStream) {
-            ((GZIPOutputStream)os).finish();
+            os.close();
+            written = map;
+        } finally {
+            stats.end(written);
         }
-        
-        os.close();
     }
 
     /**
@@ -81,38 +178,66 @@ public class XMLMapWriter implements MapWriter
      * @param filename the filename of the tileset file
      */
     public void writeTileset(TileSet set, String filename) throws Exception {
-        OutputStream os = new FileOutputStream(filename);
-        Writer writer = new OutputStreamWriter(os, Charset.forName("UTF-8"));
-        XMLWriter xmlWriter = new XMLWriter(writer);
-
-        xmlWriter.startDocument();
-        writeTileset(set, xmlWriter, filename);
-        xmlWriter.endDocument();
-
-        writer.flush();
+        // Written on its own, so its first gid is the one it has
+        tilesets = null;
+        IOStatistics stats =
+            IOStatistics.begin(IOStatistics.Operation.SAVE, filename);
+        TileSet written = null;
+        try {
+            OutputStream os = new FileOutputStream(filename);
+            Writer writer = new OutputStreamWriter(os, Charset.forName("UTF-8"));
+            XMLWriter xmlWriter = new XMLWriter(writer);
+
+            xmlWriter.startDocument();
+            writeTileset(set, xmlWriter, filename);
+            xmlWriter.endDocument();
+
+            writer.flush();
+            written = set;
+        } finally {
+            stats.end(written);
+        }
     }
 
 
     public void writeMap(Map map, OutputStream out) throws Exception {
-        Writer writer = new OutputStreamWriter(out,Charset.forName("UTF-8"));
-        XMLWriter xmlWriter = new XMLWriter(writer);
+        IOStatistics stats =
+            IOStatistics.begin(IOStatistics.Operation.SAVE, null);
+        Map written = null;
+        try {
+            Writer writer = new OutputStreamWriter(out,Charset.forName("UTF-8"));
+            XMLWriter xmlWriter = new XMLWriter(writer);
 
-        xmlWriter.startDocument();
-        writeMap(map, xmlWriter, "/.");
-        xmlWriter.endDocument();
+            xmlWriter.startDocument();
+            writeMap(map, xmlWriter, "/.");
+            xmlWriter.endDocument();
 
-        writer.flush();
+            writer.flush();
+            written = map;
+        } finally {
+            stats.end(written);
+        }
     }
 
     public void writeTileset(TileSet set, OutputStream out) throws Exception {
-        Writer writer = new OutputStreamWriter(out, Charset.forName("UTF-8"));
-        XMLWriter xmlWriter = new XMLWriter(writer);
+        // Written on its own, so its first gid is the one it has
+        tilesets = null;
+        IOStatistics stats =
+            IOStatistics.begin(IOStatistics.Operation.SAVE, null);
+        TileSet written = null;
+        try {
+            Writer writer = new OutputStreamWriter(out, Charset.forName("UTF-8"));
+            XMLWriter xmlWriter = new XMLWriter(writer);
 
-        xmlWriter.startDocument();
-        writeTileset(set, xmlWriter, "/.");
-        xmlWriter.endDocument();
+            xmlWriter.startDocument();
+            writeTileset(set, xmlWriter, "/.");
+            xmlWriter.endDocument();
 
-        writer.flush();
+            writer.flush();
+            written = set;
+        } finally {
+            stats.end(written);
+        }
     }
 
     private void writeMap(Map map, XMLWriter w, String wp) throws IOException {
@@ -143,9 +268,16 @@ public class XMLMapWriter implements MapWriter
         
         writeProperties(map.getProperties(), w);
 
+        tilesets = map.getTilesets().toArray();
+        firstGids = new int[tilesets.length];
+
         int firstgid = 1;
+        int index = 0;
         for (TileSet tileset : map.getTilesets()) {
-            tileset.setFirstGid(firstgid);
+            if (assigningFirstGids) {
+                tileset.setFirstGid(firstgid);
+            }
+            firstGids[index++] = firstgid;
             writeTilesetReference(tileset, w, wp);
             firstgid += tileset.getMaxTileId() + 1;
         }
@@ -204,7 +336,7 @@ public class XMLMapWriter implements MapWriter
             writeTileset(set, w, wp);
         } else {
             w.startElement("tileset");
-            w.writeAttribute("firstgid", set.getFirstGid());
+            w.writeAttribute("firstgid", getFirstGid(set));
             w.writeAttribute("source", getRelativePath(wp, source));
             if (set.getBaseDir() != null) {
                 w.writeAttribute("basedir", set.getBaseDir());
@@ -213,7 +345,7 @@ public class XMLMapWriter implements MapWriter
         }
     }
 
-    private void writeEmbeddedImage(int id, Image image, XMLWriter w, String imageSource) throws IOException 
+    private void writeEmbeddedImage(int id, Image image, TileSet set, XMLWriter w, String imageSource) throws IOException 
     {
         String imageFormatName = prefs.get("imageFormat", "PNG");
         String pixelFormatName = prefs.get("pixelFormat", "A8R8G8B8");
@@ -236,7 +368,7 @@ public class XMLMapWriter implements MapWriter
             case PNG:
                 w.startElement("data");
                 w.writeAttribute("encoding", "base64");
-                w.writeCDATA(new String(Base64.encode(ImageHelper.imageToPNG(image))));
+                w.writeCDATA(new String(getEncodedPNG(image, set)));
                 w.endElement();
                 break;
             case RAW:
@@ -246,13 +378,73 @@ public class XMLMapWriter implements MapWriter
                 w.writeAttribute("height", ImageHelper.getImageHeight(image));
                 w.startElement("data");
                 w.writeAttribute("encoding", "base64");
-                w.writeCDATA(new String(Base64.encode(ImageHelper.imageToRAW(image, pixelFormat, imageIsBigEndian))));
+                long start = System.nanoTime();
+                byte[] raw = ImageHelper.imageToRAW(image, pixelFormat, imageIsBigEndian);
+                IOStatistics.record(IOStatistics.Phase.IMAGE_ENCODING,
+                        System.nanoTime() - start, raw.length, 1);
+                start = System.nanoTime();
+                char[] encoded = Base64.encode(raw);
+                IOStatistics.record(IOStatistics.Phase.BASE64_ENCODING,
+                        System.nanoTime() - start, raw.length, 1);
+                w.writeCDATA(new String(encoded));
                 w.endElement();
                 break;
         }
         w.endElement();
     }
     
+    /**
+     * Returns the PNG data of the given image, encoded in base64. The data is
+     * cached until the tileset containing the image changes.
+     */
+    private static char[] getEncodedPNG(Image image, TileSet set) {
+        final int modificationCount = set.getModificationCount();
+        Object cached = encodedCache.get(image);
+        if (cached instanceof EncodedImage) {
+            EncodedImage e = (EncodedImage) cached;
+            if (e.modificationCount == modificationCount) {
+                return e.data;
+            }
+        }
+
+        long start = System.nanoTime();
+        byte[] png = ImageHelper.imageToPNG(image);
+        IOStatistics.record(IOStatistics.Phase.IMAGE_ENCODING,
+                System.nanoTime() - start, png.length, 1);
+        start = System.nanoTime();
+        char[] data = Base64.encode(png);
+        IOStatistics.record(IOStatistics.Phase.BASE64_ENCODING,
+                System.nanoTime() - start, png.length, 1);
+        encodedCache.put(image, new EncodedImage(modificationCount, data));
+        return data;
+    }
+
+    /**
+     * Returns the encoded data of the given layer, reusing the data from a
+     * previous save when neither the layer, the compression nor the first
+     * gids of the tilesets changed.
+     */
+    private char[] getEncodedLayerData(TileLayer tl, boolean compress)
+        throws IOException
+    {
+        final int modificationCount = tl.getModificationCount();
+        Object cached = encodedCache.get(tl);
+        if (cached instanceof EncodedLayerData) {
+            EncodedLayerData e = (EncodedLayerData) cached;
+            if (e.modificationCount == modificationCount &&
+                    e.compressed == compress &&
+                    e.isEncodedWith(tilesets) &&
+                    Arrays.equals(e.firstGids, firstGids)) {
+                return e.data;
+            }
+        }
+
+        char[] data = encodeLayerData(tl, compress, tilesets, firstGids);
+        encodedCache.put(tl, new EncodedLayerData(
+                modificationCount, compress, tilesets, firstGids, data));
+        return data;
+    }
+
     private void writeTileset(TileSet set, XMLWriter w, String wp)
         throws IOException {
 
@@ -260,7 +452,7 @@ public class XMLMapWriter implements MapWriter
         String name = set.getName();
 
         w.startElement("tileset");
-        w.writeAttribute("firstgid", set.getFirstGid());
+        w.writeAttribute("firstgid", getFirstGid(set));
 
         if (name != null) {
             w.writeAttribute("name", name);
@@ -340,7 +532,7 @@ public class XMLMapWriter implements MapWriter
                         w.writeAttribute("source", getRelativePath(wp, imagePath));
                         w.endElement();
                     }else
-                        writeEmbeddedImage(id, image, w, set.getImageSource(id));
+                        writeEmbeddedImage(id, image, set, w, set.getImageSource(id));
                 }
             }
 
@@ -427,50 +619,26 @@ public class XMLMapWriter implements MapWriter
             w.writeAttribute("opacity", l.getOpacity());
         }
 
+        if (l instanceof TileLayer) {
+            w.writeAttribute("tileWidth", ((TileLayer) l).getTileWidth());
+            w.writeAttribute("tileHeight", ((TileLayer) l).getTileHeight());
+        }
+
         writeProperties(l.getProperties(), w);
 
         if (l instanceof ObjectGroup){
             writeObjectGroup((ObjectGroup) l, w, wp);
         } else if (l instanceof TileLayer) {
             final TileLayer tl = (TileLayer) l;
-            w.writeAttribute("tileWidth", tl.getTileWidth());
-            w.writeAttribute("tileHeight", tl.getTileHeight());
             w.startElement("data");
             if (encodeLayerData) {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                OutputStream out;
-
                 w.writeAttribute("encoding", "base64");
 
                 if (compressLayerData) {
                     w.writeAttribute("compression", "gzip");
-                    out = new GZIPOutputStream(baos);
-                } else {
-                    out = baos;
-                }
-
-                for (int y = 0; y < l.getHeight(); y++) {
-                    for (int x = 0; x < l.getWidth(); x++) {
-                        Tile tile = tl.getTileAt(x + bounds.x,
-                                                 y + bounds.y);
-                        int gid = 0;
-
-                        if (tile != null) {
-                            gid = tile.getGid();
-                        }
-
-                        out.write(gid       & LAST_BYTE);
-                        out.write(gid >> 8  & LAST_BYTE);
-                        out.write(gid >> 16 & LAST_BYTE);
-                        out.write(gid >> 24 & LAST_BYTE);
-                    }
                 }
 
-                if (compressLayerData) {
-                    ((GZIPOutputStream)out).finish();
-                }
-
-                w.writeCDATA(new String(Base64.encode(baos.toByteArray())));
+                w.writeCDATA(new String(getEncodedLayerData(tl, compressLayerData)));
             } else {
                 for (int y = 0; y < l.getHeight(); y++) {
                     for (int x = 0; x < l.getWidth(); x++) {
@@ -478,7 +646,7 @@ public class XMLMapWriter implements MapWriter
                         int gid = 0;
 
                         if (tile != null) {
-                            gid = tile.getGid();
+                            gid = getGid(tile, tilesets, firstGids);
                         }
 
                         w.startElement("tile");
@@ -491,24 +659,24 @@ public class XMLMapWriter implements MapWriter
 
             boolean tilePropertiesElementStarted = false;
 
-            for (int y = 0; y < l.getHeight(); y++) {
-                for (int x = 0; x < l.getWidth(); x++) {
-                    Properties tip = tl.getTileInstancePropertiesAt(x, y);
+            // Only visits the locations that have properties
+            CellPropertiesMap.Cursor cursor = tl.getTileInstanceProperties();
+            while (cursor.next()) {
+                Properties tip = cursor.getProperties();
 
-                    if (tip != null && !tip.isEmpty()) {
-                        if (!tilePropertiesElementStarted) {
-                            w.startElement("tileproperties");
-                            tilePropertiesElementStarted = true;
-                        }
-                        w.startElement("tile");
+                if (!tip.isEmpty()) {
+                    if (!tilePropertiesElementStarted) {
+                        w.startElement("tileproperties");
+                        tilePropertiesElementStarted = true;
+                    }
+                    w.startElement("tile");
 
-                        w.writeAttribute("x", x);
-                        w.writeAttribute("y", y);
+                    w.writeAttribute("x", cursor.getX());
+                    w.writeAttribute("y", cursor.getY());
 
-                        writeProperties(tip, w);
+                    writeProperties(tip, w);
 
-                        w.endElement();
-                    }
+                    w.endElement();
                 }
             }
 
@@ -518,6 +686,113 @@ public class XMLMapWriter implements MapWriter
         w.endElement();
     }
 
+    /**
+     * Encodes the global tile ids of a tile layer the way they are stored in
+     * a TMX file: as little endian 32-bit integers, optionally compressed
+     * with gzip, encoded in base64. The ids are converted a row at a time
+     * and handed to the (compressing) stream in bulk.
+     *
+     * @param tl       the layer to encode
+     * @param compress whether to gzip the data before encoding it
+     * @return the base64 encoded layer data
+     * @throws IOException when an io error occurs
+     */
+    public static char[] encodeLayerData(TileLayer tl, boolean compress)
+        throws IOException
+    {
+        return encodeLayerData(tl, compress, null, null);
+    }
+
+    /**
+     * Encodes the layer data using the given first gids of the tilesets,
+     * rather than the ones assigned to the tilesets.
+     *
+     * @see #encodeLayerData(TileLayer, boolean)
+     */
+    private static char[] encodeLayerData(TileLayer tl, boolean compress,
+                                          Object[] tilesets, int[] firstGids)
+        throws IOException
+    {
+        final Rectangle bounds = tl.getBounds();
+        final byte[] row = new byte[bounds.width * 4];
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                compress ? row.length * bounds.height / 4 + 64
+                         : row.length * bounds.height);
+        OutputStream out = compress ? new GZIPOutputStream(baos, 8192) : baos;
+        long encodeTime = 0;
+        long deflateTime = 0;
+
+        for (int y = 0; y < bounds.height; y++) {
+            final long start = System.nanoTime();
+            int i = 0;
+            for (int x = 0; x < bounds.width; x++) {
+                Tile tile = tl.getTileAt(x + bounds.x, y + bounds.y);
+                int gid = 0;
+
+                if (tile != null) {
+                    gid = getGid(tile, tilesets, firstGids);
+                }
+
+                row[i++] = (byte) (gid       & LAST_BYTE);
+                row[i++] = (byte) (gid >> 8  & LAST_BYTE);
+                row[i++] = (byte) (gid >> 16 & LAST_BYTE);
+                row[i++] = (byte) (gid >> 24 & LAST_BYTE);
+            }
+            final long encoded = System.nanoTime();
+            out.write(row);
+            encodeTime += encoded - start;
+            deflateTime += System.nanoTime() - encoded;
+        }
+
+        IOStatistics.record(IOStatistics.Phase.GID_ENCODING, encodeTime, 0,
+                bounds.width * bounds.height);
+        if (compress) {
+            final long start = System.nanoTime();
+            ((GZIPOutputStream) out).finish();
+            IOStatistics.record(IOStatistics.Phase.DEFLATION,
+                    deflateTime + System.nanoTime() - start,
+                    row.length * bounds.height, 1);
+        }
+
+        final byte[] data = baos.toByteArray();
+        final long start = System.nanoTime();
+        final char[] encoded = Base64.encode(data);
+        IOStatistics.record(IOStatistics.Phase.BASE64_ENCODING,
+                System.nanoTime() - start, data.length, 1);
+        return encoded;
+    }
+
+    /**
+     * Returns the first gid written for the given tileset.
+     */
+    private int getFirstGid(TileSet set) {
+        if (tilesets != null) {
+            for (int i = 0; i < tilesets.length; i++) {
+                if (tilesets[i] == set) {
+                    return firstGids[i];
+                }
+            }
+        }
+        return set.getFirstGid();
+    }
+
+    /**
+     * Returns the global id of the given tile, using the given first gids of
+     * the tilesets when it is in one of them.
+     */
+    private static int getGid(Tile tile, Object[] tilesets, int[] firstGids) {
+        final TileSet set = tile.getTileSet();
+        if (tilesets != null && set != null) {
+            for (int i = 0; i < tilesets.length; i++) {
+                if (tilesets[i] == set) {
+                    return firstGids[i] + tile.getId();
+                }
+            }
+        }
+        return tile.getGid();
+    }
+
     /**
      * Used to write tile elements for tilesets not based on a tileset image.
      *
@@ -542,7 +817,7 @@ public class XMLMapWriter implements MapWriter
         // Write encoded data
         if (tileImage != null) {
             if (embedImages && !tileSetImages) {
-                writeEmbeddedImage(-1, tileImage, w, set.getImageSource(tile.getImageId()));
+                writeEmbeddedImage(-1, tileImage, set, w, set.getImageSource(tile.getImageId()));
             } else if (embedImages && tileSetImages) {
                 w.startElement("image");
                 w.writeAttribute("id", tile.getImageId());
@@ -575,7 +850,7 @@ public class XMLMapWriter implements MapWriter
         w.endElement();
     }
 
-    private static void writeAnimation(Sprite s, XMLWriter w) throws IOException {
+    private void writeAnimation(Sprite s, XMLWriter w) throws IOException {
         w.startElement("animation");
         for (int k = 0; k < s.getTotalKeys(); k++) {
             Sprite.KeyFrame key = s.getKey(k);
@@ -584,7 +859,7 @@ public class XMLMapWriter implements MapWriter
             for (int it = 0; it < key.getTotalFrames(); it++) {
                 Tile stile = key.getFrame(it);
                 w.startElement("tile");
-                w.writeAttribute("gid", stile.getGid());
+                w.writeAttribute("gid", getGid(stile, tilesets, firstGids));
                 w.endElement();
             }
             w.endElement();
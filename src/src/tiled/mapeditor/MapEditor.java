@@ -19,12 +19,11 @@ package tiled.mapeditor;
 
 import java.awt.*;
 import java.awt.event.*;
-import java.awt.geom.Area;
 import java.io.File;
 import java.io.IOException;
+import java.text.MessageFormat;
 import java.util.Iterator;
 import java.util.ListIterator;
-import java.util.Stack;
 import java.util.Vector;
 import java.util.prefs.PreferenceChangeEvent;
 import java.util.prefs.PreferenceChangeListener;
@@ -89,6 +88,7 @@ public class MapEditor implements ActionListener, MouseListener,
     private Map currentMap;
     private MapView mapView;
     private final UndoHandler undoHandler;
+    private final AutoSaver autoSaver;
     private final UndoableEditSupport undoSupport;
     private final MapEventAdapter mapEventAdapter;
     private final PluginClassLoader pluginLoader;
@@ -116,7 +116,7 @@ public class MapEditor implements ActionListener, MouseListener,
     private JPanel      statusBar;
     private JMenuBar    menuBar;
     private JCheckBoxMenuItem gridMenuItem, boundaryMenuItem, cursorMenuItem;
-    private JCheckBoxMenuItem coordinatesMenuItem;
+    private JCheckBoxMenuItem coordinatesMenuItem, profilingMenuItem;
     private JMenu       recentMenu;
     private JScrollPane mapScrollPane;
     private JTable      layerTable;
@@ -187,6 +187,7 @@ public class MapEditor implements ActionListener, MouseListener,
     private static final String STATUS_PAINT_ERROR_LAYER_INVISIBLE = Resources.getString("status.paint.error.layer.invisible");
     private static final String STATUS_PAINT_ERROR_GENERAL = Resources.getString("status.paint.error.general");
     private static final String STATUS_FILE_INFO_LOAD_SUCCESS = Resources.getString("status.file.info.load.success");
+    private static final String STATUS_FILE_INFO_LOAD_CANCELED = Resources.getString("status.file.info.load.canceled");
     private static final String STATUS_FILE_ERROR_LOAD_FAILURE = Resources.getString("status.file.error.load.failure");
     private static final String STATUS_LAYER_SELECTED_FORMAT = Resources.getString("status.layer.selectedformat_name_w_h_x_y_tilew_tileh");
     private static final String STATUS_LAYER_MOVED_FORMAT = Resources.getString("status.layer.movedformat_x_y");
@@ -209,6 +210,15 @@ public class MapEditor implements ActionListener, MouseListener,
         undoSupport = new UndoableEditSupport();
         undoSupport.addUndoableEditListener(undoHandler);
 
+        final Preferences io = prefs.node("io");
+        if (io.getBoolean("autosave", true)) {
+            autoSaver = new AutoSaver(AutoSaver.getDirectory(),
+                    io.getInt("autosaveInterval", 60));
+        } else {
+            autoSaver = null;
+        }
+        undoHandler.setAutoSaver(autoSaver);
+
         cursorHighlight = new SelectionLayer(1, 1, 1, 1);
         cursorHighlight.select(0, 0);
         cursorHighlight.setVisible(prefs.getBoolean("cursorhighlight", true));
@@ -296,6 +306,9 @@ public class MapEditor implements ActionListener, MouseListener,
         }
         MapHelper.init(pluginLoader);
 
+        if (autoSaver != null && AutoSaver.hasRecovery(AutoSaver.getDirectory())) {
+            offerRecovery();
+        }
 
         // Make sure the map view is redrawn when grid preferences change.
         // todo: move this functionality out of here somehow, but not back into
@@ -319,6 +332,10 @@ public class MapEditor implements ActionListener, MouseListener,
                 else if ("showGrid".equals(key)) {
                     mapView.setShowGrid(display.getBoolean("showGrid", false));
                 }
+                else if ("backBuffer".equals(key)) {
+                    mapView.setBackBufferEnabled(
+                            display.getBoolean("backBuffer", false));
+                }
             }
         });
     }
@@ -476,6 +493,8 @@ public class MapEditor implements ActionListener, MouseListener,
                 Resources.getString("menu.map.resize.tooltip")));
         mapMenu.add(createMenuItem(Resources.getString("menu.map.search"), null,
                 Resources.getString("menu.map.search.tooltip")));
+        mapMenu.add(createMenuItem(Resources.getString("menu.map.footprint"), null,
+                Resources.getString("menu.map.footprint.tooltip")));
         mapMenu.addSeparator();
         mapMenu.add(createMenuItem(Resources.getString("menu.map.properties"), null,
                 Resources.getString("menu.map.properties.tooltip")));
@@ -554,6 +573,10 @@ public class MapEditor implements ActionListener, MouseListener,
         coordinatesMenuItem.addActionListener(this);
         coordinatesMenuItem.setToolTipText(Resources.getString("menu.view.coordinates.tooltip"));
 
+        profilingMenuItem = new JCheckBoxMenuItem(Resources.getString("menu.view.profiling"));
+        profilingMenuItem.addActionListener(this);
+        profilingMenuItem.setToolTipText(Resources.getString("menu.view.profiling.tooltip"));
+
         JMenu viewMenu = new JMenu(Resources.getString("menu.view"));
         viewMenu.add(new TMenuItem(zoomInAction));
         viewMenu.add(new TMenuItem(zoomOutAction));
@@ -565,6 +588,7 @@ public class MapEditor implements ActionListener, MouseListener,
         //TODO: Enable when boudary drawing code finished.
         //viewMenu.add(boundaryMenuItem);
         viewMenu.add(coordinatesMenuItem);
+        viewMenu.add(profilingMenuItem);
 
         mapEventAdapter.addListener(layerMenu);
         mapEventAdapter.addListener(tilesetMenu);
@@ -666,10 +690,8 @@ public class MapEditor implements ActionListener, MouseListener,
         layerPopupMenu.add(showLayerPropertiesAction);
             
         //navigation and tool options
-        // TODO: the minimap is prohibitively slow, need to speed this up
-        // before it can be used
         miniMap = new MiniMapViewer();
-        //miniMap.setMainPanel(mapScrollPane);
+        miniMap.setMainPanel(mapScrollPane);
         JScrollPane miniMapSp = new JScrollPane();
         miniMapSp.getViewport().setView(miniMap);
         miniMapSp.setMinimumSize(new Dimension(0, 120));
@@ -744,7 +766,7 @@ public class MapEditor implements ActionListener, MouseListener,
         c.insets = new Insets(3, 0, 0, 0); c.weightx = 1; c.weighty = 0;
         c.fill = GridBagConstraints.BOTH;
         c.gridx = 0; c.gridy = 0;
-        //layerPanel.add(miniMapSp, c);
+        layerPanel.add(miniMapSp, c);
         c.weighty = 0; c.gridy += 1;
         layerPanel.add(sliderPanel, c);
         c.weighty = 1; c.gridy += 1;
@@ -1030,8 +1052,10 @@ public class MapEditor implements ActionListener, MouseListener,
                     paintEdit.setPresentationName(TOOL_PAINT);
                     if (layer instanceof TileLayer) {
                         try {
-                            mapView.repaintRegion(
-                                    layer,currentBrush.doPaint(tile.x, tile.y));
+                            Rectangle region =
+                                    currentBrush.doPaint(tile.x, tile.y);
+                            mapView.repaintRegion(layer, region);
+                            layer.fireContentsChanged(region);
                             statusLabel.clearText();
                         } catch(LayerLockedBrushException llx) {
                             statusLabel.setErrorText(STATUS_PAINT_ERROR_LAYER_LOCKED);
@@ -1048,8 +1072,9 @@ public class MapEditor implements ActionListener, MouseListener,
                     paintEdit.setPresentationName(TOOL_ERASE);
                     if (layer instanceof TileLayer) {
                         ((TileLayer) layer).setTileAt(tile.x, tile.y, null);
-                        mapView.repaintRegion(layer,new Rectangle(
-                                tile.x, tile.y, 1, 1));
+                        Rectangle region = new Rectangle(tile.x, tile.y, 1, 1);
+                        mapView.repaintRegion(layer, region);
+                        layer.fireContentsChanged(region);
                     }
                     break;
                 case PS_POUR:
@@ -1059,6 +1084,7 @@ public class MapEditor implements ActionListener, MouseListener,
                         Tile oldTile = tileLayer.getTileAt(tile.x, tile.y);
                         pour(tileLayer, tile.x, tile.y, currentTile, oldTile);
                         mapView.repaint();
+                        tileLayer.fireContentsChanged(tileLayer.getBounds());
                     }
                     break;
                 case PS_EYED:
@@ -1073,9 +1099,12 @@ public class MapEditor implements ActionListener, MouseListener,
                             tile.x - mousePressLocation.x,
                             tile.y - mousePressLocation.y);
 
+                    Rectangle region = layer.getBounds();
                     layer.translate(translation.x, translation.y);
                     moveDist.translate(translation.x, translation.y);
                     mapView.repaint();
+                    region.add(layer.getBounds());
+                    layer.fireContentsChanged(region);
                     statusLabel.setInfoText(String.format(STATUS_LAYER_MOVED_FORMAT, layer.getBounds().x, layer.getBounds().y));
                     break;
                 }
@@ -1096,9 +1125,9 @@ public class MapEditor implements ActionListener, MouseListener,
                                 (Math.max(limp.y, tile.y) - miny)+1);
 
                         if (event.isShiftDown()) {
-                            marqueeSelection.add(new Area(selRect));
+                            marqueeSelection.add(selRect);
                         } else if (event.isControlDown()) {
-                            marqueeSelection.subtract(new Area(selRect));
+                            marqueeSelection.subtract(selRect);
                         } else {
                             marqueeSelection.selectRegion(selRect);
                         }
@@ -1212,8 +1241,7 @@ public class MapEditor implements ActionListener, MouseListener,
                 case PS_ERASE:
                 case PS_POUR:
                     paintEdit =
-                            new MapLayerEdit(layer, createLayerCopy(layer),
-                                             null);
+                            new MapLayerEdit(layer, layer.snapshot(), null);
                     break;
                 default:
             }
@@ -1221,7 +1249,7 @@ public class MapEditor implements ActionListener, MouseListener,
 
         if (currentPointerState == PS_MARQUEE) {
             boolean contains = false;
-            if (marqueeSelection != null && marqueeSelection.getSelectedArea().contains(tile.x,tile.y)) {
+            if (marqueeSelection != null && marqueeSelection.getSelectionMask().contains(tile.x,tile.y)) {
                 contains = true;
             }
             if (marqueeSelection == null && !contains) {
@@ -1531,6 +1559,7 @@ public class MapEditor implements ActionListener, MouseListener,
                     }
                 }
                 mapView.repaint();
+                miniMap.refresh();
                 brushPreview.setBrush(currentBrush);
             }
         } else if (command.equals(Resources.getString("menu.tilesets.manager"))) {
@@ -1554,6 +1583,9 @@ public class MapEditor implements ActionListener, MouseListener,
         } else if (command.equals(Resources.getString("menu.view.coordinates"))) {
             // Toggle coordinates
             mapView.toggleMode(MapView.PF_COORDINATES);
+        } else if (command.equals(Resources.getString("menu.view.profiling"))) {
+            // Toggle the render profiling overlay
+            mapView.toggleMode(MapView.PF_PROFILING);
         } else if (command.equals(Resources.getString("menu.view.cursor"))) {
             prefs.putBoolean("cursorhighlight", cursorMenuItem.isSelected());
             cursorHighlight.setVisible(cursorMenuItem.isSelected());
@@ -1563,6 +1595,10 @@ public class MapEditor implements ActionListener, MouseListener,
         }  else if (command.equals(Resources.getString("menu.map.search"))) {
             SearchDialog sd = new SearchDialog(appFrame, currentMap);
             sd.setVisible(true);
+        } else if (command.equals(Resources.getString("menu.map.footprint"))) {
+            MemoryFootprintDialog fd = new MemoryFootprintDialog(appFrame,
+                    currentMap, undoHandler);
+            fd.setVisible(true);
         } else if (command.equals(Resources.getString("menu.help.about"))) {
             showAboutDialog();
         } else if (command.equals(Resources.getString("menu.help.plugins"))) {
@@ -1700,6 +1736,53 @@ public class MapEditor implements ActionListener, MouseListener,
         mainSplit.save();
         paletteSplit.save();
         rightSplit.save();        
+
+        if (autoSaver != null) {
+            autoSaver.stop();
+        }
+    }
+
+    /**
+     * Asks whether to recover the map that was autosaved when the editor
+     * did not exit normally, and recovers it or discards it.
+     */
+    private void offerRecovery() {
+        String filename =
+            AutoSaver.getRecoveredFilename(AutoSaver.getDirectory());
+        String message = MessageFormat.format(
+                Resources.getString("dialog.recovery.message"),
+                filename != null ? new File(filename).getName() :
+                    Resources.getString("general.file.untitled"));
+        int answer = JOptionPane.showConfirmDialog(appFrame, message,
+                Resources.getString("dialog.recovery.title"),
+                JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+        if (answer != JOptionPane.YES_OPTION) {
+            autoSaver.discard();
+            return;
+        }
+
+        try {
+            AutoSaver.Recovery recovery =
+                AutoSaver.recover(AutoSaver.getDirectory());
+            setCurrentMap(recovery.getMap());
+            undoHandler.markUnsaved();
+            autoSaver.autosave();
+            if (recovery.getLostEdit() != null) {
+                JOptionPane.showMessageDialog(appFrame,
+                        MessageFormat.format(Resources.getString(
+                                "dialog.recovery.partial.message"),
+                                recovery.getLostEdit()),
+                        Resources.getString("dialog.recovery.title"),
+                        JOptionPane.WARNING_MESSAGE);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(appFrame,
+                    "Error while recovering: " + e.getLocalizedMessage(),
+                    Resources.getString("dialog.recovery.title"),
+                    JOptionPane.ERROR_MESSAGE);
+            autoSaver.discard();
+        }
     }
 
     private void showAboutDialog() {
@@ -1774,7 +1857,7 @@ public class MapEditor implements ActionListener, MouseListener,
             MapLayer layer = currentLayer;
             MapLayerEdit transEdit;
             transEdit = new MapLayerEdit(
-                    currentLayer, createLayerCopy(currentLayer));
+                    currentLayer, currentLayer.snapshot());
 
             if (marqueeSelection != null) {
                 if (currentLayer instanceof TileLayer) {
@@ -1787,7 +1870,7 @@ public class MapEditor implements ActionListener, MouseListener,
                 layer.setMap(currentMap);
                 layer.maskedCopyFrom(
                         currentLayer,
-                        marqueeSelection.getSelectedArea());
+                        marqueeSelection.getSelectionMask());
             }
 
             switch (transform) {
@@ -1814,9 +1897,10 @@ public class MapEditor implements ActionListener, MouseListener,
                 layer.mergeOnto(currentLayer);
             }
 
-            transEdit.end(createLayerCopy(currentLayer));
+            transEdit.end(currentLayer.snapshot());
             undoSupport.postEdit(transEdit);
             mapView.repaint();
+            currentLayer.fireContentsChanged(currentLayer.getBounds());
         }
     }
 
@@ -1989,7 +2073,7 @@ public class MapEditor implements ActionListener, MouseListener,
                 }
                 clipboardLayer.maskedCopyFrom(
                         getCurrentLayer(),
-                        marqueeSelection.getSelectedArea());
+                        marqueeSelection.getSelectionMask());
             }
         }
     }
@@ -2014,7 +2098,7 @@ public class MapEditor implements ActionListener, MouseListener,
                     if (layer instanceof TileLayer) {
                         clipboardLayer.maskedMergeOnto(
                                 layer,
-                                marqueeSelection.getSelectedArea());
+                                marqueeSelection.getSelectionMask());
                     }
                 }
             }
@@ -2041,21 +2125,15 @@ public class MapEditor implements ActionListener, MouseListener,
                             marqueeSelection.getSelectedAreaBounds());
                 }
                 clipboardLayer.maskedCopyFrom(
-                        ml, marqueeSelection.getSelectedArea());
+                        ml, marqueeSelection.getSelectionMask());
 
                 Rectangle area = marqueeSelection.getSelectedAreaBounds();
-                Area mask = marqueeSelection.getSelectedArea();
                 if (ml instanceof TileLayer) {
-                    TileLayer tl = (TileLayer)ml;
-                    for (int i = area.y; i < area.height+area.y; i++) {
-                        for (int j = area.x; j < area.width + area.x; j++){
-                            if (mask.contains(j,i)) {
-                                tl.setTileAt(j, i, null);
-                            }
-                        }
-                    }
+                    ((TileLayer) ml).maskedFill(
+                            marqueeSelection.getSelectionMask(), null);
                 }
                 mapView.repaintRegion(ml,area);
+                ml.fireContentsChanged(area);
             }
         }
     }
@@ -2071,7 +2149,7 @@ public class MapEditor implements ActionListener, MouseListener,
         public void actionPerformed(ActionEvent evt) {
             if (currentMap != null && clipboardLayer != null) {
                 Vector<MapLayer> layersBefore = currentMap.getLayerVector();
-                MapLayer ml = createLayerCopy(clipboardLayer);
+                MapLayer ml = clipboardLayer.snapshot();
                 ml.setName(Resources.getString("general.layer.layer")+" " + currentMap.getTotalLayers());
                 currentMap.addLayer(ml);
                 undoSupport.postEdit(
@@ -2087,55 +2165,24 @@ public class MapEditor implements ActionListener, MouseListener,
         if (newTile == oldTile || !layer.canEdit()) return;
 
         Rectangle area;
-        TileLayer before = (TileLayer) createLayerCopy(layer);
+        TileLayer before = (TileLayer) layer.snapshot();
         TileLayer after;
 
-        // Check that the copy was succesfully created
-        if (before == null) {
-            return;
-        }
-
         if (marqueeSelection == null) {
-            area = new Rectangle(new Point(x, y));
-            Stack<Point> stack = new Stack<Point>();
-
-            stack.push(new Point(x, y));
-            while (!stack.empty()) {
-                // Remove the next tile from the stack
-                Point p = stack.pop();
-
-                // If the tile it meets the requirements, set it and push its
-                // neighbouring tiles on the stack.
-                if (layer.contains(p.x, p.y) &&
-                        layer.getTileAt(p.x, p.y) == oldTile)
-                {
-                    layer.setTileAt(p.x, p.y, newTile);
-                    area.add(p);
-
-                    stack.push(new Point(p.x, p.y - 1));
-                    stack.push(new Point(p.x, p.y + 1));
-                    stack.push(new Point(p.x + 1, p.y));
-                    stack.push(new Point(p.x - 1, p.y));
-                }
+            area = layer.floodFill(x, y, newTile);
+            if (area == null) {
+                return;
             }
         } else {
-            if (marqueeSelection.getSelectedArea().contains(x, y)) {
+            if (marqueeSelection.getSelectionMask().contains(x, y)) {
                 area = marqueeSelection.getSelectedAreaBounds();
-                for (int i = area.y; i < area.height + area.y; i++) {
-                    for (int j = area.x; j < area.width + area.x; j++) {
-                        if (marqueeSelection.getSelectedArea().contains(j, i)){
-                            layer.setTileAt(j, i, newTile);
-                        }
-                    }
-                }
+                layer.maskedFill(marqueeSelection.getSelectionMask(), newTile);
             } else {
                 return;
             }
         }
 
-        Rectangle bounds = new Rectangle(
-                area.x, area.y, area.width + 1, area.height + 1);
-        after = new TileLayer(bounds, layer.getTileWidth(), layer.getTileHeight());
+        after = new TileLayer(area, layer.getTileWidth(), layer.getTileHeight());
         after.copyFrom(layer);
 
         MapLayerEdit mle = new MapLayerEdit(layer, before, after);
@@ -2203,11 +2250,13 @@ public class MapEditor implements ActionListener, MouseListener,
     }
 
     /**
-     * Loads a map.
+     * Loads a map. The map is read on a background thread, showing its
+     * progress when it takes a while, and only replaces the current map
+     * once it is loaded completely.
      *
      * @param file filename of map to load
      * @return <code>true</code> if the file was loaded, <code>false</code> if
-     *         an error occured
+     *         an error occured or loading was canceled
      */
     public boolean loadMap(String file) {
         File exist = new File(file);
@@ -2222,7 +2271,7 @@ public class MapEditor implements ActionListener, MouseListener,
         }
 
         try {
-            Map map = MapHelper.loadMap(file);
+            Map map = MapLoadingDialog.loadMap(appFrame, file);
 
             if (map != null) {
                 setCurrentMap(map);
@@ -2230,10 +2279,8 @@ public class MapEditor implements ActionListener, MouseListener,
                 statusLabel.setInfoText(STATUS_FILE_INFO_LOAD_SUCCESS);
                 return true;
             } else {
-                JOptionPane.showMessageDialog(appFrame,
-                        Resources.getString("general.file.failed"),
-                        Resources.getString("dialog.openmap.error.title"),
-                        JOptionPane.ERROR_MESSAGE);
+                statusLabel.setInfoText(STATUS_FILE_INFO_LOAD_CANCELED);
+                return false;
             }
         } catch (Exception e) {
             JOptionPane.showMessageDialog(appFrame,
@@ -2249,16 +2296,6 @@ public class MapEditor implements ActionListener, MouseListener,
         return false;
     }
 
-    private static MapLayer createLayerCopy(MapLayer layer) {
-        try {
-            return (MapLayer) layer.clone();
-        }
-        catch (CloneNotSupportedException e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-
     public void updateRecent(String filename) {
         // If a filename is given, add it to the recent files
         if (filename != null) {
@@ -2281,6 +2318,10 @@ public class MapEditor implements ActionListener, MouseListener,
         }
         marqueeSelection = null;
 
+        if (mapView != null) {
+            mapView.setAnimationEnabled(false);
+        }
+
         currentMap = newMap;
         boolean mapLoaded = currentMap != null;
 
@@ -2316,6 +2357,8 @@ public class MapEditor implements ActionListener, MouseListener,
             mapView.setGridColor(new Color(display.getInt("gridColor",
                     MapView.DEFAULT_GRID_COLOR.getRGB())));
             mapView.setShowGrid(display.getBoolean("showGrid", false));
+            mapView.setBackBufferEnabled(display.getBoolean("backBuffer", false));
+            mapView.setAnimationEnabled(true);
             JViewport mapViewport = new JViewport();
             mapViewport.setView(mapView);
             mapViewport.addChangeListener(this);
@@ -2327,6 +2370,8 @@ public class MapEditor implements ActionListener, MouseListener,
             gridMenuItem.setState(mapView.getShowGrid());
             coordinatesMenuItem.setState(
                     mapView.getMode(MapView.PF_COORDINATES));
+            profilingMenuItem.setState(
+                    mapView.getMode(MapView.PF_PROFILING));
             
             tileCoordsLabel.setText(String.valueOf(currentMap.getWidth() - 1)
                     + ", " + (currentMap.getHeight() - 1));
@@ -2360,13 +2405,14 @@ public class MapEditor implements ActionListener, MouseListener,
         zoomNormalAction.setEnabled(mapLoaded && mapView.getZoomLevel() !=
                 MapView.ZOOM_NORMALSIZE);
 
-        /*
-        if (miniMap != null && currentMap != null) {
-            miniMap.setView(MapView.createViewforMap(currentMap));
+        if (miniMap != null) {
+            miniMap.setMap(currentMap);
         }
-        */
 
         undoHandler.discardAllEdits();
+        if (autoSaver != null) {
+            autoSaver.setMap(currentMap);
+        }
         updateLayerTable();
         updateTitle();
     }
@@ -55,6 +55,7 @@ public class ConfigurationDialog extends JDialog
     private JComboBox coPixelFormat;
     private JComboBox coByteOrder;
     private JCheckBox cbGridAA;
+    private JCheckBox cbBackBuffer;
     //private JColorChooser gridColor;
 
     private static final Preferences prefs = TiledConfiguration.root();
@@ -77,6 +78,7 @@ public class ConfigurationDialog extends JDialog
     private static final String PIXEL_FORMAT_LABEL = Resources.getString("dialog.preferences.pixel.format.combobox");
     private static final String BYTE_ORDER_LABEL = Resources.getString("dialog.preferences.byte.order.combobox");
     
+    private static final String BACK_BUFFER_CHECKBOX = Resources.getString("dialog.preferences.backbuffer.checkbox");
     private static final String ANTIALIASING_CHECKBOX = Resources.getString("dialog.preferences.antialiasing.checkbox");
     private static final String GENERAL_SAVING_OPTIONS_TITLE = Resources.getString("dialog.preferences.general.tab");
     private static final String LAYER_OPTIONS_TITLE = Resources.getString("dialog.preferences.layer.options.title");
@@ -130,6 +132,7 @@ public class ConfigurationDialog extends JDialog
         cbEmbedImages = new JCheckBox(EMBED_IMAGES_CHECKBOX);
         cbReportIOWarnings = new JCheckBox(REPORT_IO_WARNINGS_CHECKBOX);
         cbAutoOpenLastFile = new JCheckBox(AUTO_OPEN_LAST_FILE_CHECKBOX);
+        cbBackBuffer = new JCheckBox(BACK_BUFFER_CHECKBOX);
         rbEmbedInTiles = new JRadioButton(EMBED_IN_TILES_CHECKBOX);
         rbEmbedInSet = new JRadioButton(EMBED_IN_SET_CHECKBOX);
         lbImageFormat = new JLabel(IMAGE_FORMAT_LABEL);
@@ -181,6 +184,9 @@ public class ConfigurationDialog extends JDialog
         c.gridy = 2;
         c.gridx = 0;
         generalOps.add(cbAutoOpenLastFile, c);
+        c.gridy = 3;
+        c.gridx = 0;
+        generalOps.add(cbBackBuffer, c);
 
         /* GENERAL SAVING OPTIONS */
         JPanel generalSavingOps = new VerticalStaticJPanel();
@@ -369,6 +375,12 @@ public class ConfigurationDialog extends JDialog
             }
         });
 
+        cbBackBuffer.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent itemEvent) {
+                displayPrefs.putBoolean("backBuffer", cbBackBuffer.isSelected());
+            }
+        });
+
         cbGridAA.addItemListener(new ItemListener() {
             public void itemStateChanged(ItemEvent itemEvent) {
                 displayPrefs.putBoolean("gridAntialias", cbGridAA.isSelected());
@@ -435,6 +447,7 @@ public class ConfigurationDialog extends JDialog
         cbGridAA.setSelected(displayPrefs.getBoolean("gridAntialias", true));
         cbReportIOWarnings.setSelected(ioPrefs.getBoolean("reportWarnings", false));
         cbAutoOpenLastFile.setSelected(ioPrefs.getBoolean("autoOpenLast", false));
+        cbBackBuffer.setSelected(displayPrefs.getBoolean("backBuffer", false));
         
         coImageFormat.setSelectedItem(ImageHelper.ImageFormat.valueOf(savingPrefs.get("imageFormat", "PNG"), ImageHelper.ImageFormat.PNG));
         coPixelFormat.setSelectedItem(ImageHelper.PixelFormat.valueOf(savingPrefs.get("pixelFormat", "A1R5G5B5"), ImageHelper.PixelFormat.A1R5G5B5));
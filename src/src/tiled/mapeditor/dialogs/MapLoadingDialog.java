@@ -0,0 +1,206 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.mapeditor.dialogs;
+
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.text.MessageFormat;
+import java.util.concurrent.CancellationException;
+import javax.swing.*;
+
+import tiled.core.Map;
+import tiled.io.LoadMonitor;
+import tiled.io.MapHelper;
+import tiled.mapeditor.Resources;
+import tiled.mapeditor.widget.VerticalStaticJPanel;
+
+/**
+ * Loads a map on a background thread, so that the user interface keeps
+ * painting while a large map is read. When loading takes a while, this
+ * dialog shows the tilesets and layers loaded so far and allows cancelling.
+ * <p>
+ * The dialog is modal, so the map being replaced can not be changed while
+ * the new one loads. The loaded map is only handed out once it is complete.
+ *
+ * @version $Id$
+ */
+public class MapLoadingDialog extends JDialog
+    implements LoadMonitor, ActionListener
+{
+    private static final long serialVersionUID = 1L;
+
+    /** How long loading may take before the dialog is shown, in ms. */
+    private static final int POPUP_DELAY = 300;
+
+    private final String file;
+    private volatile boolean canceled;
+    private volatile Map map;
+    private volatile Exception error;
+    private boolean finished;
+
+    private JLabel noteLabel;
+    private JProgressBar progressBar;
+    private JButton bCancel;
+
+    private static final String DIALOG_TITLE = Resources.getString("dialog.loading.title");
+    private static final String PARSING_LABEL = Resources.getString("dialog.loading.parsing.label");
+    private static final String PROGRESS_LABEL = Resources.getString("dialog.loading.progress.label");
+    private static final String CANCELING_LABEL = Resources.getString("dialog.loading.canceling.label");
+    private static final String CANCEL_BUTTON = Resources.getString("general.button.cancel");
+
+    private MapLoadingDialog(JFrame parent, String file) {
+        super(parent, DIALOG_TITLE, true);
+        this.file = file;
+        init();
+        pack();
+        setLocationRelativeTo(parent);
+    }
+
+    private void init() {
+        noteLabel = new JLabel(MessageFormat.format(PARSING_LABEL,
+                new File(file).getName()));
+        noteLabel.setAlignmentX(LEFT_ALIGNMENT);
+
+        progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+        progressBar.setPreferredSize(new Dimension(300,
+                progressBar.getPreferredSize().height));
+        progressBar.setAlignmentX(LEFT_ALIGNMENT);
+
+        bCancel = new JButton(CANCEL_BUTTON);
+        bCancel.addActionListener(this);
+
+        JPanel buttonPanel = new VerticalStaticJPanel();
+        buttonPanel.setLayout(new BoxLayout(buttonPanel, BoxLayout.X_AXIS));
+        buttonPanel.setAlignmentX(LEFT_ALIGNMENT);
+        buttonPanel.add(Box.createGlue());
+        buttonPanel.add(bCancel);
+
+        JPanel mainPanel = new JPanel();
+        mainPanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        mainPanel.setLayout(new BoxLayout(mainPanel, BoxLayout.Y_AXIS));
+        mainPanel.add(noteLabel);
+        mainPanel.add(Box.createRigidArea(new Dimension(0, 5)));
+        mainPanel.add(progressBar);
+        mainPanel.add(Box.createRigidArea(new Dimension(0, 5)));
+        mainPanel.add(buttonPanel);
+
+        getContentPane().add(mainPanel);
+
+        setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) {
+                cancel();
+            }
+        });
+    }
+
+    /**
+     * Loads a map on a background thread. When called on the event dispatch
+     * thread and loading takes a while, the progress is shown in a dialog,
+     * which keeps dispatching events until the map is loaded.
+     *
+     * @param parent the frame to show the dialog over
+     * @param file   filename of the map to load
+     * @return the loaded map, or <code>null</code> when loading was canceled
+     * @throws Exception when the map could not be loaded
+     * @see MapHelper#readMap(String, LoadMonitor)
+     */
+    public static Map loadMap(JFrame parent, String file) throws Exception {
+        return new MapLoadingDialog(parent, file).load();
+    }
+
+    private Map load() throws Exception {
+        Thread worker = new Thread("MapLoader") {
+            public void run() {
+                try {
+                    map = MapHelper.readMap(file, MapLoadingDialog.this);
+                } catch (Exception e) {
+                    error = e;
+                } finally {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            finished = true;
+                            dispose();
+                        }
+                    });
+                }
+            }
+        };
+        worker.setDaemon(true);
+        worker.start();
+
+        worker.join(POPUP_DELAY);
+        if (worker.isAlive()) {
+            if (EventQueue.isDispatchThread()) {
+                // The dialog is disposed when the worker is done, which
+                // is never before this check on this thread
+                if (!finished) {
+                    setVisible(true);
+                }
+            } else {
+                worker.join();
+            }
+        }
+        worker.join();
+        dispose();
+
+        if (canceled || error instanceof CancellationException) {
+            return null;
+        }
+        if (error != null) {
+            throw error;
+        }
+        return map;
+    }
+
+    private void cancel() {
+        canceled = true;
+        bCancel.setEnabled(false);
+        noteLabel.setText(CANCELING_LABEL);
+    }
+
+    public void progress(final int done, final int total, final String note) {
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                if (canceled) {
+                    return;
+                }
+                if (total > 0) {
+                    progressBar.setIndeterminate(false);
+                    progressBar.setMaximum(total);
+                    progressBar.setValue(done);
+                }
+                if (note != null) {
+                    noteLabel.setText(MessageFormat.format(PROGRESS_LABEL,
+                            note));
+                }
+            }
+        });
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    public void actionPerformed(ActionEvent event) {
+        if (event.getSource() == bCancel) {
+            cancel();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.mapeditor.dialogs;
+
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+
+import tiled.core.Map;
+import tiled.core.MemoryFootprint;
+import tiled.mapeditor.Resources;
+import tiled.mapeditor.undo.UndoHandler;
+import tiled.mapeditor.util.ConfirmableFileFilter;
+import tiled.mapeditor.util.ConfirmingFileChooser;
+import tiled.mapeditor.widget.VerticalStaticJPanel;
+
+/**
+ * Shows the estimated memory retained by the layers, tilesets and object
+ * groups of a map and by the undo history, and exports it as CSV or JSON.
+ *
+ * @version $Id$
+ */
+public class MemoryFootprintDialog extends JDialog implements ActionListener
+{
+    private static final long serialVersionUID = 1L;
+
+    private final Map map;
+    private final UndoHandler undoHandler;
+    private MemoryFootprint footprint;
+    private FootprintTableModel tableModel;
+    private JLabel totalLabel;
+    private JButton bRefresh, bExport, bClose;
+
+    private static final String DIALOG_TITLE = Resources.getString("dialog.footprint.title");
+    private static final String TOTAL_LABEL = Resources.getString("dialog.footprint.total.label");
+    private static final String REFRESH_BUTTON = Resources.getString("dialog.footprint.refresh.button");
+    private static final String EXPORT_BUTTON = Resources.getString("dialog.footprint.export.button");
+    private static final String EXPORT_ERROR_TITLE = Resources.getString("dialog.footprint.export.error.title");
+    private static final String CLOSE_BUTTON = Resources.getString("general.button.close");
+    private static final String[] COLUMN_NAMES = {
+        Resources.getString("dialog.footprint.category.column"),
+        Resources.getString("dialog.footprint.name.column"),
+        Resources.getString("dialog.footprint.component.column"),
+        Resources.getString("dialog.footprint.bytes.column"),
+    };
+
+    public MemoryFootprintDialog(JFrame parent, Map map,
+                                 UndoHandler undoHandler) {
+        super(parent, DIALOG_TITLE, false);
+        this.map = map;
+        this.undoHandler = undoHandler;
+        init();
+        refresh();
+        pack();
+        setLocationRelativeTo(parent);
+    }
+
+    private void init() {
+        tableModel = new FootprintTableModel();
+        JTable table = new JTable(tableModel);
+        JScrollPane tableScrollPane = new JScrollPane(table);
+        tableScrollPane.setPreferredSize(new Dimension(480, 300));
+
+        totalLabel = new JLabel();
+
+        bRefresh = new JButton(REFRESH_BUTTON);
+        bExport = new JButton(EXPORT_BUTTON);
+        bClose = new JButton(CLOSE_BUTTON);
+        bRefresh.addActionListener(this);
+        bExport.addActionListener(this);
+        bClose.addActionListener(this);
+
+        JPanel buttonPanel = new VerticalStaticJPanel();
+        buttonPanel.setLayout(new BoxLayout(buttonPanel, BoxLayout.X_AXIS));
+        buttonPanel.add(totalLabel);
+        buttonPanel.add(Box.createGlue());
+        buttonPanel.add(bRefresh);
+        buttonPanel.add(Box.createRigidArea(new Dimension(5, 0)));
+        buttonPanel.add(bExport);
+        buttonPanel.add(Box.createRigidArea(new Dimension(5, 0)));
+        buttonPanel.add(bClose);
+
+        JPanel mainPanel = new JPanel();
+        mainPanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        mainPanel.setLayout(new BoxLayout(mainPanel, BoxLayout.Y_AXIS));
+        mainPanel.add(tableScrollPane);
+        mainPanel.add(Box.createRigidArea(new Dimension(0, 5)));
+        mainPanel.add(buttonPanel);
+
+        getContentPane().add(mainPanel);
+        getRootPane().setDefaultButton(bClose);
+    }
+
+    /**
+     * Estimates the footprint again, to show the current state of the map
+     * and the undo history.
+     */
+    private void refresh() {
+        footprint = new MemoryFootprint();
+        footprint.addMap(map);
+        if (undoHandler != null) {
+            undoHandler.addTo(footprint);
+        }
+        tableModel.setEntries(footprint.getEntries());
+        totalLabel.setText(TOTAL_LABEL + " " +
+                String.format("%,d", footprint.getTotal()));
+    }
+
+    private void export() {
+        JFileChooser chooser = new ConfirmingFileChooser();
+        final ConfirmableFileFilter csvFilter = new ExtensionFilter("CSV", "csv");
+        chooser.addChoosableFileFilter(new ExtensionFilter("JSON", "json"));
+        chooser.addChoosableFileFilter(csvFilter);
+        chooser.setFileFilter(csvFilter);
+
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        final File file = chooser.getSelectedFile();
+        try {
+            Writer w = new FileWriter(file);
+            try {
+                if (file.getName().toLowerCase().endsWith(".json")) {
+                    footprint.writeJSON(w);
+                } else {
+                    footprint.writeCSV(w);
+                }
+            } finally {
+                w.close();
+            }
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this,
+                    e.getLocalizedMessage(), EXPORT_ERROR_TITLE,
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    public void actionPerformed(ActionEvent event) {
+        Object source = event.getSource();
+        if (source == bRefresh) {
+            refresh();
+        } else if (source == bExport) {
+            export();
+        } else if (source == bClose) {
+            dispose();
+        }
+    }
+
+    private static class FootprintTableModel extends AbstractTableModel
+    {
+        private static final long serialVersionUID = 1L;
+
+        private List<MemoryFootprint.Entry> entries;
+
+        public void setEntries(List<MemoryFootprint.Entry> entries) {
+            this.entries = entries;
+            fireTableDataChanged();
+        }
+
+        public int getRowCount() {
+            return entries != null ? entries.size() : 0;
+        }
+
+        public int getColumnCount() {
+            return COLUMN_NAMES.length;
+        }
+
+        public String getColumnName(int column) {
+            return COLUMN_NAMES[column];
+        }
+
+        public Class<?> getColumnClass(int column) {
+            return column == 3 ? Long.class : String.class;
+        }
+
+        public Object getValueAt(int row, int column) {
+            MemoryFootprint.Entry entry = entries.get(row);
+            switch (column) {
+                case 0: return entry.getCategory();
+                case 1: return entry.getName();
+                case 2: return entry.getComponent();
+                default: return entry.getBytes();
+            }
+        }
+    }
+
+    private static class ExtensionFilter extends ConfirmableFileFilter
+    {
+        private final String description;
+        private final String extension;
+
+        public ExtensionFilter(String description, String extension) {
+            this.description = description;
+            this.extension = extension;
+        }
+
+        public String getDefaultExtension() {
+            return extension;
+        }
+
+        public boolean accept(File file) {
+            return file.isDirectory() ||
+                file.getName().toLowerCase().endsWith("." + extension);
+        }
+
+        public String getDescription() {
+            return description + " (*." + extension + ")";
+        }
+    }
+}
@@ -163,16 +163,18 @@ public class SearchDialog extends JDialog implements ActionListener
             }
 
             sl = new SelectionLayer(map.getWidth(), map.getHeight(), map.getTileWidth(), map.getTileHeight());
-            Rectangle bounds = new Rectangle();
-            final Iterator<MapLayer> itr = map.getLayers();
-            while (itr.hasNext()) {
-                MapLayer layer = itr.next();
-                if (layer instanceof TileLayer) {
-                    layer.getBounds(bounds);
-                    for (int y = 0; y < bounds.height; y++) {
-                        for (int x = 0; x < bounds.width; x++) {
-                            if (((TileLayer)layer).getTileAt(x,y) == searchCBox.getSelectedItem()) {
-                                sl.select(x,y);
+            if (searchCBox.getSelectedItem() instanceof Tile) {
+                final Tile tile = (Tile) searchCBox.getSelectedItem();
+                final Iterator<MapLayer> itr = map.getLayers();
+                while (itr.hasNext()) {
+                    MapLayer layer = itr.next();
+                    if (layer instanceof TileLayer) {
+                        // Only visits the cells the tile is used in
+                        SelectionMask.RunIterator runs =
+                            ((TileLayer) layer).getOccurrences(tile).runs();
+                        while (runs.next()) {
+                            for (int i = 0; i < runs.getLength(); i++) {
+                                sl.select(runs.getX() + i, runs.getY());
                             }
                         }
                     }
@@ -231,39 +233,55 @@ public class SearchDialog extends JDialog implements ActionListener
         }
 
         sl = new SelectionLayer(map.getWidth(), map.getHeight(), map.getTileWidth(), map.getTileHeight());
-        Rectangle bounds = new Rectangle();
-
-        int startx = currentMatch == null ? 0 : currentMatch.x;
-        int starty = currentMatch == null ? 0 : currentMatch.y;
 
-        for (int y = starty; y < map.getHeight() && !bFound; y++) {
-            for (int x = startx; x < map.getWidth() && !bFound; x++) {
-                final Iterator<MapLayer> itr = map.getLayers();
-                while (itr.hasNext()) {
-                    MapLayer layer = itr.next();
-
-                    if (layer instanceof TileLayer) {
-                        layer.getBounds(bounds);
+        // Look for the first occurrence after the current match, top down
+        // and left to right, among the occurrences of the tile in each layer
+        Point next = null;
+        final Iterator<MapLayer> itr = map.getLayers();
+        while (itr.hasNext()) {
+            MapLayer layer = itr.next();
+            if (!(layer instanceof TileLayer)) {
+                continue;
+            }
 
-                        if (((TileLayer)layer).getTileAt(x,y) == searchCBox.getSelectedItem()) {
-                            if (currentMatch != null) {
-                                if (currentMatch.equals(new Point(x,y))) {
-                                    continue;
-                                }
-                            }
-                            sl.select(x,y);
-                            bFound = true;
-                            currentMatch = new Point(x,y);
-                            break;
-                        }
+            SelectionMask.RunIterator runs =
+                ((TileLayer) layer).getOccurrences(f).runs();
+            while (runs.next()) {
+                Point p = new Point(runs.getX(), runs.getY());
+                if (currentMatch != null && !isAfter(p, currentMatch)) {
+                    if (p.y < currentMatch.y) {
+                        continue;
                     }
+                    // The match is within this run
+                    p.x = currentMatch.x + 1;
+                    if (p.x >= runs.getX() + runs.getLength()) {
+                        continue;
+                    }
+                }
+                if (next == null || isAfter(next, p)) {
+                    next = p;
                 }
+                break;
             }
         }
 
+        if (next != null) {
+            sl.select(next.x, next.y);
+            bFound = true;
+            currentMatch = next;
+        }
+
         if (bFound) {
             map.addLayerSpecial(sl);
             map.touch();
         }
     }
+
+    /**
+     * Returns whether location a comes after location b, top down and left
+     * to right.
+     */
+    private static boolean isAfter(Point a, Point b) {
+        return a.y > b.y || (a.y == b.y && a.x > b.x);
+    }
 }
@@ -12,40 +12,95 @@
 
 package tiled.mapeditor.plugin;
 
-import java.io.ByteArrayOutputStream;
+import java.awt.GraphicsEnvironment;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.Hashtable;
 import java.util.Vector;
-import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
 import javax.swing.JFrame;
 import javax.swing.ProgressMonitor;
 
 import tiled.io.MapReader;
 import tiled.io.MapWriter;
 import tiled.io.PluggableMapIO;
+import tiled.io.SniffingMapReader;
 import tiled.util.TiledConfiguration;
 
 /**
  * The plugin class loader searches and loads available reader and writer
  * plugins.
+ * <p>
+ * What was found in each jar, its reader and writer classes and the file
+ * extensions they handle or that it holds no plugin, is kept in an index in
+ * the preferences. At
+ * startup only the jars that are new or changed since they were indexed are
+ * opened. The plugin classes are loaded when they are first used, by
+ * {@link #getReaderFor(String)}, {@link #getWriterFor(String)},
+ * {@link #getReaders()}, {@link #getSniffingReaders()} or
+ * {@link #getWriters()}. Whether a reader sniffs the content of files is
+ * kept in the index too, so that only those readers are loaded when a map
+ * is opened.
  */
 public final class PluginClassLoader extends URLClassLoader
 {
-    private final Vector<PluggableMapIO> readers, writers;
+    private final Vector<Plugin> readers, writers;
     private final Hashtable<String, String> readerFormats;
     private final Hashtable<String, String> writerFormats;
     private static PluginClassLoader instance;
 
+    private static final String INDEX_NODE = "plugins/index";
+
+    /** Changed when what is recorded in the index changes. */
+    private static final int INDEX_VERSION = 2;
+
+    /**
+     * A reader or writer class of a plugin jar, as it is kept in the index.
+     */
+    private static class Plugin
+    {
+        final String className;
+        final String filter;
+        final boolean sniffs;
+        PluggableMapIO instance;
+        boolean failed;
+
+        Plugin(String className, String filter, boolean sniffs) {
+            this.className = className;
+            this.filter = filter;
+            this.sniffs = sniffs;
+        }
+    }
+
+    /**
+     * What the index records of a jar in the plugins directory. A jar that
+     * holds no plugin is recorded without reader and writer classes, so
+     * that it is not opened again until it changes.
+     */
+    private static class IndexEntry
+    {
+        String path;
+        long lastModified;
+        long length;
+        String readerClass, readerFilter;
+        boolean readerSniffs;
+        String writerClass, writerFilter;
+
+        boolean matches(File file) {
+            return path.equals(file.getAbsolutePath()) &&
+                lastModified == file.lastModified() &&
+                length == file.length();
+        }
+    }
+
     private PluginClassLoader() {
         super(new URL[0]);
-        new Vector<Object>();
-        readers = new Vector<PluggableMapIO>();
-        writers = new Vector<PluggableMapIO>();
+        readers = new Vector<Plugin>();
+        writers = new Vector<Plugin>();
         readerFormats = new Hashtable<String, String>();
         writerFormats = new Hashtable<String, String>();
     }
@@ -57,9 +112,22 @@ public final class PluginClassLoader extends URLClassLoader
         return instance;
     }
 
-    public void readPlugins(String base, JFrame parent) throws Exception {
+    /**
+     * Finds the plugins in the given directory. The plugins recorded in the
+     * index are added without opening their jars. Jars that are not in the
+     * index or that changed since are scanned, showing a progress monitor
+     * unless there is no parent frame or no display, and the index is
+     * updated.
+     *
+     * @param base   the plugins directory, or <code>null</code> for the
+     *               configured one
+     * @param parent the frame to show the progress monitor over, or
+     *               <code>null</code> to scan without showing progress
+     */
+    public synchronized void readPlugins(String base, JFrame parent)
+        throws Exception
+    {
         String baseURL = base;
-        ProgressMonitor monitor;
 
         if (base == null) {
             baseURL = TiledConfiguration.root().get("pluginsDir", "plugins");
@@ -74,113 +142,305 @@ public final class PluginClassLoader extends URLClassLoader
             return;
         }
 
-        int total = 0;
+        Vector<File> jars = new Vector<File>();
         File[] files = dir.listFiles();
         for (File file : files) {
-            String aPath = file.getAbsolutePath();
-            if (aPath.endsWith(".jar")) {
-                total++;
+            if (file.getAbsolutePath().endsWith(".jar")) {
+                jars.add(file);
             }
         }
 
-        // Start the progress monitor
-        monitor = new ProgressMonitor(
-                parent, "Loading plugins", "", 0, total - 1);
-        monitor.setProgress(0);
-        monitor.setMillisToPopup(0);
-        monitor.setMillisToDecideToPopup(0);
-
-        for (int i = 0; i < files.length; i++) {
-            String aPath = files[i].getAbsolutePath();
-            String aName =
-                aPath.substring(aPath.lastIndexOf(File.separatorChar) + 1);
-
-            // Skip non-jar files.
-            if (!aPath.endsWith(".jar")) {
-                continue;
+        Vector<IndexEntry> index = readIndex();
+        Vector<IndexEntry> updated = new Vector<IndexEntry>();
+        Vector<File> changed = new Vector<File>();
+        for (File jar : jars) {
+            IndexEntry entry = null;
+            for (IndexEntry e : index) {
+                if (e.matches(jar)) {
+                    entry = e;
+                    break;
+                }
             }
+            if (entry != null) {
+                updated.add(entry);
+            } else {
+                changed.add(jar);
+            }
+        }
 
-            try {
-                monitor.setNote("Reading " + aName + "...");
-                JarFile jf = new JarFile(files[i]);
+        // Jars are put on the class path before scanning, so that the
+        // plugin classes are loaded through it
+        for (File jar : jars) {
+            addURL(jar.toURI().toURL());
+        }
+
+        if (!changed.isEmpty()) {
+            ProgressMonitor monitor = null;
+            if (parent != null && !GraphicsEnvironment.isHeadless()) {
+                monitor = new ProgressMonitor(
+                        parent, "Loading plugins", "", 0, changed.size());
+                monitor.setProgress(0);
+                monitor.setMillisToPopup(0);
+                monitor.setMillisToDecideToPopup(0);
+            }
 
-                monitor.setProgress(i);
+            for (int i = 0; i < changed.size(); i++) {
+                File jar = changed.get(i);
+                if (monitor != null) {
+                    monitor.setNote("Reading " + jar.getName() + "...");
+                    monitor.setProgress(i);
+                }
+                IndexEntry entry = scanJar(jar);
+                if (entry != null) {
+                    updated.add(entry);
+                }
+            }
 
-                if (jf.getManifest() == null)
-                    continue;
+            if (monitor != null) {
+                monitor.close();
+            }
+        }
+
+        if (!changed.isEmpty() || updated.size() != index.size()) {
+            writeIndex(updated);
+        }
+
+        for (IndexEntry entry : updated) {
+            if (entry.readerClass != null) {
+                add(entry.readerClass, entry.readerFilter,
+                        entry.readerSniffs, readers, readerFormats);
+            }
+            if (entry.writerClass != null) {
+                add(entry.writerClass, entry.writerFilter,
+                        false, writers, writerFormats);
+            }
+        }
+    }
+
+    /**
+     * Opens a jar to find its reader and writer classes, loads them and
+     * asks them which file extensions they handle.
+     *
+     * @return the index entry of the jar, without classes when it holds no
+     *         plugin, or <code>null</code> when it could not be read
+     */
+    private IndexEntry scanJar(File file) {
+        try {
+            JarFile jf = new JarFile(file);
+            try {
+                IndexEntry entry = new IndexEntry();
+                entry.path = file.getAbsolutePath();
+                entry.lastModified = file.lastModified();
+                entry.length = file.length();
+
+                Manifest manifest = jf.getManifest();
+                if (manifest == null) {
+                    return entry;
+                }
 
                 String readerClassName =
-                    jf.getManifest().getMainAttributes().getValue(
-                            "Reader-Class");
+                    manifest.getMainAttributes().getValue("Reader-Class");
                 String writerClassName =
-                    jf.getManifest().getMainAttributes().getValue(
-                            "Writer-Class");
-
-                Class<Object> readerClass = null;
-                Class<Object> writerClass = null;
+                    manifest.getMainAttributes().getValue("Writer-Class");
 
                 // Verify that the jar has the necessary files to be a
                 // plugin
                 if (readerClassName == null && writerClassName == null) {
-                    continue;
-                }
-
-                monitor.setNote("Loading " + aName + "...");
-                addURL(new File(aPath).toURI().toURL());
-
-                if (readerClassName != null) {
-                    JarEntry reader = jf.getJarEntry(
-                            readerClassName.replace('.', '/') + ".class");
-
-                    if (reader != null) {
-                        readerClass = loadFromJar(
-                                jf, reader, readerClassName);
-                    }else System.err.println("Manifest entry "+readerClassName+" does not match any class in the jar.");
-                }
-                if (writerClassName != null) {
-                    JarEntry writer = jf.getJarEntry(
-                            writerClassName.replace('.', '/') + ".class");
-
-                    if (writer != null) {
-                        writerClass = loadFromJar(
-                                jf, writer, writerClassName);
-                    } else System.err.println("Manifest entry "+writerClassName+" does not match any class in the jar.");
+                    return entry;
                 }
 
-                boolean bPlugin = false;
+                Class<?> readerClass = loadPluginClass(jf, readerClassName);
                 if (isReader(readerClass)) {
-                    bPlugin = true;
+                    entry.readerClass = readerClassName;
+                    entry.readerFilter = getFilter(readerClass);
+                    entry.readerSniffs = isSniffingReader(readerClass);
                 }
+                Class<?> writerClass = loadPluginClass(jf, writerClassName);
                 if (isWriter(writerClass)) {
-                    bPlugin = true;
+                    entry.writerClass = writerClassName;
+                    entry.writerFilter = getFilter(writerClass);
                 }
 
-                if (bPlugin) {
-                    if (readerClass != null) _add(readerClass);
-                    if (writerClass != null) _add(writerClass);
-                    //System.out.println(
-                    //        "Added " + files[i].getCanonicalPath());
+                if ((entry.readerClass == null || entry.readerFilter == null) &&
+                        (entry.writerClass == null ||
+                         entry.writerFilter == null)) {
+                    entry.readerClass = null;
+                    entry.writerClass = null;
                 }
+                return entry;
+            } finally {
+                jf.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } catch (LinkageError e) {
+            System.err.println("**Failed loading plugin: " + e.toString());
+        }
+        return null;
+    }
+
+    private Class<?> loadPluginClass(JarFile jf, String className)
+        throws ClassNotFoundException
+    {
+        if (className == null) {
+            return null;
+        }
+        if (jf.getJarEntry(className.replace('.', '/') + ".class") == null) {
+            System.err.println("Manifest entry " + className +
+                    " does not match any class in the jar.");
+            return null;
+        }
+        return loadClass(className);
+    }
+
+    private static String getFilter(Class<?> klass) throws Exception {
+        PluggableMapIO p = (PluggableMapIO)
+            klass.getDeclaredConstructor().newInstance();
+        return p.getFilter();
+    }
 
-            } catch (IOException e) {
-                e.printStackTrace();
+    private void add(String className, String filter, boolean sniffs,
+                     Vector<Plugin> plugins,
+                     Hashtable<String, String> formats) {
+        for (Plugin p : plugins) {
+            if (p.className.equals(className)) {
+                return;
             }
         }
+        if (filter == null) {
+            return;
+        }
+        plugins.add(new Plugin(className, filter, sniffs));
+        for (String extension : filter.split(",")) {
+            formats.put(extension, className);
+        }
+    }
+
+    private static Vector<IndexEntry> readIndex() {
+        Vector<IndexEntry> index = new Vector<IndexEntry>();
+        Preferences prefs = TiledConfiguration.node(INDEX_NODE);
+        if (prefs.getInt("version", 0) != INDEX_VERSION) {
+            // Scan all jars again to record what older indexes lack
+            return index;
+        }
+        int count = prefs.getInt("count", 0);
+        for (int i = 0; i < count; i++) {
+            Preferences node = prefs.node(String.valueOf(i));
+            IndexEntry entry = new IndexEntry();
+            entry.path = node.get("path", null);
+            entry.lastModified = node.getLong("lastModified", -1);
+            entry.length = node.getLong("length", -1);
+            entry.readerClass = node.get("readerClass", null);
+            entry.readerFilter = node.get("readerFilter", null);
+            entry.readerSniffs = node.getBoolean("readerSniffs", false);
+            entry.writerClass = node.get("writerClass", null);
+            entry.writerFilter = node.get("writerFilter", null);
+            if (entry.path != null) {
+                index.add(entry);
+            }
+        }
+        return index;
+    }
+
+    private static void writeIndex(Vector<IndexEntry> index) {
+        Preferences prefs = TiledConfiguration.node(INDEX_NODE);
+        try {
+            for (String child : prefs.childrenNames()) {
+                prefs.node(child).removeNode();
+            }
+            for (int i = 0; i < index.size(); i++) {
+                IndexEntry entry = index.get(i);
+                Preferences node = prefs.node(String.valueOf(i));
+                node.put("path", entry.path);
+                node.putLong("lastModified", entry.lastModified);
+                node.putLong("length", entry.length);
+                if (entry.readerClass != null) {
+                    node.put("readerClass", entry.readerClass);
+                    node.put("readerFilter", entry.readerFilter);
+                    node.putBoolean("readerSniffs", entry.readerSniffs);
+                }
+                if (entry.writerClass != null) {
+                    node.put("writerClass", entry.writerClass);
+                    node.put("writerFilter", entry.writerFilter);
+                }
+            }
+            prefs.putInt("count", index.size());
+            prefs.putInt("version", INDEX_VERSION);
+            prefs.flush();
+        } catch (BackingStoreException e) {
+            e.printStackTrace();
+        }
     }
 
     public MapReader[] getReaders() {
-        return (MapReader[]) readers.toArray(new MapReader[readers.size()]);
+        Vector<MapReader> loaded = new Vector<MapReader>();
+        for (Plugin p : readers) {
+            PluggableMapIO instance = getInstance(p);
+            if (instance instanceof MapReader) {
+                loaded.add((MapReader) instance);
+            }
+        }
+        return loaded.toArray(new MapReader[loaded.size()]);
+    }
+
+    /**
+     * Returns the readers that recognize their format by the content of a
+     * file. Only the plugins known from the index to be sniffing readers
+     * are loaded.
+     */
+    public SniffingMapReader[] getSniffingReaders() {
+        Vector<SniffingMapReader> loaded = new Vector<SniffingMapReader>();
+        for (Plugin p : readers) {
+            if (p.sniffs) {
+                PluggableMapIO instance = getInstance(p);
+                if (instance instanceof SniffingMapReader) {
+                    loaded.add((SniffingMapReader) instance);
+                }
+            }
+        }
+        return loaded.toArray(new SniffingMapReader[loaded.size()]);
     }
 
     public MapWriter[] getWriters() {
-        return (MapWriter[]) writers.toArray(new MapWriter[writers.size()]);
+        Vector<MapWriter> loaded = new Vector<MapWriter>();
+        for (Plugin p : writers) {
+            PluggableMapIO instance = getInstance(p);
+            if (instance instanceof MapWriter) {
+                loaded.add((MapWriter) instance);
+            }
+        }
+        return loaded.toArray(new MapWriter[loaded.size()]);
+    }
+
+    /**
+     * Returns the instance of a plugin class, which is created when first
+     * asked for.
+     *
+     * @return the instance, or <code>null</code> when the class could not
+     *         be loaded
+     */
+    private PluggableMapIO getInstance(Plugin p) {
+        if (p.instance == null && !p.failed) {
+            try {
+                p.instance = (PluggableMapIO) loadClass(p.className)
+                    .getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+                System.err.println("**Failed loading plugin: " + e.toString());
+                p.failed = true;
+            } catch (LinkageError e) {
+                System.err.println("**Failed loading plugin: " + e.toString());
+                p.failed = true;
+            }
+        }
+        return p.instance;
     }
 
     public Object getReaderFor(String file) throws Exception {
         for (String key : readerFormats.keySet()) {
             String ext = key.substring(1);
             if (file.toLowerCase().endsWith(ext)) {
-                return loadClass(readerFormats.get(key)).newInstance();
+                return loadClass(readerFormats.get(key))
+                    .getDeclaredConstructor().newInstance();
             }
         }
         throw new Exception(
@@ -191,44 +451,23 @@ public final class PluginClassLoader extends URLClassLoader
         for (String key : writerFormats.keySet()) {
             String ext = key.substring(1);
             if (file.toLowerCase().endsWith(ext)) {
-                return loadClass(writerFormats.get(key)).newInstance();
+                return loadClass(writerFormats.get(key))
+                    .getDeclaredConstructor().newInstance();
             }
         }
         throw new Exception(
                 "No writer plugin exists for this file type.");
     }
 
-    public Class loadFromJar(JarFile jf, JarEntry je, String className)
-        throws IOException
-    {
-        byte[] buffer = new byte[(int)je.getSize()];
-        int n;
-
-        InputStream in = jf.getInputStream(je);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        while ((n = in.read(buffer)) > 0) {
-            baos.write(buffer, 0, n);
-        }
-        buffer = baos.toByteArray();
-
-        if (buffer.length < je.getSize()) {
-            throw new IOException(
-                    "Failed to read entire entry! (" + buffer.length + "<" +
-                    je.getSize() + ")");
-        }
-
-        return defineClass(className, buffer, 0, buffer.length);
-    }
-
-    private static boolean doesImplement(Class klass, String interfaceName)
+    private static boolean doesImplement(Class<?> klass, String interfaceName)
         throws Exception
     {
         if (klass == null) {
             return false;
         }
 
-        Class[] interfaces = klass.getInterfaces();
-        for (Class anInterface : interfaces) {
+        Class<?>[] interfaces = klass.getInterfaces();
+        for (Class<?> anInterface : interfaces) {
             String name = anInterface.toString();
             if (name.substring(name.indexOf(' ') + 1).equals(interfaceName)) {
                 return true;
@@ -237,35 +476,16 @@ public final class PluginClassLoader extends URLClassLoader
         return false;
     }
 
-    private static boolean isReader(Class klass) throws Exception {
-        return doesImplement(klass, "tiled.io.MapReader");
+    private static boolean isReader(Class<?> klass) throws Exception {
+        return doesImplement(klass, "tiled.io.MapReader") ||
+            isSniffingReader(klass);
     }
 
-    private static boolean isWriter(Class writerClass) throws Exception {
-        return doesImplement(writerClass, "tiled.io.MapWriter");
+    private static boolean isSniffingReader(Class<?> klass) throws Exception {
+        return doesImplement(klass, "tiled.io.SniffingMapReader");
     }
 
-    private void _add(Class klass) throws Exception{
-        try {
-            PluggableMapIO p = (PluggableMapIO) klass.newInstance();
-            String clname = klass.toString();
-            clname = clname.substring(clname.indexOf(' ') + 1);
-            String filter = p.getFilter();
-            String[] extensions = filter.split(",");
-
-            if (isReader(klass)) {
-                for (String extension : extensions) {
-                    readerFormats.put(extension, clname);
-                }
-                readers.add(p);
-            } else if (isWriter(klass)) {
-                for (String extension : extensions) {
-                    writerFormats.put(extension, clname);
-                }
-                writers.add(p);
-            }
-        } catch (NoClassDefFoundError e) {
-            System.err.println("**Failed loading plugin: " + e.toString());
-        }
+    private static boolean isWriter(Class<?> writerClass) throws Exception {
+        return doesImplement(writerClass, "tiled.io.MapWriter");
     }
 }
@@ -47,6 +47,14 @@ public class DeleteLayerEdit extends AbstractUndoableEdit {
         map.removeLayer(index);
     }
 
+    /**
+     * Returns the deleted layer, or <code>null</code> while the deletion is
+     * undone.
+     */
+    public MapLayer getLayer() {
+        return layer;
+    }
+
     public String getPresentationName() {
         return Resources.getString("action.layer.delete.name");
     }
@@ -9,6 +9,7 @@ import javax.swing.undo.AbstractUndoableEdit;
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import tiled.core.MapLayer;
+import tiled.core.MemoryFootprint;
 import tiled.core.Tile;
 import tiled.core.TileLayer;
 import tiled.mapeditor.Resources;
@@ -177,6 +178,21 @@ public class LayerResizeEdit extends AbstractUndoableEdit{
         }
     }
 
+    /**
+     * Returns the estimated number of bytes taken by the tiles kept to undo
+     * or redo the resize.
+     */
+    public long getBackupSize() {
+        long size = 0;
+        if (backup.rasters != null) {
+            for (TileRaster r : backup.rasters) {
+                size += MemoryFootprint.sizeOfTileArray(
+                        r.getWidth(), r.getHeight());
+            }
+        }
+        return size;
+    }
+
     @Override
     public String getPresentationName() {
         return Resources.getString("edit.changelayerdimension.name");
@@ -54,16 +54,25 @@ public class MapLayerEdit extends AbstractUndoableEdit
         }
     }
 
+    public MapLayer getLayer() {
+        return editedLayer;
+    }
+
     public MapLayer getStart() {
         return layerUndo;
     }
 
+    public MapLayer getEnd() {
+        return layerRedo;
+    }
+
     /* inherited methods */
     public void undo() throws CannotUndoException {
         if (editedLayer == null) {
             throw new CannotUndoException();
         }
         layerUndo.copyTo(editedLayer);
+        editedLayer.fireContentsChanged(layerUndo.getBounds());
     }
 
     public boolean canUndo() {
@@ -75,6 +84,7 @@ public class MapLayerEdit extends AbstractUndoableEdit
             throw new CannotRedoException();
         }
         layerRedo.copyTo(editedLayer);
+        editedLayer.fireContentsChanged(layerRedo.getBounds());
     }
 
     public boolean canRedo() {
@@ -14,6 +14,7 @@ package tiled.mapeditor.undo;
 
 import java.util.Iterator;
 import java.awt.event.ActionEvent;
+import javax.swing.undo.AbstractUndoableEdit;
 import javax.swing.undo.UndoManager;
 import javax.swing.undo.UndoableEdit;
 import javax.swing.undo.CannotUndoException;
@@ -21,19 +22,25 @@ import javax.swing.undo.CannotRedoException;
 import javax.swing.*;
 import javax.swing.event.UndoableEditEvent;
 
+import tiled.core.MemoryFootprint;
 import tiled.util.TiledConfiguration;
 import tiled.mapeditor.MapEditor;
+import tiled.mapeditor.util.AutoSaver;
 
 /**
  * @version $Id$
  */
 public class UndoHandler extends UndoManager
 {
+    /** Saved at when the map was not saved since it was opened. */
+    private static final UndoableEdit NEVER_SAVED = new AbstractUndoableEdit();
+
     UndoableEdit savedAt;
 
     private final Action undoAction = new UndoAction();
     private final Action redoAction = new RedoAction();
     private final MapEditor editor;
+    private AutoSaver autoSaver;
 
     public UndoHandler(MapEditor editor) {
         this.editor = editor;
@@ -41,6 +48,16 @@ public class UndoHandler extends UndoManager
         updateActions();
     }
 
+    /**
+     * Sets the autosaver that is told about the edits made, undone and
+     * redone, and about the map being saved.
+     *
+     * @param autoSaver the autosaver, or <code>null</code> for none
+     */
+    public void setAutoSaver(AutoSaver autoSaver) {
+        this.autoSaver = autoSaver;
+    }
+
     /**
      * Overridden to update the undo/redo actions.
      * @see UndoManager#discardAllEdits()
@@ -48,6 +65,7 @@ public class UndoHandler extends UndoManager
     public synchronized void discardAllEdits()
     {
         super.discardAllEdits();
+        savedAt = null;
         updateActions();
     }
 
@@ -57,7 +75,11 @@ public class UndoHandler extends UndoManager
      * @throws CannotUndoException
      */
     public synchronized void undo() throws CannotUndoException {
+        final UndoableEdit edit = editToBeUndone();
         super.undo();
+        if (autoSaver != null) {
+            autoSaver.editUndone(edit);
+        }
         updateActions();
         editor.updateTitle();
 
@@ -72,7 +94,11 @@ public class UndoHandler extends UndoManager
      * @throws CannotRedoException
      */
     public synchronized void redo() throws CannotRedoException {
+        final UndoableEdit edit = editToBeRedone();
         super.redo();
+        if (autoSaver != null) {
+            autoSaver.editRedone(edit);
+        }
         updateActions();
         editor.updateTitle();
         editor.getMapView().repaint();
@@ -80,6 +106,9 @@ public class UndoHandler extends UndoManager
 
     public void undoableEditHappened(UndoableEditEvent e) {
         super.undoableEditHappened(e);
+        if (autoSaver != null) {
+            autoSaver.editHappened(e.getEdit());
+        }
         updateActions();
         editor.updateTitle();
     }
@@ -88,8 +117,20 @@ public class UndoHandler extends UndoManager
         return editToBeUndone() == savedAt;
     }
 
+    /**
+     * Marks the map as having changes that are not saved, though no edits
+     * were made yet. Used for a map that was recovered after a crash.
+     */
+    public void markUnsaved() {
+        savedAt = NEVER_SAVED;
+        editor.updateTitle();
+    }
+
     public void commitSave() {
         savedAt = editToBeUndone();
+        if (autoSaver != null) {
+            autoSaver.saved();
+        }
     }
 
     public String[] getEdits() {
@@ -105,6 +146,33 @@ public class UndoHandler extends UndoManager
         return list;
     }
 
+    /**
+     * Adds the memory retained by the undo history to the given footprint,
+     * with an entry for each edit that keeps layer data. The map should be
+     * added to the footprint first, so that the layers it shares with the
+     * history are not counted twice.
+     *
+     * @param footprint the footprint to add the undo history to
+     */
+    public synchronized void addTo(MemoryFootprint footprint) {
+        int i = 0;
+        for (UndoableEdit e : edits) {
+            final String name = ++i + ". " + e.getPresentationName();
+            if (e instanceof MapLayerEdit) {
+                footprint.addLayer(MemoryFootprint.UNDO, name,
+                        ((MapLayerEdit) e).getStart());
+                footprint.addLayer(MemoryFootprint.UNDO, name,
+                        ((MapLayerEdit) e).getEnd());
+            } else if (e instanceof DeleteLayerEdit) {
+                footprint.addLayer(MemoryFootprint.UNDO, name,
+                        ((DeleteLayerEdit) e).getLayer());
+            } else if (e instanceof LayerResizeEdit) {
+                footprint.add(MemoryFootprint.UNDO, name, "cells",
+                        ((LayerResizeEdit) e).getBackupSize());
+            }
+        }
+    }
+
     /**
      * Returns the redo action.
      * @return the redo action.
@@ -0,0 +1,628 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.mapeditor.util;
+
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.*;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.swing.Timer;
+import javax.swing.undo.UndoableEdit;
+
+import tiled.core.*;
+import tiled.io.MapHelper;
+import tiled.io.xml.XMLMapWriter;
+import tiled.mapeditor.undo.MapLayerEdit;
+import tiled.util.TiledConfiguration;
+
+/**
+ * Periodically saves the map being edited to a recovery directory, and
+ * keeps a journal of the edits made in between, so that the work can be
+ * recovered after a crash.
+ * <p>
+ * An autosave takes a snapshot of the map on the event dispatch thread and
+ * writes it as TMX on a background thread of low priority, without changing
+ * the tilesets it shares with the map or marking anything saved. The layers
+ * are copied with {@link MapLayer#snapshot()}, which shares their tiles until
+ * they are edited. Layers that did not change since the previous autosave
+ * keep their earlier copy, so that their encoded data can be reused. The edits
+ * reported by the {@link tiled.mapeditor.undo.UndoHandler} are appended to
+ * an {@link EditJournal} by the same thread. Edits that the journal can not
+ * replay lead to an autosave shortly after.
+ * <p>
+ * The autosaved maps and journals are numbered. Each autosave starts a new
+ * journal before the map is written, and only removes the previous files
+ * once it is complete, so that a crash while writing leaves the previous
+ * autosave and both journals to recover from. Changes made outside of the
+ * undo history are only kept by the next autosave.
+ *
+ * @version $Id$
+ */
+public class AutoSaver implements ActionListener
+{
+    /** How soon an autosave follows an edit that was not journaled. */
+    private static final int SOON_DELAY = 2000;
+
+    private static final String PREFIX = "autosave-";
+    private static final String MAP_SUFFIX = ".tmx";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String PROPERTIES = "autosave.properties";
+
+    private final File directory;
+    private final Timer timer;
+    private final Timer soonTimer;
+    private final ExecutorService writer;
+
+    // Only used on the event dispatch thread
+    private Map map;
+    private java.util.Map<MapLayer, MapLayer> snapshots =
+        new IdentityHashMap<MapLayer, MapLayer>();
+    private boolean dirty;
+    private int generation;
+    private Rectangle bounds;
+
+    // Only used on the writer thread
+    private EditJournal journal;
+
+    private final MapChangeListener mapListener = new MapChangeAdapter() {
+        public void mapChanged(MapChangedEvent e) {
+            Rectangle current = getGeometry(map);
+            if (!current.equals(bounds)) {
+                bounds = current;
+                structureChanged("Resize Map");
+                return;
+            }
+            // Showing or fading a layer, or changing it without an edit, is
+            // saved with the next autosave
+            Iterator<MapLayer> itr = map.getLayers();
+            while (itr.hasNext()) {
+                MapLayer layer = itr.next();
+                MapLayer copy = snapshots.get(layer);
+                if (copy != null && !isCurrent(copy, layer)) {
+                    snapshots.remove(layer);
+                    markDirty();
+                }
+            }
+        }
+
+        public void layerAdded(MapChangedEvent e) {
+            structureChanged("Add Layer");
+        }
+
+        public void layerRemoved(MapChangedEvent e) {
+            structureChanged("Remove Layer");
+        }
+
+        public void layerMoved(MapChangedEvent e) {
+            structureChanged("Move Layer");
+        }
+
+        public void tilesetAdded(MapChangedEvent e, TileSet tileset) {
+            structureChanged("Add Tileset");
+        }
+
+        public void tilesetRemoved(MapChangedEvent e, int index) {
+            structureChanged("Remove Tileset");
+        }
+
+        public void tilesetsSwapped(MapChangedEvent e, int index0,
+                                    int index1) {
+            structureChanged("Swap Tilesets");
+        }
+
+        public void layerChanged(MapChangedEvent e, MapLayerChangeEvent mlce) {
+            if (e.getLayerIndex() >= 0 &&
+                    e.getLayerIndex() < map.getTotalLayers()) {
+                snapshots.remove(map.getLayer(e.getLayerIndex()));
+            }
+            if (mlce.getChangeType() == MapLayerChangeEvent.CHANGETYPE_NAME) {
+                barrier("Rename Layer");
+            } else {
+                markDirty();
+            }
+        }
+    };
+
+    /**
+     * @param directory the directory to keep the autosaved maps in
+     * @param interval  the number of seconds between autosaves
+     */
+    public AutoSaver(File directory, int interval) {
+        this.directory = directory;
+
+        timer = new Timer(interval * 1000, this);
+        soonTimer = new Timer(SOON_DELAY, this);
+        soonTimer.setRepeats(false);
+
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "AutoSaver");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Returns the configured recovery directory.
+     */
+    public static File getDirectory() {
+        String dir = TiledConfiguration.node("io").get("recoveryDir", null);
+        if (dir == null) {
+            dir = System.getProperty("user.home") + File.separator +
+                ".tiled" + File.separator + "recovery";
+        }
+        return new File(dir);
+    }
+
+    /**
+     * Starts following the given map, discarding what was autosaved for
+     * the previous one.
+     *
+     * @param map the map being edited, or <code>null</code> for none
+     */
+    public void setMap(Map map) {
+        if (map == this.map) {
+            return;
+        }
+        if (this.map != null) {
+            this.map.removeMapChangeListener(mapListener);
+        }
+        this.map = map;
+        snapshots = new IdentityHashMap<MapLayer, MapLayer>();
+        dirty = false;
+        soonTimer.stop();
+        discard();
+
+        if (map != null) {
+            bounds = getGeometry(map);
+            map.addMapChangeListener(mapListener);
+            timer.start();
+        } else {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Records an edit that was just made.
+     */
+    public void editHappened(UndoableEdit edit) {
+        journal(edit, false);
+    }
+
+    /**
+     * Records an edit that was just undone.
+     */
+    public void editUndone(UndoableEdit edit) {
+        journal(edit, true);
+    }
+
+    /**
+     * Records an edit that was just redone.
+     */
+    public void editRedone(UndoableEdit edit) {
+        journal(edit, false);
+    }
+
+    /**
+     * Called when the map was saved, after which nothing needs recovering.
+     */
+    public void saved() {
+        dirty = false;
+        soonTimer.stop();
+        discard();
+    }
+
+    /**
+     * Stops autosaving and removes the recovery files, when the editor
+     * exits normally.
+     */
+    public void stop() {
+        timer.stop();
+        soonTimer.stop();
+        discard();
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void actionPerformed(ActionEvent e) {
+        if (dirty) {
+            autosave();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the map and has it written in the background.
+     */
+    public void autosave() {
+        if (map == null) {
+            return;
+        }
+        soonTimer.stop();
+        dirty = false;
+
+        final Map snapshot = createSnapshot();
+        final int gen = ++generation;
+        final String filename = map.getFilename();
+
+        writer.submit(new Runnable() {
+            public void run() {
+                try {
+                    // Edits made from now on go to the new journal
+                    closeJournal();
+                    journal = new EditJournal(getFile(gen, JOURNAL_SUFFIX));
+
+                    File file = getFile(gen, MAP_SUFFIX);
+                    File temp = new File(file.getPath() + ".tmp");
+                    XMLMapWriter mapWriter = new XMLMapWriter();
+                    mapWriter.setAssigningFirstGids(false);
+                    mapWriter.writeMap(snapshot, temp.getPath());
+                    if (!file.delete() && file.exists() ||
+                            !temp.renameTo(file)) {
+                        throw new IOException("Could not rename " + temp);
+                    }
+                    writeProperties(filename);
+                    deleteBefore(gen);
+                } catch (Exception e) {
+                    System.err.println("Autosave failed: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates a copy of the map that shares its tilesets, and the copies
+     * of the layers that did not change since the previous snapshot. The
+     * tilesets are written without assigning them first gids, so that the
+     * background thread does not change them.
+     */
+    private Map createSnapshot() {
+        Map snapshot = new Map(map.getWidth(), map.getHeight());
+        snapshot.setTileWidth(map.getTileWidth());
+        snapshot.setTileHeight(map.getTileHeight());
+        snapshot.setOrientation(map.getOrientation());
+        snapshot.setEyeDistance(map.getEyeDistance());
+        snapshot.setViewportWidth(map.getViewportWidth());
+        snapshot.setViewportHeight(map.getViewportHeight());
+        snapshot.setProperties((Properties) map.getProperties().clone());
+        snapshot.setFilename(map.getFilename());
+        for (TileSet set : map.getTilesets()) {
+            snapshot.addTileset(set);
+        }
+
+        java.util.Map<MapLayer, MapLayer> copies =
+            new IdentityHashMap<MapLayer, MapLayer>();
+        Vector<MapLayer> layers = new Vector<MapLayer>();
+        Iterator<MapLayer> itr = map.getLayers();
+        while (itr.hasNext()) {
+            MapLayer layer = itr.next();
+            MapLayer copy = snapshots.get(layer);
+            if (copy == null || !isCurrent(copy, layer)) {
+                copy = layer.snapshot();
+            }
+            copies.put(layer, copy);
+            layers.add(copy);
+        }
+        snapshots = copies;
+
+        // Set directly, so that the copies are not attached to this
+        // snapshot, since the next one may reuse them
+        snapshot.setLayerVector(layers);
+        return snapshot;
+    }
+
+    /**
+     * Returns whether the copy of a layer taken for an earlier snapshot still
+     * shows the layer as it is.
+     */
+    private static boolean isCurrent(MapLayer copy, MapLayer layer) {
+        return copy.getModificationCount() == layer.getModificationCount() &&
+            copy.isVisible() == layer.isVisible() &&
+            copy.getOpacity() == layer.getOpacity();
+    }
+
+    /**
+     * Returns the size of the map and of its tiles, a change of which ends
+     * the journal.
+     */
+    private static Rectangle getGeometry(Map map) {
+        return new Rectangle(map.getWidth(), map.getHeight(),
+                map.getTileWidth(), map.getTileHeight());
+    }
+
+    /**
+     * Appends the tiles changed by an edit to the journal, or a barrier when
+     * the edit is not a change of tiles.
+     *
+     * @param edit   the edit
+     * @param undone whether the edit was undone, which changed the region of
+     *               its start state instead of its end state
+     */
+    private void journal(UndoableEdit edit, boolean undone) {
+        if (map == null || edit == null) {
+            return;
+        }
+        byte[] record = null;
+        if (edit instanceof MapLayerEdit) {
+            MapLayerEdit mle = (MapLayerEdit) edit;
+            MapLayer layer = mle.getLayer();
+            MapLayer state = undone ? mle.getStart() : mle.getEnd();
+            snapshots.remove(layer);
+            if (layer instanceof TileLayer && state != null) {
+                Rectangle region = state.getBounds();
+                if (region.isEmpty()) {
+                    markDirty();
+                    return;
+                }
+                record = EditJournal.cells(map, (TileLayer) layer, region);
+            }
+        }
+
+        if (record != null) {
+            markDirty();
+            append(record);
+        } else {
+            barrier(edit.getPresentationName());
+        }
+    }
+
+    private void structureChanged(String name) {
+        snapshots.clear();
+        barrier(name);
+    }
+
+    /**
+     * Records a change that can not be replayed, and autosaves soon.
+     */
+    private void barrier(String name) {
+        // The edit may have changed objects, which layers do not count
+        Iterator<MapLayer> itr = snapshots.keySet().iterator();
+        while (itr.hasNext()) {
+            if (!(itr.next() instanceof TileLayer)) {
+                itr.remove();
+            }
+        }
+        markDirty();
+        append(EditJournal.barrier(name));
+        soonTimer.restart();
+    }
+
+    private void markDirty() {
+        if (!dirty) {
+            dirty = true;
+            if (generation == 0) {
+                // Nothing was autosaved yet, so there is no map to replay
+                // the journal onto
+                soonTimer.restart();
+            }
+        }
+    }
+
+    private void append(final byte[] record) {
+        writer.submit(new Runnable() {
+            public void run() {
+                if (journal == null) {
+                    return;
+                }
+                try {
+                    journal.append(record);
+                } catch (IOException e) {
+                    System.err.println("Could not write edit journal: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes all recovery files, once the pending writes are done.
+     */
+    public void discard() {
+        generation = 0;
+        writer.submit(new Runnable() {
+            public void run() {
+                closeJournal();
+                deleteBefore(Integer.MAX_VALUE);
+                new File(directory, PROPERTIES).delete();
+            }
+        });
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            journal = null;
+        }
+    }
+
+    private File getFile(int gen, String suffix) {
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        return new File(directory, PREFIX + gen + suffix);
+    }
+
+    private void writeProperties(String filename) throws IOException {
+        Properties props = new Properties();
+        if (filename != null) {
+            props.setProperty("file", filename);
+        }
+        OutputStream out =
+            new FileOutputStream(new File(directory, PROPERTIES));
+        try {
+            props.store(out, "Autosaved map");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Deletes the autosaved maps and journals numbered below the given
+     * number, along with unfinished maps.
+     */
+    private void deleteBefore(int gen) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            final int n = getGeneration(file.getName());
+            if (n > 0 && n < gen || file.getName().startsWith(PREFIX) &&
+                    file.getName().endsWith(".tmp")) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of an autosaved map or journal file, or 0 when
+     * the file is neither.
+     */
+    private static int getGeneration(String name) {
+        String suffix;
+        if (name.endsWith(MAP_SUFFIX)) {
+            suffix = MAP_SUFFIX;
+        } else if (name.endsWith(JOURNAL_SUFFIX)) {
+            suffix = JOURNAL_SUFFIX;
+        } else {
+            return 0;
+        }
+        if (!name.startsWith(PREFIX)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(),
+                    name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the number of the last completely autosaved map in the given
+     * directory, or 0 when there is none.
+     */
+    private static int getLastGeneration(File directory) {
+        int last = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(MAP_SUFFIX)) {
+                    last = Math.max(last, getGeneration(file.getName()));
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Returns whether the given directory holds an autosaved map, which is
+     * left behind when the editor did not exit normally.
+     */
+    public static boolean hasRecovery(File directory) {
+        return getLastGeneration(directory) > 0;
+    }
+
+    /**
+     * What was recovered from a recovery directory.
+     */
+    public static class Recovery
+    {
+        private final Map map;
+        private final String lostEdit;
+
+        Recovery(Map map, String lostEdit) {
+            this.map = map;
+            this.lostEdit = lostEdit;
+        }
+
+        /**
+         * Returns the recovered map. Its filename is the one the map had
+         * when it was autosaved, or <code>null</code> if it was never saved.
+         */
+        public Map getMap() {
+            return map;
+        }
+
+        /**
+         * Returns the name of the first edit that could not be recovered,
+         * or <code>null</code> when all edits were recovered.
+         */
+        public String getLostEdit() {
+            return lostEdit;
+        }
+    }
+
+    /**
+     * Loads the last autosaved map in the given directory and replays the
+     * journaled edits onto it.
+     *
+     * @throws Exception when the autosaved map can not be loaded
+     */
+    public static Recovery recover(File directory) throws Exception {
+        final int last = getLastGeneration(directory);
+        Map map = MapHelper.readMap(
+                new File(directory, PREFIX + last + MAP_SUFFIX).getPath());
+
+        String lostEdit = null;
+        for (int gen = last; lostEdit == null; gen++) {
+            File journal = new File(directory, PREFIX + gen + JOURNAL_SUFFIX);
+            if (!journal.exists()) {
+                break;
+            }
+            lostEdit = EditJournal.replay(journal, map);
+        }
+
+        map.setFilename(getRecoveredFilename(directory));
+        return new Recovery(map, lostEdit);
+    }
+
+    /**
+     * Returns the filename the autosaved map in the given directory was
+     * saved as, or <code>null</code> when it was never saved.
+     */
+    public static String getRecoveredFilename(File directory) {
+        File file = new File(directory, PROPERTIES);
+        if (!file.exists()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return props.getProperty("file");
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.mapeditor.util;
+
+import java.awt.Rectangle;
+import java.io.*;
+import java.util.Vector;
+
+import tiled.core.Map;
+import tiled.core.MapLayer;
+import tiled.core.Tile;
+import tiled.core.TileLayer;
+import tiled.core.TileSet;
+
+/**
+ * An append-only journal of the edits made to a map since it was last
+ * autosaved, from which the edits can be replayed onto the autosaved map
+ * after a crash.
+ * <p>
+ * Edits to the tiles of a tile layer are recorded as the tiles of the
+ * changed region after the edit, each as the index of its tileset in the
+ * map and its id in the tileset. Other edits are recorded as a barrier:
+ * replaying stops there, since what follows depends on a change that was
+ * not recorded.
+ * <p>
+ * Records are built on the event dispatch thread, where the map may be
+ * read, and written by {@link AutoSaver} on its own thread. A record that
+ * was cut off by a crash ends the journal.
+ *
+ * @version $Id$
+ */
+class EditJournal
+{
+    private static final int MAGIC = 0x544A4E4C;    // "TJNL"
+    private static final int VERSION = 1;
+
+    private static final byte CELLS = 1;
+    private static final byte BARRIER = 2;
+
+    /**
+     * The largest number of tiles recorded for an edit. Larger edits are
+     * recorded as a barrier, and left to the next autosave.
+     */
+    private static final int CELL_LIMIT = 1 << 20;
+
+    private final OutputStream out;
+
+    /**
+     * Opens the journal in the given file, appending to it when it exists.
+     */
+    EditJournal(File file) throws IOException {
+        final boolean exists = file.length() > 0;
+        out = new FileOutputStream(file, true);
+        if (!exists) {
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.flush();
+        }
+    }
+
+    /**
+     * Appends a record. It is written through to the file at once, so that
+     * it survives a crash of the editor.
+     */
+    void append(byte[] record) throws IOException {
+        out.write(record);
+        out.flush();
+    }
+
+    void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Builds the record of the tiles in the given region of a tile layer,
+     * as they are now.
+     *
+     * @return the record, or <code>null</code> when the region holds too
+     *         many tiles or the layer is not part of the map
+     */
+    static byte[] cells(Map map, TileLayer layer, Rectangle region) {
+        final int index = map.getLayerVector().indexOf(layer);
+        if (index < 0 || (long) region.width * region.height > CELL_LIMIT) {
+            return null;
+        }
+
+        final Vector<TileSet> tilesets = map.getTilesets();
+        ByteArrayOutputStream bytes =
+            new ByteArrayOutputStream(21 + region.width * region.height * 6);
+        DataOutputStream data = new DataOutputStream(bytes);
+        try {
+            data.writeByte(CELLS);
+            data.writeInt(index);
+            data.writeInt(region.x);
+            data.writeInt(region.y);
+            data.writeInt(region.width);
+            data.writeInt(region.height);
+
+            TileSet lastSet = null;
+            int lastSetIndex = -1;
+            for (int y = region.y; y < region.y + region.height; y++) {
+                for (int x = region.x; x < region.x + region.width; x++) {
+                    Tile tile = layer.getTileAt(x, y);
+                    if (tile == null) {
+                        data.writeShort(-1);
+                        data.writeInt(0);
+                        continue;
+                    }
+                    if (tile.getTileSet() != lastSet) {
+                        lastSet = tile.getTileSet();
+                        lastSetIndex = tilesets.indexOf(lastSet);
+                    }
+                    if (lastSetIndex < 0) {
+                        return null;
+                    }
+                    data.writeShort(lastSetIndex);
+                    data.writeInt(tile.getId());
+                }
+            }
+        } catch (IOException e) {
+            // Not thrown when writing to memory
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Builds the record of an edit that can not be replayed.
+     *
+     * @param name the name of the edit, shown when recovering
+     */
+    static byte[] barrier(String name) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        try {
+            data.writeByte(BARRIER);
+            data.writeUTF(name != null ? name : "");
+        } catch (IOException e) {
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replays the edits in a journal onto the given map.
+     *
+     * @return the name of the edit replaying stopped at, or
+     *         <code>null</code> when the whole journal was replayed
+     * @throws IOException when the file is not a journal
+     */
+    static String replay(File file, Map map) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an edit journal: " + file);
+            }
+
+            while (true) {
+                final int type = in.read();
+                if (type < 0) {
+                    return null;
+                }
+                if (type == BARRIER) {
+                    return in.readUTF();
+                }
+                if (type != CELLS) {
+                    throw new IOException("Corrupt edit journal: " + file);
+                }
+
+                final int index = in.readInt();
+                final int x0 = in.readInt();
+                final int y0 = in.readInt();
+                final int width = in.readInt();
+                final int height = in.readInt();
+
+                // Read the whole record before applying it, so that a
+                // record cut off by a crash is not applied partly
+                final short[] sets = new short[width * height];
+                final int[] ids = new int[width * height];
+                for (int i = 0; i < sets.length; i++) {
+                    sets[i] = in.readShort();
+                    ids[i] = in.readInt();
+                }
+
+                MapLayer layer = index >= 0 && index < map.getTotalLayers() ?
+                    map.getLayer(index) : null;
+                if (!(layer instanceof TileLayer)) {
+                    throw new IOException("Edit journal does not match map");
+                }
+                final Vector<TileSet> tilesets = map.getTilesets();
+                final boolean locked = layer.getLocked();
+                layer.setLocked(false);
+                int i = 0;
+                for (int y = y0; y < y0 + height; y++) {
+                    for (int x = x0; x < x0 + width; x++, i++) {
+                        Tile tile = null;
+                        if (sets[i] >= 0 && sets[i] < tilesets.size()) {
+                            tile = tilesets.get(sets[i]).getTile(ids[i]);
+                        }
+                        ((TileLayer) layer).setTileAt(x, y, tile);
+                    }
+                }
+                layer.setLocked(locked);
+            }
+        } catch (EOFException e) {
+            // The last record was cut off
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+}
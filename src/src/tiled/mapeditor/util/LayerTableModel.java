@@ -40,6 +40,8 @@ public class LayerTableModel extends AbstractTableModel
         public void layerChanged(MapChangedEvent e, MapLayerChangeEvent mlce) {
             if(e.getMap() != map)
                 return;
+            if(mlce.getChangeType() == MapLayerChangeEvent.CHANGETYPE_CONTENTS)
+                return;
             int row = getRowCount()-e.getLayerIndex()-1;
             fireTableRowsUpdated(row, row);
         }
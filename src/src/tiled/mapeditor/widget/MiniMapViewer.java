@@ -5,7 +5,7 @@
  *  it under the terms of the GNU General Public License as published by
  *  the Free Software Foundation; either version 2 of the License, or
  *  (at your option) any later version.
- * 
+ *
  *  Adam Turk <aturk@biggeruniverse.com>
  *  Bjorn Lindeijer <bjorn@lindeijer.nl>
  *  Rainer Deyke <rainerd@eldwood.com>
@@ -14,46 +14,152 @@
 package tiled.mapeditor.widget;
 
 import java.awt.*;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JViewport;
 
-import tiled.view.MapView;
-
+import tiled.core.*;
 
+/**
+ * Shows an overview of the whole map, with the area visible in the main
+ * view outlined.
+ * <p>
+ * The overview is a bitmap with one pixel per tile, or per block of tiles on
+ * large maps, colored with the average color of the tiles at that location.
+ * It is kept between repaints and only the pixels of the regions reported
+ * changed by {@link MapLayer#fireContentsChanged(Rectangle)} are updated.
+ * Changes to the map as a whole cause the bitmap to be updated entirely.
+ */
 public class MiniMapViewer extends JPanel
 {
     public static final int MAX_HEIGHT = 150;
 
-    private MapView myView;
+    /** The maximum width and height of the bitmap in pixels. */
+    private static final int MAX_SIZE = 256;
+
+    /** The largest number of screen pixels to show a map pixel with. */
+    private static final int MAX_SCALE = 4;
+
+    private static final int BACKGROUND_COLOR = 0xFF404040;
+
+    private Map map;
     private JScrollPane mainPanel;
-    private double scale = 0.0625;
     private BufferedImage renderedMap;
+    private int[] pixels;
+    private int step;                  // tiles per pixel in each direction
+    private int scale;                 // screen pixels per pixel
+    private Rectangle dirtyRegion;     // in tile coordinates
+    private final IdentityHashMap<Tile, Integer> tileColors =
+        new IdentityHashMap<Tile, Integer>();
+
+    private final MapChangeListener mapChangeListener = new MapChangeAdapter() {
+        public void mapChanged(MapChangedEvent e) {
+            refresh();
+        }
+
+        public void layerAdded(MapChangedEvent e) {
+            refresh();
+        }
+
+        public void layerRemoved(MapChangedEvent e) {
+            refresh();
+        }
+
+        public void layerMoved(MapChangedEvent e) {
+            refresh();
+        }
+
+        public void layerChanged(MapChangedEvent e, MapLayerChangeEvent mlce) {
+            if (mlce.getChangeType() == MapLayerChangeEvent.CHANGETYPE_CONTENTS) {
+                repaintRegion(mlce.getRegion());
+            }
+        }
+
+        public void tilesetRemoved(MapChangedEvent e, int index) {
+            tileColors.clear();
+            refresh();
+        }
+    };
+
+    private final AdjustmentListener scrollListener = new AdjustmentListener() {
+        public void adjustmentValueChanged(AdjustmentEvent e) {
+            repaint();
+        }
+    };
 
     public MiniMapViewer() {
         setSize(MAX_HEIGHT, MAX_HEIGHT);
     }
 
-    public MiniMapViewer(MapView view) {
+    public MiniMapViewer(Map map) {
         this();
-        setView(view);
+        setMap(map);
     }
 
-    public void setView(MapView view) {
-        myView = view;
-        myView.setZoom(scale);
-        Dimension d = myView.getPreferredSize();
-        renderedMap = new BufferedImage(d.width, d.height, BufferedImage.TYPE_INT_ARGB);
-        //scale = MAX_HEIGHT / (double)d.height;
-        Graphics2D g = renderedMap.createGraphics();
-        g.setClip(0, 0, d.width, d.height);
-        myView.paint(g);
+    /**
+     * Sets the map to show an overview of.
+     *
+     * @param map the map, or <code>null</code> to show nothing
+     */
+    public void setMap(Map map) {
+        if (this.map != null) {
+            this.map.removeMapChangeListener(mapChangeListener);
+        }
+
+        this.map = map;
+        tileColors.clear();
+        renderedMap = null;
+        pixels = null;
+
+        if (map != null) {
+            map.addMapChangeListener(mapChangeListener);
+            createRenderedMap();
+        }
+
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Creates the bitmap for the current size of the map, unless the
+     * existing one already fits it.
+     *
+     * @return whether a new bitmap was created
+     */
+    private boolean createRenderedMap() {
+        final int size = Math.max(map.getWidth(), map.getHeight());
+        final int newStep = Math.max(1, (size + MAX_SIZE - 1) / MAX_SIZE);
+        final int columns = Math.max(1, (map.getWidth() + newStep - 1) / newStep);
+        final int rows = Math.max(1, (map.getHeight() + newStep - 1) / newStep);
+
+        if (renderedMap != null && newStep == step &&
+                renderedMap.getWidth() == columns &&
+                renderedMap.getHeight() == rows) {
+            return false;
+        }
+
+        step = newStep;
+        scale = Math.max(1, Math.min(MAX_SCALE,
+                MAX_SIZE / Math.max(columns, rows)));
+        renderedMap = new BufferedImage(columns, rows,
+                                        BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) renderedMap.getRaster().getDataBuffer())
+                .getData();
+        dirtyRegion = new Rectangle(0, 0, map.getWidth(), map.getHeight());
+        return true;
     }
 
     public Dimension getPreferredSize() {
-        if(myView != null) {
-            return myView.getPreferredSize();
+        if (renderedMap != null) {
+            return new Dimension(renderedMap.getWidth() * scale,
+                                 renderedMap.getHeight() * scale);
         }
         return new Dimension(0, 0);
     }
@@ -63,38 +169,183 @@ public class MiniMapViewer extends JPanel
     }
 
     public void setMainPanel(JScrollPane main) {
+        if (mainPanel != null) {
+            mainPanel.getHorizontalScrollBar().removeAdjustmentListener(scrollListener);
+            mainPanel.getVerticalScrollBar().removeAdjustmentListener(scrollListener);
+        }
         mainPanel = main;
+        if (mainPanel != null) {
+            mainPanel.getHorizontalScrollBar().addAdjustmentListener(scrollListener);
+            mainPanel.getVerticalScrollBar().addAdjustmentListener(scrollListener);
+        }
     }
 
+    /**
+     * Updates the whole overview on the next repaint.
+     */
     public void refresh() {
-        if(renderedMap != null && myView != null) {
-            Dimension d = myView.getPreferredSize();
-            Graphics2D g = renderedMap.createGraphics();
-            g.setClip(0, 0, d.width, d.height);
-            myView.paint(g);
+        if (map == null) {
+            return;
+        }
+        if (createRenderedMap()) {
+            // The map was resized
+            revalidate();
         }
+        repaintRegion(new Rectangle(0, 0, map.getWidth(), map.getHeight()));
+    }
+
+    /**
+     * Updates the given region of the overview on the next repaint.
+     *
+     * @param region the region that has changed in tile coordinates
+     */
+    public void repaintRegion(Rectangle region) {
+        if (renderedMap == null) {
+            return;
+        }
+        if (dirtyRegion == null) {
+            dirtyRegion = new Rectangle(region);
+        } else {
+            dirtyRegion.add(region);
+        }
+        repaint(region.x / step * scale, region.y / step * scale,
+                ((region.width + step - 1) / step + 1) * scale,
+                ((region.height + step - 1) / step + 1) * scale);
     }
 
     public void paint(Graphics g) {
-        /*if (myView != null) {
-            myView.paint(g);
-        }*/
-        if(renderedMap != null) {
-            g.drawImage(renderedMap, 0, 0, null);
+        if (renderedMap == null) {
+            return;
+        }
+
+        if (dirtyRegion != null) {
+            updateRenderedMap(dirtyRegion);
+            dirtyRegion = null;
         }
 
+        g.drawImage(renderedMap, 0, 0,
+                    renderedMap.getWidth() * scale,
+                    renderedMap.getHeight() * scale, null);
+
         if (mainPanel != null) {
-            g.setColor(Color.yellow);
-            Rectangle viewArea = mainPanel.getViewport().getBounds();
-            //Rectangle viewArea = mainPanel.getViewportBorderBounds();
-            if (viewArea != null) {
-                //System.out.println(viewArea.x+","+viewArea.y);
+            JViewport viewport = mainPanel.getViewport();
+            Component view = viewport.getView();
+            if (view != null && view.getWidth() > 0 && view.getHeight() > 0) {
+                Rectangle viewArea = viewport.getViewRect();
+                double sx = renderedMap.getWidth() * scale /
+                    (double) view.getWidth();
+                double sy = renderedMap.getHeight() * scale /
+                    (double) view.getHeight();
+                g.setColor(Color.yellow);
                 g.drawRect(
-                        (int)((viewArea.x-1) * scale),
-                        (int)((viewArea.y-1) * scale),
-                        (int)((viewArea.width-1) * scale),
-                        (int)((viewArea.height-1) * scale));
+                        (int) (viewArea.x * sx),
+                        (int) (viewArea.y * sy),
+                        (int) (viewArea.width * sx) - 1,
+                        (int) (viewArea.height * sy) - 1);
+            }
+        }
+    }
+
+    /**
+     * Recalculates the pixels showing the given region of the map. Each
+     * pixel gets the color of the top left tile of the block it stands for.
+     */
+    private void updateRenderedMap(Rectangle region) {
+        final int columns = renderedMap.getWidth();
+        final int rows = renderedMap.getHeight();
+        final int startX = Math.max(0, region.x / step);
+        final int startY = Math.max(0, region.y / step);
+        final int endX = Math.min(columns - 1,
+                (region.x + region.width - 1) / step);
+        final int endY = Math.min(rows - 1,
+                (region.y + region.height - 1) / step);
+
+        for (int y = startY; y <= endY; y++) {
+            int i = y * columns + startX;
+            for (int x = startX; x <= endX; x++) {
+                pixels[i++] = BACKGROUND_COLOR;
+            }
+        }
+
+        Iterator<MapLayer> layers = map.getLayers();
+        while (layers.hasNext()) {
+            MapLayer layer = layers.next();
+            if (!(layer instanceof TileLayer) || !layer.isVisible() ||
+                    layer.getOpacity() <= 0.0f) {
+                continue;
             }
+
+            final TileLayer tileLayer = (TileLayer) layer;
+            final int opacity = (int) (layer.getOpacity() * 255);
+
+            for (int y = startY; y <= endY; y++) {
+                int i = y * columns + startX;
+                for (int x = startX; x <= endX; x++, i++) {
+                    Tile tile = tileLayer.getTileAt(x * step, y * step);
+                    if (tile != null) {
+                        pixels[i] = blend(pixels[i], getTileColor(tile),
+                                          opacity);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the given ARGB color over the given opaque color, with the
+     * given additional opacity.
+     */
+    private static int blend(int dst, int src, int opacity) {
+        final int a = ((src >>> 24) * opacity) / 255;
+        final int na = 255 - a;
+        final int r = (((src >> 16) & 0xFF) * a + ((dst >> 16) & 0xFF) * na) / 255;
+        final int g = (((src >> 8) & 0xFF) * a + ((dst >> 8) & 0xFF) * na) / 255;
+        final int b = ((src & 0xFF) * a + (dst & 0xFF) * na) / 255;
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Returns the average color of the image of the given tile, weighted by
+     * the opacity of its pixels. The colors are calculated once per tile.
+     */
+    private int getTileColor(Tile tile) {
+        Integer color = tileColors.get(tile);
+        if (color == null) {
+            color = getAverageColor(tile.getImage());
+            tileColors.put(tile, color);
+        }
+        return color;
+    }
+
+    private static int getAverageColor(Image image) {
+        if (image == null) {
+            return 0;
+        }
+
+        // Let the image be scaled down to a few pixels to average those
+        final int size = 8;
+        BufferedImage small =
+            new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = small.createGraphics();
+        g.drawImage(image, 0, 0, size, size, null);
+        g.dispose();
+
+        long a = 0, r = 0, gr = 0, b = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                final int argb = small.getRGB(x, y);
+                final int alpha = argb >>> 24;
+                a += alpha;
+                r += ((argb >> 16) & 0xFF) * alpha;
+                gr += ((argb >> 8) & 0xFF) * alpha;
+                b += (argb & 0xFF) * alpha;
+            }
+        }
+
+        if (a == 0) {
+            return 0;
         }
+        return (int) (a / (size * size)) << 24 |
+               (int) (r / a) << 16 | (int) (gr / a) << 8 | (int) (b / a);
     }
 }
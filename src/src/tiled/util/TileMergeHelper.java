@@ -1,176 +1,255 @@
-/*
- *  Tiled Map Editor, (c) 2004-2006
- *
- *  This program is free software; you can redistribute it and/or modify
- *  it under the terms of the GNU General Public License as published by
- *  the Free Software Foundation; either version 2 of the License, or
- *  (at your option) any later version.
- *
- *  Adam Turk <aturk@biggeruniverse.com>
- *  Bjorn Lindeijer <bjorn@lindeijer.nl>
- */
-
-package tiled.util;
-
-import java.util.Vector;
-import java.util.Iterator;
-import java.awt.GraphicsEnvironment;
-import java.awt.GraphicsConfiguration;
-import java.awt.Image;
-import java.awt.Graphics;
-import java.awt.Rectangle;
-
-import tiled.core.Map;
-import tiled.core.TileSet;
-import tiled.core.TileLayer;
-import tiled.core.Tile;
-import tiled.core.MapLayer;
-
-/**
- * This class facilitates physically merging tiles.
- */
-public class TileMergeHelper
-{
-    private Map myMap;
-    private TileSet myTs;
-    private Vector<Cell> cells;
-
-    public TileMergeHelper(Map map) {
-        myMap = map;
-        cells = new Vector();
-        myTs = new TileSet();
-        myTs.setName("Merged Set");
-    }
-    
-    public static boolean areTileSizesUniform(Map map){
-        for(MapLayer l : map.getLayerVector()){
-            if(l.getTileWidth() != map.getTileWidth() || l.getTileHeight() != map.getTileHeight()){
-                return false;
-            }
-        }
-        return true;
-    }
-    
-    public TileLayer merge(int start, int len, boolean all) {
-        Rectangle r = myMap.getBounds();
-        TileLayer mergedLayer = new TileLayer(r, myMap.getTileWidth(), myMap.getTileHeight());
-        
-        // make sure all tile sizes are the same as the map's default tile size, otherwise the result will be a large mess..
-        assert areTileSizesUniform(myMap);
-        
-        for (int i = 0; i < r.height; i++) {
-            for (int j = 0; j < r.width; j++) {
-                mergedLayer.setTileAt(j, i, createCell(j, i, start, len, all));
-            }
-        }
-
-        return mergedLayer;
-    }
-
-    public TileSet getSet() {
-        return myTs;
-    }
-
-    public Tile createCell(int tx, int ty, int start, int len, boolean all) {
-        Cell c = new Cell(myMap, tx, ty, start, len, all);
-        Iterator<Cell> itr = cells.iterator();
-        Tile tile;
-
-        while (itr.hasNext()) {
-            Cell check = itr.next();
-            if (check.equals(c)) {
-                return check.getTile();
-            }
-        }
-
-        cells.add(c);
-
-        tile = new Tile();
-        c.setTile(tile);
-
-        //GENERATE MERGED TILE IMAGE
-        //FIXME: although faster, the following doesn't seem to handle alpha on some platforms...
-        GraphicsConfiguration config =
-            GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
-        Image tileImg = config.createCompatibleImage(c.getWidth(), c.getHeight());
-        c.render(tileImg.getGraphics());
-        tile.setImage(tileImg);
-
-        myTs.addTile(tile);
-
-        return tile;
-    }
-
-    private class Cell {
-        private Vector<Tile> sandwich;
-        private Tile myTile;
-
-        public Cell(Map map, int posx, int posy, int start, int len, boolean all) {
-            sandwich = new Vector<Tile>();
-            for (int i = 0; i < len; i++) {
-                MapLayer ml = map.getLayer(start+i);
-                if (ml instanceof TileLayer) {
-                    TileLayer l = (TileLayer) ml;
-                    if (l.isVisible() || all) {
-                        sandwich.add(l.getTileAt(posx, posy));
-                    } else {
-                        sandwich.add(null);
-                    }
-                }
-            }
-        }
-
-        public void setTile(Tile t) {
-            myTile = t;
-        }
-
-        public Tile getTile() {
-            return myTile;
-        }
-
-        public void render(Graphics g) {
-            for (Tile tile : sandwich) {
-                if (tile != null) tile.draw(g, 0, getHeight(), 1.0f);
-            }
-        }
-
-        public boolean equals(Cell c) {
-            Iterator<Tile> me = sandwich.iterator();
-            Iterator<Tile> them = c.sandwich.iterator();
-            while (me.hasNext()) {
-                Tile m = me.next();
-                Tile t = them.next();
-                if (m != null && t != null && !m.equals(t)) {
-                    return false;
-                } else if (m != null && t != null && t != m) {
-                    return false;
-                } else if ((m != null && t == null) || (m == null && t != null)) {
-                    return false;
-                }
-            }
-            return true;
-        }
-
-        public int getWidth() {
-            int width = 0;
-            for (Tile tile : sandwich) {
-                if (tile != null) {
-                    int w = tile.getWidth();
-                    if (w > width) width = w;
-                }
-            }
-            return width;
-        }
-
-        public int getHeight() {
-            int height = 0;
-            for (Tile tile : sandwich) {
-                if (tile != null) {
-                    int h = tile.getHeight();
-                    if (h > height) height = h;
-                }
-            }
-            return height;
-        }
-    }
-}
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.util;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import tiled.core.Map;
+import tiled.core.TileSet;
+import tiled.core.TileLayer;
+import tiled.core.Tile;
+import tiled.core.MapLayer;
+
+/**
+ * This class facilitates physically merging tiles.
+ * <p>
+ * Each distinct combination of tiles found at the same location in the
+ * merged layers (a cell) becomes one tile of the merged set. Cells are
+ * looked up by a hash of their tiles, and the images of new cells are
+ * rendered into ARGB images by a pool of threads, so that merging also
+ * works in a headless environment.
+ */
+public class TileMergeHelper
+{
+    private Map myMap;
+    private TileSet myTs;
+    private HashMap<Cell, Cell> cells;
+    private List<Cell> pending;          // cells without an image yet
+
+    public TileMergeHelper(Map map) {
+        myMap = map;
+        cells = new HashMap<Cell, Cell>();
+        pending = new ArrayList<Cell>();
+        myTs = new TileSet();
+        myTs.setName("Merged Set");
+    }
+    
+    public static boolean areTileSizesUniform(Map map){
+        for(MapLayer l : map.getLayerVector()){
+            if(l.getTileWidth() != map.getTileWidth() || l.getTileHeight() != map.getTileHeight()){
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public TileLayer merge(int start, int len, boolean all) {
+        Rectangle r = myMap.getBounds();
+        TileLayer mergedLayer = new TileLayer(r, myMap.getTileWidth(), myMap.getTileHeight());
+        
+        // make sure all tile sizes are the same as the map's default tile size, otherwise the result will be a large mess..
+        assert areTileSizesUniform(myMap);
+        
+        final TileLayer[] layers = getLayers(start, len, all);
+        for (int i = 0; i < r.height; i++) {
+            for (int j = 0; j < r.width; j++) {
+                mergedLayer.setTileAt(j, i, findCell(layers, j, i));
+            }
+        }
+
+        renderPending();
+
+        return mergedLayer;
+    }
+
+    public TileSet getSet() {
+        return myTs;
+    }
+
+    public Tile createCell(int tx, int ty, int start, int len, boolean all) {
+        Tile tile = findCell(getLayers(start, len, all), tx, ty);
+        renderPending();
+        return tile;
+    }
+
+    /**
+     * Returns the tile layers to merge, with <code>null</code> for layers
+     * whose tiles are left out.
+     */
+    private TileLayer[] getLayers(int start, int len, boolean all) {
+        List<TileLayer> layers = new ArrayList<TileLayer>();
+        for (int i = 0; i < len; i++) {
+            MapLayer ml = myMap.getLayer(start + i);
+            if (ml instanceof TileLayer) {
+                layers.add(ml.isVisible() || all ? (TileLayer) ml : null);
+            }
+        }
+        return layers.toArray(new TileLayer[layers.size()]);
+    }
+
+    /**
+     * Returns the tile for the cell at the given location. A new tile is
+     * created for cells that have not been seen before, but its image is
+     * only rendered by {@link #renderPending()}.
+     *
+     * @return the tile, or <code>null</code> if all layers are empty at
+     *         the given location
+     */
+    private Tile findCell(TileLayer[] layers, int tx, int ty) {
+        Cell c = new Cell(layers, tx, ty);
+        Cell known = cells.get(c);
+        if (known != null) {
+            return known.getTile();
+        }
+        if (c.getWidth() == 0 || c.getHeight() == 0) {
+            return null;
+        }
+
+        c.setTile(new Tile());
+        cells.put(c, c);
+        pending.add(c);
+        return c.getTile();
+    }
+
+    /**
+     * Renders the images of the new cells in parallel, and adds their tiles
+     * to the merged set in the order the cells were found.
+     */
+    private void renderPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        final int threads = Math.min(pending.size(), Workers.getThreadCount());
+        final BufferedImage[] images = new BufferedImage[pending.size()];
+
+        if (threads <= 1) {
+            for (int i = 0; i < images.length; i++) {
+                images[i] = pending.get(i).render();
+            }
+        } else {
+            List<Runnable> tasks = new ArrayList<Runnable>();
+            for (int t = 0; t < threads; t++) {
+                final int first = t;
+                tasks.add(new Runnable() {
+                    public void run() {
+                        for (int i = first; i < images.length; i += threads) {
+                            images[i] = pending.get(i).render();
+                        }
+                    }
+                });
+            }
+            Workers.runAll(tasks);
+        }
+
+        // The image is set before adding the tile, so that the set takes
+        // over the image and knows the tile size
+        for (int i = 0; i < images.length; i++) {
+            Tile tile = pending.get(i).getTile();
+            tile.setImage(images[i]);
+            myTs.addTile(tile);
+        }
+        pending.clear();
+    }
+
+    /**
+     * The tiles at one location of the merged layers. Cells are equal when
+     * they hold the same tiles in the same order.
+     */
+    private static class Cell {
+        private final Tile[] sandwich;
+        private final int hash;
+        private Tile myTile;
+
+        public Cell(TileLayer[] layers, int posx, int posy) {
+            sandwich = new Tile[layers.length];
+            int h = 1;
+            for (int i = 0; i < layers.length; i++) {
+                if (layers[i] != null) {
+                    sandwich[i] = layers[i].getTileAt(posx, posy);
+                }
+                h = 31 * h + System.identityHashCode(sandwich[i]);
+            }
+            hash = h;
+        }
+
+        public void setTile(Tile t) {
+            myTile = t;
+        }
+
+        public Tile getTile() {
+            return myTile;
+        }
+
+        /**
+         * Renders the tiles of this cell on top of each other.
+         */
+        public BufferedImage render() {
+            BufferedImage image = new BufferedImage(
+                    getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            for (Tile tile : sandwich) {
+                if (tile != null) tile.draw(g, 0, getHeight(), 1.0f);
+            }
+            g.dispose();
+            return image;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Cell)) {
+                return false;
+            }
+            final Cell c = (Cell) o;
+            if (c.hash != hash || c.sandwich.length != sandwich.length) {
+                return false;
+            }
+            for (int i = 0; i < sandwich.length; i++) {
+                if (sandwich[i] != c.sandwich[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int getWidth() {
+            int width = 0;
+            for (Tile tile : sandwich) {
+                if (tile != null) {
+                    int w = tile.getWidth();
+                    if (w > width) width = w;
+                }
+            }
+            return width;
+        }
+
+        public int getHeight() {
+            int height = 0;
+            for (Tile tile : sandwich) {
+                if (tile != null) {
+                    int h = tile.getHeight();
+                    if (h > height) height = h;
+                }
+            }
+            return height;
+        }
+    }
+}
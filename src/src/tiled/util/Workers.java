@@ -0,0 +1,114 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A pool of worker threads, shared by the whole program, that runs work
+ * spread over the processors. The pool is created when first used and holds
+ * a daemon thread per processor, so that transforming a layer or loading a
+ * map does not start threads of its own.
+ *
+ * @version $Id$
+ */
+public final class Workers
+{
+    private static ExecutorService pool;
+
+    private static final ThreadLocal<Boolean> isWorker =
+        new ThreadLocal<Boolean>();
+
+    private Workers() {
+    }
+
+    /**
+     * Returns the number of threads in the pool, which is the number of
+     * processors.
+     */
+    public static int getThreadCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Returns the shared pool, creating it when first asked for.
+     */
+    public static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(getThreadCount(),
+                    new ThreadFactory() {
+                        private int count;
+
+                        public Thread newThread(final Runnable r) {
+                            Thread t = new Thread(new Runnable() {
+                                public void run() {
+                                    isWorker.set(Boolean.TRUE);
+                                    r.run();
+                                }
+                            }, "Worker-" + ++count);
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return pool;
+    }
+
+    /**
+     * Runs the given tasks in parallel and waits for them to finish. The
+     * first task is run on the calling thread. When called from a thread of
+     * the pool, all tasks are run on the calling thread, so that a task can
+     * never wait for tasks queued behind it.
+     *
+     * @param tasks the tasks to run
+     * @throws RuntimeException when a task failed, or the calling thread
+     *         was interrupted while waiting
+     */
+    public static void runAll(List<? extends Runnable> tasks) {
+        if (tasks.size() <= 1 || isWorker.get() != null) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 1; i < tasks.size(); i++) {
+            futures.add(getPool().submit(tasks.get(i)));
+        }
+        tasks.get(0).run();
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.view;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.swing.Timer;
+
+import tiled.core.*;
+
+/**
+ * Drives the animated tiles of all animated map views from a single timer.
+ * <p>
+ * On every tick, each {@link Sprite} used by an {@link AnimatedTile} in a
+ * visible tile layer is advanced once by the time that passed, at the frame
+ * rate of its current key. Only the tiles whose sprite moved to another
+ * frame are repainted, and only where they are visible.
+ * <p>
+ * To find those tiles quickly, the locations of the animated tiles of a
+ * layer are indexed by sprite. The index of a layer is built on the first
+ * tick that needs it and updated within the region the layer reports
+ * changed. It is built again when the bounds of the layer or the map as a
+ * whole changed.
+ * <p>
+ * Maps whose tilesets hold no animated tiles are not indexed, and the timer
+ * only runs while a map with animated tiles is shown.
+ * <p>
+ * The timer runs on the event dispatch thread, so the sprites are never
+ * advanced while a view is painting.
+ *
+ * @version $Id$
+ */
+public class AnimationScheduler implements ActionListener
+{
+    /** The time between two ticks in milliseconds. */
+    private static final int TICK_INTERVAL = 40;
+
+    private static AnimationScheduler instance;
+
+    private final Timer timer;
+    private long lastTick;
+    private final List<MapView> views = new LinkedList<MapView>();
+    private final IdentityHashMap<Map, Boolean> animatedMaps =
+        new IdentityHashMap<Map, Boolean>();
+    private final IdentityHashMap<TileLayer, LayerIndex> indices =
+        new IdentityHashMap<TileLayer, LayerIndex>();
+
+    // Sprites advanced during the current tick, with whether their frame
+    // changed
+    private final IdentityHashMap<Sprite, Boolean> advanced =
+        new IdentityHashMap<Sprite, Boolean>();
+
+    private final MapChangeListener mapChangeListener = new MapChangeAdapter() {
+        public void mapChanged(MapChangedEvent e) {
+            // Tiles may have been replaced all over the map, without the
+            // layers reporting it
+            invalidate(e.getMap());
+        }
+
+        public void layerRemoved(MapChangedEvent e) {
+            removeStaleIndices(e.getMap());
+        }
+
+        public void layerChanged(MapChangedEvent e, MapLayerChangeEvent mlce) {
+            if (mlce.getChangeType() == MapLayerChangeEvent.CHANGETYPE_CONTENTS) {
+                MapLayer layer = e.getMap().getLayer(e.getLayerIndex());
+                LayerIndex index = indices.get(layer);
+                if (index != null) {
+                    index.update((TileLayer) layer, mlce.getRegion());
+                }
+            }
+        }
+
+        public void tilesetAdded(MapChangedEvent e, TileSet tileset) {
+            updateAnimated(e.getMap());
+        }
+
+        public void tilesetRemoved(MapChangedEvent e, int index) {
+            // The tiles of the tileset were removed from the layers
+            invalidate(e.getMap());
+            updateAnimated(e.getMap());
+        }
+    };
+
+    private AnimationScheduler() {
+        timer = new Timer(TICK_INTERVAL, this);
+        timer.setCoalesce(true);
+    }
+
+    /**
+     * Returns the scheduler shared by all map views.
+     */
+    public static synchronized AnimationScheduler getInstance() {
+        if (instance == null) {
+            instance = new AnimationScheduler();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts animating the tiles shown by the given view. The timer runs
+     * as long as there are views to animate.
+     *
+     * @param view the view to animate
+     */
+    public void addView(MapView view) {
+        if (views.contains(view)) {
+            return;
+        }
+        if (!isAnimating(view.map)) {
+            view.map.addMapChangeListener(mapChangeListener);
+        }
+        views.add(view);
+        updateAnimated(view.map);
+    }
+
+    /**
+     * Stops animating the tiles shown by the given view.
+     *
+     * @param view the view to no longer animate
+     */
+    public void removeView(MapView view) {
+        if (!views.remove(view)) {
+            return;
+        }
+        if (!isAnimating(view.map)) {
+            view.map.removeMapChangeListener(mapChangeListener);
+        }
+        updateAnimated(view.map);
+    }
+
+    private boolean isAnimating(Map map) {
+        for (MapView view : views) {
+            if (view.map == map) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the given map is shown and has animated tiles, and
+     * starts or stops the timer accordingly. The indices of the layers of a
+     * map that is no longer animated are dropped.
+     */
+    private void updateAnimated(Map map) {
+        if (isAnimating(map) && hasAnimatedTiles(map)) {
+            animatedMaps.put(map, Boolean.TRUE);
+        } else {
+            animatedMaps.remove(map);
+            invalidate(map);
+        }
+
+        if (animatedMaps.isEmpty()) {
+            timer.stop();
+        } else if (!timer.isRunning()) {
+            lastTick = System.currentTimeMillis();
+            timer.start();
+        }
+    }
+
+    /**
+     * Returns whether any of the tilesets of the given map holds an
+     * animated tile.
+     */
+    private static boolean hasAnimatedTiles(Map map) {
+        for (TileSet tileset : map.getTilesets()) {
+            Iterator<?> tiles = tileset.iterator();
+            while (tiles.hasNext()) {
+                if (tiles.next() instanceof AnimatedTile) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the indices of the layers that are no longer part of the given
+     * map.
+     */
+    private void removeStaleIndices(Map map) {
+        Iterator<TileLayer> itr = indices.keySet().iterator();
+        while (itr.hasNext()) {
+            TileLayer layer = itr.next();
+            if ((layer.getMap() == null || layer.getMap() == map) &&
+                    !map.getLayerVector().contains(layer)) {
+                itr.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the indices of all layers of the given map.
+     */
+    private void invalidate(Map map) {
+        Iterator<TileLayer> itr = indices.keySet().iterator();
+        while (itr.hasNext()) {
+            TileLayer layer = itr.next();
+            if (layer.getMap() == null || layer.getMap() == map) {
+                itr.remove();
+            }
+        }
+    }
+
+    public void actionPerformed(ActionEvent e) {
+        final long now = System.currentTimeMillis();
+        final long elapsed = now - lastTick;
+        lastTick = now;
+
+        advanced.clear();
+
+        for (MapView view : views) {
+            if (!animatedMaps.containsKey(view.map) || !view.isShowing()) {
+                continue;
+            }
+            final Rectangle visible = view.getVisibleRect();
+            if (visible.isEmpty()) {
+                continue;
+            }
+
+            Iterator<MapLayer> layers = view.map.getLayers();
+            while (layers.hasNext()) {
+                MapLayer layer = layers.next();
+                if (layer instanceof TileLayer && layer.isVisible()) {
+                    tick((TileLayer) layer, view, visible, elapsed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Advances the sprites of the animated tiles in the given layer and
+     * repaints those of their tiles within the visible area of the view
+     * that now show another frame.
+     */
+    private void tick(TileLayer layer, MapView view, Rectangle visible,
+                      long elapsed) {
+        LayerIndex index = indices.get(layer);
+        if (index == null || !index.bounds.equals(layer.getBounds())) {
+            index = new LayerIndex(layer);
+            indices.put(layer, index);
+        }
+        if (index.locations.isEmpty()) {
+            return;
+        }
+
+        final Rectangle area = getVisibleTiles(layer, view, visible);
+        final Rectangle tile = new Rectangle(0, 0, 1, 1);
+
+        for (java.util.Map.Entry<Sprite, Locations> entry :
+                index.locations.entrySet()) {
+            final Sprite sprite = entry.getKey();
+            Boolean changed = advanced.get(sprite);
+            if (changed == null) {
+                changed = Boolean.valueOf(sprite.advance(elapsed));
+                advanced.put(sprite, changed);
+            }
+            if (!changed.booleanValue()) {
+                continue;
+            }
+
+            final Locations locations = entry.getValue();
+            for (int i = 0; i < locations.size; i++) {
+                final int x = locations.xs[i];
+                final int y = locations.ys[i];
+                if (area.contains(x, y)) {
+                    tile.x = x;
+                    tile.y = y;
+                    view.repaintRegion(layer, tile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the tile coordinates of the smallest rectangle containing all
+     * tiles of the layer that may be visible in the given area of the view.
+     * The area is extended by a tile on each side, to account for tile
+     * images that are larger than the grid.
+     */
+    private static Rectangle getVisibleTiles(MapLayer layer, MapView view,
+                                             Rectangle visible) {
+        final int right = visible.x + visible.width;
+        final int bottom = visible.y + visible.height;
+        final Point[] corners = {
+            view.screenToTileCoords(layer, visible.x, visible.y),
+            view.screenToTileCoords(layer, right, visible.y),
+            view.screenToTileCoords(layer, visible.x, bottom),
+            view.screenToTileCoords(layer, right, bottom),
+        };
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (Point corner : corners) {
+            minX = Math.min(minX, corner.x);
+            minY = Math.min(minY, corner.y);
+            maxX = Math.max(maxX, corner.x);
+            maxY = Math.max(maxY, corner.y);
+        }
+
+        return new Rectangle(minX - 1, minY - 1,
+                             maxX - minX + 3, maxY - minY + 3);
+    }
+
+    /**
+     * The locations of the animated tiles of a layer, by sprite.
+     */
+    private static class LayerIndex
+    {
+        final IdentityHashMap<Sprite, Locations> locations =
+            new IdentityHashMap<Sprite, Locations>();
+        final Rectangle bounds;
+
+        LayerIndex(TileLayer layer) {
+            bounds = layer.getBounds();
+            add(layer, bounds);
+        }
+
+        /**
+         * Indexes the tiles of the given region again, after the layer
+         * changed there.
+         */
+        void update(TileLayer layer, Rectangle region) {
+            final Rectangle area = region.intersection(bounds);
+            if (area.isEmpty()) {
+                return;
+            }
+
+            Iterator<Locations> itr = locations.values().iterator();
+            while (itr.hasNext()) {
+                Locations l = itr.next();
+                l.removeWithin(area);
+                if (l.size == 0) {
+                    itr.remove();
+                }
+            }
+            add(layer, area);
+        }
+
+        private void add(TileLayer layer, Rectangle area) {
+            for (int y = area.y; y < area.y + area.height; y++) {
+                for (int x = area.x; x < area.x + area.width; x++) {
+                    Tile tile = layer.getTileAt(x, y);
+                    if (tile instanceof AnimatedTile) {
+                        Sprite sprite = ((AnimatedTile) tile).getSprite();
+                        if (sprite == null) {
+                            continue;
+                        }
+                        Locations l = locations.get(sprite);
+                        if (l == null) {
+                            l = new Locations();
+                            locations.put(sprite, l);
+                        }
+                        l.add(x, y);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A growable list of tile coordinates.
+     */
+    private static class Locations
+    {
+        int[] xs = new int[16];
+        int[] ys = new int[16];
+        int size;
+
+        void add(int x, int y) {
+            if (size == xs.length) {
+                int[] newXs = new int[size * 2];
+                int[] newYs = new int[size * 2];
+                System.arraycopy(xs, 0, newXs, 0, size);
+                System.arraycopy(ys, 0, newYs, 0, size);
+                xs = newXs;
+                ys = newYs;
+            }
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        /**
+         * Removes the locations within the given area, keeping the order of
+         * the others.
+         */
+        void removeWithin(Rectangle area) {
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (!area.contains(xs[i], ys[i])) {
+                    xs[n] = xs[i];
+                    ys[n] = ys[i];
+                    n++;
+                }
+            }
+            size = n;
+        }
+    }
+}
@@ -265,30 +265,49 @@ public class HexMapView extends MapView
         //TiledLogger.getLogger().info("index " + startX + "," + startY
         //    + "-" + endX + "," + endY);
 
-        Polygon gridPoly;
-        double gx;
-        double gy;
+        // Step table: the distance between the top left corners of
+        // neighbouring hexes and the shift of every other column or row,
+        // as calculated per tile by getTopLeftCornerOfTile
+        final int border = showGrid ? 1 : 0;
+        final int tq = getThreeQuarterHex(tsize);
+        final int stepX = (hexEdgesToTheLeft ? tq : tsize.width) + border;
+        final int stepY = (hexEdgesToTheLeft ? tsize.height : tq) + border;
+        final int halfWidth = (int)(tsize.width / 2.0 + 0.49);
+        final int halfHeight = (int)(tsize.height / 2.0 + 0.49);
+        final int[] columnShift = {
+            mapAlignment == ALIGN_BOTTOM ? halfHeight : 0,
+            mapAlignment == ALIGN_TOP ? halfHeight : 0
+        };
+        final int[] rowShift = {
+            mapAlignment == ALIGN_RIGHT ? halfWidth : 0,
+            mapAlignment == ALIGN_LEFT ? halfWidth : 0
+        };
+
+        final boolean selection = layer.getClass() == SelectionLayer.class;
+        Polygon gridPoly = null;
+        if (selection) {
+            gridPoly = createHexPolygon(tsize, 0, 0);
+        }
+
         for (int y = startY; y <= endY; y++) {
+            int gy = y * stepY + border;
+            int gx = startX * stepX + border + rowShift[y & 1];
+
             for (int x = startX; x <= endX; x++) {
                 Tile t = layer.getTileAt(x, y);
 
                 if (t != null) {
-                    if (layer.getClass() == SelectionLayer.class) {
-                        //TiledLogger.getLogger().info(
-                        //    "selection tile at " + x + "," + y);
-                        gridPoly = createGridPolygon(tsize, x, y, 0);
+                    int ty = gy + columnShift[x & 1];
+                    if (selection) {
+                        gridPoly.translate(gx, ty);
                         g2d.fillPolygon(gridPoly);
+                        gridPoly.translate(-gx, -ty);
                     } else {
-                        Point screenCoords = getTopLeftCornerOfTile(tsize, x, y);
-                        gx = screenCoords.getX();
-                        gy = screenCoords.getY();
-                        //TiledLogger.getLogger().info(
-                        //    "image tile at " + x + "," + y
-                        //    + " at " + gx + "," + gy);
-                        t.draw(g2d, (int)gx, (int)(gy + tsize.height),
-                            zoom);
+                        drawTile(g2d, t, gx, ty + tsize.height);
                     }
                 }
+
+                gx += stepX;
             }
         }
     }
@@ -590,13 +609,25 @@ public class HexMapView extends MapView
      * @return A hexagon structure as Polygon.
      */
     protected Polygon createGridPolygon(Dimension tileSize, int tx, int ty, int border) {
-        Polygon poly = new Polygon();
         Point p = getTopLeftCornerOfTile(tileSize, tx, ty);
-        int topLeftX = (int)(p.getX());
-        int topLeftY = (int)(p.getY());
 
-        //TiledLogger.getLogger().info("hex at " + topLeftX + "," + topLeftY);
+        //TiledLogger.getLogger().info("hex at " + p.x + "," + p.y);
+
+        return createHexPolygon(tileSize, p.x, p.y);
+    }
 
+    /**
+     * Returns a hexagon with the given top left corner of its bounding
+     * rectangle.
+     *
+     * @param topLeftX The x coordinate of the corner in screen coordinates.
+     * @param topLeftY The y coordinate of the corner in screen coordinates.
+     *
+     * @return A hexagon structure as Polygon.
+     */
+    private Polygon createHexPolygon(Dimension tileSize, int topLeftX,
+                                     int topLeftY) {
+        Polygon poly = new Polygon();
         int tq = getThreeQuarterHex(tileSize);
         int oq = getOneQuarterHex(tileSize);
 
@@ -30,6 +30,16 @@ import tiled.mapeditor.selection.SelectionLayer;
  */
 public class IsoMapView extends MapView
 {
+    // Step table for the tile size and zoom level last painted at
+    private int stepTileWidth = -1;
+    private int stepTileHeight = -1;
+    private double stepZoom;
+    private int stepWidth;
+    private int stepHeight;
+    private Polygon stepPolygon;
+
+    private Font coordinatesFont;
+
     /**
      * Creates a new isometric map view that displays the specified map.
      *
@@ -60,64 +70,109 @@ public class IsoMapView extends MapView
     }
 
     protected void paintLayer(Graphics2D g2d, TileLayer layer) {
-        // Turn anti alias on for selection drawing
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                RenderingHints.VALUE_ANTIALIAS_ON);
-        
-        Rectangle clipRect = g2d.getClipBounds();
-        Dimension tileSize = new Dimension(layer.getTileWidth(), layer.getTileHeight());
-        int tileStepY = tileSize.height / 2 == 0 ? 1 : tileSize.height / 2;
-        Polygon gridPoly = createGridPolygon(tileSize, 0, -tileSize.height, 0);
-
-        Point rowItr = screenToTileCoords(layer, clipRect.x, clipRect.y);
-        rowItr.x--;
-        Point offset = calculateParallaxOffsetZoomed(layer);
-        Point drawLoc = tileToScreenCoords(offset,tileSize, rowItr.x, rowItr.y);
-        drawLoc.x -= tileSize.width / 2;
-        drawLoc.y += tileSize.height;
-
-        // Determine area to draw from clipping rectangle
-        int columns = clipRect.width / tileSize.width + 3;
-        int rows = (clipRect.height + (int)(map.getTileHeightMax() * zoom)) /
-            tileStepY + 4;
+        updateSteps(layer.getTileWidth(), layer.getTileHeight());
+
+        final int tileWidth = stepWidth;
+        final int tileHeight = stepHeight;
+        final Rectangle clipRect = g2d.getClipBounds();
+        final Rectangle bounds = layer.getBounds();
+        final Point offset = calculateParallaxOffsetZoomed(layer);
+        final int originX = offset.x + (map.getHeight() * tileWidth) / 2;
+        final int maxHeight =
+            Math.max(tileHeight, (int)(map.getTileHeightMax() * zoom));
+
+        // Tiles with the same x + y make up one screen row. Determine the
+        // rows touching the clip, allowing for tiles taller than the grid,
+        // and intersect them with the rows of the layer.
+        final int firstRow = Math.max(bounds.x + bounds.y, floorDiv(
+                2 * (clipRect.y - offset.y - tileHeight), tileHeight));
+        final int lastRow = Math.min(
+                bounds.x + bounds.width + bounds.y + bounds.height - 2,
+                floorDiv(2 * (clipRect.y + clipRect.height - offset.y
+                        - tileHeight + maxHeight), tileHeight) + 1);
+
+        // Within a row, x - y counts half tile widths from the origin
+        final int firstColumn = floorDiv(
+                2 * (clipRect.x - originX) - tileWidth, tileWidth) - 2;
+        final int lastColumn = floorDiv(
+                2 * (clipRect.x + clipRect.width - originX), tileWidth) + 1;
+
+        final boolean selection = layer instanceof SelectionLayer;
+        Object antialiasing = null;
+        if (selection) {
+            // Turn anti alias on for selection drawing
+            antialiasing =
+                g2d.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+        }
 
         // Draw this map layer
-        for (int y = 0; y < rows; y++) {
-            Point columnItr = new Point(rowItr);
+        for (int row = firstRow; row <= lastRow; row++) {
+            int startX = Math.max(Math.max(bounds.x,
+                    row - (bounds.y + bounds.height - 1)),
+                    floorDiv(firstColumn + row + 1, 2));
+            int endX = Math.min(Math.min(bounds.x + bounds.width - 1,
+                    row - bounds.y),
+                    floorDiv(lastColumn + row, 2));
 
-            for (int x = 0; x < columns; x++) {
-                Tile tile = layer.getTileAt(columnItr.x, columnItr.y);
+            int drawX = originX + ((2 * startX - row) * tileWidth) / 2
+                - tileWidth / 2;
+            int drawY = offset.y + (row * tileHeight) / 2 + tileHeight;
+
+            for (int x = startX, y = row - startX; x <= endX; x++, y--) {
+                Tile tile = layer.getTileAt(x, y);
 
                 if (tile != null) {
-                    if (layer instanceof SelectionLayer) {
-                        //Polygon gridPoly = createGridPolygon(
-                                //drawLoc.x, drawLoc.y - tileSize.height, 0);
-                        gridPoly.translate(drawLoc.x, drawLoc.y);
-                        g2d.fillPolygon(gridPoly);
-                        gridPoly.translate(-drawLoc.x, -drawLoc.y);
-                        //paintEdge(g2d, layer, drawLoc.x, drawLoc.y);
+                    if (selection) {
+                        stepPolygon.translate(drawX, drawY);
+                        g2d.fillPolygon(stepPolygon);
+                        stepPolygon.translate(-drawX, -drawY);
                     } else {
-                        tile.draw(g2d, drawLoc.x, drawLoc.y, zoom);
+                        drawTile(g2d, tile, drawX, drawY);
                     }
                 }
 
-                // Advance to the next tile
-                columnItr.x++;
-                columnItr.y--;
-                drawLoc.x += tileSize.width;
+                drawX += tileWidth;
             }
+        }
 
-            // Advance to the next row
-            if ((y & 1) > 0) {
-                rowItr.x++;
-                drawLoc.x += tileSize.width / 2;
-            } else {
-                rowItr.y++;
-                drawLoc.x -= tileSize.width / 2;
-            }
-            drawLoc.x -= columns * tileSize.width;
-            drawLoc.y += tileStepY;
+        if (selection) {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    antialiasing);
+        }
+    }
+
+    /**
+     * Updates the step table used while painting to the given tile size
+     * at the current zoom level, unless it is already up to date. Layers
+     * mostly share their tile size, so this rarely needs to recalculate.
+     */
+    private void updateSteps(int tileWidth, int tileHeight) {
+        if (tileWidth == stepTileWidth && tileHeight == stepTileHeight &&
+                zoom == stepZoom) {
+            return;
+        }
+
+        stepTileWidth = tileWidth;
+        stepTileHeight = tileHeight;
+        stepZoom = zoom;
+        stepWidth = Math.max(1, (int)(tileWidth * zoom));
+        stepHeight = Math.max(1, (int)(tileHeight * zoom));
+        stepPolygon = createGridPolygon(
+                new Dimension(stepWidth, stepHeight), 0, -stepHeight, 0);
+    }
+
+    /**
+     * Divides rounding towards negative infinity, as the tiles left of and
+     * above the origin have negative coordinates.
+     */
+    private static int floorDiv(int dividend, int divisor) {
+        int quotient = dividend / divisor;
+        if ((dividend % divisor != 0) && ((dividend < 0) != (divisor < 0))) {
+            quotient--;
         }
+        return quotient;
     }
 
     protected void paintObjectGroup(Graphics2D g2d, ObjectGroup og)
@@ -222,56 +277,54 @@ public class IsoMapView extends MapView
         g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
                 RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
 
-        Rectangle clipRect = g2d.getClipBounds();
-        Dimension tileSize = getTileSize();
-        Point offset = calculateParallaxOffsetZoomed(currentLayer);
-        int tileStepY = tileSize.height / 2 == 0 ? 1 : tileSize.height / 2;
-        Font font = new Font("SansSerif", Font.PLAIN, tileSize.height / 4);
-        g2d.setFont(font);
+        final Rectangle clipRect = g2d.getClipBounds();
+        final Dimension tileSize = getTileSize();
+        final int tileWidth = Math.max(1, tileSize.width);
+        final int tileHeight = Math.max(1, tileSize.height);
+        final Point offset = calculateParallaxOffsetZoomed(currentLayer);
+        final int originX = offset.x + (map.getHeight() * tileWidth) / 2;
+
+        if (coordinatesFont == null ||
+                coordinatesFont.getSize() != tileHeight / 4) {
+            coordinatesFont =
+                new Font("SansSerif", Font.PLAIN, tileHeight / 4);
+        }
+        g2d.setFont(coordinatesFont);
         FontRenderContext fontRenderContext = g2d.getFontRenderContext();
-        
-        Point rowItr = screenToTileCoords(currentLayer, clipRect.x, clipRect.y);
-        rowItr.x--;
-        Point drawLoc = tileToScreenCoords(offset,tileSize, rowItr.x, rowItr.y);
-        drawLoc.y += tileSize.height / 2;
 
-        // Determine area to draw from clipping rectangle
-        int columns = clipRect.width / tileSize.width + 3;
-        int rows = clipRect.height / tileStepY + 4;
+        // Same iteration as in paintLayer, limited to the map
+        final int firstRow = Math.max(0, floorDiv(
+                2 * (clipRect.y - offset.y - tileHeight), tileHeight));
+        final int lastRow = Math.min(map.getWidth() + map.getHeight() - 2,
+                floorDiv(2 * (clipRect.y + clipRect.height - offset.y),
+                        tileHeight) + 1);
+        final int firstColumn = floorDiv(
+                2 * (clipRect.x - originX) - tileWidth, tileWidth) - 2;
+        final int lastColumn = floorDiv(
+                2 * (clipRect.x + clipRect.width - originX), tileWidth) + 1;
 
         // Draw the coordinates
-        for (int y = 0; y < rows; y++) {
-            Point columnItr = new Point(rowItr);
+        for (int row = firstRow; row <= lastRow; row++) {
+            int startX = Math.max(Math.max(0, row - (map.getHeight() - 1)),
+                    floorDiv(firstColumn + row + 1, 2));
+            int endX = Math.min(Math.min(map.getWidth() - 1, row),
+                    floorDiv(lastColumn + row, 2));
 
-            for (int x = 0; x < columns; x++) {
-                if (map.contains(columnItr.x, columnItr.y)) {
-                    String coords =
-                        "(" + columnItr.x + "," + columnItr.y + ")";
-                    Rectangle2D textSize =
-                        font.getStringBounds(coords, fontRenderContext);
+            int drawX = originX + ((2 * startX - row) * tileWidth) / 2;
+            int drawY = offset.y + (row * tileHeight) / 2 + tileHeight / 2;
 
-                    int fx = drawLoc.x - (int)(textSize.getWidth() / 2);
-                    int fy = drawLoc.y + (int)(textSize.getHeight() / 2);
+            for (int x = startX, y = row - startX; x <= endX; x++, y--) {
+                String coords = "(" + x + "," + y + ")";
+                Rectangle2D textSize =
+                    coordinatesFont.getStringBounds(coords, fontRenderContext);
 
-                    g2d.drawString(coords, fx, fy);
-                }
+                int fx = drawX - (int)(textSize.getWidth() / 2);
+                int fy = drawY + (int)(textSize.getHeight() / 2);
 
-                // Advance to the next tile
-                columnItr.x++;
-                columnItr.y--;
-                drawLoc.x += tileSize.width;
-            }
+                g2d.drawString(coords, fx, fy);
 
-            // Advance to the next row
-            if ((y & 1) > 0) {
-                rowItr.x++;
-                drawLoc.x += tileSize.width / 2;
-            } else {
-                rowItr.y++;
-                drawLoc.x -= tileSize.width / 2;
+                drawX += tileWidth;
             }
-            drawLoc.x -= columns * tileSize.width;
-            drawLoc.y += tileStepY;
         }
     }
 
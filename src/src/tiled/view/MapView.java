@@ -13,8 +13,11 @@
 package tiled.view;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
 import java.util.Iterator;
 import javax.swing.JPanel;
+import javax.swing.JViewport;
 import javax.swing.Scrollable;
 
 import tiled.core.*;
@@ -37,6 +40,7 @@ public abstract class MapView extends JPanel implements Scrollable
     public static final int PF_BOUNDARYMODE = 0x02;
     public static final int PF_COORDINATES  = 0x04;
     public static final int PF_NOSPECIAL    = 0x08;
+    public static final int PF_PROFILING    = 0x10;
     
     private static final float SELECTIONRUBBERBAND_OUTER_WIDTH = 3.0f;
     private static final float SELECTIONRUBBERBAND_INNER_WIDTH = 1.0f;
@@ -81,6 +85,18 @@ public abstract class MapView extends JPanel implements Scrollable
     private MapLayer selectionRubberBandLayer;
     private SelectionSet selectionSet;
 
+    // Back buffer holding the rendered map layers of the visible area
+    private boolean backBufferEnabled;
+    private Image backBuffer;
+    private Rectangle backBufferArea;   // null when the contents are invalid
+    private double backBufferZoom;
+    private Rectangle dirtyArea;
+
+    private boolean animationEnabled;
+
+    // Measures painting while the PF_PROFILING mode is set
+    private RenderProfile profile;
+
     /**
      * Creates a new <code>MapView</code> that displays the specified map.
      *
@@ -288,8 +304,7 @@ public abstract class MapView extends JPanel implements Scrollable
     
     public void toggleMode(int modeModifier) {
         modeFlags ^= modeModifier;
-        revalidate();
-        repaint();
+        modeChanged();
     }
 
     public void setMode(int modeModifier, boolean value) {
@@ -299,6 +314,22 @@ public abstract class MapView extends JPanel implements Scrollable
         else {
             modeFlags &= ~modeModifier;
         }
+        modeChanged();
+    }
+
+    private void modeChanged() {
+        final boolean profiling = getMode(PF_PROFILING);
+        if (profiling != (profile != null)) {
+            profile = profiling ? new RenderProfile() : null;
+
+            // The overlay stays in place while scrolling, so the viewport
+            // may not shift what was painted before
+            if (getParent() instanceof JViewport) {
+                ((JViewport) getParent()).setScrollMode(profiling ?
+                        JViewport.SIMPLE_SCROLL_MODE :
+                        JViewport.BLIT_SCROLL_MODE);
+            }
+        }
         revalidate();
         repaint();
     }
@@ -332,6 +363,62 @@ public abstract class MapView extends JPanel implements Scrollable
         repaint();
     }
 
+    /**
+     * Enables or disables the back buffer. When enabled, the map layers of
+     * the visible area are rendered into an accelerated offscreen image and
+     * only the parts that changed or were scrolled into view are rendered
+     * again. The grid, special layers and selections are still painted on
+     * top of the buffer on every repaint.
+     *
+     * @param backBufferEnabled whether to paint the map through the back
+     *                          buffer
+     */
+    public void setBackBufferEnabled(boolean backBufferEnabled) {
+        if (this.backBufferEnabled == backBufferEnabled)
+            return;
+        this.backBufferEnabled = backBufferEnabled;
+        if (!backBufferEnabled) {
+            flushBackBuffer();
+        }
+        repaint();
+    }
+
+    public boolean isBackBufferEnabled() {
+        return backBufferEnabled;
+    }
+
+    /**
+     * Enables or disables animating the animated tiles shown by this view.
+     * The tiles are animated by the shared {@link AnimationScheduler}, which
+     * repaints only the tiles that show another frame.
+     *
+     * @param animationEnabled whether to animate the tiles
+     */
+    public void setAnimationEnabled(boolean animationEnabled) {
+        if (this.animationEnabled == animationEnabled)
+            return;
+        this.animationEnabled = animationEnabled;
+        if (animationEnabled) {
+            AnimationScheduler.getInstance().addView(this);
+        } else {
+            AnimationScheduler.getInstance().removeView(this);
+        }
+    }
+
+    public boolean isAnimationEnabled() {
+        return animationEnabled;
+    }
+
+    /**
+     * Discards the contents of the back buffer, so that the whole visible
+     * area is rendered again on the next repaint. Needed only when the map
+     * changed without a repaint being requested on this view.
+     */
+    public void invalidateBackBuffer() {
+        backBufferArea = null;
+        repaint();
+    }
+
     /**
      * Sets a new brush. The brush can draw a preview of the change while
      * editing.
@@ -451,6 +538,16 @@ public abstract class MapView extends JPanel implements Scrollable
         MapLayer layer;
         Rectangle clip = g2d.getClipBounds();
 
+        // Repaints of just the overlay are not counted as frames
+        final RenderProfile frameProfile = profile;
+        final Rectangle overlay =
+            profile != null ? profile.getOverlayBounds() : null;
+        final boolean measured = frameProfile != null &&
+            (overlay == null || !overlay.contains(clip));
+        if (measured) {
+            frameProfile.beginFrame();
+        }
+
         g2d.setStroke(new BasicStroke(2.0f));
 
         // Do an initial fill with the background color
@@ -460,10 +557,12 @@ public abstract class MapView extends JPanel implements Scrollable
         //    g2d.setColor(Color.decode(colorString));
         //} catch (NumberFormatException e) {
         //}
-        g2d.setColor(DEFAULT_BACKGROUND_COLOR);
-        g2d.fillRect(clip.x, clip.y, clip.width, clip.height);
+        if (!backBufferEnabled || !paintBackBuffer(g2d)) {
+            g2d.setColor(DEFAULT_BACKGROUND_COLOR);
+            g2d.fillRect(clip.x, clip.y, clip.width, clip.height);
 
-        paintSubMap(map, g2d, 1.0f);
+            paintSubMap(map, g2d, 1.0f);
+        }
 
         if (!getMode(PF_NOSPECIAL)) {
             Iterator li = map.getLayersSpecial();
@@ -562,6 +661,196 @@ public abstract class MapView extends JPanel implements Scrollable
             int h = (int)(map.getViewportHeight() * zoom);
             g2d.drawRect(x,y,w,h);
         }
+
+        if (frameProfile != null) {
+            if (measured) {
+                frameProfile.endFrame();
+            }
+            frameProfile.paint(g2d, getVisibleRect());
+
+            // Bring the overlay up to date when only part of it was painted
+            Rectangle bounds = frameProfile.getOverlayBounds();
+            if (measured && !clip.contains(bounds)) {
+                repaint(bounds);
+            }
+        }
+    }
+
+    /**
+     * Repaints requested on this view mark the area as changed, so that it
+     * is rendered into the back buffer again.
+     */
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        if (backBufferEnabled && backBufferArea != null) {
+            Rectangle r = new Rectangle(x, y, width, height);
+            if (dirtyArea == null) {
+                dirtyArea = r;
+            } else {
+                dirtyArea.add(r);
+            }
+        }
+        super.repaint(tm, x, y, width, height);
+    }
+
+    /**
+     * Brings the back buffer up to date with the visible area and draws it.
+     * When the visible area moved since the last paint, the part that is
+     * still visible is shifted within the buffer and only the newly exposed
+     * strips are rendered.
+     *
+     * @param g2d the graphics context to draw the buffer onto
+     * @return <code>false</code> if no back buffer could be used
+     */
+    private boolean paintBackBuffer(Graphics2D g2d) {
+        final Rectangle visible = getVisibleRect();
+        if (visible.isEmpty()) {
+            return false;
+        }
+
+        final GraphicsConfiguration gc = getGraphicsConfiguration();
+
+        do {
+            if (backBuffer == null ||
+                    backBuffer.getWidth(null) != visible.width ||
+                    backBuffer.getHeight(null) != visible.height) {
+                flushBackBuffer();
+                backBuffer = createBackBuffer(gc, visible.width,
+                                              visible.height);
+            }
+
+            if (backBuffer instanceof VolatileImage) {
+                int status = ((VolatileImage) backBuffer).validate(gc);
+                if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                    flushBackBuffer();
+                    continue;
+                } else if (status == VolatileImage.IMAGE_RESTORED) {
+                    backBufferArea = null;
+                }
+            }
+
+            updateBackBuffer(visible);
+            g2d.drawImage(backBuffer, visible.x, visible.y, null);
+        } while (backBuffer == null || (backBuffer instanceof VolatileImage &&
+                ((VolatileImage) backBuffer).contentsLost()));
+
+        return true;
+    }
+
+    /**
+     * Creates a back buffer of the given size. This is a volatile image when
+     * the view is displayed on an accelerated screen, and a compatible (or
+     * plain) buffered image otherwise, for example when running headless.
+     */
+    private static Image createBackBuffer(GraphicsConfiguration gc,
+                                          int width, int height) {
+        if (gc == null) {
+            return new BufferedImage(width, height,
+                                     BufferedImage.TYPE_INT_RGB);
+        }
+        if (!GraphicsEnvironment.isHeadless()) {
+            try {
+                return gc.createCompatibleVolatileImage(width, height);
+            }
+            catch (Exception e) {
+                // Fall back to a buffered image below
+            }
+        }
+        return gc.createCompatibleImage(width, height);
+    }
+
+    private void flushBackBuffer() {
+        if (backBuffer != null) {
+            backBuffer.flush();
+            backBuffer = null;
+        }
+        backBufferArea = null;
+        dirtyArea = null;
+    }
+
+    /**
+     * Renders the parts of the back buffer that are out of date. The buffer
+     * is assumed to have the size of the visible area.
+     */
+    private void updateBackBuffer(Rectangle visible) {
+        Graphics2D g2d = (Graphics2D) backBuffer.getGraphics();
+        try {
+            Rectangle previous = backBufferArea;
+            Rectangle dirty = dirtyArea;
+            backBufferArea = visible;
+            dirtyArea = null;
+
+            if (previous == null || zoom != backBufferZoom) {
+                backBufferZoom = zoom;
+                renderBackBuffer(g2d, visible, visible);
+                return;
+            }
+
+            final int dx = previous.x - visible.x;
+            final int dy = previous.y - visible.y;
+
+            if (Math.abs(dx) >= visible.width ||
+                    Math.abs(dy) >= visible.height) {
+                renderBackBuffer(g2d, visible, visible);
+                return;
+            }
+
+            if (dx != 0 || dy != 0) {
+                g2d.copyArea(0, 0, visible.width, visible.height, dx, dy);
+
+                // Render the strips that were scrolled into view
+                if (dx > 0) {
+                    renderBackBuffer(g2d, visible, new Rectangle(
+                            visible.x, visible.y, dx, visible.height));
+                } else if (dx < 0) {
+                    renderBackBuffer(g2d, visible, new Rectangle(
+                            visible.x + visible.width + dx, visible.y,
+                            -dx, visible.height));
+                }
+                if (dy > 0) {
+                    renderBackBuffer(g2d, visible, new Rectangle(
+                            visible.x, visible.y, visible.width, dy));
+                } else if (dy < 0) {
+                    renderBackBuffer(g2d, visible, new Rectangle(
+                            visible.x, visible.y + visible.height + dy,
+                            visible.width, -dy));
+                }
+            }
+
+            if (dirty != null) {
+                dirty = dirty.intersection(visible);
+                if (!dirty.isEmpty()) {
+                    renderBackBuffer(g2d, visible, dirty);
+                }
+            }
+        }
+        finally {
+            g2d.dispose();
+        }
+    }
+
+    /**
+     * Renders the map layers within the given area into the back buffer.
+     *
+     * @param g2d     the graphics context of the back buffer
+     * @param visible the area of the view held by the back buffer
+     * @param area    the area to render, in view coordinates
+     */
+    private void renderBackBuffer(Graphics2D g2d, Rectangle visible,
+                                  Rectangle area) {
+        Graphics2D g = (Graphics2D) g2d.create();
+        try {
+            g.translate(-visible.x, -visible.y);
+            g.clipRect(area.x, area.y, area.width, area.height);
+            g.setStroke(new BasicStroke(2.0f));
+            g.setColor(DEFAULT_BACKGROUND_COLOR);
+            g.fillRect(area.x, area.y, area.width, area.height);
+
+            paintSubMap(map, g, 1.0f);
+        }
+        finally {
+            g.dispose();
+        }
     }
 
     public void paintSubMap(MultilayerPlane m, Graphics2D g2d,
@@ -582,12 +871,18 @@ public abstract class MapView extends JPanel implements Scrollable
                         g2d.setComposite(AlphaComposite.SrcOver);
                     }
 
+                    if (profile != null) {
+                        profile.beginLayer(layer);
+                    }
                     if (layer instanceof TileLayer) {
                         paintLayer(g2d, (TileLayer) layer);
                     }
                     else if (layer instanceof ObjectGroup) {
                         paintObjectGroup(g2d, (ObjectGroup) layer);
                     }
+                    if (profile != null) {
+                        profile.endLayer();
+                    }
                 }
             }
         }
@@ -601,6 +896,23 @@ public abstract class MapView extends JPanel implements Scrollable
      */
     protected abstract void paintLayer(Graphics2D g2d, TileLayer layer);
 
+    /**
+     * Draws a tile of a layer at the current zoom level. Subclasses draw
+     * the tiles of their layers through this method, so that they are
+     * counted while profiling.
+     *
+     * @param g2d  the graphics context to draw the tile onto
+     * @param tile the tile to draw
+     * @param x    the x coordinate of the bottom left corner of the tile
+     * @param y    the y coordinate of the bottom left corner of the tile
+     */
+    protected final void drawTile(Graphics2D g2d, Tile tile, int x, int y) {
+        if (profile != null) {
+            profile.tileDrawn(tile, zoom);
+        }
+        tile.draw(g2d, x, y, zoom);
+    }
+
     /**
      * Draws an ObjectGroup. Implemented in a subclass.
      *
@@ -13,8 +13,6 @@
 package tiled.view;
 
 import java.awt.*;
-import java.awt.font.FontRenderContext;
-import java.awt.geom.Rectangle2D;
 import java.util.Iterator;
 import java.util.Properties;
 import javax.swing.SwingConstants;
@@ -28,6 +26,7 @@ import tiled.mapeditor.selection.SelectionLayer;
 public class OrthoMapView extends MapView
 {
     private Polygon propPoly;
+    private final OverlayRenderer overlay = new OverlayRenderer();
 
     /**
      * Creates a new orthographic map view that displays the specified map.
@@ -120,7 +119,7 @@ public class OrthoMapView extends MapView
                     //paintEdge(g, layer, gx, gy);
                 }
                 else {
-                    tile.draw(g2d, gx, gy, zoom);
+                    drawTile(g2d, tile, gx, gy);
                 }
             }
         }
@@ -194,24 +193,10 @@ public class OrthoMapView extends MapView
             return;
         }
         Point offset = calculateParallaxOffsetZoomed(currentLayer);
-        
-        // Determine lines to draw from clipping rectangle
-        Rectangle clipRect = g2d.getClipBounds();
-        
-        // transforming coordinates back and forth between screen and tile 
-        // coordinates to quantise the given screen rectangle to coordinates bla 
-        // that match the grid lines
-        Point startTile = screenToTileCoords(currentLayer, clipRect.x, clipRect.y);
-        
-        Point start = tileToScreenCoords(offset, tsize, startTile.x, startTile.y);
-        Point end = new Point(clipRect.x + clipRect.width, clipRect.y + clipRect.height);
-        
-        for (int x = start.x; x < end.x; x += tsize.width) {
-            g2d.drawLine(x, clipRect.y, x, clipRect.y + clipRect.height - 1);
-        }
-        for (int y = start.y; y < end.y; y += tsize.height) {
-            g2d.drawLine(clipRect.x, y, clipRect.x + clipRect.width - 1, y);
-        }
+
+        overlay.paintGrid(g2d, offset.x, offset.y, tsize.width, tsize.height,
+                gridColor != null ? gridColor : DEFAULT_GRID_COLOR,
+                gridOpacity, antialiasGrid);
     }
 
     protected void paintCoordinates(Graphics2D g2d) {
@@ -226,38 +211,10 @@ public class OrthoMapView extends MapView
             return;
         }
         Point offset = calculateParallaxOffsetZoomed(currentLayer);
-        
-        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
-                             RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
 
-        // Determine tile size and offset
-        int minTileExtents = java.lang.Math.min(tsize.width, tsize.height);
-        Font font = new Font("SansSerif", Font.PLAIN, minTileExtents / 4);
-        g2d.setFont(font);
-        FontRenderContext fontRenderContext = g2d.getFontRenderContext();
-
-        // Determine area to draw from clipping rectangle
-        Rectangle clipRect = g2d.getClipBounds();
-        Point start = screenToTileCoords(currentLayer, clipRect.x, clipRect.y);
-        Point end = screenToTileCoords(currentLayer, clipRect.x+clipRect.width, clipRect.y+clipRect.height);
-        end.x += 1;
-        end.y += 1;
-
-        // Draw the coordinates
-        for (int y = start.y; y < end.y; y++) {
-            Point g = tileToScreenCoords(offset, tsize, start.x, y);
-            for (int x = start.x; x < end.x; x++) {
-                String coords = "(" + x + "," + y + ")";
-                Rectangle2D textSize =
-                        font.getStringBounds(coords, fontRenderContext);
-
-                int fx = g.x + (int) ((tsize.width - textSize.getWidth()) / 2);
-                int fy = g.y + (int) ((tsize.height + textSize.getHeight()) / 2);
-
-                g2d.drawString(coords, fx, fy);
-                g.x += tsize.width;
-            }
-        }
+        overlay.paintCoordinates(g2d, offset.x, offset.y,
+                tsize.width, tsize.height,
+                currentLayer.getWidth(), currentLayer.getHeight());
     }
 
     protected void paintPropertyFlags(Graphics2D g2d, TileLayer layer) {
@@ -0,0 +1,261 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.view;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Paints the grid and the tile coordinates over a map view with a regular,
+ * rectangular grid from cached images.
+ * <p>
+ * The grid is a pattern image of one tile, which is only rendered again
+ * when the tile size, color, opacity or antialiasing changes. The
+ * coordinates are put together from pre-rendered glyphs. When the tiles
+ * are too small for their coordinates to be readable, only the coordinates
+ * of every second, fourth, ... tile are painted.
+ *
+ * @version $Id$
+ */
+class OverlayRenderer
+{
+    /** The smallest font size coordinates are painted with. */
+    private static final int MIN_FONT_SIZE = 7;
+
+    private static final String GLYPHS = "0123456789-(,)";
+
+    // Grid pattern
+    private BufferedImage gridImage;
+    private TexturePaint gridPaint;
+    private Color gridColor;
+    private int gridOpacity;
+    private boolean gridAntialias;
+
+    // Coordinate glyphs
+    private BufferedImage[] glyphs;
+    private int[] advances;
+    private int glyphHeight;
+    private int fontSize;
+    private Color glyphColor;
+    private final char[] label = new char[25];
+
+    /**
+     * Paints the grid over the clip area of the given graphics context.
+     *
+     * @param g2d        the graphics context to paint to
+     * @param x          x coordinate of a grid line crossing
+     * @param y          y coordinate of a grid line crossing
+     * @param tileWidth  distance between the vertical grid lines
+     * @param tileHeight distance between the horizontal grid lines
+     * @param color      the color of the grid
+     * @param opacity    the opacity of the grid, from 0 to 255
+     * @param antialias  whether to paint the grid antialiased
+     */
+    public void paintGrid(Graphics2D g2d, int x, int y,
+                          int tileWidth, int tileHeight,
+                          Color color, int opacity, boolean antialias) {
+        if (gridImage == null || gridImage.getWidth() != tileWidth ||
+                gridImage.getHeight() != tileHeight ||
+                !color.equals(gridColor) || opacity != gridOpacity ||
+                antialias != gridAntialias) {
+            gridColor = color;
+            gridOpacity = opacity;
+            gridAntialias = antialias;
+            gridImage = createGridImage(tileWidth, tileHeight);
+            gridPaint = null;
+        }
+
+        final Rectangle2D anchor = gridPaint != null ?
+                gridPaint.getAnchorRect() : null;
+        if (anchor == null || anchor.getX() != x || anchor.getY() != y) {
+            gridPaint = new TexturePaint(gridImage, new Rectangle(
+                    x, y, tileWidth, tileHeight));
+        }
+
+        final Paint paint = g2d.getPaint();
+        final Composite composite = g2d.getComposite();
+        final Rectangle clipRect = g2d.getClipBounds();
+
+        // The opacity is part of the pattern
+        g2d.setComposite(AlphaComposite.SrcOver);
+        g2d.setPaint(gridPaint);
+        g2d.fillRect(clipRect.x, clipRect.y, clipRect.width, clipRect.height);
+
+        g2d.setPaint(paint);
+        g2d.setComposite(composite);
+    }
+
+    private BufferedImage createGridImage(int width, int height) {
+        BufferedImage image = new BufferedImage(
+                width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, gridAntialias ?
+                RenderingHints.VALUE_ANTIALIAS_ON :
+                RenderingHints.VALUE_ANTIALIAS_OFF);
+        g.setColor(new Color(gridColor.getRed(), gridColor.getGreen(),
+                gridColor.getBlue(), gridOpacity));
+        g.drawLine(0, 0, width - 1, 0);
+        g.drawLine(0, 1, 0, height - 1);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Paints the coordinates of the tiles within the clip area of the given
+     * graphics context, centered on their tile.
+     *
+     * @param g2d        the graphics context to paint to
+     * @param x          x coordinate of the top left corner of tile (0, 0)
+     * @param y          y coordinate of the top left corner of tile (0, 0)
+     * @param tileWidth  width of the tiles
+     * @param tileHeight height of the tiles
+     * @param columns    the width of the map in tiles
+     * @param rows       the height of the map in tiles
+     */
+    public void paintCoordinates(Graphics2D g2d, int x, int y,
+                                 int tileWidth, int tileHeight,
+                                 int columns, int rows) {
+        final Rectangle clipRect = g2d.getClipBounds();
+        final int startX = floorDiv(clipRect.x - x, tileWidth);
+        final int startY = floorDiv(clipRect.y - y, tileHeight);
+        final int endX = floorDiv(clipRect.x + clipRect.width - x, tileWidth);
+        final int endY = floorDiv(clipRect.y + clipRect.height - y, tileHeight);
+
+        updateGlyphs(g2d.getColor(),
+                Math.max(MIN_FONT_SIZE, Math.min(tileWidth, tileHeight) / 4));
+
+        // Skip tiles when the widest label of the map does not fit on a
+        // tile. This does not depend on the clip, so that the same tiles
+        // are labeled however the view is repainted.
+        final int digits = digits(columns - 1) + digits(rows - 1);
+        final int maxLabelWidth = advances[0] * digits +
+            advances[GLYPHS.indexOf('(')] + advances[GLYPHS.indexOf(',')] +
+            advances[GLYPHS.indexOf(')')];
+        int step = 1;
+        while (step * tileWidth < maxLabelWidth ||
+                step * tileHeight < glyphHeight) {
+            step *= 2;
+        }
+
+        final int firstX = startX + floorMod(-startX, step);
+        final int firstY = startY + floorMod(-startY, step);
+
+        for (int ty = firstY; ty <= endY; ty += step) {
+            final int gy = y + ty * tileHeight + (tileHeight - glyphHeight) / 2;
+
+            for (int tx = firstX; tx <= endX; tx += step) {
+                final int length = layoutLabel(tx, ty);
+                int labelWidth = 0;
+                for (int i = 0; i < length; i++) {
+                    labelWidth += advances[GLYPHS.indexOf(label[i])];
+                }
+
+                int gx = x + tx * tileWidth + (tileWidth - labelWidth) / 2;
+                for (int i = 0; i < length; i++) {
+                    final int glyph = GLYPHS.indexOf(label[i]);
+                    g2d.drawImage(glyphs[glyph], gx, gy, null);
+                    gx += advances[glyph];
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders the glyphs in the given color and font size, unless they
+     * already are.
+     */
+    private void updateGlyphs(Color color, int size) {
+        if (glyphs != null && size == fontSize && color.equals(glyphColor)) {
+            return;
+        }
+
+        fontSize = size;
+        glyphColor = color;
+
+        final Font font = new Font("SansSerif", Font.PLAIN, size);
+        final BufferedImage scratch =
+            new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scratch.createGraphics();
+        final FontMetrics metrics = g.getFontMetrics(font);
+        g.dispose();
+
+        glyphHeight = metrics.getAscent() + metrics.getDescent();
+        glyphs = new BufferedImage[GLYPHS.length()];
+        advances = new int[GLYPHS.length()];
+
+        for (int i = 0; i < glyphs.length; i++) {
+            final char c = GLYPHS.charAt(i);
+            advances[i] = metrics.charWidth(c);
+            glyphs[i] = new BufferedImage(Math.max(1, advances[i]),
+                    glyphHeight, BufferedImage.TYPE_INT_ARGB);
+            g = glyphs[i].createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                    RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setFont(font);
+            g.setColor(color);
+            g.drawString(String.valueOf(c), 0, metrics.getAscent());
+            g.dispose();
+        }
+    }
+
+    /**
+     * Writes "(x,y)" into the label buffer.
+     *
+     * @return the length of the label
+     */
+    private int layoutLabel(int x, int y) {
+        int length = 0;
+        label[length++] = '(';
+        length = appendInt(x, length);
+        label[length++] = ',';
+        length = appendInt(y, length);
+        label[length++] = ')';
+        return length;
+    }
+
+    private int appendInt(int value, int offset) {
+        final int end = offset + digits(value);
+        if (value < 0) {
+            label[offset++] = '-';
+        }
+        long v = Math.abs((long) value);
+        for (int i = end - 1; i >= offset; i--) {
+            label[i] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the number of digits of the given value, counting a minus sign
+     * as a digit.
+     */
+    private static int digits(int value) {
+        long v = Math.abs((long) value);
+        int digits = value < 0 ? 2 : 1;
+        while (v >= 10) {
+            v /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private static int floorDiv(int dividend, int divisor) {
+        return (int) Math.floor((double) dividend / divisor);
+    }
+
+    private static int floorMod(int dividend, int divisor) {
+        return dividend - floorDiv(dividend, divisor) * divisor;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2008
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.view;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import tiled.core.*;
+
+/**
+ * Measures where the time of painting a map view goes, and draws the
+ * results as an overlay on the view. Shown when the
+ * {@link MapView#PF_PROFILING} mode is set.
+ * <p>
+ * For each frame, the time spent painting each layer is measured, along
+ * with the number of tiles drawn and culled, how often the scaled image of
+ * a tile could be reused, and the number of objects drawn. A tile is culled
+ * when it is in the layer but outside of the painted area. The overlay shows
+ * the last frame, and the paint times of the recent frames as a bar chart.
+ *
+ * @version $Id$
+ */
+class RenderProfile
+{
+    /** The number of frames in the bar chart. */
+    private static final int HISTORY = 120;
+
+    /** The frame time the chart is scaled to, in nanoseconds. */
+    private static final long CHART_SCALE = 50000000L;
+
+    /** The frame time marked in the chart, in nanoseconds. */
+    private static final long TARGET_FRAME_TIME = 16666667L;
+
+    private static final int MARGIN = 8;
+    private static final int PADDING = 6;
+    private static final int CHART_HEIGHT = 50;
+    private static final Font FONT = new Font("Monospaced", Font.PLAIN, 11);
+    private static final Color BACKGROUND = new Color(0, 0, 0, 200);
+    private static final Color TEXT = Color.white;
+    private static final Color BAR = new Color(80, 200, 80);
+    private static final Color SLOW_BAR = new Color(230, 80, 60);
+    private static final Color TARGET = new Color(255, 255, 255, 120);
+
+    private final long[] frameTimes = new long[HISTORY];
+    private int frameCount;
+
+    // The frame being painted
+    private boolean inFrame;
+    private long frameStart;
+    private final List<LayerProfile> layers = new ArrayList<LayerProfile>();
+    private LayerProfile layer;
+    private long layerStart;
+    private int scaledHits;
+    private int scaledMisses;
+
+    // The last frame painted
+    private LayerProfile[] lastLayers = new LayerProfile[0];
+    private long lastFrameTime;
+    private int lastScaledHits;
+    private int lastScaledMisses;
+
+    private Rectangle overlayBounds;
+
+    /**
+     * The measurements of a layer within a frame.
+     */
+    private static class LayerProfile
+    {
+        final MapLayer layer;
+        long time;
+        int tilesDrawn;
+        int tilesCulled;
+        int objects;
+
+        LayerProfile(MapLayer layer) {
+            this.layer = layer;
+        }
+    }
+
+    void beginFrame() {
+        inFrame = true;
+        frameStart = System.nanoTime();
+        layers.clear();
+        scaledHits = 0;
+        scaledMisses = 0;
+    }
+
+    void endFrame() {
+        inFrame = false;
+        lastFrameTime = System.nanoTime() - frameStart;
+        frameTimes[frameCount++ % HISTORY] = lastFrameTime;
+
+        for (LayerProfile p : layers) {
+            if (p.layer instanceof TileLayer) {
+                p.tilesCulled = Math.max(0,
+                    ((TileLayer) p.layer).getTileCount() - p.tilesDrawn);
+            }
+        }
+        lastLayers = layers.toArray(new LayerProfile[layers.size()]);
+        lastScaledHits = scaledHits;
+        lastScaledMisses = scaledMisses;
+    }
+
+    /**
+     * Starts measuring the painting of the given layer. A layer may be
+     * painted several times within a frame, once for each area painted.
+     * Layers painted outside of a frame are not measured.
+     */
+    void beginLayer(MapLayer mapLayer) {
+        layer = null;
+        if (!inFrame) {
+            return;
+        }
+        for (LayerProfile p : layers) {
+            if (p.layer == mapLayer) {
+                layer = p;
+                break;
+            }
+        }
+        if (layer == null) {
+            layer = new LayerProfile(mapLayer);
+            layers.add(layer);
+
+            if (mapLayer instanceof ObjectGroup) {
+                Iterator<MapObject> itr =
+                    ((ObjectGroup) mapLayer).getObjects();
+                while (itr.hasNext()) {
+                    itr.next();
+                    layer.objects++;
+                }
+            }
+        }
+        layerStart = System.nanoTime();
+    }
+
+    void endLayer() {
+        if (layer != null) {
+            layer.time += System.nanoTime() - layerStart;
+            layer = null;
+        }
+    }
+
+    /**
+     * Counts a tile about to be drawn at the given zoom level.
+     */
+    void tileDrawn(Tile tile, double zoom) {
+        if (!inFrame) {
+            return;
+        }
+        if (layer != null) {
+            layer.tilesDrawn++;
+        }
+        if (zoom != 1.0) {
+            if (tile.isScaledImageCached(zoom)) {
+                scaledHits++;
+            } else {
+                scaledMisses++;
+            }
+        }
+    }
+
+    /**
+     * Returns the area the overlay was last drawn in, or <code>null</code>
+     * when it was not drawn yet.
+     */
+    Rectangle getOverlayBounds() {
+        return overlayBounds;
+    }
+
+    /**
+     * Draws the overlay in the top left corner of the given visible area.
+     */
+    void paint(Graphics2D g2d, Rectangle visible) {
+        List<String> lines = new ArrayList<String>();
+
+        long total = 0;
+        long max = 0;
+        final int frames = Math.min(frameCount, HISTORY);
+        for (int i = 0; i < frames; i++) {
+            total += frameTimes[i];
+            max = Math.max(max, frameTimes[i]);
+        }
+        lines.add(String.format("Frame %.1f ms (avg %.1f, max %.1f of %d)",
+                lastFrameTime / 1e6,
+                frames > 0 ? total / 1e6 / frames : 0.0,
+                max / 1e6, frames));
+        lines.add(String.format("%-16s %7s %7s %7s",
+                "Layer", "ms", "drawn", "culled"));
+        for (LayerProfile p : lastLayers) {
+            String name = p.layer.getName() != null ? p.layer.getName() : "";
+            if (name.length() > 16) {
+                name = name.substring(0, 15) + "~";
+            }
+            if (p.layer instanceof ObjectGroup) {
+                lines.add(String.format("%-16s %7.2f %7d objects",
+                        name, p.time / 1e6, p.objects));
+            } else {
+                lines.add(String.format("%-16s %7.2f %7d %7d",
+                        name, p.time / 1e6, p.tilesDrawn, p.tilesCulled));
+            }
+        }
+        lines.add(String.format("Scaled images: %d hits, %d misses",
+                lastScaledHits, lastScaledMisses));
+
+        g2d = (Graphics2D) g2d.create();
+        try {
+            g2d.setComposite(AlphaComposite.SrcOver);
+            g2d.setFont(FONT);
+            FontMetrics fm = g2d.getFontMetrics();
+            final int lineHeight = fm.getHeight();
+
+            int width = HISTORY * 2;
+            for (String line : lines) {
+                width = Math.max(width, fm.stringWidth(line));
+            }
+            final int height = lines.size() * lineHeight + PADDING +
+                CHART_HEIGHT;
+
+            overlayBounds = new Rectangle(visible.x + MARGIN,
+                    visible.y + MARGIN,
+                    width + 2 * PADDING, height + 2 * PADDING);
+            g2d.setColor(BACKGROUND);
+            g2d.fill(overlayBounds);
+
+            final int x = overlayBounds.x + PADDING;
+            int y = overlayBounds.y + PADDING;
+
+            g2d.setColor(TEXT);
+            for (String line : lines) {
+                g2d.drawString(line, x, y + fm.getAscent());
+                y += lineHeight;
+            }
+            y += PADDING;
+
+            paintChart(g2d, x, y);
+        } finally {
+            g2d.dispose();
+        }
+    }
+
+    /**
+     * Draws a bar for each of the recent frames, oldest first, with a line
+     * marking the time of a frame at 60 frames per second.
+     */
+    private void paintChart(Graphics2D g2d, int x, int y) {
+        final int bottom = y + CHART_HEIGHT;
+        final int frames = Math.min(frameCount, HISTORY);
+        for (int i = 0; i < frames; i++) {
+            final long time = frameTimes[(frameCount - frames + i) % HISTORY];
+            final int h = (int) Math.min(CHART_HEIGHT,
+                    time * CHART_HEIGHT / CHART_SCALE);
+            g2d.setColor(time > TARGET_FRAME_TIME ? SLOW_BAR : BAR);
+            g2d.fillRect(x + i * 2, bottom - h, 2, h);
+        }
+
+        final int target =
+            bottom - (int) (TARGET_FRAME_TIME * CHART_HEIGHT / CHART_SCALE);
+        g2d.setColor(TARGET);
+        g2d.drawLine(x, target, x + HISTORY * 2, target);
+    }
+}